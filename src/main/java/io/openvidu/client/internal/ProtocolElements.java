@@ -75,9 +75,30 @@ public class ProtocolElements {
 	public static final String RECEIVEVIDEO_SENDER_PARAM = "sender";
 	public static final String RECEIVEVIDEO_SDPANSWER_PARAM = "sdpAnswer";
 
+	public static final String RECEIVEVIDEOFROMMANY_METHOD = "receiveVideoFromMany";
+	public static final String RECEIVEVIDEOFROMMANY_SUBSCRIPTIONS_PARAM = "subscriptions";
+	public static final String RECEIVEVIDEOFROMMANY_ANSWERS_PARAM = "answers";
+	public static final String RECEIVEVIDEOFROMMANY_ERROR_PARAM = "error";
+
 	public static final String UNSUBSCRIBEFROMVIDEO_METHOD = "unsubscribeFromVideo";
 	public static final String UNSUBSCRIBEFROMVIDEO_SENDER_PARAM = "sender";
 
+	public static final String RECEIVEMIXEDAUDIO_METHOD = "receiveMixedAudio";
+	public static final String RECEIVEMIXEDAUDIO_SDPOFFER_PARAM = "sdpOffer";
+	public static final String RECEIVEMIXEDAUDIO_SDPANSWER_PARAM = "sdpAnswer";
+	public static final String RECEIVEMIXEDAUDIO_ENDPOINTNAME_PARAM = "endpointName";
+	public static final String MIXEDAUDIO_ENDPOINT_NAME = "MIXED_AUDIO";
+
+	public static final String UNSUBSCRIBEFROMMIXEDAUDIO_METHOD = "unsubscribeFromMixedAudio";
+
+	public static final String RECEIVEGRIDCOMPOSITE_METHOD = "receiveGridComposite";
+	public static final String RECEIVEGRIDCOMPOSITE_SDPOFFER_PARAM = "sdpOffer";
+	public static final String RECEIVEGRIDCOMPOSITE_SDPANSWER_PARAM = "sdpAnswer";
+	public static final String RECEIVEGRIDCOMPOSITE_ENDPOINTNAME_PARAM = "endpointName";
+	public static final String GRIDCOMPOSITE_ENDPOINT_NAME = "GRID_COMPOSITE";
+
+	public static final String UNSUBSCRIBEFROMGRIDCOMPOSITE_METHOD = "unsubscribeFromGridComposite";
+
 	public static final String ONICECANDIDATE_METHOD = "onIceCandidate";
 	public static final String ONICECANDIDATE_EPNAME_PARAM = "endpointName";
 	public static final String ONICECANDIDATE_CANDIDATE_PARAM = "candidate";
@@ -93,6 +114,14 @@ public class ProtocolElements {
 	public static final String STREAMPROPERTYCHANGED_NEWVALUE_PARAM = "newValue";
 	public static final String STREAMPROPERTYCHANGED_REASON_PARAM = "reason";
 
+	public static final String STREAMACTIVITY_METHOD = "streamActivity";
+
+	public static final String PAUSEVIDEO_METHOD = "pauseVideo";
+	public static final String PAUSEVIDEO_SENDER_PARAM = "sender";
+
+	public static final String RESUMEVIDEO_METHOD = "resumeVideo";
+	public static final String RESUMEVIDEO_SENDER_PARAM = "sender";
+
 	public static final String FORCEDISCONNECT_METHOD = "forceDisconnect";
 	public static final String FORCEDISCONNECT_CONNECTIONID_PARAM = "connectionId";
 
@@ -166,6 +195,13 @@ public class ProtocolElements {
 	public static final String MEDIAERROR_METHOD = "mediaError";
 	public static final String MEDIAERROR_ERROR_PARAM = "error";
 
+	public static final String MEDIANODEMIGRATION_METHOD = "mediaNodeMigration";
+	public static final String MEDIANODEMIGRATION_STREAMS_PARAM = "streams";
+
+	public static final String SUBSCRIPTIONDOWNGRADED_METHOD = "subscriptionDowngraded";
+	public static final String SUBSCRIPTIONDOWNGRADED_SENDER_PARAM = "sender";
+	public static final String SUBSCRIPTIONDOWNGRADED_STREAMID_PARAM = "streamId";
+
 	public static final String ICECANDIDATE_METHOD = "iceCandidate";
 	public static final String ICECANDIDATE_SENDERCONNECTIONID_PARAM = "senderConnectionId";
 	public static final String ICECANDIDATE_EPNAME_PARAM = "endpointName";
@@ -36,6 +36,10 @@ public class InfoHandler extends TextWebSocketHandler {
 	Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
 	Semaphore semaphore = new Semaphore(1);
 	
+	public boolean hasSessions() {
+		return !this.sessions.isEmpty();
+	}
+	
 	public void sendInfo(String info){
 		for (WebSocketSession session : this.sessions.values()) {
 			try {
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.core;
+
+/**
+ * Audio mixing mode of a session. With mixing enabled the audio of every
+ * publisher is mixed in KMS and each participant receives one single audio
+ * stream instead of one audio stream per publisher
+ */
+public enum AudioMixingMode {
+
+	/**
+	 * Every subscription carries the audio of its publisher (SFU mode)
+	 */
+	NONE,
+
+	/**
+	 * Every participant receives the mix of all publishers. A publisher never
+	 * receives its own audio back, which would be an echo
+	 */
+	MIXED,
+
+	/**
+	 * Every participant receives the mix of all publishers except its own audio.
+	 * Routed the same as {@link #MIXED}, kept for existing configurations
+	 */
+	MIXED_MINUS_ONE
+
+}
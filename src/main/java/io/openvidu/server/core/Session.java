@@ -59,6 +59,14 @@ public class Session implements SessionInterface {
 	protected volatile boolean closed = false;
 	protected AtomicInteger activePublishers = new AtomicInteger(0);
 
+	protected VideoCodecPolicy videoCodecPolicy = VideoCodecPolicy.NONE;
+	protected volatile String firstPublisherVideoCodec;
+	protected int lastN = 0;
+	protected AudioMixingMode audioMixingMode = AudioMixingMode.NONE;
+	protected boolean gridComposite = false;
+	protected int expectedParticipants = 0;
+	protected int expectedPublishers = 0;
+
 	/**
 	 * This lock protects the following operations with read lock: [REST API](POST
 	 * /api/tokens, POST /sessions/{sessionId}/connection), [RPC](joinRoom).
@@ -79,6 +87,13 @@ public class Session implements SessionInterface {
 		this.openviduConfig = previousSession.openviduConfig;
 		this.recordingManager = previousSession.recordingManager;
 		this.tokens = previousSession.tokens;
+		this.videoCodecPolicy = previousSession.videoCodecPolicy;
+		this.firstPublisherVideoCodec = previousSession.firstPublisherVideoCodec;
+		this.lastN = previousSession.lastN;
+		this.audioMixingMode = previousSession.audioMixingMode;
+		this.gridComposite = previousSession.gridComposite;
+		this.expectedParticipants = previousSession.expectedParticipants;
+		this.expectedPublishers = previousSession.expectedPublishers;
 	}
 
 	public Session(String sessionId, SessionProperties sessionProperties, OpenviduConfig openviduConfig,
@@ -88,6 +103,10 @@ public class Session implements SessionInterface {
 		this.sessionProperties = sessionProperties;
 		this.openviduConfig = openviduConfig;
 		this.recordingManager = recordingManager;
+		this.videoCodecPolicy = openviduConfig.getOpenviduStreamsVideoCodecPolicy();
+		this.lastN = openviduConfig.getOpenviduStreamsLastN();
+		this.audioMixingMode = openviduConfig.getOpenviduStreamsAudioMixing();
+		this.gridComposite = openviduConfig.isOpenviduStreamsGridComposite();
 	}
 
 	public String getSessionId() {
@@ -102,6 +121,93 @@ public class Session implements SessionInterface {
 		return this.startTime;
 	}
 
+	public VideoCodecPolicy getVideoCodecPolicy() {
+		return this.videoCodecPolicy;
+	}
+
+	public void setVideoCodecPolicy(VideoCodecPolicy videoCodecPolicy) {
+		this.videoCodecPolicy = videoCodecPolicy;
+	}
+
+	/**
+	 * @return number of most recently active publishers whose video is forwarded
+	 *         to subscribers. 0 means every publisher's video is forwarded
+	 */
+	public int getLastN() {
+		return this.lastN;
+	}
+
+	public void setLastN(int lastN) {
+		this.lastN = lastN;
+	}
+
+	public AudioMixingMode getAudioMixingMode() {
+		return this.audioMixingMode;
+	}
+
+	public void setAudioMixingMode(AudioMixingMode audioMixingMode) {
+		this.audioMixingMode = audioMixingMode;
+	}
+
+	/**
+	 * @return whether the session offers a single-stream grid of all its
+	 *         publishers to constrained clients
+	 */
+	public boolean isGridComposite() {
+		return this.gridComposite;
+	}
+
+	public void setGridComposite(boolean gridComposite) {
+		this.gridComposite = gridComposite;
+	}
+
+	/**
+	 * @return number of participants the session is expected to reach, as hinted
+	 *         on its creation. 0 if unknown
+	 */
+	public int getExpectedParticipants() {
+		return this.expectedParticipants;
+	}
+
+	public void setExpectedParticipants(int expectedParticipants) {
+		this.expectedParticipants = expectedParticipants;
+	}
+
+	/**
+	 * @return number of publishers the session is expected to reach, as hinted on
+	 *         its creation. 0 if unknown
+	 */
+	public int getExpectedPublishers() {
+		return this.expectedPublishers;
+	}
+
+	public void setExpectedPublishers(int expectedPublishers) {
+		this.expectedPublishers = expectedPublishers;
+	}
+
+	/**
+	 * @return the video codec publishers of this session must negotiate, or null
+	 *         if any codec is allowed (policy NONE, or policy FIRST_PUBLISHER and
+	 *         no publisher has negotiated yet)
+	 */
+	public String getForcedVideoCodec() {
+		if (VideoCodecPolicy.FIRST_PUBLISHER.equals(this.videoCodecPolicy)) {
+			return this.firstPublisherVideoCodec;
+		}
+		return this.videoCodecPolicy.getCodecName();
+	}
+
+	/**
+	 * Stores the codec negotiated by a publisher. Only the first one counts
+	 */
+	public synchronized void registerPublisherVideoCodec(String videoCodec) {
+		if (VideoCodecPolicy.FIRST_PUBLISHER.equals(this.videoCodecPolicy) && this.firstPublisherVideoCodec == null
+				&& videoCodec != null) {
+			this.firstPublisherVideoCodec = videoCodec;
+			log.info("Video codec of session {} set to {} by its first publisher", this.sessionId, videoCodec);
+		}
+	}
+
 	public Set<Participant> getParticipants() {
 		checkClosed();
 		return new HashSet<Participant>(this.participants.values());
@@ -195,6 +301,19 @@ public class Session implements SessionInterface {
 		if (this.sessionProperties.customSessionId() != null) {
 			json.addProperty("customSessionId", this.sessionProperties.customSessionId());
 		}
+		json.addProperty("videoCodecPolicy", this.videoCodecPolicy.name());
+		json.addProperty("lastN", this.lastN);
+		json.addProperty("audioMixingMode", this.audioMixingMode.name());
+		json.addProperty("gridComposite", this.gridComposite);
+		if (this.expectedParticipants > 0) {
+			json.addProperty("expectedParticipants", this.expectedParticipants);
+		}
+		if (this.expectedPublishers > 0) {
+			json.addProperty("expectedPublishers", this.expectedPublishers);
+		}
+		if (this.getForcedVideoCodec() != null) {
+			json.addProperty("videoCodec", this.getForcedVideoCodec());
+		}
 		JsonObject connections = new JsonObject();
 		JsonArray participants = new JsonArray();
 		this.participants.values().forEach(p -> {
@@ -288,7 +288,23 @@ public class SessionEventsHandler {
 		JsonObject result = new JsonObject();
 		result.addProperty(ProtocolElements.RECEIVEVIDEO_SDPANSWER_PARAM, sdpAnswer);
 		rpcNotificationService.sendResponse(participant.getParticipantPrivateId(), transactionId, result);
+		this.onSubscribed(participant, session);
+	}
+
+	/**
+	 * Answers a batch subscription with the result of each of its streams
+	 *
+	 * @param subscribed whether at least one of the streams was subscribed
+	 */
+	public void onSubscribeToMany(Participant participant, Session session, JsonObject result, boolean subscribed,
+			Integer transactionId) {
+		rpcNotificationService.sendResponse(participant.getParticipantPrivateId(), transactionId, result);
+		if (subscribed) {
+			this.onSubscribed(participant, session);
+		}
+	}
 
+	private void onSubscribed(Participant participant, Session session) {
 		if (ProtocolElements.RECORDER_PARTICIPANT_PUBLICID.equals(participant.getParticipantPublicId())) {
 			lock.lock();
 			try {
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
@@ -102,6 +103,19 @@ public abstract class SessionManager {
 
 	public abstract void subscribe(Participant participant, String senderName, String sdpOffer, Integer transactionId);
 
+	/**
+	 * Subscribes the participant to several publishers at once, creating their
+	 * subscriber endpoints concurrently
+	 *
+	 * @param sdpOffers SDP offers by sender public id
+	 * @return futures of the SDP answers by sender public id, in the same order.
+	 *         They complete exceptionally with an {@link OpenViduException} if the
+	 *         subscription fails. A future cancelled by the caller abandons its
+	 *         subscription: it is not started, or undone once established
+	 */
+	public abstract Map<String, CompletableFuture<String>> subscribeToMany(Participant participant,
+			Map<String, String> sdpOffers);
+
 	public abstract void unsubscribe(Participant participant, String senderName, Integer transactionId);
 
 	public void sendMessage(String message, String sessionId) {
@@ -128,6 +142,18 @@ public abstract class SessionManager {
 	public abstract void streamPropertyChanged(Participant participant, Integer transactionId, String streamId,
 			String property, JsonElement newValue, String changeReason);
 
+	public abstract void streamActivity(Participant participant, Integer transactionId);
+
+	public abstract String receiveMixedAudio(Participant participant, String sdpOffer);
+
+	public abstract void unsubscribeFromMixedAudio(Participant participant);
+
+	public abstract String receiveGridComposite(Participant participant, String sdpOffer);
+
+	public abstract void unsubscribeFromGridComposite(Participant participant);
+
+	public abstract void setSubscriberVideoPaused(Participant participant, String senderPublicId, boolean paused);
+
 	public abstract void onIceCandidate(Participant participant, String endpointName, String candidate,
 			int sdpMLineIndex, String sdpMid, Integer transactionId);
 
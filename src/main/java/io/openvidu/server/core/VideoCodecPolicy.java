@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.core;
+
+/**
+ * Video codec every stream of a session is negotiated with, so KMS does not
+ * have to transcode between publishers and subscribers using different codecs
+ */
+public enum VideoCodecPolicy {
+
+	/**
+	 * Clients negotiate any codec they want
+	 */
+	NONE,
+
+	/**
+	 * Every publisher and subscriber is forced to VP8
+	 */
+	VP8,
+
+	/**
+	 * Every publisher and subscriber is forced to H264
+	 */
+	H264,
+
+	/**
+	 * The codec negotiated by the first publisher of the session is forced on
+	 * every other publisher and subscriber
+	 */
+	FIRST_PUBLISHER;
+
+	/**
+	 * @return the codec name as it appears in SDP rtpmap lines, or null if this
+	 *         policy does not fix a codec by itself
+	 */
+	public String getCodecName() {
+		switch (this) {
+		case VP8:
+			return "VP8";
+		case H264:
+			return "H264";
+		default:
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.feed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.cdr.CDREvent;
+import io.openvidu.server.cdr.CDRLogger;
+import io.openvidu.server.kurento.endpoint.KmsEvent;
+import io.openvidu.server.summary.SessionSummary;
+
+/**
+ * Push feed of session changes. Registered as one more {@link CDRLogger}, so
+ * every event recorded by the CallDetailRecord (session created/destroyed,
+ * participant joined/left, stream published/subscribed, recording status...)
+ * gets a monotonically increasing sequence number and is fanned out to every
+ * connected subscriber.
+ *
+ * The last 'openvidu.feed.buffer-size' events are kept in memory so a
+ * subscriber that reconnects can resume from the last sequence number it
+ * received. Sequence numbers start again on every run of the server, so event
+ * ids are made of a random epoch of the run and the sequence number
+ * ("epoch:seq"), and resuming from another epoch requires a reset. Each
+ * subscriber has its own bounded queue: publishing never blocks on a slow
+ * consumer, which is disconnected instead when its queue overflows and is
+ * expected to reconnect and resume.
+ *
+ * Enabled by property 'openvidu.feed=true'
+ */
+public class SessionEventsFeed implements CDRLogger {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionEventsFeed.class);
+
+	public static final String RESET_EVENT = "reset";
+	public static final String OVERFLOW_EVENT = "overflow";
+	public static final String EVENT_ID_SEPARATOR = ":";
+
+	private final int bufferSize;
+	private final int subscriberQueueSize;
+
+	private final String epoch = RandomStringUtils.randomAlphanumeric(8);
+	private final AtomicLong sequence = new AtomicLong(0);
+	private final ArrayDeque<FeedEvent> buffer;
+	private final Set<SessionEventsFeedSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong publishedEvents = new AtomicLong(0);
+	private final AtomicLong overflowedSubscriptions = new AtomicLong(0);
+
+	public SessionEventsFeed(int bufferSize, int subscriberQueueSize) {
+		this.bufferSize = Math.max(1, bufferSize);
+		this.subscriberQueueSize = Math.max(1, subscriberQueueSize);
+		this.buffer = new ArrayDeque<>(this.bufferSize);
+	}
+
+	@Override
+	public void log(CDREvent event) {
+		JsonObject json = event.toJson();
+		synchronized (this.buffer) {
+			long seq = this.sequence.incrementAndGet();
+			json.addProperty("epoch", this.epoch);
+			json.addProperty("seq", seq);
+			json.addProperty("event", event.getEventName().name());
+			FeedEvent feedEvent = new FeedEvent(seq, event.getEventName().name(), json.toString());
+			if (this.buffer.size() == this.bufferSize) {
+				this.buffer.pollFirst();
+			}
+			this.buffer.addLast(feedEvent);
+			this.publishedEvents.incrementAndGet();
+
+			for (SessionEventsFeedSubscription subscription : this.subscriptions) {
+				if (!subscription.offer(feedEvent)) {
+					log.warn("Session events feed subscription {} is too slow (more than {} pending events). Closing it",
+							subscription.getId(), this.subscriberQueueSize);
+					this.subscriptions.remove(subscription);
+					this.overflowedSubscriptions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void log(KmsEvent event) {
+	}
+
+	@Override
+	public void log(SessionSummary sessionSummary) {
+	}
+
+	/**
+	 * Registers a new subscription. If lastSeq is not null, every buffered event
+	 * after it is replayed before any live event. If the requested position is no
+	 * longer available (too old, or from another epoch) the subscription starts
+	 * with a {@link #RESET_EVENT} and the client is expected to resynchronize
+	 * through GET /api/sessions
+	 *
+	 * @param lastEpoch epoch of lastSeq, or null if it belongs to the current one
+	 */
+	public SessionEventsFeedSubscription subscribe(String id, String lastEpoch, Long lastSeq) {
+		synchronized (this.buffer) {
+			long currentSeq = this.sequence.get();
+			List<FeedEvent> backlog = new ArrayList<>();
+			boolean reset = false;
+			if (lastSeq != null) {
+				long oldestSeq = this.buffer.isEmpty() ? currentSeq + 1 : this.buffer.peekFirst().seq;
+				if ((lastEpoch != null && !this.epoch.equals(lastEpoch)) || lastSeq > currentSeq
+						|| lastSeq < oldestSeq - 1) {
+					reset = true;
+				} else {
+					Iterator<FeedEvent> it = this.buffer.descendingIterator();
+					while (it.hasNext()) {
+						FeedEvent e = it.next();
+						if (e.seq <= lastSeq) {
+							break;
+						}
+						backlog.add(0, e);
+					}
+				}
+			}
+			SessionEventsFeedSubscription subscription = new SessionEventsFeedSubscription(id, backlog, reset,
+					currentSeq, this.subscriberQueueSize);
+			this.subscriptions.add(subscription);
+			log.info("New session events feed subscription {} (resuming from {}, replaying {} events{})", id,
+					lastSeq, backlog.size(), reset ? ", reset required" : "");
+			return subscription;
+		}
+	}
+
+	public void unsubscribe(SessionEventsFeedSubscription subscription) {
+		if (this.subscriptions.remove(subscription)) {
+			log.info("Session events feed subscription {} closed", subscription.getId());
+		}
+	}
+
+	public long getCurrentSequence() {
+		return this.sequence.get();
+	}
+
+	public String getEpoch() {
+		return this.epoch;
+	}
+
+	/**
+	 * @return the SSE id of the event with the sequence number, in this epoch
+	 */
+	public String eventId(long seq) {
+		return this.epoch + EVENT_ID_SEPARATOR + seq;
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("epoch", this.epoch);
+		json.addProperty("sequence", this.sequence.get());
+		json.addProperty("bufferSize", this.bufferSize);
+		json.addProperty("subscriberQueueSize", this.subscriberQueueSize);
+		json.addProperty("subscriptions", this.subscriptions.size());
+		json.addProperty("publishedEvents", this.publishedEvents.get());
+		json.addProperty("overflowedSubscriptions", this.overflowedSubscriptions.get());
+		return json;
+	}
+
+	public static class FeedEvent {
+
+		public final long seq;
+		public final String name;
+		public final String data;
+
+		public FeedEvent(long seq, String name, String data) {
+			this.seq = seq;
+			this.name = name;
+			this.data = data;
+		}
+	}
+
+}
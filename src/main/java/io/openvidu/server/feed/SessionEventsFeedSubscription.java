@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.feed;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.openvidu.server.feed.SessionEventsFeed.FeedEvent;
+
+/**
+ * One consumer of the {@link SessionEventsFeed}. Replayed events are consumed
+ * before any live event, and live events are stored in a bounded queue that
+ * never blocks the producer
+ */
+public class SessionEventsFeedSubscription {
+
+	private final String id;
+	private final ArrayDeque<FeedEvent> backlog;
+	private final BlockingQueue<FeedEvent> queue;
+	private final boolean resetRequired;
+	private final long initialSequence;
+
+	private final AtomicBoolean overflowed = new AtomicBoolean(false);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	public SessionEventsFeedSubscription(String id, Collection<FeedEvent> backlog, boolean resetRequired,
+			long initialSequence, int queueSize) {
+		this.id = id;
+		this.backlog = new ArrayDeque<>(backlog);
+		this.queue = new LinkedBlockingQueue<>(queueSize);
+		this.resetRequired = resetRequired;
+		this.initialSequence = initialSequence;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public boolean isResetRequired() {
+		return this.resetRequired;
+	}
+
+	public long getInitialSequence() {
+		return this.initialSequence;
+	}
+
+	public boolean isOverflowed() {
+		return this.overflowed.get();
+	}
+
+	public boolean isClosed() {
+		return this.closed.get();
+	}
+
+	public void close() {
+		this.closed.set(true);
+	}
+
+	boolean offer(FeedEvent event) {
+		if (this.closed.get()) {
+			return true;
+		}
+		if (!this.queue.offer(event)) {
+			this.overflowed.set(true);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the next event, waiting up to the given time for a live one. Returns
+	 * null on timeout, or immediately once every event queued before an overflow
+	 * has been consumed
+	 */
+	public FeedEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+		FeedEvent event = this.backlog.pollFirst();
+		if (event != null) {
+			return event;
+		}
+		if (this.overflowed.get()) {
+			return this.queue.poll();
+		}
+		return this.queue.poll(timeout, unit);
+	}
+
+}
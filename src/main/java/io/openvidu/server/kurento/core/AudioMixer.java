@@ -0,0 +1,170 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.kurento.client.Composite;
+import org.kurento.client.HubPort;
+import org.kurento.client.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.core.AudioMixingMode;
+import io.openvidu.server.kurento.endpoint.CompositeSubscriberEndpoint;
+import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
+
+/**
+ * Server-side audio mixing of a session. The audio of every publisher is fed to
+ * a per-session {@link Composite} through its own {@link HubPort}, and every
+ * participant receives one single audio stream from the Composite instead of one
+ * per publisher. Each HubPort outputs the mix of every other port, so a
+ * participant connected to its own publisher's port receives the mix minus its
+ * own audio. In both mixing modes publishers are connected to their own port,
+ * as hearing its own audio back is an echo for the speaker. Participants that
+ * do not publish receive the whole mix from a shared port with no input
+ */
+public class AudioMixer {
+
+	private static final Logger log = LoggerFactory.getLogger(AudioMixer.class);
+
+	private final KurentoSession session;
+	private final AudioMixingMode mode;
+
+	private Composite composite;
+	private HubPort mixPort;
+
+	// Participant public id -> HubPort fed by its publisher
+	private final Map<String, HubPort> publisherPorts = new HashMap<>();
+	private final Map<String, PublisherEndpoint> publishers = new HashMap<>();
+	// Participant public id -> endpoint receiving the mix
+	private final Map<String, CompositeSubscriberEndpoint> listeners = new HashMap<>();
+
+	public AudioMixer(KurentoSession session, AudioMixingMode mode) {
+		this.session = session;
+		this.mode = mode;
+	}
+
+	public AudioMixingMode getMode() {
+		return this.mode;
+	}
+
+	public synchronized void addPublisher(KurentoParticipant participant) {
+		PublisherEndpoint publisher = participant.getPublisher();
+		String publicId = participant.getParticipantPublicId();
+		if (publisher == null || !publisher.getMediaOptions().hasAudio() || this.publisherPorts.containsKey(publicId)) {
+			return;
+		}
+		this.initComposite();
+		HubPort hubPort = new HubPort.Builder(this.composite).build();
+		publisher.connect(hubPort, MediaType.AUDIO);
+		this.publisherPorts.put(publicId, hubPort);
+		this.publishers.put(publicId, publisher);
+
+		CompositeSubscriberEndpoint listener = this.listeners.get(publicId);
+		if (listener != null) {
+			// From now on the participant must not hear itself
+			this.mixPort.disconnect(listener.getEndpoint(), MediaType.AUDIO);
+			hubPort.connect(listener.getEndpoint(), MediaType.AUDIO);
+		}
+		log.info("SESSION {}: audio of {} is now mixed. Mixed publishers: {}", this.session.getSessionId(), publicId,
+				this.publisherPorts.size());
+	}
+
+	public synchronized void removePublisher(String publicId) {
+		HubPort hubPort = this.publisherPorts.remove(publicId);
+		PublisherEndpoint publisher = this.publishers.remove(publicId);
+		if (hubPort == null) {
+			return;
+		}
+		CompositeSubscriberEndpoint listener = this.listeners.get(publicId);
+		if (listener != null) {
+			this.mixPort.connect(listener.getEndpoint(), MediaType.AUDIO);
+		}
+		try {
+			publisher.disconnectFrom(hubPort, MediaType.AUDIO);
+		} catch (Exception e) {
+			// Publisher endpoint may already be released
+			log.debug("SESSION {}: could not disconnect publisher {} from the audio mixer: {}",
+					this.session.getSessionId(), publicId, e.getMessage());
+		}
+		hubPort.release();
+		log.info("SESSION {}: audio of {} is no longer mixed. Mixed publishers: {}", this.session.getSessionId(),
+				publicId, this.publisherPorts.size());
+	}
+
+	/**
+	 * Connects the endpoint of a participant to the mix. It must already be
+	 * negotiated
+	 */
+	public synchronized void addListener(String publicId, CompositeSubscriberEndpoint listener) {
+		this.initComposite();
+		HubPort source = this.publisherPorts.getOrDefault(publicId, this.mixPort);
+		source.connect(listener.getEndpoint(), MediaType.AUDIO);
+		this.listeners.put(publicId, listener);
+	}
+
+	/**
+	 * The endpoint itself is released by its owner
+	 */
+	public synchronized void removeListener(String publicId) {
+		this.listeners.remove(publicId);
+	}
+
+	/**
+	 * Forgets every KMS element of the mixer, which belong to a pipeline that has
+	 * been released. The Composite is created again on first use
+	 */
+	public synchronized void reset() {
+		this.publisherPorts.clear();
+		this.publishers.clear();
+		this.listeners.clear();
+		this.mixPort = null;
+		this.composite = null;
+	}
+
+	private void initComposite() {
+		if (this.composite == null) {
+			this.composite = new Composite.Builder(this.session.getPipeline()).build();
+			this.composite.setName(this.session.getSessionId() + "_AUDIO_MIXER");
+			this.mixPort = new HubPort.Builder(this.composite).build();
+			log.info("SESSION {}: created audio mixer ({})", this.session.getSessionId(), this.mode);
+		}
+	}
+
+	/**
+	 * Compares the audio flows of the session with the ones SFU mode would need:
+	 * one per publisher and subscriber, against one per participant here
+	 */
+	public synchronized JsonObject toJson() {
+		int participants = this.session.getParticipants().size();
+		int mixedPublishers = this.publisherPorts.size();
+		JsonObject json = new JsonObject();
+		json.addProperty("mode", this.mode.name());
+		json.addProperty("mixedPublishers", mixedPublishers);
+		json.addProperty("listeners", this.listeners.size());
+		json.addProperty("hubPorts", this.composite != null ? mixedPublishers + 1 : 0);
+		json.addProperty("mixedAudioLinks", this.listeners.size());
+		json.addProperty("sfuAudioLinks", mixedPublishers * Math.max(participants - 1, 0));
+		return json;
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.core;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.kurento.kms.Kms;
+import io.openvidu.server.kurento.kms.KmsManager;
+import io.openvidu.server.kurento.kms.KmsManager.KmsLoad;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Cascading of sessions across media servers. The publishers of a session stay
+ * in the KMS of the session (origin), and once it hosts
+ * "openvidu.cascade.viewers-per-kms" subscribing participants, new ones are
+ * placed in edge pipelines of other KMS, fed by RtpEndpoint relays of the
+ * publishers. See {@link SessionCascade}
+ */
+public class CascadeManager {
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	final AtomicLong edgesCreated = new AtomicLong(0);
+	final AtomicLong edgesReleased = new AtomicLong(0);
+	final AtomicLong relaysCreated = new AtomicLong(0);
+	final AtomicLong relaysReleased = new AtomicLong(0);
+
+	public boolean isEnabled() {
+		return this.openviduConfig.isCascadeEnabled();
+	}
+
+	public int getViewersPerKms() {
+		return this.openviduConfig.getOpenviduCascadeViewersPerKms();
+	}
+
+	public int getMaxEdges() {
+		return this.openviduConfig.getOpenviduCascadeMaxEdges();
+	}
+
+	/**
+	 * @return the cascade state of a new session, or null if cascading is disabled
+	 */
+	public SessionCascade newSessionCascade(KurentoSession session) {
+		return this.isEnabled() ? new SessionCascade(session, this) : null;
+	}
+
+	/**
+	 * @return the less loaded connected KMS other than the origin and the edges
+	 *         already used by the session, or null if there is none
+	 */
+	public Kms selectEdgeKms(String originKmsId, Set<String> usedKmsIds) {
+		for (KmsLoad kmsLoad : this.kmsManager.getKmssSortedByLoad()) {
+			Kms kms = kmsLoad.getKms();
+			if (!kms.getId().equals(originKmsId) && !usedKmsIds.contains(kms.getId())
+					&& kms.isKurentoClientConnected() && !kms.isDegraded() && !kms.isDraining()) {
+				return kms;
+			}
+		}
+		return null;
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("viewersPerKms", this.getViewersPerKms());
+		json.addProperty("maxEdges", this.getMaxEdges());
+		json.addProperty("edgesCreated", this.edgesCreated.get());
+		json.addProperty("edgesReleased", this.edgesReleased.get());
+		json.addProperty("relaysCreated", this.relaysCreated.get());
+		json.addProperty("relaysReleased", this.relaysReleased.get());
+		return json;
+	}
+
+}
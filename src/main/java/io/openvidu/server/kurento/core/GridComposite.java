@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kurento.client.Composite;
+import org.kurento.client.HubPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.client.internal.ProtocolElements;
+import io.openvidu.server.core.Participant;
+import io.openvidu.server.kurento.endpoint.CompositeSubscriberEndpoint;
+import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
+
+/**
+ * Grid composite of a session for constrained clients. The streams of every
+ * publisher are fed to a per-session {@link Composite}, which outputs one single
+ * grid video (and the mix of all audios) that viewers receive instead of one
+ * stream per publisher. Nothing is built in KMS until the first viewer arrives,
+ * and everything is released when the last one leaves
+ */
+public class GridComposite {
+
+	private static final Logger log = LoggerFactory.getLogger(GridComposite.class);
+
+	private final KurentoSession session;
+
+	private Composite composite;
+	private HubPort outputPort;
+
+	// Participant public id -> HubPort fed by its publisher
+	private final Map<String, HubPort> publisherPorts = new HashMap<>();
+	private final Map<String, PublisherEndpoint> publishers = new HashMap<>();
+	// Participant public id -> endpoint receiving the grid
+	private final Map<String, CompositeSubscriberEndpoint> viewers = new HashMap<>();
+
+	private final AtomicLong starts = new AtomicLong(0);
+
+	public GridComposite(KurentoSession session) {
+		this.session = session;
+	}
+
+	public synchronized boolean isRunning() {
+		return this.composite != null;
+	}
+
+	/**
+	 * Adds a new publisher to the grid, if it is running
+	 */
+	public synchronized void addPublisher(KurentoParticipant participant) {
+		if (this.composite != null) {
+			this.connectPublisher(participant);
+		}
+	}
+
+	public synchronized void removePublisher(String publicId) {
+		HubPort hubPort = this.publisherPorts.remove(publicId);
+		PublisherEndpoint publisher = this.publishers.remove(publicId);
+		if (hubPort == null) {
+			return;
+		}
+		try {
+			publisher.disconnectFrom(hubPort);
+		} catch (Exception e) {
+			// Publisher endpoint may already be released
+			log.debug("SESSION {}: could not disconnect publisher {} from the grid composite: {}",
+					this.session.getSessionId(), publicId, e.getMessage());
+		}
+		hubPort.release();
+	}
+
+	/**
+	 * Connects the endpoint of a viewer to the grid, starting the grid if it is
+	 * the first one. The endpoint must already be negotiated
+	 */
+	public synchronized void addViewer(String publicId, CompositeSubscriberEndpoint viewer) {
+		if (this.composite == null) {
+			this.start();
+		}
+		this.outputPort.connect(viewer.getEndpoint());
+		this.viewers.put(publicId, viewer);
+		log.info("SESSION {}: grid composite has now {} viewers", this.session.getSessionId(), this.viewers.size());
+	}
+
+	/**
+	 * Stops the grid if the viewer was the last one. The endpoint itself is
+	 * released by its owner
+	 */
+	public synchronized void removeViewer(String publicId) {
+		if (this.viewers.remove(publicId) != null && this.viewers.isEmpty()) {
+			this.stop();
+		}
+	}
+
+	/**
+	 * Forgets every KMS element of the grid, which belong to a pipeline that has
+	 * been released. The grid starts again with the next viewer
+	 */
+	public synchronized void reset() {
+		this.publisherPorts.clear();
+		this.publishers.clear();
+		this.viewers.clear();
+		this.outputPort = null;
+		this.composite = null;
+	}
+
+	private void start() {
+		this.composite = new Composite.Builder(this.session.getPipeline()).build();
+		this.composite.setName(this.session.getSessionId() + "_GRID_COMPOSITE");
+		this.outputPort = new HubPort.Builder(this.composite).build();
+		for (Participant p : this.session.getParticipants()) {
+			if (p.isStreaming()) {
+				this.connectPublisher((KurentoParticipant) p);
+			}
+		}
+		this.starts.incrementAndGet();
+		log.info("SESSION {}: grid composite started with {} publishers", this.session.getSessionId(),
+				this.publisherPorts.size());
+	}
+
+	private void stop() {
+		for (String publicId : this.publisherPorts.keySet().toArray(new String[0])) {
+			this.removePublisher(publicId);
+		}
+		this.outputPort.release();
+		this.composite.release();
+		this.outputPort = null;
+		this.composite = null;
+		log.info("SESSION {}: grid composite stopped. No viewers left", this.session.getSessionId());
+	}
+
+	private void connectPublisher(KurentoParticipant participant) {
+		PublisherEndpoint publisher = participant.getPublisher();
+		String publicId = participant.getParticipantPublicId();
+		if (publisher == null || this.publisherPorts.containsKey(publicId)
+				|| ProtocolElements.RECORDER_PARTICIPANT_PUBLICID.equals(publicId)) {
+			return;
+		}
+		HubPort hubPort = new HubPort.Builder(this.composite).build();
+		publisher.connect(hubPort);
+		this.publisherPorts.put(publicId, hubPort);
+		this.publishers.put(publicId, publisher);
+	}
+
+	public synchronized JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("running", this.composite != null);
+		json.addProperty("publishers", this.publisherPorts.size());
+		json.addProperty("viewers", this.viewers.size());
+		json.addProperty("starts", this.starts.get());
+		return json;
+	}
+
+}
@@ -17,6 +17,7 @@
 
 package io.openvidu.server.kurento.core;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map.Entry;
@@ -50,10 +51,12 @@ import io.openvidu.server.core.EndReason;
 import io.openvidu.server.core.IdentifierPrefixes;
 import io.openvidu.server.core.MediaOptions;
 import io.openvidu.server.core.Participant;
+import io.openvidu.server.kurento.endpoint.CompositeSubscriberEndpoint;
 import io.openvidu.server.kurento.endpoint.MediaEndpoint;
 import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
 import io.openvidu.server.kurento.endpoint.SdpType;
 import io.openvidu.server.kurento.endpoint.SubscriberEndpoint;
+import io.openvidu.server.kurento.kms.Kms;
 import io.openvidu.server.recording.service.RecordingManager;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
@@ -72,6 +75,8 @@ public class KurentoParticipant extends Participant {
 
 	private final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<>();
 	private final ConcurrentMap<String, SubscriberEndpoint> subscribers = new ConcurrentHashMap<String, SubscriberEndpoint>();
+	private CompositeSubscriberEndpoint mixedAudioSubscriber;
+	private CompositeSubscriberEndpoint gridCompositeSubscriber;
 
 	public KurentoParticipant(Participant participant, KurentoSession kurentoSession,
 			KurentoParticipantEndpointConfig endpointConfig, OpenviduConfig openviduConfig,
@@ -115,7 +120,6 @@ public class KurentoParticipant extends Participant {
 		if (getPublisher().getEndpoint() == null) {
 			throw new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE, "Unable to create publisher endpoint");
 		}
-		publisher.getEndpoint().setName(streamId);
 
 		endpointConfig.addEndpointListeners(this.publisher, "publisher");
 
@@ -237,7 +241,17 @@ public class KurentoParticipant extends Participant {
 
 		SubscriberEndpoint subscriber = getNewOrExistingSubscriber(senderName);
 
+		SessionCascade cascade = this.session.getCascade();
+		if (cascade != null && subscriber.getEndpoint() == null
+				&& !ProtocolElements.RECORDER_PARTICIPANT_PUBLICID.equals(this.getParticipantPublicId())) {
+			// Subscribers of this participant may live in an edge media server
+			subscriber.setMediaPipeline(cascade.placeViewer(this));
+		}
+
 		try {
+			String subscriberEndpointName = this.getParticipantPublicId() + "_" + kSender.getPublisherStreamId();
+			subscriber.setEndpointName(subscriberEndpointName);
+
 			CountDownLatch subscriberLatch = new CountDownLatch(1);
 			Endpoint oldMediaEndpoint = subscriber.createEndpoint(subscriberLatch);
 			try {
@@ -260,10 +274,6 @@ public class KurentoParticipant extends Participant {
 				throw new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE, "Unable to create subscriber endpoint");
 			}
 
-			String subscriberEndpointName = this.getParticipantPublicId() + "_" + kSender.getPublisherStreamId();
-
-			subscriber.setEndpointName(subscriberEndpointName);
-			subscriber.getEndpoint().setName(subscriberEndpointName);
 			subscriber.setStreamId(kSender.getPublisherStreamId());
 
 			endpointConfig.addEndpointListeners(subscriber, "subscriber");
@@ -315,6 +325,156 @@ public class KurentoParticipant extends Participant {
 		}
 	}
 
+	/**
+	 * Receives the audio mix of the session (sessions with audio mixing enabled)
+	 */
+	public String receiveMixedAudio(String sdpOffer) {
+		AudioMixer audioMixer = this.session.getAudioMixer();
+		if (audioMixer == null) {
+			throw new OpenViduException(Code.MEDIA_GENERIC_ERROR_CODE,
+					"Session '" + this.session.getSessionId() + "' has no audio mixing");
+		}
+
+		log.info("PARTICIPANT {}: Request to receive mixed audio in room {}", this.getParticipantPublicId(),
+				this.session.getSessionId());
+		log.trace("PARTICIPANT {}: SdpOffer for mixed audio is {}", this.getParticipantPublicId(), sdpOffer);
+
+		CompositeSubscriberEndpoint mixedAudio = getNewOrExistingMixedAudioSubscriber();
+		try {
+			String sdpAnswer = subscribeToComposite(mixedAudio, sdpOffer, "mixedAudio");
+			if (sdpAnswer != null) {
+				audioMixer.addListener(this.getParticipantPublicId(), mixedAudio);
+				log.info("PARTICIPANT {}: Is now receiving mixed audio in room {}", this.getParticipantPublicId(),
+						this.session.getSessionId());
+			}
+			return sdpAnswer;
+		} catch (OpenViduException | KurentoServerException e) {
+			log.error("PARTICIPANT {}: Exception receiving mixed audio", this.getParticipantPublicId(), e);
+			this.cancelReceivingMixedAudio();
+			if (e instanceof OpenViduException) {
+				throw e;
+			}
+		}
+		return null;
+	}
+
+	public synchronized void cancelReceivingMixedAudio() {
+		CompositeSubscriberEndpoint mixedAudio = this.mixedAudioSubscriber;
+		this.mixedAudioSubscriber = null;
+		if (mixedAudio == null) {
+			return;
+		}
+		if (this.session.getAudioMixer() != null) {
+			this.session.getAudioMixer().removeListener(this.getParticipantPublicId());
+		}
+		if (mixedAudio.getEndpoint() != null) {
+			mixedAudio.unregisterErrorListeners();
+			releaseElement(ProtocolElements.MIXEDAUDIO_ENDPOINT_NAME, mixedAudio.getEndpoint());
+			log.info("PARTICIPANT {}: stopped receiving mixed audio in room {}", this.getParticipantPublicId(),
+					this.session.getSessionId());
+		}
+	}
+
+	private synchronized CompositeSubscriberEndpoint getNewOrExistingMixedAudioSubscriber() {
+		if (this.mixedAudioSubscriber == null) {
+			this.mixedAudioSubscriber = new CompositeSubscriberEndpoint(endpointType, this,
+					ProtocolElements.MIXEDAUDIO_ENDPOINT_NAME, this.getPipeline(), this.openviduConfig);
+		}
+		return this.mixedAudioSubscriber;
+	}
+
+	/**
+	 * Receives the grid composite of the session instead of one stream per
+	 * publisher (sessions with grid composite enabled)
+	 */
+	public String receiveGridComposite(String sdpOffer) {
+		GridComposite gridComposite = this.session.getGridComposite();
+		if (gridComposite == null) {
+			throw new OpenViduException(Code.MEDIA_GENERIC_ERROR_CODE,
+					"Session '" + this.session.getSessionId() + "' has no grid composite");
+		}
+
+		log.info("PARTICIPANT {}: Request to receive grid composite in room {}", this.getParticipantPublicId(),
+				this.session.getSessionId());
+		log.trace("PARTICIPANT {}: SdpOffer for grid composite is {}", this.getParticipantPublicId(), sdpOffer);
+
+		CompositeSubscriberEndpoint grid = getNewOrExistingGridCompositeSubscriber();
+		try {
+			String sdpAnswer = subscribeToComposite(grid, sdpOffer, "gridComposite");
+			if (sdpAnswer != null) {
+				gridComposite.addViewer(this.getParticipantPublicId(), grid);
+				log.info("PARTICIPANT {}: Is now receiving grid composite in room {}", this.getParticipantPublicId(),
+						this.session.getSessionId());
+			}
+			return sdpAnswer;
+		} catch (OpenViduException | KurentoServerException e) {
+			log.error("PARTICIPANT {}: Exception receiving grid composite", this.getParticipantPublicId(), e);
+			this.cancelReceivingGridComposite();
+			if (e instanceof OpenViduException) {
+				throw e;
+			}
+		}
+		return null;
+	}
+
+	public synchronized void cancelReceivingGridComposite() {
+		CompositeSubscriberEndpoint grid = this.gridCompositeSubscriber;
+		this.gridCompositeSubscriber = null;
+		if (grid == null) {
+			return;
+		}
+		if (this.session.getGridComposite() != null) {
+			this.session.getGridComposite().removeViewer(this.getParticipantPublicId());
+		}
+		if (grid.getEndpoint() != null) {
+			grid.unregisterErrorListeners();
+			releaseElement(ProtocolElements.GRIDCOMPOSITE_ENDPOINT_NAME, grid.getEndpoint());
+			log.info("PARTICIPANT {}: stopped receiving grid composite in room {}", this.getParticipantPublicId(),
+					this.session.getSessionId());
+		}
+	}
+
+	private synchronized CompositeSubscriberEndpoint getNewOrExistingGridCompositeSubscriber() {
+		if (this.gridCompositeSubscriber == null) {
+			this.gridCompositeSubscriber = new CompositeSubscriberEndpoint(endpointType, this,
+					ProtocolElements.GRIDCOMPOSITE_ENDPOINT_NAME, this.getPipeline(), this.openviduConfig);
+			this.gridCompositeSubscriber.setVideoSendBandwidth(
+					this.openviduConfig.getOpenviduStreamsGridCompositeMaxSendBandwidth(),
+					this.openviduConfig.getOpenviduStreamsGridCompositeMinSendBandwidth());
+		}
+		return this.gridCompositeSubscriber;
+	}
+
+	/**
+	 * Creates and negotiates the endpoint of a Composite output
+	 *
+	 * @return the SDP answer, or null if the endpoint was already created
+	 */
+	private String subscribeToComposite(CompositeSubscriberEndpoint subscriber, String sdpOffer,
+			String typeOfEndpoint) {
+		CountDownLatch subscriberLatch = new CountDownLatch(1);
+		Endpoint oldMediaEndpoint = subscriber.createEndpoint(subscriberLatch);
+		try {
+			if (!subscriberLatch.await(KurentoSession.ASYNC_LATCH_TIMEOUT, TimeUnit.SECONDS)) {
+				throw new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE,
+						"Timeout reached when creating " + typeOfEndpoint + " endpoint");
+			}
+		} catch (InterruptedException e) {
+			throw new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE,
+					"Interrupted when creating " + typeOfEndpoint + " endpoint: " + e.getMessage());
+		}
+		if (oldMediaEndpoint != null) {
+			log.warn("PARTICIPANT {}: Already receiving {}", this.getParticipantPublicId(), typeOfEndpoint);
+			return null;
+		}
+		if (subscriber.getEndpoint() == null) {
+			throw new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE,
+					"Unable to create " + typeOfEndpoint + " endpoint");
+		}
+		endpointConfig.addEndpointListeners(subscriber, typeOfEndpoint);
+		return subscriber.subscribe(sdpOffer);
+	}
+
 	public void close(EndReason reason, boolean definitelyClosed, long kmsDisconnectionTime) {
 		log.debug("PARTICIPANT {}: Closing user", this.getParticipantPublicId());
 		if (isClosed()) {
@@ -342,6 +502,8 @@ public class KurentoParticipant extends Participant {
 						this.getParticipantPublicId(), remoteParticipantName);
 			}
 		}
+		cancelReceivingMixedAudio();
+		cancelReceivingGridComposite();
 		if (publisher != null && publisher.getEndpoint() != null) {
 			releasePublisherEndpoint(reason, kmsDisconnectionTime);
 		}
@@ -374,6 +536,10 @@ public class KurentoParticipant extends Participant {
 	public void addIceCandidate(String endpointName, IceCandidate iceCandidate) {
 		if (this.getParticipantPublicId().equals(endpointName)) {
 			this.publisher.addIceCandidate(iceCandidate);
+		} else if (ProtocolElements.MIXEDAUDIO_ENDPOINT_NAME.equals(endpointName)) {
+			this.getNewOrExistingMixedAudioSubscriber().addIceCandidate(iceCandidate);
+		} else if (ProtocolElements.GRIDCOMPOSITE_ENDPOINT_NAME.equals(endpointName)) {
+			this.getNewOrExistingGridCompositeSubscriber().addIceCandidate(iceCandidate);
 		} else {
 			this.getNewOrExistingSubscriber(endpointName).addIceCandidate(iceCandidate);
 		}
@@ -402,6 +568,7 @@ public class KurentoParticipant extends Participant {
 			}
 
 			publisher.unregisterErrorListeners();
+			publisher.cancelPendingVideoLinks();
 			if (publisher.kmsWebrtcStatsThread != null) {
 				publisher.kmsWebrtcStatsThread.cancel(true);
 			}
@@ -431,6 +598,9 @@ public class KurentoParticipant extends Participant {
 				subscriber.kmsWebrtcStatsThread.cancel(true);
 			}
 
+			if (senderKurentoParticipant.publisher != null && subscriber.getEndpoint() != null) {
+				senderKurentoParticipant.publisher.removeRelaySource(subscriber.getEndpoint());
+			}
 			releaseElement(senderName, subscriber.getEndpoint());
 
 			if (!silent) {
@@ -472,6 +642,10 @@ public class KurentoParticipant extends Participant {
 
 	void releaseElement(final String senderName, final MediaElement element) {
 		final String eid = element.getId();
+		Kms kms = this.session.getKmsOf(element);
+		if (kms != null) {
+			kms.releaseTranscodings(eid);
+		}
 		try {
 			element.release(new Continuation<Void>() {
 				@Override
@@ -509,6 +683,63 @@ public class KurentoParticipant extends Participant {
 		this.publisherLatch = new CountDownLatch(1);
 	}
 
+	/**
+	 * Detaches the subscribers of the participant from the publishers of the old
+	 * pipeline before its session is migrated to other KMS and those publishers
+	 * are replaced. Subscribers in the old pipeline are left there, receiving media
+	 * until the client subscribes again and the pipeline is released. Subscribers
+	 * in edge pipelines are released, as their relays are fed from the old pipeline
+	 */
+	public void releaseSubscribersForMigration(MediaPipeline oldPipeline) {
+		for (String senderName : new ArrayList<>(this.subscribers.keySet())) {
+			SubscriberEndpoint subscriber = this.subscribers.remove(senderName);
+			if (subscriber == null || subscriber.getEndpoint() == null) {
+				continue;
+			}
+			KurentoParticipant sender = (KurentoParticipant) this.session.getParticipantByPublicId(senderName);
+			if (subscriber.getPipeline() != oldPipeline && sender != null) {
+				releaseSubscriberEndpoint(sender, subscriber, null, true);
+				continue;
+			}
+			subscriber.unregisterErrorListeners();
+			if (subscriber.kmsWebrtcStatsThread != null) {
+				subscriber.kmsWebrtcStatsThread.cancel(true);
+			}
+			if (sender != null && sender.publisher != null) {
+				sender.publisher.removeRelaySource(subscriber.getEndpoint());
+			}
+		}
+	}
+
+	/**
+	 * Leaves the publisher endpoint in the old pipeline of a migrated session,
+	 * where it is released along with the pipeline, and prepares a new one in the
+	 * current pipeline of the session for the reconnection of the client
+	 */
+	public void resetPublisherEndpointForMigration() {
+		PublisherEndpoint oldPublisher = this.publisher;
+		if (oldPublisher == null || oldPublisher.getEndpoint() == null) {
+			return;
+		}
+		oldPublisher.unregisterErrorListeners();
+		oldPublisher.cancelPendingVideoLinks();
+		if (oldPublisher.kmsWebrtcStatsThread != null) {
+			oldPublisher.kmsWebrtcStatsThread.cancel(true);
+		}
+		this.releaseAllFilters();
+		this.resetPublisherEndpoint(oldPublisher.getMediaOptions(), null);
+	}
+
+	/**
+	 * @return the publisher if it has been reset in a new pipeline (KMS restart or
+	 *         session migration) and the client has not published to it yet.
+	 *         Null otherwise. Never waits for the publisher endpoint
+	 */
+	public PublisherEndpoint getPublisherIfReset() {
+		PublisherEndpoint current = this.publisher;
+		return (current != null && current.getEndpoint() == null) ? current : null;
+	}
+
 	@Override
 	public JsonObject toJson() {
 		return this.sharedJson(MediaEndpoint::toJson);
@@ -532,6 +763,14 @@ public class KurentoParticipant extends Participant {
 		}
 		json.add("publishers", publisherEnpoints);
 		json.add("subscribers", subscriberEndpoints);
+		CompositeSubscriberEndpoint mixedAudio = this.mixedAudioSubscriber;
+		if (mixedAudio != null && mixedAudio.getEndpoint() != null) {
+			json.add("mixedAudioSubscriber", toJsonFunction.apply(mixedAudio));
+		}
+		CompositeSubscriberEndpoint grid = this.gridCompositeSubscriber;
+		if (grid != null && grid.getEndpoint() != null) {
+			json.add("gridCompositeSubscriber", toJsonFunction.apply(grid));
+		}
 		return json;
 	}
 
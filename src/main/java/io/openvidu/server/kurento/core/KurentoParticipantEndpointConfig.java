@@ -17,8 +17,14 @@
 
 package io.openvidu.server.kurento.core;
 
+import java.util.List;
+
 import org.kurento.client.BaseRtpEndpoint;
+import org.kurento.client.Continuation;
 import org.kurento.client.Endpoint;
+import org.kurento.client.ListenerSubscription;
+import org.kurento.client.MediaObject;
+import org.kurento.client.MediaTranscodingState;
 import org.kurento.client.PlayerEndpoint;
 import org.kurento.client.WebRtcEndpoint;
 import org.slf4j.Logger;
@@ -28,8 +34,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import io.openvidu.server.cdr.CallDetailRecord;
 import io.openvidu.server.config.InfoHandler;
 import io.openvidu.server.kurento.endpoint.KmsEvent;
+import io.openvidu.server.kurento.endpoint.KmsEventType;
 import io.openvidu.server.kurento.endpoint.KmsMediaEvent;
 import io.openvidu.server.kurento.endpoint.MediaEndpoint;
+import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
+import io.openvidu.server.kurento.kms.Kms;
+import net.imicloud.VmeetingServer.OpenviduConfig;
 
 public class KurentoParticipantEndpointConfig {
 
@@ -41,6 +51,9 @@ public class KurentoParticipantEndpointConfig {
 	@Autowired
 	protected CallDetailRecord CDR;
 
+	@Autowired
+	protected OpenviduConfig openviduConfig;
+
 	public void addEndpointListeners(MediaEndpoint endpoint, String typeOfEndpoint) {
 
 		// WebRtcEndpoint events
@@ -48,67 +61,78 @@ public class KurentoParticipantEndpointConfig {
 
 			final WebRtcEndpoint finalEndpoint = endpoint.getWebEndpoint();
 
-			finalEndpoint.addIceGatheringDoneListener(event -> {
-				String msg = "KMS event [IceGatheringDone] -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | timestamp: " + event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
-				endpoint.kmsEvents.add(kmsEvent);
-				this.CDR.log(kmsEvent);
-				this.infoHandler.sendInfo(msg);
-				log.info(msg);
-			});
-
-			finalEndpoint.addNewCandidatePairSelectedListener(event -> {
-				endpoint.selectedLocalIceCandidate = event.getCandidatePair().getLocalCandidate();
-				endpoint.selectedRemoteIceCandidate = event.getCandidatePair().getRemoteCandidate();
-				String msg = "KMS event [NewCandidatePairSelected]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | local: " + endpoint.selectedLocalIceCandidate + " | remote: "
-						+ endpoint.selectedRemoteIceCandidate + " | timestamp: " + event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
-				endpoint.kmsEvents.add(kmsEvent);
-				this.CDR.log(kmsEvent);
-				this.infoHandler.sendInfo(msg);
-				log.info(msg);
-			});
-
-			finalEndpoint.addIceComponentStateChangeListener(event -> {
-				String msg = "KMS event [IceComponentStateChange]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | state: " + event.getState().name() + " | componentId: "
-						+ event.getComponentId() + " | streamId: " + event.getStreamId() + " | timestamp: "
-						+ event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
-				endpoint.kmsEvents.add(kmsEvent);
-				this.CDR.log(kmsEvent);
-				this.infoHandler.sendInfo(msg);
-				log.info(msg);
-			});
-
-			finalEndpoint.addDataChannelOpenListener(event -> {
-				String msg = "KMS event [DataChannelOpenEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | channelId: " + event.getChannelId() + " | timestamp: "
-						+ event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
-				endpoint.kmsEvents.add(kmsEvent);
-				this.CDR.log(kmsEvent);
-				this.infoHandler.sendInfo(msg);
-				log.info(msg);
-			});
-
-			finalEndpoint.addDataChannelCloseListener(event -> {
-				String msg = "KMS event [DataChannelCloseEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | channelId: " + event.getChannelId() + " | timestamp: "
-						+ event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
-				endpoint.kmsEvents.add(kmsEvent);
-				this.CDR.log(kmsEvent);
-				this.infoHandler.sendInfo(msg);
-				log.info(msg);
-			});
+			if (subscribes(endpoint, KmsEventType.IceGatheringDone)) {
+				finalEndpoint.addIceGatheringDoneListener(event -> {
+					String msg = "KMS event [IceGatheringDone] -> endpoint: " + endpoint.getEndpointName() + " ("
+							+ typeOfEndpoint + ") | timestamp: " + event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.IceGatheringDone));
+			}
+
+			if (subscribes(endpoint, KmsEventType.NewCandidatePairSelected)) {
+				finalEndpoint.addNewCandidatePairSelectedListener(event -> {
+					endpoint.selectedLocalIceCandidate = event.getCandidatePair().getLocalCandidate();
+					endpoint.selectedRemoteIceCandidate = event.getCandidatePair().getRemoteCandidate();
+					String msg = "KMS event [NewCandidatePairSelected]: -> endpoint: " + endpoint.getEndpointName()
+							+ " (" + typeOfEndpoint + ") | local: " + endpoint.selectedLocalIceCandidate
+							+ " | remote: " + endpoint.selectedRemoteIceCandidate + " | timestamp: "
+							+ event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.NewCandidatePairSelected));
+			}
+
+			if (subscribes(endpoint, KmsEventType.IceComponentStateChange)) {
+				finalEndpoint.addIceComponentStateChangeListener(event -> {
+					String msg = "KMS event [IceComponentStateChange]: -> endpoint: " + endpoint.getEndpointName()
+							+ " (" + typeOfEndpoint + ") | state: " + event.getState().name() + " | componentId: "
+							+ event.getComponentId() + " | streamId: " + event.getStreamId() + " | timestamp: "
+							+ event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.IceComponentStateChange));
+			}
+
+			if (subscribes(endpoint, KmsEventType.DataChannelOpen)) {
+				finalEndpoint.addDataChannelOpenListener(event -> {
+					String msg = "KMS event [DataChannelOpenEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
+							+ typeOfEndpoint + ") | channelId: " + event.getChannelId() + " | timestamp: "
+							+ event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.DataChannelOpen));
+			}
+
+			if (subscribes(endpoint, KmsEventType.DataChannelClose)) {
+				finalEndpoint.addDataChannelCloseListener(event -> {
+					String msg = "KMS event [DataChannelCloseEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
+							+ typeOfEndpoint + ") | channelId: " + event.getChannelId() + " | timestamp: "
+							+ event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.DataChannelClose));
+			}
 
 		}
 
@@ -117,112 +141,205 @@ public class KurentoParticipantEndpointConfig {
 
 			final PlayerEndpoint finalEndpoint = endpoint.getPlayerEndpoint();
 
-			finalEndpoint.addEndOfStreamListener(event -> {
-				String msg = "KMS event [EndOfStreamEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | timestamp: " + event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
+			if (subscribes(endpoint, KmsEventType.EndOfStream)) {
+				finalEndpoint.addEndOfStreamListener(event -> {
+					String msg = "KMS event [EndOfStreamEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
+							+ typeOfEndpoint + ") | timestamp: " + event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.EndOfStream));
+			}
+
+			if (subscribes(endpoint, KmsEventType.UriEndpointStateChanged)) {
+				finalEndpoint.addUriEndpointStateChangedListener(event -> {
+					String msg = "KMS event [UriEndpointStateChangedEvent]: -> endpoint: " + endpoint.getEndpointName()
+							+ " (" + typeOfEndpoint + ") | state: " + event.getState().name() + " | timestamp: "
+							+ event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.UriEndpointStateChanged));
+			}
+
+		}
+
+		// BaseRtpEndpoint events
+		if (endpoint.getWebEndpoint() != null || endpoint.getRtpEndpoint() != null) {
+
+			final BaseRtpEndpoint finalEndpoint = ((BaseRtpEndpoint) endpoint.getEndpoint());
+
+			if (subscribes(endpoint, KmsEventType.ConnectionStateChanged)) {
+				finalEndpoint.addConnectionStateChangedListener(event -> {
+					String msg = "KMS event [ConnectionStateChanged]: -> endpoint: " + endpoint.getEndpointName() + " ("
+							+ typeOfEndpoint + ") | oldState: " + event.getOldState() + " | newState: "
+							+ event.getNewState() + " | timestamp: " + event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.ConnectionStateChanged));
+			}
+
+			if (subscribes(endpoint, KmsEventType.MediaStateChanged)) {
+				finalEndpoint.addMediaStateChangedListener(event -> {
+					String msg = "KMS event [MediaStateChangedEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
+							+ typeOfEndpoint + ") | oldState: " + event.getOldState() + " | newState: "
+							+ event.getNewState() + " | timestamp: " + event.getTimestampMillis();
+					KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+							endpoint.createdAt());
+					endpoint.kmsEvents.add(kmsEvent);
+					this.CDR.log(kmsEvent);
+					this.infoHandler.sendInfo(msg);
+					log.info(msg);
+				}, subscribed(endpoint, KmsEventType.MediaStateChanged));
+			}
+
+		}
+
+		// Endpoint events
+		final Endpoint finalEndpoint = endpoint.getEndpoint();
+
+		if (subscribes(endpoint, KmsEventType.MediaFlowInStateChange)) {
+			finalEndpoint.addMediaFlowInStateChangeListener(event -> {
+				String msg = "KMS event [MediaFlowInStateChange] -> endpoint: " + endpoint.getEndpointName() + " ("
+						+ typeOfEndpoint + ") | state: " + event.getState() + " | pad: " + event.getPadName()
+						+ " | mediaType: " + event.getMediaType() + " | timestamp: " + event.getTimestampMillis();
+				KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+						event.getMediaType(), endpoint.createdAt());
 				endpoint.kmsEvents.add(kmsEvent);
 				this.CDR.log(kmsEvent);
 				this.infoHandler.sendInfo(msg);
 				log.info(msg);
-			});
+			}, subscribed(endpoint, KmsEventType.MediaFlowInStateChange));
+		}
 
-			finalEndpoint.addUriEndpointStateChangedListener(event -> {
-				String msg = "KMS event [UriEndpointStateChangedEvent]: -> endpoint: " + endpoint.getEndpointName()
-						+ " (" + typeOfEndpoint + ") | state: " + event.getState().name() + " | timestamp: "
-						+ event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
+		if (subscribes(endpoint, KmsEventType.MediaFlowOutStateChange)) {
+			finalEndpoint.addMediaFlowOutStateChangeListener(event -> {
+				String msg = "KMS event [MediaFlowOutStateChange] -> endpoint: " + endpoint.getEndpointName() + " ("
+						+ typeOfEndpoint + ") | state: " + event.getState() + " | pad: " + event.getPadName()
+						+ " | mediaType: " + event.getMediaType() + " | timestamp: " + event.getTimestampMillis();
+				KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+						event.getMediaType(), endpoint.createdAt());
 				endpoint.kmsEvents.add(kmsEvent);
 				this.CDR.log(kmsEvent);
 				this.infoHandler.sendInfo(msg);
 				log.info(msg);
-			});
-
+			}, subscribed(endpoint, KmsEventType.MediaFlowOutStateChange));
 		}
 
-		// BaseRtpEndpoint events
-		if (endpoint.getWebEndpoint() != null || endpoint.getRtpEndpoint() != null) {
-
-			final BaseRtpEndpoint finalEndpoint = ((BaseRtpEndpoint) endpoint.getEndpoint());
-
-			finalEndpoint.addConnectionStateChangedListener(event -> {
-				String msg = "KMS event [ConnectionStateChanged]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | oldState: " + event.getOldState() + " | newState: "
-						+ event.getNewState() + " | timestamp: " + event.getTimestampMillis();
+		if (subscribes(endpoint, KmsEventType.Error)) {
+			finalEndpoint.addErrorListener(event -> {
+				String msg = "KMS event [ERROR]: -> endpoint: " + endpoint.getEndpointName() + " (" + typeOfEndpoint
+						+ ") | errorCode: " + event.getErrorCode() + " | description: " + event.getDescription()
+						+ " | timestamp: " + event.getTimestampMillis();
 				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
 						endpoint.createdAt());
 				endpoint.kmsEvents.add(kmsEvent);
 				this.CDR.log(kmsEvent);
 				this.infoHandler.sendInfo(msg);
+				log.error(msg);
+			}, subscribed(endpoint, KmsEventType.Error));
+		}
+
+		if (subscribes(endpoint, KmsEventType.MediaTranscodingStateChange)) {
+			finalEndpoint.addMediaTranscodingStateChangeListener(event -> {
+				String msg = "KMS event [MediaTranscodingStateChange]: -> endpoint: " + endpoint.getEndpointName()
+						+ " (" + typeOfEndpoint + ") | state: " + event.getState().name() + " | mediaType: "
+						+ event.getMediaType() + " | binName: " + event.getBinName() + " | timestamp: "
+						+ event.getTimestampMillis();
+				KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+						event.getMediaType(), endpoint.createdAt());
+				endpoint.kmsEvents.add(kmsEvent);
+				this.CDR.log(kmsEvent);
+				this.infoHandler.sendInfo(msg);
 				log.info(msg);
-			});
+				this.countTranscoding(endpoint, event.getSource(), event.getState());
+			}, subscribed(endpoint, KmsEventType.MediaTranscodingStateChange));
+		}
 
-			finalEndpoint.addMediaStateChangedListener(event -> {
-				String msg = "KMS event [MediaStateChangedEvent]: -> endpoint: " + endpoint.getEndpointName() + " ("
-						+ typeOfEndpoint + ") | oldState: " + event.getOldState() + " | newState: "
-						+ event.getNewState() + " | timestamp: " + event.getTimestampMillis();
-				KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-						endpoint.createdAt());
+		// Recorders and subscribers are fed from the publisher's PassThrough, so any
+		// transcoding they require is done (and notified) by it
+		if (endpoint instanceof PublisherEndpoint && ((PublisherEndpoint) endpoint).getPassThru() != null
+				&& subscribes(endpoint, KmsEventType.MediaTranscodingStateChange)) {
+			((PublisherEndpoint) endpoint).getPassThru().addMediaTranscodingStateChangeListener(event -> {
+				String msg = "KMS event [MediaTranscodingStateChange]: -> passthrough of endpoint: "
+						+ endpoint.getEndpointName() + " (" + typeOfEndpoint + ") | state: " + event.getState().name()
+						+ " | mediaType: " + event.getMediaType() + " | binName: " + event.getBinName()
+						+ " | timestamp: " + event.getTimestampMillis();
+				KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
+						event.getMediaType(), endpoint.createdAt());
 				endpoint.kmsEvents.add(kmsEvent);
 				this.CDR.log(kmsEvent);
 				this.infoHandler.sendInfo(msg);
 				log.info(msg);
-			});
+				this.countTranscoding(endpoint, event.getSource(), event.getState());
+			}, subscribed(endpoint, KmsEventType.MediaTranscodingStateChange));
+		}
+	}
 
+	/**
+	 * @return true if some consumer of KMS events is enabled (CDR, webhook,
+	 *         session events feed or a connected dashboard) or if the event is
+	 *         configured for the role of the endpoint (property
+	 *         kms.events.publisher or kms.events.subscriber). The properties are
+	 *         the events OpenVidu Server needs by itself when nobody else consumes
+	 *         them
+	 */
+	private boolean subscribes(MediaEndpoint endpoint, KmsEventType eventType) {
+		if (this.eventConsumersEnabled()) {
+			return true;
+		}
+		List<KmsEventType> events = endpoint instanceof PublisherEndpoint ? openviduConfig.getKmsEventsPublisher()
+				: openviduConfig.getKmsEventsSubscriber();
+		if (events.contains(eventType)) {
+			return true;
+		}
+		Kms kms = endpoint.getKms();
+		if (kms != null) {
+			kms.registerSkippedEventSubscription();
 		}
+		return false;
+	}
 
-		// Endpoint events
-		final Endpoint finalEndpoint = endpoint.getEndpoint();
+	private boolean eventConsumersEnabled() {
+		return openviduConfig.isCdrEnabled() || openviduConfig.isWebhookEnabled() || openviduConfig.isFeedEnabled()
+				|| this.infoHandler.hasSessions();
+	}
 
-		finalEndpoint.addMediaFlowInStateChangeListener(event -> {
-			String msg = "KMS event [MediaFlowInStateChange] -> endpoint: " + endpoint.getEndpointName() + " ("
-					+ typeOfEndpoint + ") | state: " + event.getState() + " | pad: " + event.getPadName()
-					+ " | mediaType: " + event.getMediaType() + " | timestamp: " + event.getTimestampMillis();
-			KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-					event.getMediaType(), endpoint.createdAt());
-			endpoint.kmsEvents.add(kmsEvent);
-			this.CDR.log(kmsEvent);
-			this.infoHandler.sendInfo(msg);
-			log.info(msg);
-		});
-
-		finalEndpoint.addMediaFlowOutStateChangeListener(event -> {
-			String msg = "KMS event [MediaFlowOutStateChange] -> endpoint: " + endpoint.getEndpointName() + " ("
-					+ typeOfEndpoint + ") | state: " + event.getState() + " | pad: " + event.getPadName()
-					+ " | mediaType: " + event.getMediaType() + " | timestamp: " + event.getTimestampMillis();
-			KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-					event.getMediaType(), endpoint.createdAt());
-			endpoint.kmsEvents.add(kmsEvent);
-			this.CDR.log(kmsEvent);
-			this.infoHandler.sendInfo(msg);
-			log.info(msg);
-		});
-
-		finalEndpoint.addErrorListener(event -> {
-			String msg = "KMS event [ERROR]: -> endpoint: " + endpoint.getEndpointName() + " (" + typeOfEndpoint
-					+ ") | errorCode: " + event.getErrorCode() + " | description: " + event.getDescription()
-					+ " | timestamp: " + event.getTimestampMillis();
-			KmsEvent kmsEvent = new KmsEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-					endpoint.createdAt());
-			endpoint.kmsEvents.add(kmsEvent);
-			this.CDR.log(kmsEvent);
-			this.infoHandler.sendInfo(msg);
-			log.error(msg);
-		});
-
-		finalEndpoint.addMediaTranscodingStateChangeListener(event -> {
-			String msg = "KMS event [MediaTranscodingStateChange]: -> endpoint: " + endpoint.getEndpointName() + " ("
-					+ typeOfEndpoint + ") | state: " + event.getState().name() + " | mediaType: " + event.getMediaType()
-					+ " | binName: " + event.getBinName() + " | timestamp: " + event.getTimestampMillis();
-			KmsEvent kmsEvent = new KmsMediaEvent(event, endpoint.getOwner(), endpoint.getEndpointName(),
-					event.getMediaType(), endpoint.createdAt());
-			endpoint.kmsEvents.add(kmsEvent);
-			this.CDR.log(kmsEvent);
-			this.infoHandler.sendInfo(msg);
-			log.info(msg);
-		});
+	/**
+	 * Listeners are subscribed asynchronously, so that all of them are sent to KMS
+	 * at once instead of waiting for each round trip
+	 */
+	private Continuation<ListenerSubscription> subscribed(MediaEndpoint endpoint, KmsEventType eventType) {
+		return new Continuation<ListenerSubscription>() {
+			@Override
+			public void onSuccess(ListenerSubscription result) throws Exception {
+				endpoint.registerKmsEventSubscription();
+				log.trace("EP {}: Subscribed to KMS event {}", endpoint.getEndpointName(), eventType);
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				log.warn("EP {}: Error subscribing to KMS event {}: {}", endpoint.getEndpointName(), eventType,
+						cause.getMessage());
+			}
+		};
+	}
+
+	private void countTranscoding(MediaEndpoint endpoint, MediaObject element, MediaTranscodingState state) {
+		Kms kms = ((KurentoParticipant) endpoint.getOwner()).getSession().getKmsOf(element);
+		if (kms != null) {
+			kms.registerTranscodingStateChange(element.getId(), MediaTranscodingState.TRANSCODING.equals(state));
+		}
 	}
 
 	public CallDetailRecord getCdr() {
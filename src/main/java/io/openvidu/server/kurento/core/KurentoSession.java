@@ -17,7 +17,9 @@
 
 package io.openvidu.server.kurento.core;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -27,19 +29,24 @@ import org.kurento.client.Continuation;
 import org.kurento.client.ErrorEvent;
 import org.kurento.client.EventListener;
 import org.kurento.client.IceCandidate;
+import org.kurento.client.MediaObject;
 import org.kurento.client.MediaPipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonObject;
+
 import io.openvidu.client.OpenViduException;
 import io.openvidu.client.OpenViduException.Code;
 import io.openvidu.client.internal.ProtocolElements;
 import io.openvidu.java.client.OpenViduRole;
+import io.openvidu.server.core.AudioMixingMode;
 import io.openvidu.server.core.EndReason;
 import io.openvidu.server.core.MediaOptions;
 import io.openvidu.server.core.Participant;
 import io.openvidu.server.core.Session;
 import io.openvidu.server.kurento.kms.Kms;
+import io.openvidu.server.kurento.kms.MediaPipelineReconciler;
 
 /**
  * @author Pablo Fuente (pablofuenteperez@gmail.com)
@@ -62,12 +69,22 @@ public class KurentoSession extends Session {
 
 	public final ConcurrentHashMap<String, String> publishedStreamIds = new ConcurrentHashMap<>();
 
+	private final LastNVideoForwarder lastNVideoForwarder;
+	private final AudioMixer audioMixer;
+	private final GridComposite gridComposite;
+	private SessionCascade cascade;
+
 	public KurentoSession(Session sessionNotActive, Kms kms, KurentoSessionEventsHandler kurentoSessionHandler,
 			KurentoParticipantEndpointConfig kurentoEndpointConfig) {
 		super(sessionNotActive);
 		this.kms = kms;
 		this.kurentoSessionHandler = kurentoSessionHandler;
 		this.kurentoEndpointConfig = kurentoEndpointConfig;
+		this.lastNVideoForwarder = this.lastN > 0 ? new LastNVideoForwarder(this, this.lastN) : null;
+		this.audioMixer = !AudioMixingMode.NONE.equals(this.audioMixingMode)
+				? new AudioMixer(this, this.audioMixingMode)
+				: null;
+		this.gridComposite = this.isGridComposite() ? new GridComposite(this) : null;
 		log.debug("New SESSION instance with id '{}'", sessionId);
 	}
 
@@ -89,6 +106,15 @@ public class KurentoSession extends Session {
 
 	public void newPublisher(Participant participant) {
 		registerPublisher();
+		if (this.lastNVideoForwarder != null) {
+			this.lastNVideoForwarder.registerActivity((KurentoParticipant) participant);
+		}
+		if (this.audioMixer != null) {
+			this.audioMixer.addPublisher((KurentoParticipant) participant);
+		}
+		if (this.gridComposite != null) {
+			this.gridComposite.addPublisher((KurentoParticipant) participant);
+		}
 
 		// pre-load endpoints to recv video from the new publisher
 		for (Participant p : participants.values()) {
@@ -103,6 +129,19 @@ public class KurentoSession extends Session {
 	}
 
 	public void cancelPublisher(Participant participant, EndReason reason) {
+		if (this.lastNVideoForwarder != null) {
+			this.lastNVideoForwarder.removePublisher(participant.getParticipantPublicId());
+		}
+		if (this.audioMixer != null) {
+			this.audioMixer.removePublisher(participant.getParticipantPublicId());
+		}
+		if (this.gridComposite != null) {
+			this.gridComposite.removePublisher(participant.getParticipantPublicId());
+		}
+		if (this.cascade != null) {
+			this.cascade.removePublisher(participant.getParticipantPublicId());
+		}
+
 		// Cancel all subscribers for this publisher
 		for (Participant subscriber : participants.values()) {
 			if (participant.equals(subscriber)) {
@@ -127,11 +166,26 @@ public class KurentoSession extends Session {
 					+ participantPrivateId + " not found in session '" + sessionId + "'");
 		}
 		participant.releaseAllFilters();
+		if (this.lastNVideoForwarder != null) {
+			this.lastNVideoForwarder.removePublisher(participant.getParticipantPublicId());
+		}
+		if (this.audioMixer != null) {
+			this.audioMixer.removePublisher(participant.getParticipantPublicId());
+		}
+		if (this.gridComposite != null) {
+			this.gridComposite.removePublisher(participant.getParticipantPublicId());
+		}
 
 		log.info("PARTICIPANT {}: Leaving session {}", participant.getParticipantPublicId(), this.sessionId);
 
 		this.removeParticipant(participant, reason);
 		participant.close(reason, true, 0);
+
+		if (this.cascade != null) {
+			// Relays and edge pipelines are released once the participant's endpoints are
+			this.cascade.removePublisher(participant.getParticipantPublicId());
+			this.cascade.removeViewer(participant.getParticipantPublicId());
+		}
 	}
 
 	@Override
@@ -147,6 +201,9 @@ public class KurentoSession extends Session {
 
 			participants.clear();
 
+			if (this.cascade != null) {
+				this.cascade.close();
+			}
 			closePipeline(null);
 
 			log.debug("Session {} closed", this.sessionId);
@@ -191,10 +248,105 @@ public class KurentoSession extends Session {
 		}
 	}
 
+	/**
+	 * @return the last-N video forwarder of the session, or null if every
+	 *         publisher's video is forwarded
+	 */
+	public LastNVideoForwarder getLastNVideoForwarder() {
+		return this.lastNVideoForwarder;
+	}
+
+	/**
+	 * Marks a publisher as active for last-N video forwarding
+	 */
+	public void registerPublisherActivity(KurentoParticipant publisher) {
+		if (this.lastNVideoForwarder != null && publisher.isStreaming()) {
+			this.lastNVideoForwarder.registerActivity(publisher);
+		}
+	}
+
+	/**
+	 * @return the audio mixer of the session, or null if every subscription
+	 *         carries the audio of its publisher
+	 */
+	public AudioMixer getAudioMixer() {
+		return this.audioMixer;
+	}
+
+	/**
+	 * @return the grid composite of the session, or null if the session does not
+	 *         offer it
+	 */
+	public GridComposite getGridComposite() {
+		return this.gridComposite;
+	}
+
+	/**
+	 * @return the cascade state of the session, or null if cascading is disabled
+	 */
+	public SessionCascade getCascade() {
+		return this.cascade;
+	}
+
+	public void setCascade(SessionCascade cascade) {
+		this.cascade = cascade;
+	}
+
+	/**
+	 * Whether the participant gets the audio of other participants from the audio
+	 * mixer instead of from each subscription. The RECORDER participant always
+	 * subscribes to every audio stream
+	 */
+	public boolean receivesMixedAudio(Participant participant) {
+		return this.audioMixer != null
+				&& !ProtocolElements.RECORDER_PARTICIPANT_PUBLICID.equals(participant.getParticipantPublicId());
+	}
+
+	@Override
+	public JsonObject withStatsToJson() {
+		JsonObject json = super.withStatsToJson();
+		if (this.lastNVideoForwarder != null) {
+			json.add("lastNStatus", this.lastNVideoForwarder.toJson());
+		}
+		if (this.audioMixer != null) {
+			json.add("audioMixingStatus", this.audioMixer.toJson());
+		}
+		if (this.gridComposite != null) {
+			json.add("gridCompositeStatus", this.gridComposite.toJson());
+		}
+		if (this.cascade != null) {
+			json.add("cascadeStatus", this.cascade.toJson());
+		}
+		return json;
+	}
+
 	public Kms getKms() {
 		return this.kms;
 	}
 
+	/**
+	 * @return the name of a pipeline created for this session, which tells the
+	 *         pipeline reconciler that this server owns it
+	 */
+	public String getPipelineName(String name) {
+		return MediaPipelineReconciler.pipelineName(this.openviduConfig.getKmsReconcileOwner(), name);
+	}
+
+	/**
+	 * @return the KMS hosting the media object, which is an edge KMS for the
+	 *         elements of the cascade of the session
+	 */
+	public Kms getKmsOf(MediaObject mediaObject) {
+		SessionCascade cascade = this.cascade;
+		if (cascade != null) {
+			Kms edgeKms = cascade.getEdgeKms(mediaObject.getId());
+			if (edgeKms != null) {
+				return edgeKms;
+			}
+		}
+		return this.kms;
+	}
+
 	public MediaPipeline getPipeline() {
 		try {
 			pipelineLatch.await(KurentoSession.ASYNC_LATCH_TIMEOUT, TimeUnit.SECONDS);
@@ -204,6 +356,16 @@ public class KurentoSession extends Session {
 		return this.pipeline;
 	}
 
+	/**
+	 * Same as {@link #getPipeline()}, but never waits for the pipeline to be
+	 * created
+	 * 
+	 * @return the pipeline of the session, or null if it is not created yet
+	 */
+	public MediaPipeline getPipelineIfCreated() {
+		return this.pipeline;
+	}
+
 	private void createPipeline() {
 		synchronized (pipelineCreateLock) {
 			if (pipeline != null) {
@@ -211,7 +373,7 @@ public class KurentoSession extends Session {
 			}
 			log.info("SESSION {}: Creating MediaPipeline", sessionId);
 			try {
-				kms.getKurentoClient().createMediaPipeline(new Continuation<MediaPipeline>() {
+				kms.getKurentoClient(this.sessionId).createMediaPipeline(new Continuation<MediaPipeline>() {
 					@Override
 					public void onSuccess(MediaPipeline result) throws Exception {
 						pipeline = result;
@@ -238,6 +400,8 @@ public class KurentoSession extends Session {
 				throw new OpenViduException(Code.ROOM_CANNOT_BE_CREATED_ERROR_CODE, message);
 			}
 
+			pipeline.setName(this.getPipelineName(this.sessionId));
+
 			pipeline.addErrorListener(new EventListener<ErrorEvent>() {
 				@Override
 				public void onEvent(ErrorEvent event) {
@@ -259,6 +423,9 @@ public class KurentoSession extends Session {
 				return;
 			}
 
+			if (this.kms != null) {
+				this.kms.releaseTranscodings(pipeline.getId());
+			}
 			getPipeline().release(new Continuation<Void>() {
 				@Override
 				public void onSuccess(Void result) throws Exception {
@@ -289,6 +456,88 @@ public class KurentoSession extends Session {
 		return this.publishedStreamIds.get(streamId);
 	}
 
+	/**
+	 * Moves the media of the session to another KMS. A pipeline is created in the
+	 * target KMS and the publisher endpoints are prepared in it, then every
+	 * participant is notified of the streams it must renegotiate through
+	 * reconnectStream. The old pipeline keeps the media flowing until the caller
+	 * releases it
+	 * 
+	 * @return the old pipeline of the session
+	 */
+	public MediaPipeline migrateTo(Kms target) {
+		this.closingLock.writeLock().lock();
+		try {
+			checkClosed();
+			return this.doMigrateTo(target);
+		} finally {
+			this.closingLock.writeLock().unlock();
+		}
+	}
+
+	private MediaPipeline doMigrateTo(Kms target) {
+		final Kms origin = this.kms;
+		final MediaPipeline oldPipeline;
+		Map<Participant, List<String>> streamsToReconnect = new HashMap<>();
+
+		synchronized (pipelineReleaseLock) {
+			oldPipeline = this.getPipeline();
+			this.getParticipants().forEach(p -> {
+				KurentoParticipant kParticipant = (KurentoParticipant) p;
+				List<String> streamIds = new ArrayList<>();
+				if (kParticipant.isStreaming()) {
+					streamIds.add(kParticipant.getPublisherStreamId());
+				}
+				kParticipant.getSubscribers().forEach(subscriber -> {
+					if (subscriber.getEndpoint() != null && subscriber.getStreamId() != null) {
+						streamIds.add(subscriber.getStreamId());
+					}
+				});
+				if (!streamIds.isEmpty()) {
+					streamsToReconnect.put(p, streamIds);
+				}
+			});
+
+			// Subscribers are disconnected from the publishers of the old pipeline before
+			// these are replaced
+			this.getParticipants().forEach(p -> ((KurentoParticipant) p).releaseSubscribersForMigration(oldPipeline));
+
+			// Edges in other KMSs are kept and fed again from the new pipeline as
+			// participants subscribe again
+			if (this.cascade != null) {
+				this.cascade.moveOrigin(origin.getId(), target.getId());
+			}
+
+			this.kms = target;
+			this.pipeline = null;
+			this.pipelineLatch = new CountDownLatch(1);
+			try {
+				createPipeline();
+			} catch (OpenViduException e) {
+				this.kms = origin;
+				this.pipeline = oldPipeline;
+				this.pipelineLatch = new CountDownLatch(0);
+				throw e;
+			}
+		}
+		origin.removeKurentoSession(this.sessionId);
+		target.addKurentoSession(this);
+
+		// The last-N forwarder belongs to the session, so the publishers keep their
+		// activity and the forwarded ones. The new subscribers link their video
+		// according to it
+		this.getParticipants().forEach(p -> {
+			if (p.isStreaming()) {
+				((KurentoParticipant) p).resetPublisherEndpointForMigration();
+			}
+		});
+		streamsToReconnect.forEach((p, streamIds) -> kurentoSessionHandler.onMediaNodeMigration(p, streamIds));
+
+		log.info("SESSION {}: migrated from KMS {} to KMS {}. {} participants asked to reconnect their streams",
+				this.sessionId, origin.getId(), target.getId(), streamsToReconnect.size());
+		return oldPipeline;
+	}
+
 	public void restartStatusInKurento(long kmsDisconnectionTime) {
 
 		log.info("Resetting process: resetting remote media objects for active session {}", this.sessionId);
@@ -301,6 +550,15 @@ public class KurentoSession extends Session {
 		// Store MediaOptions for resetting PublisherEndpoints later
 		Map<String, MediaOptions> mediaOptionsMap = new HashMap<>();
 
+		// Audio mixer and grid composite elements are released along with the
+		// pipeline
+		if (this.audioMixer != null) {
+			this.audioMixer.reset();
+		}
+		if (this.gridComposite != null) {
+			this.gridComposite.reset();
+		}
+
 		// Close all MediaEndpoints of participants
 		this.getParticipants().forEach(p -> {
 			KurentoParticipant kParticipant = (KurentoParticipant) p;
@@ -319,6 +577,12 @@ public class KurentoSession extends Session {
 
 		// Release pipeline, create a new one and prepare new PublisherEndpoints for
 		// allowed users
+		// Edge pipelines are fed from the origin pipeline. Participants are placed
+		// again when they subscribe
+		if (this.cascade != null) {
+			this.cascade.reset();
+		}
+
 		log.info("Resetting process: closing media pipeline for active session {}", this.sessionId);
 		this.closePipeline(() -> {
 			log.info("Resetting process: media pipeline closed for active session {}", this.sessionId);
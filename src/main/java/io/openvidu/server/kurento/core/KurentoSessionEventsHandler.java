@@ -17,10 +17,12 @@
 
 package io.openvidu.server.kurento.core;
 
+import java.util.List;
 import java.util.Set;
 
 import org.kurento.client.IceCandidate;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import io.openvidu.client.internal.ProtocolElements;
@@ -59,6 +61,27 @@ public class KurentoSessionEventsHandler extends SessionEventsHandler {
 		rpcNotificationService.sendNotification(participantId, ProtocolElements.MEDIAERROR_METHOD, notifParams);
 	}
 
+	public void onMediaNodeMigration(Participant participant, List<String> streamIds) {
+		JsonObject notifParams = new JsonObject();
+		JsonArray streams = new JsonArray();
+		streamIds.forEach(streams::add);
+		notifParams.add(ProtocolElements.MEDIANODEMIGRATION_STREAMS_PARAM, streams);
+		rpcNotificationService.sendNotification(participant.getParticipantPrivateId(),
+				ProtocolElements.MEDIANODEMIGRATION_METHOD, notifParams);
+	}
+
+	/**
+	 * Tells the participant that its subscription to the stream is receiving only
+	 * audio because the media server has no egress bandwidth left for the video
+	 */
+	public void onSubscriptionDowngraded(Participant participant, String senderPublicId, String streamId) {
+		JsonObject notifParams = new JsonObject();
+		notifParams.addProperty(ProtocolElements.SUBSCRIPTIONDOWNGRADED_SENDER_PARAM, senderPublicId);
+		notifParams.addProperty(ProtocolElements.SUBSCRIPTIONDOWNGRADED_STREAMID_PARAM, streamId);
+		rpcNotificationService.sendNotification(participant.getParticipantPrivateId(),
+				ProtocolElements.SUBSCRIPTIONDOWNGRADED_METHOD, notifParams);
+	}
+
 	public void updateFilter(String roomName, Participant participant, String filterId, String state) {
 	}
 
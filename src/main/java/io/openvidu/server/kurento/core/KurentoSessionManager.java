@@ -24,11 +24,21 @@ import java.net.URL;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import io.openvidu.java.client.*;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.kurento.client.GenericMediaElement;
@@ -58,8 +68,11 @@ import io.openvidu.server.core.Token;
 import io.openvidu.server.kurento.endpoint.KurentoFilter;
 import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
 import io.openvidu.server.kurento.endpoint.SdpType;
+import io.openvidu.server.kurento.endpoint.SubscriberEndpoint;
+import io.openvidu.server.kurento.kms.EgressBudgetManager;
 import io.openvidu.server.kurento.kms.Kms;
 import io.openvidu.server.kurento.kms.KmsManager;
+import io.openvidu.server.kurento.kms.SessionPlacementManager;
 import io.openvidu.server.rpc.RpcHandler;
 import io.openvidu.server.utils.GeoLocation;
 import io.openvidu.server.utils.JsonUtils;
@@ -71,12 +84,41 @@ public class KurentoSessionManager extends SessionManager {
 	@Autowired
 	private KmsManager kmsManager;
 
+	@Autowired
+	private CascadeManager cascadeManager;
+
+	@Autowired
+	private SessionPlacementManager sessionPlacementManager;
+
+	@Autowired
+	private EgressBudgetManager egressBudgetManager;
+
 	@Autowired
 	private KurentoSessionEventsHandler kurentoSessionEventsHandler;
 
 	@Autowired
 	private KurentoParticipantEndpointConfig kurentoEndpointConfig;
 
+	private final AtomicInteger batchSubscribeThreadCount = new AtomicInteger(0);
+	private ThreadPoolExecutor batchSubscribeExecutor;
+
+	@PostConstruct
+	public void initBatchSubscribeExecutor() {
+		int threads = Math.max(1, this.openviduConfig.getOpenviduStreamsBatchSubscribeThreads());
+		this.batchSubscribeExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "batch-subscribe-" + batchSubscribeThreadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.batchSubscribeExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void closeBatchSubscribeExecutor() {
+		this.batchSubscribeExecutor.shutdownNow();
+	}
+
 	@Override
 	public synchronized void joinRoom(Participant participant, String sessionId, Integer transactionId) {
 		Set<Participant> existingParticipants = null;
@@ -103,7 +145,7 @@ public class KurentoSessionManager extends SessionManager {
 
 				Kms lessLoadedKms = null;
 				try {
-					lessLoadedKms = this.kmsManager.getLessLoadedAndRunningKms();
+					lessLoadedKms = this.sessionPlacementManager.placeSession(sessionNotActive);
 				} catch (NoSuchElementException e) {
 					// Restore session not active
 					this.cleanCollections(sessionId);
@@ -278,7 +320,21 @@ public class KurentoSessionManager extends SessionManager {
 		SdpType sdpType = kurentoOptions.isOffer ? SdpType.OFFER : SdpType.ANSWER;
 		KurentoSession kSession = kParticipant.getSession();
 
-		kParticipant.createPublishingEndpoint(mediaOptions, null);
+		try {
+			egressBudgetManager.admitPublication(kParticipant, mediaOptions);
+		} catch (OpenViduException e) {
+			log.error("PARTICIPANT {}: Error publishing media", participant.getParticipantPublicId(), e);
+			sessionEventsHandler.onPublishMedia(participant, null, System.currentTimeMillis(),
+					kSession.getSessionId(), mediaOptions, sdpAnswer, participants, transactionId, e);
+			throw e;
+		}
+
+		try {
+			kParticipant.createPublishingEndpoint(mediaOptions, null);
+		} catch (RuntimeException e) {
+			egressBudgetManager.releasePublication(kParticipant, mediaOptions);
+			throw e;
+		}
 
 		/*
 		 * for (MediaElement elem : kurentoOptions.mediaElements) {
@@ -298,13 +354,20 @@ public class KurentoSessionManager extends SessionManager {
 						participant.getParticipantPublicId(), kurentoOptions.getFilter().getType(), e);
 				sessionEventsHandler.onPublishMedia(participant, null, System.currentTimeMillis(),
 						kSession.getSessionId(), mediaOptions, sdpAnswer, participants, transactionId, e);
+				egressBudgetManager.releasePublication(kParticipant, mediaOptions);
 				throw e;
 			}
 		}
 
-		sdpAnswer = kParticipant.publishToRoom(sdpType, kurentoOptions.sdpOffer, kurentoOptions.doLoopback, false);
+		try {
+			sdpAnswer = kParticipant.publishToRoom(sdpType, kurentoOptions.sdpOffer, kurentoOptions.doLoopback, false);
+		} catch (RuntimeException e) {
+			egressBudgetManager.releasePublication(kParticipant, mediaOptions);
+			throw e;
+		}
 
 		if (sdpAnswer == null) {
+			egressBudgetManager.releasePublication(kParticipant, mediaOptions);
 			OpenViduException e = new OpenViduException(Code.MEDIA_SDP_ERROR_CODE,
 					"Error generating SDP response for publishing user " + participant.getParticipantPublicId());
 			log.error("PARTICIPANT {}: Error publishing media", participant.getParticipantPublicId(), e);
@@ -328,15 +391,13 @@ public class KurentoSessionManager extends SessionManager {
 					&& !recordingManager.sessionIsBeingRecorded(kSession.getSessionId())
 					&& !kSession.recordingManuallyStopped.get()) {
 				// Start automatic recording for sessions configured with RecordingMode.ALWAYS
-				new Thread(() -> {
-					recordingManager.startRecording(kSession,
-							new RecordingProperties.Builder().name("")
-									//.outputMode(kSession.getSessionProperties().defaultOutputMode())
-									//force Recording.OutputMode to single
-									.outputMode(Recording.OutputMode.INDIVIDUAL)
-									.recordingLayout(kSession.getSessionProperties().defaultRecordingLayout())
-									.customLayout(kSession.getSessionProperties().defaultCustomLayout()).build());
-				}).start();
+				recordingManager.startRecordingAsync(kSession,
+						new RecordingProperties.Builder().name("")
+								//.outputMode(kSession.getSessionProperties().defaultOutputMode())
+								//force Recording.OutputMode to single
+								.outputMode(Recording.OutputMode.INDIVIDUAL)
+								.recordingLayout(kSession.getSessionProperties().defaultRecordingLayout())
+								.customLayout(kSession.getSessionProperties().defaultCustomLayout()).build());
 			} else if (RecordingMode.MANUAL.equals(kSession.getSessionProperties().recordingMode())
 					&& recordingManager.sessionIsBeingRecorded(kSession.getSessionId())) {
 				// Abort automatic recording stop (user published before timeout)
@@ -398,13 +459,87 @@ public class KurentoSessionManager extends SessionManager {
 	@Override
 	public void subscribe(Participant participant, String senderName, String sdpOffer, Integer transactionId) {
 		String sdpAnswer = null;
-		Session session = null;
+		Session session = ((KurentoParticipant) participant).getSession();
 		try {
 			log.debug("Request [SUBSCRIBE] remoteParticipant={} sdpOffer={} ({})", senderName, sdpOffer,
 					participant.getParticipantPublicId());
+			sdpAnswer = this.subscribeToSender(participant, senderName, sdpOffer);
+		} catch (OpenViduException e) {
+			sessionEventsHandler.onSubscribe(participant, session, null, transactionId, e);
+		}
+		if (sdpAnswer != null) {
+			sessionEventsHandler.onSubscribe(participant, session, sdpAnswer, transactionId, null);
+		}
+	}
+
+	@Override
+	public Map<String, CompletableFuture<String>> subscribeToMany(Participant participant,
+			Map<String, String> sdpOffers) {
+		log.debug("Request [SUBSCRIBE_MANY] remoteParticipants={} ({})", sdpOffers.keySet(),
+				participant.getParticipantPublicId());
+		final long startTime = System.currentTimeMillis();
+		Map<String, CompletableFuture<String>> sdpAnswers = new LinkedHashMap<>();
+		sdpOffers.forEach((senderName, sdpOffer) -> {
+			CompletableFuture<String> sdpAnswer = new CompletableFuture<>();
+			sdpAnswers.put(senderName, sdpAnswer);
+			this.batchSubscribeExecutor.execute(() -> {
+				if (sdpAnswer.isDone()) {
+					// Abandoned by the caller before starting
+					return;
+				}
+				try {
+					if (!sdpAnswer.complete(this.subscribeToSender(participant, senderName, sdpOffer))) {
+						this.abandonSubscription(participant, senderName);
+					}
+				} catch (Throwable e) {
+					sdpAnswer.completeExceptionally(e);
+				}
+			});
+		});
+		CompletableFuture.allOf(sdpAnswers.values().toArray(new CompletableFuture[0])).whenComplete((r, e) -> {
+			long failed = sdpAnswers.values().stream().filter(CompletableFuture::isCompletedExceptionally).count();
+			log.info("PARTICIPANT {}: Subscribed to {} publishers ({} failed) in {} ms",
+					participant.getParticipantPublicId(), sdpAnswers.size() - failed, failed,
+					System.currentTimeMillis() - startTime);
+		});
+		return sdpAnswers;
+	}
+
+	/**
+	 * Undoes a subscription of a batch that was established after its caller gave
+	 * up waiting for it, so that its endpoint and egress are not held by a
+	 * subscription the client never learns about
+	 */
+	private void abandonSubscription(Participant participant, String senderName) {
+		KurentoParticipant kParticipant = (KurentoParticipant) participant;
+		Participant sender = kParticipant.getSession().getParticipantByPublicId(senderName);
+		log.warn("PARTICIPANT {}: subscription to {} completed after its batch timed out. Unsubscribing",
+				participant.getParticipantPublicId(), senderName);
+		if (sender != null) {
+			try {
+				kParticipant.cancelReceivingMedia((KurentoParticipant) sender, EndReason.unsubscribe, false);
+			} catch (Exception e) {
+				log.warn("PARTICIPANT {}: error unsubscribing from {}: {}", participant.getParticipantPublicId(),
+						senderName, e.getMessage());
+			}
+		}
+	}
 
+	/**
+	 * @return the SDP answer of the subscription. If the media server has no
+	 *         egress bandwidth left for the video of the sender, the subscription
+	 *         may be downgraded to audio-only: it is connected with its video
+	 *         paused and the participant notified. The egress reserved for a
+	 *         failed subscription is given back
+	 * @throws OpenViduException if the sender is not found or is not streaming,
+	 *                           the subscription does not fit in the egress budget
+	 *                           of the media server or the subscription fails
+	 */
+	private String subscribeToSender(Participant participant, String senderName, String sdpOffer)
+			throws OpenViduException {
+		Session session = ((KurentoParticipant) participant).getSession();
+		try {
 			KurentoParticipant kParticipant = (KurentoParticipant) participant;
-			session = ((KurentoParticipant) participant).getSession();
 			Participant senderParticipant = session.getParticipantByPublicId(senderName);
 
 			if (senderParticipant == null) {
@@ -424,18 +559,33 @@ public class KurentoSessionManager extends SessionManager {
 						"User '" + senderName + " not streaming media in session '" + session.getSessionId() + "'");
 			}
 
-			sdpAnswer = kParticipant.receiveMediaFrom(senderParticipant, sdpOffer, false);
-			if (sdpAnswer == null) {
-				throw new OpenViduException(Code.MEDIA_SDP_ERROR_CODE,
-						"Unable to generate SDP answer when subscribing '" + participant.getParticipantPublicId()
-								+ "' to '" + senderName + "'");
+			KurentoParticipant kSender = (KurentoParticipant) senderParticipant;
+			boolean receiveVideo = egressBudgetManager.admitSubscription(kParticipant, kSender);
+
+			String sdpAnswer;
+			try {
+				if (!receiveVideo) {
+					// Audio-only from the start: its video leg is never connected
+					kParticipant.getNewOrExistingSubscriber(senderName).setVideoPaused(kSender.getPublisher(), true);
+				}
+				sdpAnswer = kParticipant.receiveMediaFrom(senderParticipant, sdpOffer, false);
+				if (sdpAnswer == null) {
+					throw new OpenViduException(Code.MEDIA_SDP_ERROR_CODE,
+							"Unable to generate SDP answer when subscribing '" + participant.getParticipantPublicId()
+									+ "' to '" + senderName + "'");
+				}
+			} catch (RuntimeException e) {
+				egressBudgetManager.releaseSubscription(kParticipant, kSender, receiveVideo);
+				throw e;
+			}
+			if (!receiveVideo) {
+				kurentoSessionEventsHandler.onSubscriptionDowngraded(participant, senderName,
+						((KurentoParticipant) senderParticipant).getPublisherStreamId());
 			}
+			return sdpAnswer;
 		} catch (OpenViduException e) {
 			log.error("PARTICIPANT {}: Error subscribing to {}", participant.getParticipantPublicId(), senderName, e);
-			sessionEventsHandler.onSubscribe(participant, session, null, transactionId, e);
-		}
-		if (sdpAnswer != null) {
-			sessionEventsHandler.onSubscribe(participant, session, sdpAnswer, transactionId, null);
+			throw e;
 		}
 	}
 
@@ -480,6 +630,9 @@ public class KurentoSessionManager extends SessionManager {
 		switch (property) {
 		case "audioActive":
 			audioActive = newValue.getAsBoolean();
+			if (audioActive) {
+				kParticipant.getSession().registerPublisherActivity(kParticipant);
+			}
 			break;
 		case "videoActive":
 			videoActive = newValue.getAsBoolean();
@@ -496,6 +649,72 @@ public class KurentoSessionManager extends SessionManager {
 				kParticipant.getSession().getParticipants(), streamId, property, newValue, reason);
 	}
 
+	@Override
+	public void streamActivity(Participant participant, Integer transactionId) {
+		KurentoParticipant kParticipant = (KurentoParticipant) participant;
+		kParticipant.getSession().registerPublisherActivity(kParticipant);
+	}
+
+	@Override
+	public String receiveMixedAudio(Participant participant, String sdpOffer) {
+		log.debug("Request [RECEIVE_MIXED_AUDIO] sdpOffer={} ({})", sdpOffer, participant.getParticipantPublicId());
+		String sdpAnswer = ((KurentoParticipant) participant).receiveMixedAudio(sdpOffer);
+		if (sdpAnswer == null) {
+			throw new OpenViduException(Code.MEDIA_SDP_ERROR_CODE,
+					"Unable to generate SDP answer when receiving mixed audio for '"
+							+ participant.getParticipantPublicId() + "'");
+		}
+		return sdpAnswer;
+	}
+
+	@Override
+	public void unsubscribeFromMixedAudio(Participant participant) {
+		log.debug("Request [UNSUBSCRIBE_MIXED_AUDIO] ({})", participant.getParticipantPublicId());
+		((KurentoParticipant) participant).cancelReceivingMixedAudio();
+	}
+
+	@Override
+	public String receiveGridComposite(Participant participant, String sdpOffer) {
+		log.debug("Request [RECEIVE_GRID_COMPOSITE] sdpOffer={} ({})", sdpOffer, participant.getParticipantPublicId());
+		String sdpAnswer = ((KurentoParticipant) participant).receiveGridComposite(sdpOffer);
+		if (sdpAnswer == null) {
+			throw new OpenViduException(Code.MEDIA_SDP_ERROR_CODE,
+					"Unable to generate SDP answer when receiving grid composite for '"
+							+ participant.getParticipantPublicId() + "'");
+		}
+		return sdpAnswer;
+	}
+
+	@Override
+	public void unsubscribeFromGridComposite(Participant participant) {
+		log.debug("Request [UNSUBSCRIBE_GRID_COMPOSITE] ({})", participant.getParticipantPublicId());
+		((KurentoParticipant) participant).cancelReceivingGridComposite();
+	}
+
+	@Override
+	public void setSubscriberVideoPaused(Participant participant, String senderPublicId, boolean paused) {
+		log.debug("Request [{}] remoteParticipant={} ({})", paused ? "PAUSE_VIDEO" : "RESUME_VIDEO", senderPublicId,
+				participant.getParticipantPublicId());
+
+		KurentoParticipant kParticipant = (KurentoParticipant) participant;
+		KurentoSession session = kParticipant.getSession();
+		KurentoParticipant sender = (KurentoParticipant) session.getParticipantByPublicId(senderPublicId);
+		if (sender == null) {
+			throw new OpenViduException(Code.USER_NOT_FOUND_ERROR_CODE,
+					"User " + senderPublicId + " not found in session " + session.getSessionId());
+		}
+		SubscriberEndpoint subscriber = kParticipant.getSubscriber(senderPublicId);
+		if (!sender.isStreaming() || subscriber == null || !subscriber.isConnectedToPublisher()) {
+			throw new OpenViduException(Code.USER_NOT_STREAMING_ERROR_CODE, "User "
+					+ participant.getParticipantPublicId() + " is not subscribed to user " + senderPublicId);
+		}
+		if (!paused && subscriber.isVideoPaused()) {
+			egressBudgetManager.admitVideoResume(kParticipant, subscriber, sender);
+		}
+
+		subscriber.setVideoPaused(sender.getPublisher(), paused);
+	}
+
 	@Override
 	public void onIceCandidate(Participant participant, String endpointName, String candidate, int sdpMLineIndex,
 			String sdpMid, Integer transactionId) {
@@ -525,6 +744,7 @@ public class KurentoSessionManager extends SessionManager {
 					"Session '" + session.getSessionId() + "' already exists");
 		}
 		session = new KurentoSession(sessionNotActive, kms, kurentoSessionEventsHandler, kurentoEndpointConfig);
+		session.setCascade(cascadeManager.newSessionCascade(session));
 
 		KurentoSession oldSession = (KurentoSession) sessions.putIfAbsent(session.getSessionId(), session);
 		sessionsNotActive.remove(session.getSessionId());
@@ -946,21 +1166,31 @@ public class KurentoSessionManager extends SessionManager {
 		if (streamId.equals(participant.getPublisherStreamId())) {
 
 			// Reconnect publisher
-			final KurentoMediaOptions kurentoOptions = (KurentoMediaOptions) kParticipant.getPublisher()
-					.getMediaOptions();
+			final KurentoMediaOptions kurentoOptions;
+			PublisherEndpoint resetPublisher = kParticipant.getPublisherIfReset();
+			if (resetPublisher != null) {
 
-			// 1) Disconnect broken PublisherEndpoint from its PassThrough
-			PublisherEndpoint publisher = kParticipant.getPublisher();
-			final PassThrough passThru = publisher.disconnectFromPassThrough();
+				// The PublisherEndpoint was already reset in a new pipeline (the session was
+				// migrated to other KMS). There is nothing to release
+				kurentoOptions = (KurentoMediaOptions) resetPublisher.getMediaOptions();
 
-			// 2) Destroy the broken PublisherEndpoint and nothing else
-			if (publisher.kmsWebrtcStatsThread != null) {
-				publisher.kmsWebrtcStatsThread.cancel(true);
-			}
-			kParticipant.releaseElement(participant.getParticipantPublicId(), publisher.getEndpoint());
+			} else {
+
+				kurentoOptions = (KurentoMediaOptions) kParticipant.getPublisher().getMediaOptions();
+
+				// 1) Disconnect broken PublisherEndpoint from its PassThrough
+				PublisherEndpoint publisher = kParticipant.getPublisher();
+				final PassThrough passThru = publisher.disconnectFromPassThrough();
 
-			// 3) Create a new PublisherEndpoint connecting it to the previous PassThrough
-			kParticipant.resetPublisherEndpoint(kurentoOptions, passThru);
+				// 2) Destroy the broken PublisherEndpoint and nothing else
+				if (publisher.kmsWebrtcStatsThread != null) {
+					publisher.kmsWebrtcStatsThread.cancel(true);
+				}
+				kParticipant.releaseElement(participant.getParticipantPublicId(), publisher.getEndpoint());
+
+				// 3) Create a new PublisherEndpoint connecting it to the previous PassThrough
+				kParticipant.resetPublisherEndpoint(kurentoOptions, passThru);
+			}
 			kParticipant.createPublishingEndpoint(kurentoOptions, streamId);
 			SdpType sdpType = kurentoOptions.isOffer ? SdpType.OFFER : SdpType.ANSWER;
 			String sdpAnswer = kParticipant.publishToRoom(sdpType, sdpOffer, kurentoOptions.doLoopback, true);
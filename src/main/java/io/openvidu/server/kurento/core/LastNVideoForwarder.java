@@ -0,0 +1,267 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.core.Participant;
+import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
+import io.openvidu.server.kurento.endpoint.SubscriberEndpoint;
+
+/**
+ * Last-N video forwarding of a session. Only the video of the N most recently
+ * active publishers is connected to their subscribers. The rest of subscriber
+ * links only carry audio: their VIDEO connection is removed from the
+ * publisher's PassThrough, so no SDP renegotiation is needed and KMS does not
+ * send those video flows at all
+ */
+public class LastNVideoForwarder {
+
+	private static final Logger log = LoggerFactory.getLogger(LastNVideoForwarder.class);
+
+	// Minimum time in milliseconds between two changes of the last N caused by
+	// publisher activity, so alternating speakers do not flap the video links
+	static final long SWITCH_INTERVAL = 1500;
+
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "last-n-forwarder");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final KurentoSession session;
+	private final int lastN;
+
+	// Publisher participant public id -> time of its last activity
+	private final Map<String, Long> lastActivity = new HashMap<>();
+	private Set<String> forwarded = new HashSet<>();
+	private long lastSwitch = 0;
+	// Change of the last N deferred by the switch interval
+	private ScheduledFuture<?> pendingUpdate;
+
+	private final AtomicLong videoConnections = new AtomicLong(0);
+	private final AtomicLong videoDisconnections = new AtomicLong(0);
+
+	public LastNVideoForwarder(KurentoSession session, int lastN) {
+		this.session = session;
+		this.lastN = lastN;
+	}
+
+	public int getLastN() {
+		return this.lastN;
+	}
+
+	public synchronized boolean isVideoForwarded(String publisherPublicId) {
+		return this.forwarded.contains(publisherPublicId);
+	}
+
+	/**
+	 * Marks the publisher as the most recently active one. Its video is connected
+	 * to every subscriber if it enters the last N, and the video of the publisher
+	 * leaving the last N (if any) is disconnected. While the last N is full it
+	 * changes at most once every {@link #SWITCH_INTERVAL}: activity inside that
+	 * window is recorded and taken into account by the next change, which happens
+	 * when the window ends at the latest. The new last N is computed under this
+	 * forwarder's lock, but KMS is updated out of it
+	 */
+	public void registerActivity(KurentoParticipant publisher) {
+		Set<String> changed;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			String publicId = publisher.getParticipantPublicId();
+			this.lastActivity.put(publicId, now);
+			if (this.forwarded.contains(publicId)) {
+				return;
+			}
+			if (this.forwarded.size() >= this.lastN && now - this.lastSwitch < SWITCH_INTERVAL) {
+				this.deferUpdate(now);
+				return;
+			}
+			changed = this.update();
+			if (!changed.isEmpty()) {
+				this.lastSwitch = now;
+			}
+		}
+		this.apply(changed);
+	}
+
+	/**
+	 * Schedules the deferred change of the last N for the end of the switch
+	 * window, if not already scheduled. Must be called under this forwarder's lock
+	 */
+	private void deferUpdate(long now) {
+		if (this.pendingUpdate == null) {
+			this.pendingUpdate = scheduler.schedule(this::deferredUpdate, this.lastSwitch + SWITCH_INTERVAL - now,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void deferredUpdate() {
+		Set<String> changed;
+		synchronized (this) {
+			this.pendingUpdate = null;
+			long now = System.currentTimeMillis();
+			if (now - this.lastSwitch < SWITCH_INTERVAL) {
+				this.deferUpdate(now);
+				return;
+			}
+			changed = this.update();
+			if (!changed.isEmpty()) {
+				this.lastSwitch = now;
+			}
+		}
+		try {
+			this.apply(changed);
+		} catch (Exception e) {
+			log.warn("SESSION {}: could not apply deferred last-{} change: {}", this.session.getSessionId(),
+					this.lastN, e.getMessage());
+		}
+	}
+
+	public void removePublisher(String publisherPublicId) {
+		Set<String> changed;
+		synchronized (this) {
+			if (this.lastActivity.remove(publisherPublicId) == null) {
+				return;
+			}
+			this.forwarded.remove(publisherPublicId);
+			changed = this.update();
+		}
+		this.apply(changed);
+	}
+
+	/**
+	 * @return the publishers entering or leaving the last N
+	 */
+	private Set<String> update() {
+		List<String> byActivity = new ArrayList<>(this.lastActivity.keySet());
+		byActivity.sort((a, b) -> Long.compare(this.lastActivity.get(b), this.lastActivity.get(a)));
+		Set<String> newForwarded = new HashSet<>(byActivity.subList(0, Math.min(this.lastN, byActivity.size())));
+
+		Set<String> added = newForwarded.stream().filter(id -> !this.forwarded.contains(id))
+				.collect(Collectors.toSet());
+		Set<String> removed = this.forwarded.stream().filter(id -> !newForwarded.contains(id))
+				.collect(Collectors.toSet());
+		this.forwarded = newForwarded;
+
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			log.debug("SESSION {}: last-{} video forwarding changed. Added: {}. Removed: {}",
+					this.session.getSessionId(), this.lastN, added, removed);
+		}
+		Set<String> changed = new LinkedHashSet<>(removed);
+		changed.addAll(added);
+		return changed;
+	}
+
+	/**
+	 * Brings the video links of the changed publishers in line with the current
+	 * last N. Each subscriber link is updated under its own lock against the last
+	 * N at that moment, so concurrent updates converge to the latest state
+	 */
+	private void apply(Set<String> changed) {
+		for (String publisherPublicId : changed) {
+			this.updateVideoLinks(publisherPublicId);
+		}
+	}
+
+	private void updateVideoLinks(String publisherPublicId) {
+		Collection<Participant> participants = this.session.getParticipants();
+		KurentoParticipant publisher = (KurentoParticipant) participants.stream()
+				.filter(p -> publisherPublicId.equals(p.getParticipantPublicId())).findFirst().orElse(null);
+		if (publisher == null || !publisher.isStreaming()) {
+			return;
+		}
+		PublisherEndpoint publisherEndpoint = publisher.getPublisher();
+		if (!publisherEndpoint.getMediaOptions().hasVideo()) {
+			return;
+		}
+		for (Participant p : participants) {
+			SubscriberEndpoint subscriber = ((KurentoParticipant) p).getSubscriber(publisherPublicId);
+			if (subscriber == null) {
+				continue;
+			}
+			try {
+				if (subscriber.updateVideoLink(publisherEndpoint)) {
+					if (subscriber.isVideoLinked()) {
+						this.videoConnections.incrementAndGet();
+					} else {
+						this.videoDisconnections.incrementAndGet();
+					}
+				}
+			} catch (Exception e) {
+				log.warn("SESSION {}: could not update video of subscriber {}: {}", this.session.getSessionId(),
+						subscriber.getEndpointName(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Current number of subscriber links of the session carrying video and audio
+	 * only. Without last-N forwarding every link carries video. The subscribers are
+	 * inspected out of this forwarder's lock, as they take it under their own one
+	 */
+	public JsonObject toJson() {
+		List<String> publishers;
+		int forwardedPublishers;
+		synchronized (this) {
+			publishers = new ArrayList<>(this.lastActivity.keySet());
+			forwardedPublishers = this.forwarded.size();
+		}
+		int videoLinks = 0;
+		int audioOnlyLinks = 0;
+		for (Participant p : this.session.getParticipants()) {
+			for (String publisherPublicId : publishers) {
+				SubscriberEndpoint subscriber = ((KurentoParticipant) p).getSubscriber(publisherPublicId);
+				if (subscriber != null && subscriber.isConnectedToPublisher()) {
+					if (subscriber.isVideoLinked()) {
+						videoLinks++;
+					} else {
+						audioOnlyLinks++;
+					}
+				}
+			}
+		}
+		JsonObject json = new JsonObject();
+		json.addProperty("lastN", this.lastN);
+		json.addProperty("publishers", publishers.size());
+		json.addProperty("forwardedPublishers", forwardedPublishers);
+		json.addProperty("videoLinks", videoLinks);
+		json.addProperty("audioOnlyLinks", audioOnlyLinks);
+		json.addProperty("videoConnections", this.videoConnections.get());
+		json.addProperty("videoDisconnections", this.videoDisconnections.get());
+		return json;
+	}
+
+}
@@ -0,0 +1,529 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.kurento.client.MediaElement;
+import org.kurento.client.MediaPipeline;
+import org.kurento.client.PassThrough;
+import org.kurento.client.RtpEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.openvidu.client.OpenViduException;
+import io.openvidu.client.OpenViduException.Code;
+import io.openvidu.server.core.EndReason;
+import io.openvidu.server.core.Participant;
+import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
+import io.openvidu.server.kurento.endpoint.SubscriberEndpoint;
+import io.openvidu.server.kurento.kms.Kms;
+
+/**
+ * Cascade state of one session. Subscribing participants are placed in the
+ * origin KMS of the session until it hosts the configured number of them. Next
+ * ones go to edge pipelines in other KMS, created on demand. Each edge receives
+ * the publishers its participants subscribe to through a pair of RtpEndpoints
+ * (origin and edge), ending in a PassThrough the edge subscribers connect to.
+ * Participants arriving while an edge is being created are assigned to it until
+ * it is full, instead of opening a new edge each. Edges are released when their
+ * last participant leaves
+ */
+public class SessionCascade {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionCascade.class);
+
+	private class Edge {
+		final Kms kms;
+		final MediaPipeline pipeline;
+		// Publisher public id -> relay of the publisher to this edge
+		final Map<String, Relay> relays = new HashMap<>();
+		final Set<String> viewers = new HashSet<>();
+
+		Edge(Kms kms, MediaPipeline pipeline) {
+			this.kms = kms;
+			this.pipeline = pipeline;
+		}
+	}
+
+	private class Relay {
+		final PublisherEndpoint publisher;
+		final RtpEndpoint originRtp;
+		final RtpEndpoint edgeRtp;
+		final PassThrough edgePassThru;
+
+		Relay(PublisherEndpoint publisher, RtpEndpoint originRtp, RtpEndpoint edgeRtp, PassThrough edgePassThru) {
+			this.publisher = publisher;
+			this.originRtp = originRtp;
+			this.edgeRtp = edgeRtp;
+			this.edgePassThru = edgePassThru;
+		}
+	}
+
+	private final KurentoSession session;
+	private final CascadeManager cascadeManager;
+
+	// KMS id -> edge of the session in that KMS
+	private final Map<String, Edge> edges = new HashMap<>();
+	// KMS id -> participants waiting for the edge being created in that KMS
+	private final Map<String, Set<String>> pendingEdges = new HashMap<>();
+	// Participant public id -> KMS id where its subscribers live
+	private final Map<String, String> placements = new HashMap<>();
+	private boolean closed = false;
+
+	public SessionCascade(KurentoSession session, CascadeManager cascadeManager) {
+		this.session = session;
+		this.cascadeManager = cascadeManager;
+	}
+
+	/**
+	 * Places the subscribers of a participant in the origin or in some edge. A
+	 * participant keeps its placement until it leaves the session. A new edge
+	 * pipeline is created out of this cascade's lock, so placing other
+	 * participants does not wait for KMS
+	 *
+	 * @return the pipeline where the participant's subscribers must be created
+	 */
+	public MediaPipeline placeViewer(KurentoParticipant viewer) {
+		return this.placeViewer(viewer.getParticipantPublicId());
+	}
+
+	MediaPipeline placeViewer(String publicId) {
+		Kms newEdgeKms;
+		synchronized (this) {
+			String kmsId = this.placements.get(publicId);
+			if (kmsId != null) {
+				return this.pipelineOf(kmsId);
+			}
+			String pendingKmsId = this.selectPendingEdge();
+			if (pendingKmsId != null) {
+				return this.awaitPendingEdge(publicId, pendingKmsId);
+			}
+			newEdgeKms = this.selectNewEdgeKms();
+			if (newEdgeKms == null) {
+				return this.place(publicId, this.selectKms());
+			}
+			Set<String> waiting = new HashSet<>();
+			waiting.add(publicId);
+			this.pendingEdges.put(newEdgeKms.getId(), waiting);
+		}
+		Edge newEdge = null;
+		try {
+			newEdge = this.createEdge(newEdgeKms);
+		} catch (Exception e) {
+			log.error("SESSION {}: could not create edge pipeline in KMS {}: {}", this.session.getSessionId(),
+					newEdgeKms.getId(), e.getMessage());
+		}
+		synchronized (this) {
+			this.pendingEdges.remove(newEdgeKms.getId());
+			this.notifyAll();
+			if (newEdge != null && !this.closed) {
+				this.edges.put(newEdgeKms.getId(), newEdge);
+				return this.place(publicId, newEdgeKms.getId());
+			}
+		}
+		if (newEdge != null) {
+			// Cascade closed while the edge was being created
+			this.releaseEdge(newEdge);
+		}
+		synchronized (this) {
+			return this.place(publicId, this.selectKms());
+		}
+	}
+
+	/**
+	 * @return the element of the participant's edge relaying the publisher, or null
+	 *         if the participant is placed in the origin. A missing relay is
+	 *         created out of this cascade's lock and published under it
+	 */
+	public MediaElement getRelaySource(KurentoParticipant viewer, PublisherEndpoint publisher) {
+		String publisherPublicId = publisher.getOwner().getParticipantPublicId();
+		Edge edge;
+		synchronized (this) {
+			String kmsId = this.placements.get(viewer.getParticipantPublicId());
+			edge = kmsId != null ? this.edges.get(kmsId) : null;
+			if (edge == null) {
+				return null;
+			}
+			Relay relay = edge.relays.get(publisherPublicId);
+			if (relay != null && relay.publisher == publisher) {
+				return relay.edgePassThru;
+			}
+		}
+		Relay newRelay = this.createRelay(edge, publisher);
+		Relay staleRelay = null;
+		synchronized (this) {
+			Relay relay = edge.relays.get(publisherPublicId);
+			if (this.edges.get(edge.kms.getId()) != edge) {
+				// Edge released or evicted meanwhile
+				staleRelay = newRelay;
+				newRelay = null;
+			} else if (relay != null && relay.publisher == publisher) {
+				// Created concurrently for another subscriber of the edge
+				staleRelay = newRelay;
+				newRelay = relay;
+			} else {
+				// A relay of a previous publication is replaced
+				staleRelay = relay;
+				edge.relays.put(publisherPublicId, newRelay);
+			}
+		}
+		if (staleRelay != null) {
+			this.releaseRelay(staleRelay);
+		}
+		if (newRelay == null) {
+			throw new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE,
+					"Edge of session " + this.session.getSessionId() + " in KMS " + edge.kms.getId() + " was released");
+		}
+		return newRelay.edgePassThru;
+	}
+
+	public void removeViewer(String publicId) {
+		Edge released = null;
+		synchronized (this) {
+			String kmsId = this.placements.remove(publicId);
+			Edge edge = kmsId != null ? this.edges.get(kmsId) : null;
+			if (edge != null) {
+				edge.viewers.remove(publicId);
+				if (edge.viewers.isEmpty()) {
+					this.edges.remove(kmsId);
+					released = edge;
+				}
+			}
+		}
+		if (released != null) {
+			this.releaseEdge(released);
+		}
+	}
+
+	public void removePublisher(String publicId) {
+		List<Relay> released = new ArrayList<>();
+		synchronized (this) {
+			for (Edge edge : this.edges.values()) {
+				Relay relay = edge.relays.remove(publicId);
+				if (relay != null) {
+					released.add(relay);
+				}
+			}
+		}
+		released.forEach(this::releaseRelay);
+	}
+
+	/**
+	 * @return the KMS of the edge whose pipeline contains the media object, or
+	 *         null if it does not belong to any edge of the session
+	 */
+	public synchronized Kms getEdgeKms(String mediaObjectId) {
+		for (Edge edge : this.edges.values()) {
+			String pipelineId = edge.pipeline.getId();
+			if (mediaObjectId.equals(pipelineId) || mediaObjectId.startsWith(pipelineId + "/")) {
+				return edge.kms;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Forgets the edge of the session in a KMS that has been restarted or lost.
+	 * The subscribers its participants had there are released, so they are placed
+	 * again (in the origin or in another edge) when they subscribe again. The
+	 * relays feeding the edge are released from the origin pipeline
+	 */
+	public void evictEdge(String kmsId) {
+		Edge edge;
+		synchronized (this) {
+			edge = this.edges.remove(kmsId);
+			if (edge == null) {
+				return;
+			}
+			edge.viewers.forEach(this.placements::remove);
+		}
+		log.warn("SESSION {}: edge KMS {} is gone. Evicting its {} participants", this.session.getSessionId(),
+				kmsId, edge.viewers.size());
+		for (String viewerPublicId : edge.viewers) {
+			KurentoParticipant viewer = (KurentoParticipant) this.session.getParticipantByPublicId(viewerPublicId);
+			if (viewer == null) {
+				continue;
+			}
+			for (Participant sender : this.session.getParticipants()) {
+				SubscriberEndpoint subscriber = viewer.getSubscriber(sender.getParticipantPublicId());
+				if (subscriber != null && subscriber.getPipeline() == edge.pipeline) {
+					viewer.cancelReceivingMedia((KurentoParticipant) sender, EndReason.mediaServerDisconnect, false);
+				}
+			}
+		}
+		this.releaseEdge(edge);
+	}
+
+	/**
+	 * Moves the origin of the session to other KMS. Edges in the rest of KMSs are
+	 * kept along with their participants, but their relays are released as they
+	 * are fed from the old origin pipeline: they are created again from the new
+	 * publishers when the participants subscribe again. An edge in the new origin
+	 * KMS is released and its participants are placed again, same as the ones of
+	 * the old origin
+	 */
+	public void moveOrigin(String oldOriginKmsId, String newOriginKmsId) {
+		Edge released;
+		List<Relay> releasedRelays = new ArrayList<>();
+		int kept;
+		synchronized (this) {
+			released = this.edges.remove(newOriginKmsId);
+			if (released != null) {
+				released.viewers.forEach(this.placements::remove);
+			}
+			this.placements.values().removeIf(oldOriginKmsId::equals);
+			for (Edge edge : this.edges.values()) {
+				releasedRelays.addAll(edge.relays.values());
+				edge.relays.clear();
+			}
+			kept = this.edges.size();
+		}
+		releasedRelays.forEach(this::releaseRelay);
+		if (released != null) {
+			this.releaseEdge(released);
+		}
+		log.info("SESSION {}: cascade origin moved from KMS {} to KMS {}. {} edges kept", this.session.getSessionId(),
+				oldOriginKmsId, newOriginKmsId, kept);
+	}
+
+	/**
+	 * Releases every edge of the session. No more edges are created
+	 */
+	public void close() {
+		synchronized (this) {
+			this.closed = true;
+		}
+		this.reset();
+	}
+
+	/**
+	 * Releases every edge of the session, as its origin pipeline is replaced.
+	 * Participants are placed again when they subscribe
+	 */
+	public void reset() {
+		List<Edge> released;
+		synchronized (this) {
+			released = new ArrayList<>(this.edges.values());
+			this.edges.clear();
+			this.placements.clear();
+		}
+		released.forEach(this::releaseEdge);
+	}
+
+	private MediaPipeline place(String publicId, String kmsId) {
+		this.placements.put(publicId, kmsId);
+		Edge edge = this.edges.get(kmsId);
+		if (edge != null) {
+			edge.viewers.add(publicId);
+			log.info("SESSION {}: participant {} placed in edge KMS {} ({} participants)",
+					this.session.getSessionId(), publicId, kmsId, edge.viewers.size());
+		}
+		return this.pipelineOf(kmsId);
+	}
+
+	/**
+	 * Waits, releasing the lock, until the pending edge is created. The
+	 * participant is then placed in it, or again in the origin or some existing
+	 * edge if the edge could not be created
+	 */
+	private MediaPipeline awaitPendingEdge(String publicId, String kmsId) {
+		this.pendingEdges.get(kmsId).add(publicId);
+		boolean interrupted = false;
+		while (this.pendingEdges.containsKey(kmsId)) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return this.place(publicId, this.edges.containsKey(kmsId) ? kmsId : this.selectKms());
+	}
+
+	private MediaPipeline pipelineOf(String kmsId) {
+		Edge edge = this.edges.get(kmsId);
+		return edge != null ? edge.pipeline : this.session.getPipeline();
+	}
+
+	/**
+	 * @return true if the next participant fits in the origin or in an existing
+	 *         edge
+	 */
+	private boolean hasRoom() {
+		String originKmsId = this.session.getKms().getId();
+		int viewersPerKms = this.cascadeManager.getViewersPerKms();
+		long originViewers = this.placements.values().stream().filter(originKmsId::equals).count();
+		return originViewers < viewersPerKms
+				|| this.edges.values().stream().anyMatch(edge -> edge.viewers.size() < viewersPerKms);
+	}
+
+	/**
+	 * @return the KMS of an edge being created that still has room for the next
+	 *         participant, or null if it fits in the origin or an existing edge
+	 *         or every pending edge is full
+	 */
+	private String selectPendingEdge() {
+		if (this.closed || this.hasRoom()) {
+			return null;
+		}
+		int viewersPerKms = this.cascadeManager.getViewersPerKms();
+		for (Map.Entry<String, Set<String>> pending : this.pendingEdges.entrySet()) {
+			if (pending.getValue().size() < viewersPerKms) {
+				return pending.getKey();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the KMS where a new edge must be created for the next participant,
+	 *         or null if it fits in the origin or in an existing edge
+	 */
+	private Kms selectNewEdgeKms() {
+		if (this.closed || this.hasRoom()) {
+			return null;
+		}
+		if (this.edges.size() + this.pendingEdges.size() >= this.cascadeManager.getMaxEdges()) {
+			return null;
+		}
+		Set<String> usedKmsIds = new HashSet<>(this.edges.keySet());
+		usedKmsIds.addAll(this.pendingEdges.keySet());
+		return this.cascadeManager.selectEdgeKms(this.session.getKms().getId(), usedKmsIds);
+	}
+
+	/**
+	 * @return the origin or the existing edge where the next participant is placed
+	 */
+	private String selectKms() {
+		String originKmsId = this.session.getKms().getId();
+		int viewersPerKms = this.cascadeManager.getViewersPerKms();
+		long originViewers = this.placements.values().stream().filter(originKmsId::equals).count();
+		if (originViewers < viewersPerKms) {
+			return originKmsId;
+		}
+		Edge lessCrowded = this.edges.values().stream().min((e1, e2) -> e1.viewers.size() - e2.viewers.size())
+				.orElse(null);
+		if (lessCrowded != null && lessCrowded.viewers.size() < viewersPerKms) {
+			return lessCrowded.kms.getId();
+		}
+		// Every KMS is full. Overload the less crowded one
+		if (lessCrowded != null && lessCrowded.viewers.size() < originViewers) {
+			return lessCrowded.kms.getId();
+		}
+		return originKmsId;
+	}
+
+	private Edge createEdge(Kms kms) {
+		MediaPipeline pipeline = this.createEdgePipeline(kms);
+		pipeline.setName(this.session.getPipelineName(this.session.getSessionId() + "_EDGE"));
+		this.cascadeManager.edgesCreated.incrementAndGet();
+		log.info("SESSION {}: created edge pipeline in KMS {}", this.session.getSessionId(), kms.getId());
+		return new Edge(kms, pipeline);
+	}
+
+	MediaPipeline createEdgePipeline(Kms kms) {
+		return kms.getKurentoClient(this.session.getSessionId()).createMediaPipeline();
+	}
+
+	private void releaseEdge(Edge edge) {
+		edge.relays.values().forEach(this::releaseRelay);
+		edge.relays.clear();
+		try {
+			edge.kms.releaseTranscodings(edge.pipeline.getId());
+			edge.pipeline.release();
+		} catch (Exception e) {
+			log.warn("SESSION {}: could not release edge pipeline in KMS {}: {}", this.session.getSessionId(),
+					edge.kms.getId(), e.getMessage());
+		}
+		this.cascadeManager.edgesReleased.incrementAndGet();
+		log.info("SESSION {}: released edge pipeline in KMS {}", this.session.getSessionId(), edge.kms.getId());
+	}
+
+	private Relay createRelay(Edge edge, PublisherEndpoint publisher) {
+		RtpEndpoint originRtp = new RtpEndpoint.Builder(this.session.getPipeline()).build();
+		RtpEndpoint edgeRtp = new RtpEndpoint.Builder(edge.pipeline).build();
+		PassThrough edgePassThru = new PassThrough.Builder(edge.pipeline).build();
+		String sdpAnswer = edgeRtp.processOffer(originRtp.generateOffer());
+		originRtp.processAnswer(sdpAnswer);
+		edgeRtp.connect(edgePassThru);
+		publisher.connect(originRtp);
+		this.cascadeManager.relaysCreated.incrementAndGet();
+		log.info("SESSION {}: stream {} relayed to edge KMS {}", this.session.getSessionId(), publisher.getStreamId(),
+				edge.kms.getId());
+		return new Relay(publisher, originRtp, edgeRtp, edgePassThru);
+	}
+
+	private void releaseRelay(Relay relay) {
+		try {
+			relay.publisher.disconnectFrom(relay.originRtp);
+		} catch (Exception e) {
+			// Publisher endpoint may already be released
+		}
+		for (MediaElement element : new MediaElement[] { relay.originRtp, relay.edgeRtp, relay.edgePassThru }) {
+			try {
+				element.release();
+			} catch (Exception e) {
+				log.warn("SESSION {}: could not release relay element {}: {}", this.session.getSessionId(),
+						element.getId(), e.getMessage());
+			}
+		}
+		this.cascadeManager.relaysReleased.incrementAndGet();
+	}
+
+	/**
+	 * @return the edge pipelines of the session, hosted by KMSs other than the
+	 *         origin one
+	 */
+	public synchronized List<MediaPipeline> getEdgePipelines() {
+		return this.edges.values().stream().map(edge -> edge.pipeline).collect(Collectors.toList());
+	}
+
+	public synchronized JsonObject toJson() {
+		String originKmsId = this.session.getKms().getId();
+		JsonObject json = new JsonObject();
+		json.addProperty("originKms", originKmsId);
+		json.addProperty("originParticipants",
+				this.placements.values().stream().filter(originKmsId::equals).count());
+		JsonArray edgesJson = new JsonArray();
+		int relayLinks = 0;
+		for (Edge edge : this.edges.values()) {
+			JsonObject edgeJson = new JsonObject();
+			edgeJson.addProperty("kms", edge.kms.getId());
+			edgeJson.addProperty("participants", edge.viewers.size());
+			edgeJson.addProperty("relays", edge.relays.size());
+			edgesJson.add(edgeJson);
+			relayLinks += edge.relays.size();
+		}
+		json.add("edges", edgesJson);
+		json.addProperty("relayLinks", relayLinks);
+		return json;
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.endpoint;
+
+import java.util.Map.Entry;
+
+import org.kurento.client.MediaPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.kurento.core.KurentoParticipant;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * {@link MediaEndpoint} receiving the output of a session's Composite (through
+ * one of its HubPorts) instead of the stream of one publisher. The element
+ * owning the Composite is in charge of connecting it once negotiated
+ */
+public class CompositeSubscriberEndpoint extends MediaEndpoint {
+	private final static Logger log = LoggerFactory.getLogger(CompositeSubscriberEndpoint.class);
+
+	public CompositeSubscriberEndpoint(EndpointType endpointType, KurentoParticipant owner, String endpointName,
+			MediaPipeline pipeline, OpenviduConfig openviduConfig) {
+		super(endpointType, owner, endpointName, pipeline, openviduConfig, log);
+	}
+
+	@Override
+	protected String getMediaObjectName() {
+		return this.getOwner().getParticipantPublicId() + "_" + this.getEndpointName();
+	}
+
+	public synchronized String subscribe(String sdpOffer) {
+		registerOnIceCandidateEventListener(this.getEndpointName());
+		this.createdAt = System.currentTimeMillis();
+		String sdpAnswer = processOffer(sdpOffer);
+		gatherCandidates();
+		return sdpAnswer;
+	}
+
+	@Override
+	public JsonObject toJson() {
+		JsonObject json = super.toJson();
+		json.addProperty("endpointName", this.getEndpointName());
+		return json;
+	}
+
+	@Override
+	public JsonObject withStatsToJson() {
+		JsonObject json = super.withStatsToJson();
+		JsonObject toJson = this.toJson();
+		for (Entry<String, JsonElement> entry : toJson.entrySet()) {
+			json.add(entry.getKey(), entry.getValue());
+		}
+		return json;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.endpoint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.kurento.client.MediaElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups the video links made from a publisher to its subscribers within a time
+ * window. Every new video sink makes KMS request a keyframe upstream, so a
+ * burst of subscribers would make the publisher encode keyframes back-to-back.
+ * The first link of a window is made at once and the ones arriving later are
+ * made together when the window closes, so the publisher gets at most one
+ * keyframe request burst per window. Recorders, relays and composite ports are
+ * not delayed
+ */
+public class KeyframeCoalescer {
+
+	private static final Logger log = LoggerFactory.getLogger(KeyframeCoalescer.class);
+
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "keyframe-coalescer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	private final PublisherEndpoint publisher;
+	private final int windowMillis;
+	private final BiConsumer<MediaElement, MediaElement> videoLinker;
+
+	// Sink id -> {source, sink}
+	private final Map<String, MediaElement[]> pendingLinks = new LinkedHashMap<>();
+	private ScheduledFuture<?> pendingFlush;
+	private long windowEnd = 0;
+
+	private final AtomicLong keyframeRequests = new AtomicLong(0);
+	private final AtomicLong coalescedLinks = new AtomicLong(0);
+
+	public KeyframeCoalescer(PublisherEndpoint publisher, int windowMillis,
+			BiConsumer<MediaElement, MediaElement> videoLinker) {
+		this.publisher = publisher;
+		this.windowMillis = windowMillis;
+		this.videoLinker = videoLinker;
+	}
+
+	public boolean isEnabled() {
+		return this.windowMillis > 0;
+	}
+
+	/**
+	 * Links the video of source to sink, now or when the current window closes
+	 */
+	public synchronized void link(MediaElement source, MediaElement sink) {
+		long now = System.currentTimeMillis();
+		if (!this.isEnabled() || (now >= this.windowEnd && this.pendingLinks.isEmpty())) {
+			this.videoLinker.accept(source, sink);
+			this.keyframeRequests.incrementAndGet();
+			this.windowEnd = now + this.windowMillis;
+			return;
+		}
+		this.pendingLinks.put(sink.getId(), new MediaElement[] { source, sink });
+		this.coalescedLinks.incrementAndGet();
+		if (this.pendingFlush == null) {
+			this.pendingFlush = scheduler.schedule(this::flush, Math.max(this.windowEnd - now, 0),
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Drops the pending video link to sink, if any
+	 *
+	 * @return true if there was a pending link
+	 */
+	public synchronized boolean cancel(MediaElement sink) {
+		return this.pendingLinks.remove(sink.getId()) != null;
+	}
+
+	/**
+	 * Drops all pending links. To be called when the publisher is released
+	 */
+	public synchronized void close() {
+		if (this.pendingFlush != null) {
+			this.pendingFlush.cancel(false);
+			this.pendingFlush = null;
+		}
+		this.pendingLinks.clear();
+	}
+
+	private synchronized void flush() {
+		this.pendingFlush = null;
+		if (this.pendingLinks.isEmpty()) {
+			return;
+		}
+		log.debug("EP {}: Linking video of {} coalesced subscribers", this.publisher.getEndpointName(),
+				this.pendingLinks.size());
+		for (MediaElement[] link : this.pendingLinks.values()) {
+			this.videoLinker.accept(link[0], link[1]);
+		}
+		this.pendingLinks.clear();
+		this.keyframeRequests.incrementAndGet();
+		this.windowEnd = System.currentTimeMillis() + this.windowMillis;
+	}
+
+	/**
+	 * Counts a video link made without going through this coalescer
+	 */
+	public void countKeyframeRequest() {
+		this.keyframeRequests.incrementAndGet();
+	}
+
+	public long getKeyframeRequests() {
+		return this.keyframeRequests.get();
+	}
+
+	public long getCoalescedLinks() {
+		return this.coalescedLinks.get();
+	}
+
+}
@@ -23,6 +23,8 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.kurento.client.BaseRtpEndpoint;
 import org.kurento.client.Continuation;
@@ -36,6 +38,7 @@ import org.kurento.client.MediaPipeline;
 import org.kurento.client.PlayerEndpoint;
 import org.kurento.client.RtpEndpoint;
 import org.kurento.client.SdpEndpoint;
+import org.kurento.client.Transaction;
 import org.kurento.client.WebRtcEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,7 +52,9 @@ import io.openvidu.client.OpenViduException.Code;
 import io.openvidu.server.core.Participant;
 import io.openvidu.server.kurento.core.KurentoMediaOptions;
 import io.openvidu.server.kurento.core.KurentoParticipant;
+import io.openvidu.server.kurento.core.KurentoSession;
 import io.openvidu.server.kurento.core.KurentoTokenOptions;
+import io.openvidu.server.kurento.kms.Kms;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
 /**
@@ -73,8 +78,8 @@ public abstract class MediaEndpoint {
 
 	private final int maxRecvKbps;
 	private final int minRecvKbps;
-	private final int maxSendKbps;
-	private final int minSendKbps;
+	private int maxSendKbps;
+	private int minSendKbps;
 
 	private KurentoParticipant owner;
 	protected String endpointName; // KMS media object identifier. Unique for every MediaEndpoint
@@ -85,6 +90,10 @@ public abstract class MediaEndpoint {
 
 	private MediaPipeline pipeline = null;
 	private ListenerSubscription endpointSubscription = null;
+	private CountDownLatch iceListenerLatch = null;
+	private AtomicInteger kmsEventSubscriptions = new AtomicInteger(0);
+	// KMS the event subscriptions of this endpoint are charged to
+	private volatile Kms eventSubscriptionsKms = null;
 
 	private final List<IceCandidate> receivedCandidateList = new LinkedList<IceCandidate>();
 	private LinkedList<IceCandidate> candidates = new LinkedList<IceCandidate>();
@@ -246,6 +255,51 @@ public abstract class MediaEndpoint {
 		this.endpointName = endpointName;
 	}
 
+	/**
+	 * @return the name given to the internal endpoint in KMS when it is created.
+	 *         By default the endpoint's name
+	 */
+	protected String getMediaObjectName() {
+		return this.endpointName;
+	}
+
+	/**
+	 * Overrides the video send bandwidth of the token or the global configuration.
+	 * Must be set before the endpoint is created
+	 */
+	public void setVideoSendBandwidth(int maxSendKbps, int minSendKbps) {
+		this.maxSendKbps = maxSendKbps;
+		this.minSendKbps = minSendKbps;
+	}
+
+	/**
+	 * Changes the maximum video send bandwidth of the already created endpoint
+	 */
+	public void updateMaxVideoSendBandwidth(int maxSendKbps) {
+		this.maxSendKbps = maxSendKbps;
+		if (this.webEndpoint != null) {
+			this.webEndpoint.setMaxVideoSendBandwidth(maxSendKbps, new Continuation<Void>() {
+				@Override
+				public void onSuccess(Void result) throws Exception {
+				}
+
+				@Override
+				public void onError(Throwable cause) throws Exception {
+					log.warn("EP {}: Error setting max video send bandwidth to {} kbps: {}", endpointName,
+							maxSendKbps, cause.getMessage());
+				}
+			});
+		}
+	}
+
+	public int getMaxRecvKbps() {
+		return this.maxRecvKbps;
+	}
+
+	public int getMaxSendKbps() {
+		return this.maxSendKbps;
+	}
+
 	public String getStreamId() {
 		return streamId;
 	}
@@ -260,36 +314,73 @@ public abstract class MediaEndpoint {
 	 */
 	public synchronized void unregisterErrorListeners() {
 		unregisterElementErrListener(endpoint, endpointSubscription);
+		int subscriptions = this.kmsEventSubscriptions.getAndSet(0);
+		Kms kms = this.eventSubscriptionsKms;
+		if (subscriptions > 0 && kms != null) {
+			kms.releaseEventSubscriptions(subscriptions);
+		}
+	}
+
+	/**
+	 * Counts a KMS event listener successfully subscribed for this endpoint. They
+	 * are discounted from the KMS when the endpoint is released
+	 */
+	public void registerKmsEventSubscription() {
+		this.kmsEventSubscriptions.incrementAndGet();
+		Kms kms = this.eventSubscriptionsKms;
+		if (kms == null) {
+			kms = this.getKms();
+			this.eventSubscriptionsKms = kms;
+		}
+		if (kms != null) {
+			kms.registerEventSubscriptions(1);
+		}
+	}
+
+	/**
+	 * @return the KMS hosting the pipeline of this endpoint, which is not the KMS
+	 *         of the session for subscribers placed in a cascade edge
+	 */
+	public Kms getKms() {
+		return this.pipeline != null ? this.owner.getSession().getKmsOf(this.pipeline)
+				: this.owner.getSession().getKms();
 	}
 
 	/**
 	 * Creates the endpoint (RTP or WebRTC) and any other additional elements (if
-	 * needed).
+	 * needed). The endpoint is built, named and configured in a single KMS
+	 * transaction, so its creation costs one round trip.
 	 *
 	 * @param endpointLatch
 	 */
 	protected void internalEndpointInitialization(final CountDownLatch endpointLatch) {
+		final long initTime = System.currentTimeMillis();
 		if (this.isWeb()) {
+			Transaction tx = pipeline.beginTransaction();
 			WebRtcEndpoint.Builder builder = new WebRtcEndpoint.Builder(pipeline);
 			/*
 			 * if (this.dataChannels) { builder.useDataChannels(); }
 			 */
-			builder.buildAsync(new Continuation<WebRtcEndpoint>() {
+			final WebRtcEndpoint newEndpoint = builder.build(tx);
+			if (this.getMediaObjectName() != null) {
+				newEndpoint.setName(this.getMediaObjectName(), tx);
+			}
+			newEndpoint.setMaxVideoRecvBandwidth(maxRecvKbps, tx);
+			newEndpoint.setMinVideoRecvBandwidth(minRecvKbps, tx);
+			newEndpoint.setMaxVideoSendBandwidth(maxSendKbps, tx);
+			newEndpoint.setMinVideoSendBandwidth(minSendKbps, tx);
+			tx.commit(new Continuation<Void>() {
 				@Override
-				public void onSuccess(WebRtcEndpoint result) throws Exception {
-					webEndpoint = result;
-
-					webEndpoint.setMaxVideoRecvBandwidth(maxRecvKbps);
-					webEndpoint.setMinVideoRecvBandwidth(minRecvKbps);
-					webEndpoint.setMaxVideoSendBandwidth(maxSendKbps);
-					webEndpoint.setMinVideoSendBandwidth(minSendKbps);
+				public void onSuccess(Void result) throws Exception {
+					webEndpoint = newEndpoint;
 
 					endpointLatch.countDown();
 					while (!candidates.isEmpty()) {
 						internalAddIceCandidate(candidates.removeFirst());
 					}
-					
-					log.trace("EP {}: Created a new WebRtcEndpoint", endpointName);
+
+					log.trace("EP {}: Created a new WebRtcEndpoint in {} ms", endpointName,
+							System.currentTimeMillis() - initTime);
 					endpointSubscription = registerElemErrListener(webEndpoint);
 				}
 
@@ -307,11 +398,16 @@ public abstract class MediaEndpoint {
 				playerBuilder = playerBuilder.useEncodedMedia();
 			}
 
-			playerBuilder.buildAsync(new Continuation<PlayerEndpoint>() {
+			Transaction tx = pipeline.beginTransaction();
+			final PlayerEndpoint newEndpoint = playerBuilder.build(tx);
+			if (this.getMediaObjectName() != null) {
+				newEndpoint.setName(this.getMediaObjectName(), tx);
+			}
+			tx.commit(new Continuation<Void>() {
 
 				@Override
-				public void onSuccess(PlayerEndpoint result) throws Exception {
-					playerEndpoint = result;
+				public void onSuccess(Void result) throws Exception {
+					playerEndpoint = newEndpoint;
 
 					if (!mediaOptions.onlyPlayWithSubscribers) {
 						playerEndpoint.play(new Continuation<Void>() {
@@ -328,7 +424,8 @@ public abstract class MediaEndpoint {
 						});
 					}
 
-					log.trace("EP {}: Created a new PlayerEndpoint", endpointName);
+					log.trace("EP {}: Created a new PlayerEndpoint in {} ms", endpointName,
+							System.currentTimeMillis() - initTime);
 					endpointSubscription = registerElemErrListener(playerEndpoint);
 					endpointLatch.countDown();
 				}
@@ -340,12 +437,18 @@ public abstract class MediaEndpoint {
 				}
 			});
 		} else {
-			new RtpEndpoint.Builder(pipeline).buildAsync(new Continuation<RtpEndpoint>() {
+			Transaction tx = pipeline.beginTransaction();
+			final RtpEndpoint newEndpoint = new RtpEndpoint.Builder(pipeline).build(tx);
+			if (this.getMediaObjectName() != null) {
+				newEndpoint.setName(this.getMediaObjectName(), tx);
+			}
+			tx.commit(new Continuation<Void>() {
 				@Override
-				public void onSuccess(RtpEndpoint result) throws Exception {
-					endpoint = result;
+				public void onSuccess(Void result) throws Exception {
+					endpoint = newEndpoint;
 					endpointLatch.countDown();
-					log.trace("EP {}: Created a new RtpEndpoint", endpointName);
+					log.trace("EP {}: Created a new RtpEndpoint in {} ms", endpointName,
+							System.currentTimeMillis() - initTime);
 					endpointSubscription = registerElemErrListener(endpoint);
 				}
 
@@ -462,7 +565,8 @@ public abstract class MediaEndpoint {
 	 * If supported, it registers a listener for when a new {@link IceCandidate} is
 	 * gathered by the internal endpoint ({@link WebRtcEndpoint}) and sends it to
 	 * the remote User Agent as a notification using the messaging capabilities of
-	 * the {@link Participant}.
+	 * the {@link Participant}. The subscription is asynchronous: it overlaps with
+	 * the SDP negotiation and is only awaited before gathering candidates.
 	 *
 	 * @see WebRtcEndpoint#addOnIceCandidateListener(org.kurento.client.EventListener)
 	 * @see Participant#sendIceCandidate(String, IceCandidate)
@@ -476,8 +580,21 @@ public abstract class MediaEndpoint {
 			throw new OpenViduException(Code.MEDIA_WEBRTC_ENDPOINT_ERROR_CODE,
 					"Can't register event listener for null WebRtcEndpoint (ep: " + endpointName + ")");
 		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.iceListenerLatch = latch;
 		webEndpoint.addOnIceCandidateListener(event -> {
 			owner.sendIceCandidate(senderPublicId, endpointName, event.getCandidate());
+		}, new Continuation<ListenerSubscription>() {
+			@Override
+			public void onSuccess(ListenerSubscription result) throws Exception {
+				latch.countDown();
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				latch.countDown();
+				log.warn("EP {}: Failed to register OnIceCandidate listener", endpointName, cause);
+			}
 		});
 	}
 
@@ -493,6 +610,17 @@ public abstract class MediaEndpoint {
 			throw new OpenViduException(Code.MEDIA_WEBRTC_ENDPOINT_ERROR_CODE,
 					"Can't start gathering ICE candidates on null WebRtcEndpoint (ep: " + endpointName + ")");
 		}
+		// Candidates gathered before the listener is ready would never reach the client
+		CountDownLatch latch = this.iceListenerLatch;
+		try {
+			if (latch != null && !latch.await(KurentoSession.ASYNC_LATCH_TIMEOUT, TimeUnit.SECONDS)) {
+				throw new OpenViduException(Code.MEDIA_WEBRTC_ENDPOINT_ERROR_CODE,
+						"Timeout reached when registering OnIceCandidate listener (ep: " + endpointName + ")");
+			}
+		} catch (InterruptedException e) {
+			throw new OpenViduException(Code.MEDIA_WEBRTC_ENDPOINT_ERROR_CODE,
+					"Interrupted when registering OnIceCandidate listener (ep: " + endpointName + ")");
+		}
 		webEndpoint.gatherCandidates(new Continuation<Void>() {
 			@Override
 			public void onSuccess(Void result) throws Exception {
@@ -47,7 +47,9 @@ import io.openvidu.client.OpenViduException.Code;
 import io.openvidu.server.core.MediaOptions;
 import io.openvidu.server.kurento.core.KurentoMediaOptions;
 import io.openvidu.server.kurento.core.KurentoParticipant;
+import io.openvidu.server.kurento.core.KurentoSession;
 import io.openvidu.server.utils.JsonUtils;
+import io.openvidu.server.utils.SdpUtils;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
 /**
@@ -76,10 +78,19 @@ public class PublisherEndpoint extends MediaEndpoint {
 
 	public int numberOfSubscribers = 0;
 
+	// Sink id -> element relaying this publisher to the media server of the sink
+	private Map<String, MediaElement> relaySources = new ConcurrentHashMap<>();
+
+	private volatile String videoCodec; // Negotiated video codec (VP8, H264...). Null if no video
+
+	private final KeyframeCoalescer keyframeCoalescer;
+
 	public PublisherEndpoint(EndpointType endpointType, KurentoParticipant owner, String endpointName,
 			MediaPipeline pipeline, OpenviduConfig openviduConfig, PassThrough passThru) {
 		super(endpointType, owner, endpointName, pipeline, openviduConfig, log);
 		this.passThru = passThru;
+		this.keyframeCoalescer = new KeyframeCoalescer(this, openviduConfig.getOpenviduStreamsKeyframeWindow(),
+				(source, sink) -> internalSinkConnect(source, sink, MediaType.VIDEO));
 	}
 
 	@Override
@@ -111,6 +122,14 @@ public class PublisherEndpoint extends MediaEndpoint {
 		return elements.values();
 	}
 
+	public PassThrough getPassThru() {
+		return this.passThru;
+	}
+
+	public String getVideoCodec() {
+		return this.videoCodec;
+	}
+
 	public GenericMediaElement getFilter() {
 		return this.filter;
 	}
@@ -186,26 +205,57 @@ public class PublisherEndpoint extends MediaEndpoint {
 			innerConnect();
 		}
 		this.createdAt = System.currentTimeMillis();
+		KurentoSession session = ((KurentoParticipant) this.getOwner()).getSession();
 		String sdpResponse = null;
 		switch (sdpType) {
 		case ANSWER:
 			sdpResponse = processAnswer(sdpString);
+			this.videoCodec = SdpUtils.getNegotiatedCodec(sdpString, "video");
 			break;
 		case OFFER:
+			String forcedVideoCodec = session.getForcedVideoCodec();
+			if (forcedVideoCodec != null) {
+				String filteredOffer = SdpUtils.forceVideoCodec(sdpString, forcedVideoCodec);
+				if (filteredOffer.equals(sdpString)) {
+					log.warn("Publisher {} does not offer video codec {} of session {}. Stream may be transcoded",
+							this.getEndpointName(), forcedVideoCodec, session.getSessionId());
+				}
+				sdpString = filteredOffer;
+			}
 			sdpResponse = processOffer(sdpString);
+			this.videoCodec = SdpUtils.getNegotiatedCodec(sdpResponse, "video");
 			break;
 		default:
 			throw new OpenViduException(Code.MEDIA_SDP_ERROR_CODE, "Sdp type not supported: " + sdpType);
 		}
+		log.info("Publisher {} negotiated video codec: {}", this.getEndpointName(), this.videoCodec);
+		session.registerPublisherVideoCodec(this.videoCodec);
 		gatherCandidates();
 		return sdpResponse;
 	}
 
+	/**
+	 * Makes every connection of this publisher to the sink go through a relay of
+	 * the publisher (a sink in another media server) instead of the PassThrough
+	 */
+	public void setRelaySource(MediaElement sink, MediaElement relaySource) {
+		this.relaySources.put(sink.getId(), relaySource);
+	}
+
+	public void removeRelaySource(MediaElement sink) {
+		this.relaySources.remove(sink.getId());
+	}
+
+	private MediaElement sourceFor(MediaElement sink) {
+		MediaElement relaySource = this.relaySources.get(sink.getId());
+		return relaySource != null ? relaySource : this.passThru;
+	}
+
 	public synchronized void connect(MediaElement sink) {
 		if (!connected) {
 			innerConnect();
 		}
-		internalSinkConnect(passThru, sink);
+		sinkConnect(sourceFor(sink), sink, null, false);
 		this.enableIpCameraIfNecessary();
 	}
 
@@ -213,7 +263,27 @@ public class PublisherEndpoint extends MediaEndpoint {
 		if (!connected) {
 			innerConnect();
 		}
-		internalSinkConnect(passThru, sink, type);
+		sinkConnect(sourceFor(sink), sink, type, false);
+		this.enableIpCameraIfNecessary();
+	}
+
+	/**
+	 * Connects the audio, the video, both or none of them to the endpoint of a
+	 * subscriber. It counts as a new subscriber in every case, so media types can
+	 * be added later with {@link #connectMediaType(MediaElement, MediaType)}. The
+	 * video link goes through the {@link KeyframeCoalescer}
+	 */
+	public synchronized void connect(MediaElement sink, boolean audio, boolean video) {
+		if (!connected) {
+			innerConnect();
+		}
+		if (audio && video) {
+			sinkConnect(sourceFor(sink), sink, null, true);
+		} else if (audio) {
+			sinkConnect(sourceFor(sink), sink, MediaType.AUDIO, true);
+		} else if (video) {
+			sinkConnect(sourceFor(sink), sink, MediaType.VIDEO, true);
+		}
 		this.enableIpCameraIfNecessary();
 	}
 
@@ -231,7 +301,34 @@ public class PublisherEndpoint extends MediaEndpoint {
 	}
 
 	public synchronized void disconnectFrom(MediaElement sink) {
-		internalSinkDisconnect(passThru, sink);
+		this.keyframeCoalescer.cancel(sink);
+		internalSinkDisconnect(sourceFor(sink), sink);
+	}
+
+	/**
+	 * Connects one more media type to a subscriber endpoint that is already
+	 * connected to this publisher (it does not count as a new subscriber)
+	 */
+	public synchronized void connectMediaType(MediaElement sink, MediaType type) {
+		sinkConnect(sourceFor(sink), sink, type, true);
+	}
+
+	/**
+	 * Disconnects only one media type from a sink, leaving the rest connected
+	 */
+	public synchronized void disconnectFrom(MediaElement sink, MediaType type) {
+		if (type == null || MediaType.VIDEO.equals(type)) {
+			this.keyframeCoalescer.cancel(sink);
+		}
+		internalSinkDisconnect(sourceFor(sink), sink, type);
+	}
+
+	/**
+	 * Drops the video links to subscribers still waiting for the keyframe window
+	 * to close. To be called when releasing the publisher
+	 */
+	public void cancelPendingVideoLinks() {
+		this.keyframeCoalescer.close();
 	}
 
 	/**
@@ -449,6 +546,34 @@ public class PublisherEndpoint extends MediaEndpoint {
 		connected = true;
 	}
 
+	/**
+	 * Connects a sink to this publisher. The video link of a subscriber goes
+	 * through the {@link KeyframeCoalescer}, so that a burst of new subscribers
+	 * produces a single keyframe request. Other sinks (recorders, cascade relays,
+	 * composite hub ports) are linked at once: they must not miss the first
+	 * frames while the window is open
+	 *
+	 * @param type     if null, all media types are connected
+	 * @param coalesce whether the sink is a subscriber endpoint
+	 */
+	private void sinkConnect(final MediaElement source, final MediaElement sink, final MediaType type,
+			boolean coalesce) {
+		if (MediaType.AUDIO.equals(type) || MediaType.DATA.equals(type)) {
+			internalSinkConnect(source, sink, type);
+			return;
+		}
+		if (!coalesce || !this.keyframeCoalescer.isEnabled()) {
+			internalSinkConnect(source, sink, type);
+			this.keyframeCoalescer.countKeyframeRequest();
+			return;
+		}
+		if (type == null) {
+			internalSinkConnect(source, sink, MediaType.AUDIO);
+			internalSinkConnect(source, sink, MediaType.DATA);
+		}
+		this.keyframeCoalescer.link(source, sink);
+	}
+
 	private void internalSinkConnect(final MediaElement source, final MediaElement sink) {
 		source.connect(sink, new Continuation<Void>() {
 			@Override
@@ -559,6 +684,8 @@ public class PublisherEndpoint extends MediaEndpoint {
 			json.addProperty("rtspUri", ((KurentoMediaOptions) this.mediaOptions).rtspUri);
 		}
 		json.add("mediaOptions", this.mediaOptions.toJson());
+		json.addProperty("keyframeRequests", this.keyframeCoalescer.getKeyframeRequests());
+		json.addProperty("coalescedVideoLinks", this.keyframeCoalescer.getCoalescedLinks());
 		return json;
 	}
 
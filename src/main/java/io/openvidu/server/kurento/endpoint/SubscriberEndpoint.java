@@ -20,14 +20,21 @@ package io.openvidu.server.kurento.endpoint;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.kurento.client.MediaElement;
 import org.kurento.client.MediaPipeline;
+import org.kurento.client.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import io.openvidu.server.core.VideoCodecPolicy;
 import io.openvidu.server.kurento.core.KurentoParticipant;
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.kurento.core.LastNVideoForwarder;
+import io.openvidu.server.kurento.core.SessionCascade;
+import io.openvidu.server.utils.SdpUtils;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
 /**
@@ -39,6 +46,10 @@ public class SubscriberEndpoint extends MediaEndpoint {
 	private final static Logger log = LoggerFactory.getLogger(SubscriberEndpoint.class);
 
 	private AtomicBoolean connectedToPublisher = new AtomicBoolean(false);
+	private AtomicBoolean videoPaused = new AtomicBoolean(false);
+	// Whether the VIDEO connection from the publisher's PassThrough exists. Guarded
+	// by this endpoint's lock
+	private boolean videoLinked = false;
 
 	private String publisherStreamId;
 
@@ -50,9 +61,32 @@ public class SubscriberEndpoint extends MediaEndpoint {
 	public synchronized String subscribe(String sdpOffer, PublisherEndpoint publisher) {
 		registerOnIceCandidateEventListener(publisher.getOwner().getParticipantPublicId());
 		this.createdAt = System.currentTimeMillis();
+		KurentoSession session = ((KurentoParticipant) this.getOwner()).getSession();
+		if (!VideoCodecPolicy.NONE.equals(session.getVideoCodecPolicy()) && publisher.getVideoCodec() != null) {
+			// Receive the codec the publisher is sending, so the flow is not transcoded
+			String filteredOffer = SdpUtils.forceVideoCodec(sdpOffer, publisher.getVideoCodec());
+			if (filteredOffer.equals(sdpOffer)) {
+				log.warn("Subscriber {} does not offer video codec {} of stream {}. Stream may be transcoded",
+						this.getEndpointName(), publisher.getVideoCodec(), publisher.getStreamId());
+			}
+			sdpOffer = filteredOffer;
+		}
 		String sdpAnswer = processOffer(sdpOffer);
 		gatherCandidates();
-		publisher.connect(this.getEndpoint());
+		SessionCascade cascade = session.getCascade();
+		if (cascade != null) {
+			MediaElement relaySource = cascade.getRelaySource((KurentoParticipant) this.getOwner(), publisher);
+			if (relaySource != null) {
+				publisher.setRelaySource(this.getEndpoint(), relaySource);
+			}
+		}
+		// No audio if the subscriber receives mixed audio. Only the video of the last
+		// N publishers if last-N forwarding is enabled, and none if already paused
+		// (subscriptions downgraded to audio-only)
+		boolean video = !publisher.getMediaOptions().hasVideo()
+				|| (!this.isVideoPaused() && this.isVideoForwarded(publisher));
+		publisher.connect(this.getEndpoint(), !session.receivesMixedAudio(this.getOwner()), video);
+		this.videoLinked = video && publisher.getMediaOptions().hasVideo();
 		setConnectedToPublisher(true);
 		this.publisherStreamId = publisher.getStreamId();
 		return sdpAnswer;
@@ -66,6 +100,64 @@ public class SubscriberEndpoint extends MediaEndpoint {
 		this.connectedToPublisher.set(connectedToPublisher);
 	}
 
+	public boolean isVideoPaused() {
+		return videoPaused.get();
+	}
+
+	/**
+	 * Pauses or resumes the video received from the publisher without SDP
+	 * renegotiation, by removing or restoring only the VIDEO connection from the
+	 * publisher's PassThrough. Audio keeps flowing. Restoring the connection makes
+	 * KMS request a keyframe to the publisher (as for any new video sink), so the
+	 * subscriber does not wait for the next periodic one to render video again.
+	 * The video leg of a publisher out of the last N stays disconnected until the
+	 * publisher enters it again. Synchronized with the subscription and the last-N
+	 * updates of this endpoint, so a pause cannot interleave with them
+	 */
+	public synchronized void setVideoPaused(PublisherEndpoint publisher, boolean paused) {
+		if (this.videoPaused.getAndSet(paused) == paused) {
+			return;
+		}
+		if (this.updateVideoLink(publisher)) {
+			log.debug("Video of subscriber {} {}", this.getEndpointName(), paused ? "paused" : "resumed");
+		}
+	}
+
+	/**
+	 * Connects or disconnects the video leg from the publisher so it matches the
+	 * current state: linked if the video is not paused and the publisher is in the
+	 * last N of the session. Safe to call any number of times and from any thread
+	 *
+	 * @return true if the video leg was connected or disconnected
+	 */
+	public synchronized boolean updateVideoLink(PublisherEndpoint publisher) {
+		if (!this.isConnectedToPublisher() || this.getEndpoint() == null || !publisher.getMediaOptions().hasVideo()) {
+			return false;
+		}
+		boolean linked = !this.isVideoPaused() && this.isVideoForwarded(publisher);
+		if (linked == this.videoLinked) {
+			return false;
+		}
+		if (linked) {
+			publisher.connectMediaType(this.getEndpoint(), MediaType.VIDEO);
+		} else {
+			publisher.disconnectFrom(this.getEndpoint(), MediaType.VIDEO);
+		}
+		this.videoLinked = linked;
+		return true;
+	}
+
+	public synchronized boolean isVideoLinked() {
+		return this.videoLinked;
+	}
+
+	private boolean isVideoForwarded(PublisherEndpoint publisher) {
+		LastNVideoForwarder lastNVideoForwarder = ((KurentoParticipant) this.getOwner()).getSession()
+				.getLastNVideoForwarder();
+		return lastNVideoForwarder == null
+				|| lastNVideoForwarder.isVideoForwarded(publisher.getOwner().getParticipantPublicId());
+	}
+
 	@Override
 	public JsonObject toJson() {
 		JsonObject json = super.toJson();
@@ -74,6 +166,7 @@ public class SubscriberEndpoint extends MediaEndpoint {
 		} catch (NullPointerException ex) {
 			json.addProperty("streamId", "NOT_FOUND");
 		}
+		json.addProperty("videoPaused", this.isVideoPaused());
 		return json;
 	}
 
@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+/**
+ * What to do with a subscription that does not fit in the egress budget of its
+ * media server
+ */
+public enum BudgetExceededAction {
+
+	/**
+	 * The subscription fails with error MEDIA_EGRESS_BUDGET_EXCEEDED_ERROR_CODE
+	 */
+	REJECT,
+
+	/**
+	 * The subscription is established without its video leg if the audio still
+	 * fits in the budget. Rejected otherwise
+	 */
+	AUDIO_ONLY
+
+}
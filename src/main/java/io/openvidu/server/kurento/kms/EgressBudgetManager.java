@@ -0,0 +1,445 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.Continuation;
+import org.kurento.client.MediaPipeline;
+import org.kurento.client.RTCInboundRTPStreamStats;
+import org.kurento.client.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.openvidu.client.OpenViduException;
+import io.openvidu.client.OpenViduException.Code;
+import io.openvidu.server.core.MediaOptions;
+import io.openvidu.server.core.Participant;
+import io.openvidu.server.kurento.core.KurentoParticipant;
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.kurento.core.KurentoTokenOptions;
+import io.openvidu.server.kurento.endpoint.PublisherEndpoint;
+import io.openvidu.server.kurento.endpoint.SubscriberEndpoint;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Admission control of streams based on the egress and ingress bandwidth of
+ * every KMS. The usage of each KMS is estimated periodically: every stream
+ * counts with its measured bitrate (sampled from the inbound RTP statistics of
+ * its publisher endpoint) or, until measured, with the receive bandwidth limit
+ * of the publisher. Every subscription counts with the bitrate of its stream,
+ * capped by the send bandwidth limit of the subscriber, or only with its audio
+ * if its video is paused. Streams admitted between two samples are added to
+ * the last estimation.
+ * 
+ * A subscription that would exceed the egress budget is rejected or downgraded
+ * to audio-only depending on {@link BudgetExceededAction}. A publication that
+ * would exceed the ingress budget is rejected. Subscriptions served by the edge
+ * media servers of a cascaded session are not checked
+ */
+public class EgressBudgetManager {
+
+	private static final Logger log = LoggerFactory.getLogger(EgressBudgetManager.class);
+
+	/**
+	 * Estimated bitrate of an audio stream
+	 */
+	public static final int AUDIO_KBPS = 40;
+
+	/**
+	 * Estimated bitrate of a video stream not yet measured whose receive bandwidth
+	 * is unlimited
+	 */
+	public static final int UNLIMITED_VIDEO_KBPS = 2500;
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	private class KmsBudget {
+		volatile long egressKbps = 0;
+		volatile long ingressKbps = 0;
+		long pendingEgressKbps = 0;
+		long pendingIngressKbps = 0;
+	}
+
+	private class StreamSample {
+		long bytes;
+		long timestamp;
+		volatile long kbps = -1;
+	}
+
+	private final Map<String, KmsBudget> budgets = new ConcurrentHashMap<>();
+	private final Map<String, StreamSample> streamSamples = new ConcurrentHashMap<>();
+
+	private final AtomicLong subscriptionsAdmitted = new AtomicLong(0);
+	private final AtomicLong subscriptionsDowngraded = new AtomicLong(0);
+	private final AtomicLong subscriptionsRejected = new AtomicLong(0);
+	private final AtomicLong publicationsRejected = new AtomicLong(0);
+
+	private ScheduledThreadPoolExecutor scheduler;
+
+	@PostConstruct
+	public void init() {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "kms-egress-budget");
+			t.setDaemon(true);
+			return t;
+		});
+		int interval = this.openviduConfig.getKmsBudgetSampleInterval();
+		if (this.isEnabled() && interval > 0) {
+			this.scheduler.scheduleWithFixedDelay(this::sampleAll, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		this.scheduler.shutdownNow();
+	}
+
+	public boolean isEnabled() {
+		return this.openviduConfig.getKmsBudgetEgressKbps() > 0 || this.openviduConfig.getKmsBudgetIngressKbps() > 0;
+	}
+
+	/**
+	 * @return true if the subscription may receive video, false if it must be
+	 *         downgraded to audio-only
+	 * @throws OpenViduException with code MEDIA_EGRESS_BUDGET_EXCEEDED_ERROR_CODE
+	 *                           if the subscription does not fit in the egress
+	 *                           budget of the media server
+	 */
+	public boolean admitSubscription(KurentoParticipant subscriber, KurentoParticipant publisher)
+			throws OpenViduException {
+		int limit = this.openviduConfig.getKmsBudgetEgressKbps();
+		KurentoSession session = subscriber.getSession();
+		if (limit <= 0 || session.getCascade() != null) {
+			return true;
+		}
+		PublisherEndpoint publisherEndpoint = publisher.getPublisher();
+		KmsBudget budget = this.getBudget(session.getKms());
+		long videoCost = this.subscriptionKbps(publisherEndpoint, this.maxSendKbps(subscriber), false);
+		long audioCost = this.subscriptionKbps(publisherEndpoint, 0, true);
+		synchronized (budget) {
+			long used = budget.egressKbps + budget.pendingEgressKbps;
+			if (used + videoCost <= limit) {
+				budget.pendingEgressKbps += videoCost;
+				this.subscriptionsAdmitted.incrementAndGet();
+				return true;
+			}
+			boolean canDowngrade = BudgetExceededAction.AUDIO_ONLY.equals(this.openviduConfig.getKmsBudgetAction())
+					&& publisherEndpoint.getMediaOptions().hasAudio() && used + audioCost <= limit;
+			if (canDowngrade) {
+				budget.pendingEgressKbps += audioCost;
+				this.subscriptionsDowngraded.incrementAndGet();
+				log.warn("Subscription of {} to {} downgraded to audio-only: KMS {} egress at {}/{} kbps",
+						subscriber.getParticipantPublicId(), publisher.getParticipantPublicId(),
+						session.getKms().getId(), used, limit);
+				return false;
+			}
+			this.subscriptionsRejected.incrementAndGet();
+			log.warn("Subscription of {} to {} rejected: KMS {} egress at {}/{} kbps",
+					subscriber.getParticipantPublicId(), publisher.getParticipantPublicId(), session.getKms().getId(),
+					used, limit);
+			throw new OpenViduException(Code.MEDIA_EGRESS_BUDGET_EXCEEDED_ERROR_CODE,
+					"Media server egress bandwidth budget exceeded. Cannot subscribe to user '"
+							+ publisher.getParticipantPublicId() + "' in session '" + session.getSessionId() + "'");
+		}
+	}
+
+	/**
+	 * Gives back the egress reserved by {@link #admitSubscription} for a
+	 * subscription that could not be established. The cost is estimated again, and
+	 * the reserved egress never goes below zero, as it may have been reset by a new
+	 * sample meanwhile
+	 */
+	public void releaseSubscription(KurentoParticipant subscriber, KurentoParticipant publisher, boolean video) {
+		int limit = this.openviduConfig.getKmsBudgetEgressKbps();
+		KurentoSession session = subscriber.getSession();
+		if (limit <= 0 || session.getCascade() != null) {
+			return;
+		}
+		PublisherEndpoint publisherEndpoint = publisher.getPublisher();
+		long cost = video ? this.subscriptionKbps(publisherEndpoint, this.maxSendKbps(subscriber), false)
+				: this.subscriptionKbps(publisherEndpoint, 0, true);
+		KmsBudget budget = this.getBudget(session.getKms());
+		synchronized (budget) {
+			budget.pendingEgressKbps = Math.max(0, budget.pendingEgressKbps - cost);
+		}
+	}
+
+	/**
+	 * Checks that the video of a paused subscription fits in the egress budget
+	 * before resuming it
+	 *
+	 * @throws OpenViduException with code MEDIA_EGRESS_BUDGET_EXCEEDED_ERROR_CODE
+	 *                           if it does not fit
+	 */
+	public void admitVideoResume(KurentoParticipant subscriber, SubscriberEndpoint subscriberEndpoint,
+			KurentoParticipant publisher) throws OpenViduException {
+		int limit = this.openviduConfig.getKmsBudgetEgressKbps();
+		KurentoSession session = subscriber.getSession();
+		if (limit <= 0 || session.getCascade() != null) {
+			return;
+		}
+		PublisherEndpoint publisherEndpoint = publisher.getPublisher();
+		long cost = this.subscriptionKbps(publisherEndpoint, subscriberEndpoint.getMaxSendKbps(), false)
+				- this.subscriptionKbps(publisherEndpoint, 0, true);
+		KmsBudget budget = this.getBudget(session.getKms());
+		synchronized (budget) {
+			long used = budget.egressKbps + budget.pendingEgressKbps;
+			if (used + cost > limit) {
+				this.subscriptionsRejected.incrementAndGet();
+				throw new OpenViduException(Code.MEDIA_EGRESS_BUDGET_EXCEEDED_ERROR_CODE,
+						"Media server egress bandwidth budget exceeded. Cannot resume video of user '"
+								+ publisher.getParticipantPublicId() + "' in session '" + session.getSessionId()
+								+ "'");
+			}
+			budget.pendingEgressKbps += cost;
+		}
+	}
+
+	/**
+	 * @throws OpenViduException with code MEDIA_INGRESS_BUDGET_EXCEEDED_ERROR_CODE
+	 *                           if the stream of the participant does not fit in
+	 *                           the ingress budget of the media server
+	 */
+	public void admitPublication(KurentoParticipant publisher, MediaOptions mediaOptions) throws OpenViduException {
+		int limit = this.openviduConfig.getKmsBudgetIngressKbps();
+		if (limit <= 0) {
+			return;
+		}
+		KurentoSession session = publisher.getSession();
+		long cost = this.publicationKbps(publisher, mediaOptions);
+		KmsBudget budget = this.getBudget(session.getKms());
+		synchronized (budget) {
+			long used = budget.ingressKbps + budget.pendingIngressKbps;
+			if (used + cost > limit) {
+				this.publicationsRejected.incrementAndGet();
+				log.warn("Publication of {} rejected: KMS {} ingress at {}/{} kbps",
+						publisher.getParticipantPublicId(), session.getKms().getId(), used, limit);
+				throw new OpenViduException(Code.MEDIA_INGRESS_BUDGET_EXCEEDED_ERROR_CODE,
+						"Media server ingress bandwidth budget exceeded. Cannot publish in session '"
+								+ session.getSessionId() + "'");
+			}
+			budget.pendingIngressKbps += cost;
+		}
+	}
+
+	/**
+	 * Gives back the ingress reserved by {@link #admitPublication} for a
+	 * publication that could not be established. As with subscriptions, the
+	 * reserved ingress never goes below zero
+	 */
+	public void releasePublication(KurentoParticipant publisher, MediaOptions mediaOptions) {
+		if (this.openviduConfig.getKmsBudgetIngressKbps() <= 0) {
+			return;
+		}
+		long cost = this.publicationKbps(publisher, mediaOptions);
+		KmsBudget budget = this.getBudget(publisher.getSession().getKms());
+		synchronized (budget) {
+			budget.pendingIngressKbps = Math.max(0, budget.pendingIngressKbps - cost);
+		}
+	}
+
+	private long publicationKbps(KurentoParticipant publisher, MediaOptions mediaOptions) {
+		long kbps = 0;
+		if (mediaOptions.hasAudio()) {
+			kbps += AUDIO_KBPS;
+		}
+		if (mediaOptions.hasVideo()) {
+			kbps += this.videoKbps(this.maxRecvKbps(publisher));
+		}
+		return kbps;
+	}
+
+	private KmsBudget getBudget(Kms kms) {
+		return this.budgets.computeIfAbsent(kms.getId(), id -> new KmsBudget());
+	}
+
+	private void sampleAll() {
+		Set<String> streamIds = new HashSet<>();
+		for (Kms kms : this.kmsManager.getKmss()) {
+			try {
+				this.sample(kms, streamIds);
+			} catch (Exception e) {
+				log.warn("Error estimating bandwidth of KMS {}: {}", kms.getId(), e.getMessage());
+			}
+		}
+		this.streamSamples.keySet().retainAll(streamIds);
+		this.budgets.keySet().retainAll(this.kmsManager.getKmss().stream().map(Kms::getId).collect(Collectors.toSet()));
+	}
+
+	private void sample(Kms kms, Set<String> streamIds) {
+		long egress = 0;
+		long ingress = 0;
+		for (KurentoSession session : kms.getKurentoSessions()) {
+			Map<String, PublisherEndpoint> publishers = new HashMap<>();
+			for (Participant p : session.getParticipants()) {
+				KurentoParticipant participant = (KurentoParticipant) p;
+				if (participant.isStreaming()) {
+					PublisherEndpoint publisher = participant.getPublisher();
+					if (publisher != null && publisher.getStreamId() != null) {
+						publishers.put(publisher.getStreamId(), publisher);
+					}
+				}
+			}
+			for (PublisherEndpoint publisher : publishers.values()) {
+				streamIds.add(publisher.getStreamId());
+				if (kms.isKurentoClientConnected()) {
+					this.measure(publisher);
+				}
+				ingress += this.streamKbps(publisher);
+			}
+			MediaPipeline sessionPipeline = session.getPipelineIfCreated();
+			for (Participant p : session.getParticipants()) {
+				for (SubscriberEndpoint subscriber : ((KurentoParticipant) p).getSubscribers()) {
+					PublisherEndpoint publisher = publishers.get(subscriber.getStreamId());
+					if (publisher == null || subscriber.getEndpoint() == null
+							|| (session.getCascade() != null && subscriber.getPipeline() != sessionPipeline)) {
+						// Not connected or served by an edge media server
+						continue;
+					}
+					egress += this.subscriptionKbps(publisher, subscriber.getMaxSendKbps(),
+							subscriber.isVideoPaused());
+				}
+			}
+		}
+		KmsBudget budget = this.getBudget(kms);
+		synchronized (budget) {
+			budget.egressKbps = egress;
+			budget.ingressKbps = ingress;
+			budget.pendingEgressKbps = 0;
+			budget.pendingIngressKbps = 0;
+		}
+	}
+
+	private void measure(PublisherEndpoint publisher) {
+		final String streamId = publisher.getStreamId();
+		if (publisher.getEndpoint() == null) {
+			return;
+		}
+		publisher.getEndpoint().getStats(new Continuation<Map<String, Stats>>() {
+			@Override
+			public void onSuccess(Map<String, Stats> result) throws Exception {
+				long bytes = 0;
+				for (Stats stats : result.values()) {
+					if (stats instanceof RTCInboundRTPStreamStats) {
+						bytes += ((RTCInboundRTPStreamStats) stats).getBytesReceived();
+					}
+				}
+				long now = System.currentTimeMillis();
+				StreamSample sample = streamSamples.computeIfAbsent(streamId, id -> new StreamSample());
+				synchronized (sample) {
+					if (sample.timestamp > 0 && now > sample.timestamp && bytes >= sample.bytes) {
+						sample.kbps = (bytes - sample.bytes) * 8 / (now - sample.timestamp);
+					}
+					sample.bytes = bytes;
+					sample.timestamp = now;
+				}
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				log.debug("Error getting stats of stream {}: {}", streamId, cause.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Measured bitrate of the stream, or its estimation until measured
+	 */
+	private long streamKbps(PublisherEndpoint publisher) {
+		StreamSample sample = this.streamSamples.get(publisher.getStreamId());
+		if (sample != null && sample.kbps >= 0) {
+			return sample.kbps;
+		}
+		long kbps = publisher.getMediaOptions().hasAudio() ? AUDIO_KBPS : 0;
+		if (publisher.getMediaOptions().hasVideo()) {
+			kbps += this.videoKbps(publisher.getMaxRecvKbps());
+		}
+		return kbps;
+	}
+
+	private long subscriptionKbps(PublisherEndpoint publisher, int maxSendKbps, boolean audioOnly) {
+		long audio = publisher.getMediaOptions().hasAudio() ? AUDIO_KBPS : 0;
+		if (audioOnly) {
+			return audio;
+		}
+		long kbps = this.streamKbps(publisher);
+		return maxSendKbps > 0 ? Math.min(kbps, maxSendKbps + audio) : kbps;
+	}
+
+	private long videoKbps(int maxRecvKbps) {
+		return maxRecvKbps > 0 ? maxRecvKbps : UNLIMITED_VIDEO_KBPS;
+	}
+
+	private int maxSendKbps(KurentoParticipant participant) {
+		KurentoTokenOptions options = participant.getToken().getKurentoTokenOptions();
+		return options != null && options.getVideoMaxSendBandwidth() != null ? options.getVideoMaxSendBandwidth()
+				: this.openviduConfig.getVideoMaxSendBandwidth();
+	}
+
+	private int maxRecvKbps(KurentoParticipant participant) {
+		KurentoTokenOptions options = participant.getToken().getKurentoTokenOptions();
+		return options != null && options.getVideoMaxRecvBandwidth() != null ? options.getVideoMaxRecvBandwidth()
+				: this.openviduConfig.getVideoMaxRecvBandwidth();
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("enabled", this.isEnabled());
+		json.addProperty("egressKbps", this.openviduConfig.getKmsBudgetEgressKbps());
+		json.addProperty("ingressKbps", this.openviduConfig.getKmsBudgetIngressKbps());
+		json.addProperty("action", this.openviduConfig.getKmsBudgetAction().name());
+		json.addProperty("sampleInterval", this.openviduConfig.getKmsBudgetSampleInterval());
+		json.addProperty("subscriptionsAdmitted", this.subscriptionsAdmitted.get());
+		json.addProperty("subscriptionsDowngraded", this.subscriptionsDowngraded.get());
+		json.addProperty("subscriptionsRejected", this.subscriptionsRejected.get());
+		json.addProperty("publicationsRejected", this.publicationsRejected.get());
+		JsonArray kmss = new JsonArray();
+		this.budgets.forEach((kmsId, budget) -> {
+			JsonObject kmsJson = new JsonObject();
+			kmsJson.addProperty("id", kmsId);
+			synchronized (budget) {
+				kmsJson.addProperty("egressKbps", budget.egressKbps + budget.pendingEgressKbps);
+				kmsJson.addProperty("ingressKbps", budget.ingressKbps + budget.pendingIngressKbps);
+			}
+			kmss.add(kmsJson);
+		});
+		json.add("kmss", kmss);
+		return json;
+	}
+
+}
@@ -24,7 +24,6 @@ import java.util.List;
 import javax.annotation.PostConstruct;
 
 import org.apache.commons.lang3.RandomStringUtils;
-import org.kurento.client.KurentoClient;
 import org.kurento.commons.exception.KurentoException;
 
 import io.openvidu.server.core.IdentifierPrefixes;
@@ -35,12 +34,11 @@ public class FixedOneKmsManager extends KmsManager {
 	public List<Kms> initializeKurentoClients(List<KmsProperties> kmsProperties, boolean disconnectUponFailure,
 			boolean sendMediaNodeAddedEvent) throws Exception {
 		KmsProperties firstProps = kmsProperties.get(0);
-		KurentoClient kClient = null;
 		Kms kms = new Kms(firstProps, loadManager);
 		try {
-			kClient = KurentoClient.create(firstProps.getUri(), this.generateKurentoConnectionListener(kms.getId()));
+			List<KmsConnection> connections = this.createConnections(kms);
 			this.addKms(kms);
-			kms.setKurentoClient(kClient);
+			kms.setConnections(connections);
 
 			// TODO: This should be done in KurentoClient connected event
 			kms.setKurentoClientConnected(true);
@@ -48,9 +46,6 @@ public class FixedOneKmsManager extends KmsManager {
 
 		} catch (KurentoException e) {
 			log.error("KMS in {} is not reachable by OpenVidu Server", firstProps.getUri());
-			if (kClient != null) {
-				kClient.destroy();
-			}
 			throw new Exception();
 		}
 		return Arrays.asList(kms);
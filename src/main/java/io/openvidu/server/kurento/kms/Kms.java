@@ -20,8 +20,13 @@ package io.openvidu.server.kurento.kms;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -55,7 +60,7 @@ public class Kms {
 	private String id; // Dynamic ID
 	private String uri;
 	private String ip;
-	private KurentoClient client;
+	private List<KmsConnection> connections = Collections.emptyList();
 	private LoadManager loadManager;
 
 	private AtomicBoolean isKurentoClientConnected = new AtomicBoolean(false);
@@ -64,6 +69,19 @@ public class Kms {
 
 	private Map<String, KurentoSession> kurentoSessions = new ConcurrentHashMap<>();
 	private AtomicInteger activeRecordings = new AtomicInteger(0);
+	// Ids of the media elements of this KMS currently transcoding
+	private Set<String> transcodingElements = ConcurrentHashMap.newKeySet();
+	private AtomicLong transcodingsStarted = new AtomicLong(0);
+	private AtomicInteger activeEventSubscriptions = new AtomicInteger(0);
+	private AtomicLong eventSubscriptionsSkipped = new AtomicLong(0);
+
+	private volatile boolean draining = false;
+	private volatile boolean degraded = false;
+	private volatile long timeOfHealthChange = 0;
+	private volatile long lastProbeRtt = -1;
+	private AtomicLong healthProbes = new AtomicLong(0);
+	private AtomicLong failedHealthProbes = new AtomicLong(0);
+	private AtomicLong degradations = new AtomicLong(0);
 
 	public Kms(KmsProperties props, LoadManager loadManager) {
 		this.id = props.getId();
@@ -81,8 +99,12 @@ public class Kms {
 		this.loadManager = loadManager;
 	}
 
-	public void setKurentoClient(KurentoClient client) {
-		this.client = client;
+	public void setConnections(List<KmsConnection> connections) {
+		this.connections = connections;
+	}
+
+	public List<KmsConnection> getConnections() {
+		return this.connections;
 	}
 
 	public String getId() {
@@ -97,8 +119,40 @@ public class Kms {
 		return ip;
 	}
 
+	/**
+	 * @return the client of the first connection to this KMS, used for the
+	 *         operations not bound to a session
+	 */
 	public KurentoClient getKurentoClient() {
-		return this.client;
+		return this.connections.get(0).getKurentoClient();
+	}
+
+	/**
+	 * @return the client of the connection the session is pinned to, or of the
+	 *         first connection while that one is not connected. Every media object
+	 *         of the session in this KMS must be created through it
+	 */
+	public KurentoClient getKurentoClient(String sessionId) {
+		return this.getConnection(sessionId).getKurentoClient();
+	}
+
+	private KmsConnection getConnection(String sessionId) {
+		KmsConnection pinned = this.connections.get(this.getPinnedConnectionIndex(sessionId));
+		return pinned.isConnected() ? pinned : this.connections.get(0);
+	}
+
+	public int getPinnedConnectionIndex(String sessionId) {
+		return Math.floorMod(sessionId.hashCode(), this.connections.size());
+	}
+
+	/**
+	 * @return the sessions of this KMS pinned to the connection, whether or not it
+	 *         is connected
+	 */
+	public List<KurentoSession> getKurentoSessions(KmsConnection connection) {
+		return this.kurentoSessions.values().stream()
+				.filter(session -> this.getPinnedConnectionIndex(session.getSessionId()) == connection.getIndex())
+				.collect(Collectors.toList());
 	}
 
 	public double getLoad() {
@@ -133,6 +187,44 @@ public class Kms {
 		this.timeOfKurentoClientDisconnection.set(time);
 	}
 
+	/**
+	 * @return true if this KMS is being taken out of rotation. A draining KMS
+	 *         keeps its sessions but does not receive new ones
+	 */
+	public boolean isDraining() {
+		return this.draining;
+	}
+
+	public void setDraining(boolean draining) {
+		this.draining = draining;
+	}
+
+	/**
+	 * @return true if the health probes of this KMS are too slow or failing. A
+	 *         degraded KMS keeps its sessions but does not receive new ones
+	 */
+	public boolean isDegraded() {
+		return this.degraded;
+	}
+
+	public void setDegraded(boolean degraded) {
+		if (this.degraded != degraded) {
+			this.degraded = degraded;
+			this.timeOfHealthChange = System.currentTimeMillis();
+			if (degraded) {
+				this.degradations.incrementAndGet();
+			}
+		}
+	}
+
+	public void registerHealthProbe(long rtt, boolean answered) {
+		this.healthProbes.incrementAndGet();
+		if (!answered) {
+			this.failedHealthProbes.incrementAndGet();
+		}
+		this.lastProbeRtt = rtt;
+	}
+
 	public Collection<KurentoSession> getKurentoSessions() {
 		return this.kurentoSessions.values();
 	}
@@ -149,6 +241,74 @@ public class Kms {
 		return this.activeRecordings;
 	}
 
+	/**
+	 * Registers a MediaTranscodingStateChange event raised by media element
+	 * <code>elementId</code> of this KMS. Repeated events for the same state are
+	 * counted once
+	 */
+	public void registerTranscodingStateChange(String elementId, boolean transcoding) {
+		if (transcoding) {
+			if (this.transcodingElements.add(elementId)) {
+				this.transcodingsStarted.incrementAndGet();
+			}
+		} else {
+			this.transcodingElements.remove(elementId);
+		}
+	}
+
+	/**
+	 * Forgets the transcoding state of a released media element. If
+	 * <code>mediaObjectId</code> is a pipeline, all of its elements (whose ids are
+	 * prefixed by the pipeline id) are forgotten too
+	 */
+	public void releaseTranscodings(String mediaObjectId) {
+		if (mediaObjectId == null) {
+			return;
+		}
+		String prefix = mediaObjectId + "/";
+		this.transcodingElements.removeIf(id -> id.equals(mediaObjectId) || id.startsWith(prefix));
+	}
+
+	/**
+	 * Forgets the transcoding state of every media element, as happens when KMS
+	 * is restarted
+	 */
+	public void clearTranscodings() {
+		this.transcodingElements.clear();
+	}
+
+	public void registerEventSubscriptions(int count) {
+		this.activeEventSubscriptions.addAndGet(count);
+	}
+
+	public void releaseEventSubscriptions(int count) {
+		this.activeEventSubscriptions.updateAndGet(current -> Math.max(current - count, 0));
+	}
+
+	/**
+	 * Counts a KMS event not subscribed for an endpoint because it is not
+	 * configured for its role
+	 */
+	public void registerSkippedEventSubscription() {
+		this.eventSubscriptionsSkipped.incrementAndGet();
+	}
+
+	public int getActiveEventSubscriptions() {
+		return this.activeEventSubscriptions.get();
+	}
+
+	public long getEventSubscriptionsSkipped() {
+		return this.eventSubscriptionsSkipped.get();
+	}
+
+	public int getActiveTranscodings() {
+		return this.transcodingElements.size();
+	}
+
+	public long getTranscodingsStarted() {
+		return this.transcodingsStarted.get();
+	}
+
 	public JsonObject toJson() {
 		JsonObject json = new JsonObject();
 		json.addProperty("id", this.id);
@@ -161,6 +321,29 @@ public class Kms {
 		if (!connected) {
 			json.addProperty("disconnectionTime", this.getTimeOfKurentoClientDisconnection());
 		}
+		json.addProperty("activeTranscodings", this.getActiveTranscodings());
+		json.addProperty("transcodingsStarted", this.getTranscodingsStarted());
+		json.addProperty("activeEventSubscriptions", this.getActiveEventSubscriptions());
+		json.addProperty("eventSubscriptionsSkipped", this.getEventSubscriptionsSkipped());
+		json.addProperty("draining", this.draining);
+		JsonObject health = new JsonObject();
+		health.addProperty("degraded", this.degraded);
+		health.addProperty("lastChange", this.timeOfHealthChange);
+		health.addProperty("lastProbeRtt", this.lastProbeRtt);
+		health.addProperty("probes", this.healthProbes.get());
+		health.addProperty("failedProbes", this.failedHealthProbes.get());
+		health.addProperty("degradations", this.degradations.get());
+		json.add("health", health);
+		Map<Integer, Integer> pinnedSessions = new HashMap<>();
+		this.kurentoSessions.keySet()
+				.forEach(sessionId -> pinnedSessions.merge(this.getConnection(sessionId).getIndex(), 1, Integer::sum));
+		JsonArray connectionsJson = new JsonArray();
+		for (KmsConnection connection : this.connections) {
+			JsonObject connectionJson = connection.toJson();
+			connectionJson.addProperty("sessions", pinnedSessions.getOrDefault(connection.getIndex(), 0));
+			connectionsJson.add(connectionJson);
+		}
+		json.add("connections", connectionsJson);
 		return json;
 	}
 
@@ -184,9 +367,9 @@ public class Kms {
 
 				try {
 
-					kurentoExtraInfo.addProperty("memory", this.client.getServerManager().getUsedMemory() / 1024);
+					kurentoExtraInfo.addProperty("memory", this.getKurentoClient().getServerManager().getUsedMemory() / 1024);
 
-					ServerInfo info = this.client.getServerManager().getInfo();
+					ServerInfo info = this.getKurentoClient().getServerManager().getInfo();
 					kurentoExtraInfo.addProperty("version", info.getVersion());
 					kurentoExtraInfo.addProperty("capabilities", info.getCapabilities().toString());
 
@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kurento.client.KurentoClient;
+import org.kurento.client.KurentoConnectionListener;
+import org.kurento.jsonrpc.client.Continuation;
+import org.kurento.jsonrpc.client.JsonRpcClient;
+import org.kurento.jsonrpc.client.JsonRpcClientNettyWebSocket;
+import org.kurento.jsonrpc.client.JsonRpcWSConnectionListener;
+import org.kurento.jsonrpc.message.Request;
+import org.kurento.jsonrpc.message.Response;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * One of the WebSocket connections of a {@link Kms}. Each connection is an
+ * independent KurentoClient, so a burst of requests of one session does not
+ * delay the requests of the sessions pinned to other connections. The
+ * requests sent through the connection and the ones still waiting for a
+ * response are counted. While a connection is not connected the sessions
+ * pinned to it use the first connection of the KMS
+ */
+public class KmsConnection {
+
+	private final int index;
+	private final KurentoClient client;
+
+	// KurentoClient.create returns once connected
+	private final AtomicBoolean connected = new AtomicBoolean(true);
+	private final AtomicLong timeOfDisconnection = new AtomicLong(0);
+	private final AtomicInteger inFlightRequests = new AtomicInteger(0);
+	private final AtomicInteger maxInFlightRequests = new AtomicInteger(0);
+	private final AtomicLong totalRequests = new AtomicLong(0);
+
+	private KmsConnection(int index, String uri, KurentoConnectionListener listener) {
+		this.index = index;
+		this.client = CountingKurentoClient.create(uri, listener, this);
+	}
+
+	public static KmsConnection create(int index, String uri, KurentoConnectionListener listener) {
+		return new KmsConnection(index, uri, listener);
+	}
+
+	public int getIndex() {
+		return this.index;
+	}
+
+	public KurentoClient getKurentoClient() {
+		return this.client;
+	}
+
+	public boolean isConnected() {
+		return this.connected.get();
+	}
+
+	public void setConnected(boolean connected) {
+		this.connected.set(connected);
+	}
+
+	/**
+	 * @return when the connection was lost, or 0 if the media objects created
+	 *         through it have not been lost since or were already recovered
+	 */
+	public long getTimeOfDisconnection() {
+		return this.timeOfDisconnection.get();
+	}
+
+	public void setTimeOfDisconnection(long time) {
+		this.timeOfDisconnection.set(time);
+	}
+
+	public int getInFlightRequests() {
+		return this.inFlightRequests.get();
+	}
+
+	public void destroy() {
+		this.client.destroy();
+	}
+
+	private void requestSent() {
+		this.totalRequests.incrementAndGet();
+		int inFlight = this.inFlightRequests.incrementAndGet();
+		this.maxInFlightRequests.accumulateAndGet(inFlight, Math::max);
+	}
+
+	private void requestDone() {
+		this.inFlightRequests.decrementAndGet();
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("index", this.index);
+		json.addProperty("connected", this.connected.get());
+		json.addProperty("inFlightRequests", this.inFlightRequests.get());
+		json.addProperty("maxInFlightRequests", this.maxInFlightRequests.get());
+		json.addProperty("totalRequests", this.totalRequests.get());
+		return json;
+	}
+
+	/**
+	 * Same as KurentoClient.create(uri, listener), but with a JSON-RPC client
+	 * that reports every request to its KmsConnection
+	 */
+	private static class CountingKurentoClient extends KurentoClient {
+
+		private CountingKurentoClient(JsonRpcClient client) {
+			super(client);
+		}
+
+		static KurentoClient create(String uri, KurentoConnectionListener listener, KmsConnection connection) {
+			JsonRpcClientNettyWebSocket client = new CountingJsonRpcClient(uri, new ConnectionListenerAdapter(listener),
+					connection);
+			configureJsonRpcClient(client);
+			return new CountingKurentoClient(client);
+		}
+	}
+
+	private static class CountingJsonRpcClient extends JsonRpcClientNettyWebSocket {
+
+		private final KmsConnection connection;
+
+		CountingJsonRpcClient(String uri, JsonRpcWSConnectionListener listener, KmsConnection connection) {
+			super(uri, listener);
+			this.connection = connection;
+		}
+
+		@Override
+		protected <P, R> Response<R> internalSendRequestWebSocket(Request<P> request, Class<R> resultClass)
+				throws IOException {
+			this.connection.requestSent();
+			try {
+				return super.internalSendRequestWebSocket(request, resultClass);
+			} finally {
+				this.connection.requestDone();
+			}
+		}
+
+		@Override
+		protected <P> void internalSendRequestWebSocket(Request<P> request, Class<JsonElement> resultClass,
+				Continuation<Response<JsonElement>> continuation) {
+			this.connection.requestSent();
+			try {
+				super.internalSendRequestWebSocket(request, resultClass, new Continuation<Response<JsonElement>>() {
+					@Override
+					public void onSuccess(Response<JsonElement> result) {
+						connection.requestDone();
+						if (continuation != null) {
+							continuation.onSuccess(result);
+						}
+					}
+
+					@Override
+					public void onError(Throwable cause) {
+						connection.requestDone();
+						if (continuation != null) {
+							continuation.onError(cause);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				this.connection.requestDone();
+				throw e;
+			}
+		}
+	}
+
+	private static class ConnectionListenerAdapter implements JsonRpcWSConnectionListener {
+
+		private final KurentoConnectionListener listener;
+
+		ConnectionListenerAdapter(KurentoConnectionListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void connected() {
+			this.listener.connected();
+		}
+
+		@Override
+		public void connectionFailed() {
+			this.listener.connectionFailed();
+		}
+
+		@Override
+		public void disconnected() {
+			this.listener.disconnected();
+		}
+
+		@Override
+		public void reconnected(boolean sameServer) {
+			this.listener.reconnected(sameServer);
+		}
+
+		@Override
+		public void reconnecting() {
+			// KurentoClient reports reconnection attempts as disconnections
+			this.listener.disconnected();
+		}
+	}
+
+}
@@ -0,0 +1,273 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.MediaPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.openvidu.client.OpenViduException;
+import io.openvidu.client.OpenViduException.Code;
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.recording.service.RecordingManager;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Takes KMSs out of rotation for maintenance. A draining KMS receives no new
+ * sessions. Optionally its sessions are migrated to other KMSs in batches of
+ * {@code kms.drain.batch-size} sessions every {@code kms.drain.batch-interval}
+ * ms, so the target KMSs and the clients reconnecting their streams are not
+ * stampeded. The old pipeline of a migrated session is released
+ * {@code kms.drain.release-delay} ms after the migration. Sessions being
+ * recorded or using audio mixing or grid composite are not migrated: they stay
+ * in the draining KMS until they end
+ */
+public class KmsDrainManager {
+
+	private static final Logger log = LoggerFactory.getLogger(KmsDrainManager.class);
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	@Autowired
+	private RecordingManager recordingManager;
+
+	@Autowired
+	private SessionPlacementManager sessionPlacementManager;
+
+	private class Drain {
+		final Kms kms;
+		final boolean migrate;
+		final long startTime = System.currentTimeMillis();
+		final AtomicInteger migrated = new AtomicInteger(0);
+		final AtomicInteger skipped = new AtomicInteger(0);
+		final AtomicInteger failed = new AtomicInteger(0);
+		final List<String> pendingSessions = new ArrayList<>();
+		volatile ScheduledFuture<?> batches;
+
+		Drain(Kms kms, boolean migrate) {
+			this.kms = kms;
+			this.migrate = migrate;
+		}
+
+		JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			json.addProperty("mediaNodeId", this.kms.getId());
+			json.addProperty("migrate", this.migrate);
+			json.addProperty("startTime", this.startTime);
+			json.addProperty("sessions", this.kms.getKurentoSessions().size());
+			if (this.migrate) {
+				synchronized (this) {
+					json.addProperty("pendingMigrations", this.pendingSessions.size());
+				}
+				json.addProperty("migrated", this.migrated.get());
+				json.addProperty("skipped", this.skipped.get());
+				json.addProperty("failed", this.failed.get());
+			}
+			return json;
+		}
+	}
+
+	private final Map<String, Drain> drains = new ConcurrentHashMap<>();
+	// Ids of the pipelines of migrated sessions waiting for their release delay
+	private final Set<String> releasingPipelines = ConcurrentHashMap.newKeySet();
+
+	private ScheduledThreadPoolExecutor scheduler;
+
+	@PostConstruct
+	public void init() {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "kms-drain");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@PreDestroy
+	public void close() {
+		this.scheduler.shutdownNow();
+	}
+
+	/**
+	 * Stops placing new sessions in the KMS and, if {@code migrate} is true,
+	 * starts moving its sessions to the other KMSs. Draining an already draining
+	 * KMS again with the same {@code migrate} flag just returns its status
+	 * 
+	 * @throws OpenViduException if there is no KMS with such id, or if it is
+	 *                           already draining with a different {@code migrate}
+	 *                           flag
+	 */
+	public synchronized JsonObject drain(String kmsId, boolean migrate) throws OpenViduException {
+		Kms kms = this.kmsManager.getKms(kmsId);
+		if (kms == null) {
+			throw new OpenViduException(Code.GENERIC_ERROR_CODE, "Media node " + kmsId + " does not exist");
+		}
+		Drain drain = this.drains.get(kmsId);
+		if (drain != null) {
+			if (drain.migrate != migrate) {
+				throw new OpenViduException(Code.GENERIC_ERROR_CODE, "Media node " + kmsId
+						+ " is already draining with migrate=" + drain.migrate + ". Undrain it first");
+			}
+			return drain.toJson();
+		}
+		drain = new Drain(kms, migrate);
+		this.drains.put(kmsId, drain);
+		kms.setDraining(true);
+		log.warn("KMS {} is draining. {} sessions {}", kmsId, kms.getKurentoSessions().size(),
+				migrate ? "will be migrated" : "will stay until they end");
+		if (migrate && !kms.getKurentoSessions().isEmpty()) {
+			// Smaller sessions first: more sessions freed per reconnected stream
+			final Drain newDrain = drain;
+			kms.getKurentoSessions().stream()
+					.sorted(Comparator.comparingInt(session -> session.getParticipants().size()))
+					.forEach(session -> newDrain.pendingSessions.add(session.getSessionId()));
+			int interval = Math.max(1, this.openviduConfig.getKmsDrainBatchInterval());
+			newDrain.batches = this.scheduler.scheduleWithFixedDelay(() -> this.migrateBatch(newDrain), 0, interval,
+					TimeUnit.MILLISECONDS);
+		}
+		return drain.toJson();
+	}
+
+	/**
+	 * Puts a draining KMS back in rotation, stopping the migration of its sessions
+	 * 
+	 * @return false if the KMS was not draining
+	 */
+	public synchronized boolean undrain(String kmsId) {
+		Drain drain = this.drains.remove(kmsId);
+		if (drain == null) {
+			return false;
+		}
+		if (drain.batches != null) {
+			drain.batches.cancel(false);
+		}
+		drain.kms.setDraining(false);
+		log.warn("KMS {} is back in rotation after draining for {} ms", kmsId,
+				System.currentTimeMillis() - drain.startTime);
+		return true;
+	}
+
+	private void migrateBatch(Drain drain) {
+		List<String> batch = new ArrayList<>();
+		synchronized (drain) {
+			int size = Math.max(1, this.openviduConfig.getKmsDrainBatchSize());
+			while (!drain.pendingSessions.isEmpty() && batch.size() < size) {
+				batch.add(drain.pendingSessions.remove(0));
+			}
+		}
+		if (batch.isEmpty()) {
+			if (drain.batches != null) {
+				drain.batches.cancel(false);
+			}
+			log.info("KMS {} drained: {} sessions migrated, {} skipped, {} failed", drain.kms.getId(),
+					drain.migrated.get(), drain.skipped.get(), drain.failed.get());
+			return;
+		}
+		for (String sessionId : batch) {
+			KurentoSession session = drain.kms.getKurentoSessions().stream()
+					.filter(s -> s.getSessionId().equals(sessionId)).findFirst().orElse(null);
+			if (session == null || session.isClosed()) {
+				// Already gone
+				continue;
+			}
+			if (this.recordingManager.sessionIsBeingRecorded(sessionId) || session.getAudioMixer() != null
+					|| session.getGridComposite() != null) {
+				drain.skipped.incrementAndGet();
+				log.info("Session {} is not migrated from draining KMS {}: it is recorded or mixed", sessionId,
+						drain.kms.getId());
+				continue;
+			}
+			try {
+				Kms target;
+				KmsManager.selectAndRemoveKmsLock.lock();
+				try {
+					target = this.sessionPlacementManager.placeSession(session);
+				} finally {
+					KmsManager.selectAndRemoveKmsLock.unlock();
+				}
+				MediaPipeline oldPipeline = session.migrateTo(target);
+				this.releasingPipelines.add(oldPipeline.getId());
+				drain.migrated.incrementAndGet();
+				this.scheduler.schedule(() -> this.releaseOldPipeline(drain.kms, sessionId, oldPipeline),
+						this.openviduConfig.getKmsDrainReleaseDelay(), TimeUnit.MILLISECONDS);
+			} catch (NoSuchElementException e) {
+				drain.failed.incrementAndGet();
+				log.error("Session {} cannot be migrated from draining KMS {}: no other KMS available", sessionId,
+						drain.kms.getId());
+			} catch (Exception e) {
+				drain.failed.incrementAndGet();
+				log.error("Error migrating session {} from draining KMS {}: {}", sessionId, drain.kms.getId(),
+						e.getMessage());
+			}
+		}
+	}
+
+	private void releaseOldPipeline(Kms oldKms, String sessionId, MediaPipeline oldPipeline) {
+		try {
+			oldKms.releaseTranscodings(oldPipeline.getId());
+			oldPipeline.release();
+			log.info("Released pipeline of session {} in its drained KMS", sessionId);
+		} catch (Exception e) {
+			log.warn("Could not release pipeline of session {} in its drained KMS: {}", sessionId, e.getMessage());
+		} finally {
+			this.releasingPipelines.remove(oldPipeline.getId());
+		}
+	}
+
+	/**
+	 * @return the ids of the pipelines of migrated sessions still kept in their
+	 *         drained KMS
+	 */
+	public Set<String> getReleasingPipelines() {
+		return this.releasingPipelines;
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("batchSize", this.openviduConfig.getKmsDrainBatchSize());
+		json.addProperty("batchInterval", this.openviduConfig.getKmsDrainBatchInterval());
+		json.addProperty("releaseDelay", this.openviduConfig.getKmsDrainReleaseDelay());
+		JsonArray drainsJson = new JsonArray();
+		this.drains.values().forEach(drain -> drainsJson.add(drain.toJson()));
+		json.add("drains", drainsJson);
+		return json;
+	}
+
+}
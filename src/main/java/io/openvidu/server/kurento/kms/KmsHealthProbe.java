@@ -0,0 +1,180 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.Continuation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonObject;
+
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Periodically measures the round-trip time of a cheap request to every
+ * connected KMS. A KMS whose probes are slower than the configured maximum (or
+ * fail, or do not answer before the next probe) a number of consecutive times
+ * is marked as degraded: it keeps serving its current sessions but no new
+ * session or cascade edge is placed in it. It is reinstated after a number of
+ * consecutive healthy probes
+ */
+public class KmsHealthProbe {
+
+	private static final Logger log = LoggerFactory.getLogger(KmsHealthProbe.class);
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	private class ProbeState {
+		// Token of the probe waiting for an answer, 0 if none. Only the one who
+		// clears it (answer, error or timeout) accounts the probe
+		final AtomicLong pending = new AtomicLong(0);
+		volatile long sentAt = 0;
+		int consecutiveBad = 0;
+		int consecutiveGood = 0;
+	}
+
+	private final Map<String, ProbeState> probeStates = new ConcurrentHashMap<>();
+	private final AtomicLong probeTokens = new AtomicLong(0);
+
+	private ScheduledThreadPoolExecutor scheduler;
+
+	@PostConstruct
+	public void init() {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "kms-health-probe");
+			t.setDaemon(true);
+			return t;
+		});
+		int interval = this.openviduConfig.getKmsHealthProbeInterval();
+		if (interval > 0) {
+			this.scheduler.scheduleWithFixedDelay(this::probeAll, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		this.scheduler.shutdownNow();
+	}
+
+	public boolean isEnabled() {
+		return this.openviduConfig.getKmsHealthProbeInterval() > 0;
+	}
+
+	private void probeAll() {
+		for (Kms kms : this.kmsManager.getKmss()) {
+			try {
+				this.probe(kms);
+			} catch (Exception e) {
+				log.warn("Error probing KMS {}: {}", kms.getId(), e.getMessage());
+			}
+		}
+	}
+
+	void probe(Kms kms) {
+		ProbeState state = this.probeStates.computeIfAbsent(kms.getId(), id -> new ProbeState());
+		if (!kms.isKurentoClientConnected()) {
+			// Connection state is handled by the Kurento Client listener
+			state.pending.set(0);
+			return;
+		}
+		long pending = state.pending.get();
+		if (pending != 0) {
+			// Previous probe still unanswered: count it as failed once. Its answer, if it
+			// ever arrives, is ignored and the next interval sends a new probe
+			if (state.pending.compareAndSet(pending, 0)) {
+				this.probeDone(kms, state, System.currentTimeMillis() - state.sentAt, false);
+			}
+			return;
+		}
+		final long token = this.probeTokens.incrementAndGet();
+		final long start = System.currentTimeMillis();
+		state.sentAt = start;
+		state.pending.set(token);
+		this.sendProbe(kms, new Continuation<Long>() {
+			@Override
+			public void onSuccess(Long result) throws Exception {
+				if (state.pending.compareAndSet(token, 0)) {
+					probeDone(kms, state, System.currentTimeMillis() - start, true);
+				}
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				if (state.pending.compareAndSet(token, 0)) {
+					probeDone(kms, state, System.currentTimeMillis() - start, false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends the cheap request whose round-trip time is measured
+	 */
+	void sendProbe(Kms kms, Continuation<Long> continuation) {
+		kms.getKurentoClient().getServerManager().getUsedMemory(continuation);
+	}
+
+	private synchronized void probeDone(Kms kms, ProbeState state, long rtt, boolean answered) {
+		kms.registerHealthProbe(rtt, answered);
+		boolean healthy = answered && rtt <= this.openviduConfig.getKmsHealthMaxRtt();
+		if (healthy) {
+			state.consecutiveBad = 0;
+			state.consecutiveGood++;
+			if (kms.isDegraded() && state.consecutiveGood >= this.openviduConfig.getKmsHealthProbesToReinstate()) {
+				kms.setDegraded(false);
+				log.warn("KMS {} reinstated after {} healthy probes (last RTT {} ms)", kms.getId(),
+						state.consecutiveGood, rtt);
+			}
+		} else {
+			state.consecutiveGood = 0;
+			state.consecutiveBad++;
+			if (!kms.isDegraded() && state.consecutiveBad >= this.openviduConfig.getKmsHealthProbesToDegrade()) {
+				kms.setDegraded(true);
+				log.warn("KMS {} degraded after {} {} probes (last RTT {} ms). No new sessions will be placed in it",
+						kms.getId(), state.consecutiveBad, answered ? "slow" : "failed", rtt);
+			}
+		}
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("enabled", this.isEnabled());
+		json.addProperty("probeInterval", this.openviduConfig.getKmsHealthProbeInterval());
+		json.addProperty("maxRtt", this.openviduConfig.getKmsHealthMaxRtt());
+		json.addProperty("probesToDegrade", this.openviduConfig.getKmsHealthProbesToDegrade());
+		json.addProperty("probesToReinstate", this.openviduConfig.getKmsHealthProbesToReinstate());
+		json.addProperty("degradedKmss",
+				this.kmsManager.getKmss().stream().filter(Kms::isDegraded).count());
+		return json;
+	}
+
+}
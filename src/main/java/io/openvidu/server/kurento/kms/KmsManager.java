@@ -26,18 +26,22 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.kurento.client.KurentoConnectionListener;
+import org.kurento.commons.exception.KurentoException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.gson.JsonObject;
 
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.kurento.core.SessionCascade;
 import io.openvidu.server.utils.MediaNodeStatusManager;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
@@ -92,6 +96,9 @@ public abstract class KmsManager {
 	@Autowired
 	protected MediaNodeStatusManager mediaNodeStatusManager;
 
+	@Autowired
+	protected SessionRecoveryManager sessionRecoveryManager;
+
 	final protected Map<String, Kms> kmss = new ConcurrentHashMap<>();
 
 	public synchronized void addKms(Kms kms) {
@@ -103,9 +110,26 @@ public abstract class KmsManager {
 	}
 
 	public synchronized Kms getLessLoadedAndRunningKms() throws NoSuchElementException {
+		return Collections.min(getPlacementCandidates()).kms;
+	}
+
+	/**
+	 * @return the KMSs where a new session may be placed: running and not
+	 *         draining. Degraded KMSs are only returned if every other candidate
+	 *         is degraded too
+	 */
+	public synchronized List<KmsLoad> getPlacementCandidates() {
 		List<KmsLoad> kmsLoads = getKmsLoads().stream()
-				.filter(kmsLoad -> mediaNodeStatusManager.isRunning(kmsLoad.kms.getId())).collect(Collectors.toList());
-		return Collections.min(kmsLoads).kms;
+				.filter(kmsLoad -> mediaNodeStatusManager.isRunning(kmsLoad.kms.getId()) && !kmsLoad.kms.isDraining())
+				.collect(Collectors.toList());
+		List<KmsLoad> healthyKmsLoads = kmsLoads.stream().filter(kmsLoad -> !kmsLoad.kms.isDegraded())
+				.collect(Collectors.toList());
+		if (healthyKmsLoads.isEmpty() && !kmsLoads.isEmpty()) {
+			// Better a degraded KMS than no session at all
+			log.warn("Every running KMS is degraded. Placing new session in one of them");
+			return kmsLoads;
+		}
+		return healthyKmsLoads;
 	}
 
 	public synchronized List<KmsLoad> getKmssSortedByLoad() {
@@ -153,10 +177,12 @@ public abstract class KmsManager {
 					// Different KMS. Reset sessions status (no Publisher or SUbscriber endpoints)
 					log.warn("Kurento Client reconnected to a different KMS instance, with uri {}", kms.getUri());
 					log.warn("Updating all webrtc endpoints for active sessions");
+					kms.clearTranscodings();
 					final long timeOfKurentoDisconnection = kms.getTimeOfKurentoClientDisconnection();
-					kms.getKurentoSessions().forEach(kSession -> {
-						kSession.restartStatusInKurento(timeOfKurentoDisconnection);
-					});
+					sessionRecoveryManager.recover(kms, timeOfKurentoDisconnection);
+					evictCascadeEdges(kms);
+					// That covers the sessions pinned to every connection
+					kms.getConnections().forEach(connection -> connection.setTimeOfDisconnection(0));
 				} else {
 					// Same KMS. We may infer that openvidu-server/KMS connection has been lost, but
 					// not the clients/KMS connections
@@ -178,6 +204,7 @@ public abstract class KmsManager {
 				final Kms kms = kmss.get(kmsId);
 				kms.setKurentoClientConnected(false);
 				log.warn("Kurento Client failed connecting to KMS {} with uri {}", kmsId, kms.getUri());
+				evictCascadeEdges(kms);
 			}
 
 			@Override
@@ -191,6 +218,135 @@ public abstract class KmsManager {
 		};
 	}
 
+	/**
+	 * Sessions of other KMSs may have cascade edges in a KMS that has been
+	 * restarted or lost. Those edges are forgotten and their participants placed
+	 * again when they subscribe again
+	 */
+	protected void evictCascadeEdges(Kms edgeKms) {
+		this.evictCascadeEdges(edgeKms, sessionId -> true);
+	}
+
+	private void evictCascadeEdges(Kms edgeKms, Predicate<String> sessionFilter) {
+		for (Kms kms : this.kmss.values()) {
+			if (kms == edgeKms) {
+				continue;
+			}
+			for (KurentoSession session : kms.getKurentoSessions()) {
+				if (!sessionFilter.test(session.getSessionId())) {
+					continue;
+				}
+				SessionCascade cascade = session.getCascade();
+				if (cascade != null) {
+					try {
+						cascade.evictEdge(edgeKms.getId());
+					} catch (Exception e) {
+						log.error("Error evicting edge of session {} in KMS {}: {}", session.getSessionId(),
+								edgeKms.getId(), e.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The media objects of the sessions pinned to a connection other than the
+	 * first one are lost along with it if the connection fails, or reconnects to
+	 * a new KMS instance. Meanwhile those sessions use the first connection
+	 */
+	protected KurentoConnectionListener generateSecondaryConnectionListener(final String kmsId, final int index) {
+		return new KurentoConnectionListener() {
+
+			@Override
+			public void reconnected(boolean sameServer) {
+				final Kms kms = kmss.get(kmsId);
+				final KmsConnection connection = kms.getConnections().get(index);
+				log.warn("Connection {} to KMS {} reconnected (same KMS instance: {})", index, kmsId, sameServer);
+				connection.setConnected(true);
+				if (sameServer) {
+					connection.setTimeOfDisconnection(0);
+				} else {
+					recoverPinnedSessions(kms, connection);
+				}
+			}
+
+			@Override
+			public void disconnected() {
+				final Kms kms = kmss.get(kmsId);
+				final KmsConnection connection = kms.getConnections().get(index);
+				connection.setConnected(false);
+				if (connection.getTimeOfDisconnection() == 0) {
+					connection.setTimeOfDisconnection(System.currentTimeMillis());
+				}
+				log.warn("Connection {} to KMS {} disconnected. Its sessions use connection 0 meanwhile", index,
+						kmsId);
+			}
+
+			@Override
+			public void connectionFailed() {
+				final Kms kms = kmss.get(kmsId);
+				final KmsConnection connection = kms.getConnections().get(index);
+				connection.setConnected(false);
+				if (connection.getTimeOfDisconnection() == 0) {
+					connection.setTimeOfDisconnection(System.currentTimeMillis());
+				}
+				log.warn("Connection {} to KMS {} failed. Its sessions are moved to connection 0", index, kmsId);
+				recoverPinnedSessions(kms, connection);
+			}
+
+			@Override
+			public void connected() {
+				log.info("Connection {} to KMS {} is now connected", index, kmsId);
+			}
+		};
+	}
+
+	/**
+	 * Recovers the sessions pinned to a connection whose media objects have been
+	 * lost, unless the first connection is down too: its own recovery of the
+	 * whole KMS covers them. New media objects of the sessions are created
+	 * through the first connection while the pinned one is not connected
+	 */
+	protected void recoverPinnedSessions(Kms kms, KmsConnection connection) {
+		final long timeOfDisconnection = connection.getTimeOfDisconnection();
+		if (timeOfDisconnection == 0) {
+			// Already recovered along with the rest of the KMS
+			return;
+		}
+		if (!kms.isKurentoClientConnected() || kms.getTimeOfKurentoClientDisconnection() != 0) {
+			log.warn("Sessions pinned to connection {} of KMS {} will be recovered by connection 0",
+					connection.getIndex(), kms.getId());
+			return;
+		}
+		connection.setTimeOfDisconnection(0);
+		List<KurentoSession> sessions = kms.getKurentoSessions(connection);
+		log.warn("Recovering {} sessions pinned to connection {} of KMS {}", sessions.size(), connection.getIndex(),
+				kms.getId());
+		this.sessionRecoveryManager.recover(kms, sessions, timeOfDisconnection);
+		this.evictCascadeEdges(kms, sessionId -> kms.getPinnedConnectionIndex(sessionId) == connection.getIndex());
+	}
+
+	/**
+	 * Opens the configured number of connections to a KMS. Only the first one
+	 * drives the connection state of the KMS and the recovery of all its sessions.
+	 * If any connection fails the ones already opened are closed
+	 */
+	protected List<KmsConnection> createConnections(Kms kms) {
+		int count = Math.max(1, this.openviduConfig.getKmsConnections());
+		List<KmsConnection> connections = new ArrayList<>(count);
+		try {
+			connections.add(KmsConnection.create(0, kms.getUri(), this.generateKurentoConnectionListener(kms.getId())));
+			for (int i = 1; i < count; i++) {
+				connections.add(KmsConnection.create(i, kms.getUri(),
+						this.generateSecondaryConnectionListener(kms.getId(), i)));
+			}
+		} catch (KurentoException e) {
+			connections.forEach(KmsConnection::destroy);
+			throw e;
+		}
+		return connections;
+	}
+
 	public abstract List<Kms> initializeKurentoClients(List<KmsProperties> kmsProperties, boolean disconnectUponFailure,
 			boolean sendMediaNodeAddedEvent) throws Exception;
 
@@ -205,7 +361,7 @@ public abstract class KmsManager {
 	public void close() {
 		log.info("Closing all KurentoClients");
 		this.kmss.values().forEach(kms -> {
-			kms.getKurentoClient().destroy();
+			kms.getConnections().forEach(KmsConnection::destroy);
 		});
 	}
 
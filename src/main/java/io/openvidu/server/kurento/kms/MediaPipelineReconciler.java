@@ -0,0 +1,207 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.kurento.client.MediaObject;
+import org.kurento.client.MediaPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.kurento.core.SessionCascade;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Releases the media pipelines left in the KMSs by a previous run of the
+ * server (crash, redeploy) or by a failed release. Every pipeline this server
+ * creates is named "owner/run/name" (see {@link #pipelineName(String, String)}),
+ * and only pipelines of this owner are considered: pipelines of other servers
+ * sharing the KMS are never touched. A pipeline is orphan when neither a live
+ * session, one of its cascade edges nor a session migration owns it. Orphans
+ * of a previous run are released at once. Orphans of this run are released if
+ * they were already orphan in the previous pass, so pipelines whose owner is
+ * still being created are spared. In dry-run mode (the default) orphans are
+ * only logged and counted
+ */
+public class MediaPipelineReconciler {
+
+	private static final Logger log = LoggerFactory.getLogger(MediaPipelineReconciler.class);
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	@Autowired
+	private KmsDrainManager kmsDrainManager;
+
+	// Identifies the pipelines created by this run of the server
+	private static final String RUN_ID = RandomStringUtils.randomAlphanumeric(8);
+
+	private final AtomicLong passes = new AtomicLong(0);
+	private final AtomicLong reclaimedPipelines = new AtomicLong(0);
+	private final AtomicLong reclaimedElements = new AtomicLong(0);
+	private volatile long lastPassTime = 0;
+	private volatile int lastPassOrphans = 0;
+
+	// Ids of the orphan pipelines found in the previous pass and not released
+	private Set<String> previousOrphans = new HashSet<>();
+
+	private ScheduledThreadPoolExecutor scheduler;
+
+	@PostConstruct
+	public void init() {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "pipeline-reconciler");
+			t.setDaemon(true);
+			return t;
+		});
+		int interval = this.openviduConfig.getKmsReconcileInterval();
+		if (interval > 0) {
+			this.scheduler.scheduleWithFixedDelay(this::reconcile, 0, interval, TimeUnit.SECONDS);
+		} else {
+			// Only the startup pass
+			this.scheduler.execute(this::reconcile);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		this.scheduler.shutdownNow();
+	}
+
+	/**
+	 * Runs one reconciliation pass over every KMS
+	 */
+	public synchronized void reconcile() {
+		boolean dryRun = this.openviduConfig.isKmsReconcileDryRun();
+		String ownerPrefix = this.openviduConfig.getKmsReconcileOwner() + "/";
+		String runPrefix = ownerPrefix + RUN_ID + "/";
+		Set<String> ownedPipelines = this.getOwnedPipelines();
+		Set<String> orphans = new HashSet<>();
+		int released = 0;
+		for (Kms kms : this.kmsManager.getKmss()) {
+			if (!kms.isKurentoClientConnected()) {
+				continue;
+			}
+			List<MediaPipeline> pipelines;
+			try {
+				pipelines = kms.getKurentoClient().getServerManager().getPipelines();
+			} catch (Exception e) {
+				log.warn("Could not list the pipelines of KMS {}: {}", kms.getId(), e.getMessage());
+				continue;
+			}
+			for (MediaPipeline pipeline : pipelines) {
+				String pipelineId = pipeline.getId();
+				if (ownedPipelines.contains(pipelineId)) {
+					continue;
+				}
+				try {
+					String name = pipeline.getName();
+					if (name == null || !name.startsWith(ownerPrefix)) {
+						// Created by another server, or not named yet
+						continue;
+					}
+					boolean fromPreviousRun = !name.startsWith(runPrefix);
+					if (!fromPreviousRun && !this.previousOrphans.contains(pipelineId)) {
+						// May be a pipeline whose owner is still being created. Check next pass
+						orphans.add(pipelineId);
+						continue;
+					}
+					List<MediaObject> children = pipeline.getChildren();
+					if (dryRun) {
+						log.info("Orphan pipeline {} with {} elements in KMS {} (dry run, not released)",
+								pipelineId, children.size(), kms.getId());
+						orphans.add(pipelineId);
+					} else {
+						pipeline.release();
+						released++;
+						this.reclaimedPipelines.incrementAndGet();
+						this.reclaimedElements.addAndGet(children.size() + 1);
+						log.warn("Released orphan pipeline {} with {} elements in KMS {}", pipelineId,
+								children.size(), kms.getId());
+					}
+				} catch (Exception e) {
+					log.warn("Could not reconcile pipeline {} in KMS {}: {}", pipelineId, kms.getId(),
+							e.getMessage());
+				}
+			}
+		}
+		this.previousOrphans = orphans;
+		this.lastPassOrphans = orphans.size() + released;
+		this.lastPassTime = System.currentTimeMillis();
+		this.passes.incrementAndGet();
+		if (released > 0 || !orphans.isEmpty()) {
+			log.info("Pipeline reconciliation: {} released, {} orphan candidates pending{}", released,
+					orphans.size(), dryRun ? " (dry run)" : "");
+		}
+	}
+
+	/**
+	 * @return the name to give to a pipeline created by this server, so the
+	 *         reconciler can tell it apart from the pipelines of other servers
+	 */
+	public static String pipelineName(String owner, String name) {
+		return owner + "/" + RUN_ID + "/" + name;
+	}
+
+	private Set<String> getOwnedPipelines() {
+		Set<String> owned = new HashSet<>(this.kmsDrainManager.getReleasingPipelines());
+		for (Kms kms : this.kmsManager.getKmss()) {
+			for (KurentoSession session : kms.getKurentoSessions()) {
+				MediaPipeline pipeline = session.getPipelineIfCreated();
+				if (pipeline != null) {
+					owned.add(pipeline.getId());
+				}
+				SessionCascade cascade = session.getCascade();
+				if (cascade != null) {
+					cascade.getEdgePipelines().forEach(edge -> owned.add(edge.getId()));
+				}
+			}
+		}
+		return owned;
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("dryRun", this.openviduConfig.isKmsReconcileDryRun());
+		json.addProperty("interval", this.openviduConfig.getKmsReconcileInterval());
+		json.addProperty("passes", this.passes.get());
+		json.addProperty("lastPassTime", this.lastPassTime);
+		json.addProperty("lastPassOrphans", this.lastPassOrphans);
+		json.addProperty("reclaimedPipelines", this.reclaimedPipelines.get());
+		json.addProperty("reclaimedElements", this.reclaimedElements.get());
+		return json;
+	}
+
+}
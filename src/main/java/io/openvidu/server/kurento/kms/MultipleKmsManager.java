@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.kurento.commons.exception.KurentoException;
+
+import io.openvidu.server.core.IdentifierPrefixes;
+
+/**
+ * Connects to every KMS of "kms.uris". Used whenever more than one is
+ * configured, so sessions can be placed, drained and cascaded across media
+ * servers. An unreachable KMS is skipped, unless none of them is reachable
+ */
+public class MultipleKmsManager extends KmsManager {
+
+	@Override
+	public List<Kms> initializeKurentoClients(List<KmsProperties> kmsProperties, boolean disconnectUponFailure,
+			boolean sendMediaNodeAddedEvent) throws Exception {
+		List<Kms> kmsList = new ArrayList<>();
+		for (KmsProperties props : kmsProperties) {
+			Kms kms = new Kms(props, loadManager);
+			try {
+				List<KmsConnection> connections = this.createConnections(kms);
+				this.addKms(kms);
+				kms.setConnections(connections);
+				kms.setKurentoClientConnected(true);
+				kms.setTimeOfKurentoClientConnection(System.currentTimeMillis());
+				kmsList.add(kms);
+
+			} catch (KurentoException e) {
+				log.error("KMS in {} is not reachable by OpenVidu Server", props.getUri());
+				if (disconnectUponFailure) {
+					throw new Exception();
+				}
+			}
+		}
+		if (kmsList.isEmpty()) {
+			throw new Exception();
+		}
+		return kmsList;
+	}
+
+	@Override
+	@PostConstruct
+	protected void postConstructInitKurentoClients() {
+		try {
+			List<KmsProperties> kmsProps = new ArrayList<>();
+			for (String kmsUri : this.openviduConfig.getKmsUris()) {
+				String kmsId = IdentifierPrefixes.KMS_ID + RandomStringUtils.randomAlphabetic(1).toUpperCase()
+						+ RandomStringUtils.randomAlphanumeric(7);
+				kmsProps.add(new KmsProperties(kmsId, kmsUri));
+			}
+			this.initializeKurentoClients(kmsProps, false, false);
+		} catch (Exception e) {
+			// No KMS was reachable
+			log.error("Shutting down OpenVidu Server");
+			System.exit(1);
+		}
+	}
+
+}
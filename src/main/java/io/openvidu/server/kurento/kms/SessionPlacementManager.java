@@ -0,0 +1,213 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.core.Session;
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.kurento.kms.KmsManager.KmsLoad;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Chooses the KMS of new sessions taking into account the size they are
+ * expected to reach. The cost of a session is measured in media streams: each
+ * publisher is received once and sent to every other participant, so a session
+ * costs publishers x participants streams.
+ * 
+ * A session created with expected participants and publishers reserves its
+ * expected cost in the chosen KMS. The unused part of the reservation (expected
+ * minus actual cost) shrinks linearly until it vanishes after
+ * {@code kms.capacity.reservation-ttl} seconds. Sessions with hints are placed
+ * by best fit: in the most committed KMS where they still fit without eating
+ * the {@code kms.capacity.headroom} percent of its capacity. Sessions without
+ * hints, or not fitting anywhere, go to the less loaded and less committed KMS.
+ * 
+ * With {@code kms.capacity.streams} 0 sessions are placed in the less loaded
+ * KMS, as reported by the LoadManager
+ */
+public class SessionPlacementManager {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionPlacementManager.class);
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	private class Reservation {
+		final long cost;
+		final long time;
+
+		Reservation(long cost, long time) {
+			this.cost = cost;
+			this.time = time;
+		}
+	}
+
+	// Session id -> capacity reserved for it on placement
+	private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+	private final AtomicLong placements = new AtomicLong(0);
+	private final AtomicLong bestFitPlacements = new AtomicLong(0);
+	private final AtomicLong overflowPlacements = new AtomicLong(0);
+
+	public boolean isEnabled() {
+		return this.openviduConfig.getKmsCapacityStreams() > 0;
+	}
+
+	/**
+	 * Must be called with {@link KmsManager#selectAndRemoveKmsLock} held, so the
+	 * placement is not raced by other new sessions
+	 * 
+	 * @throws NoSuchElementException if there is no KMS where to place the
+	 *                                session
+	 */
+	public Kms placeSession(Session session) throws NoSuchElementException {
+		List<KmsLoad> candidates = this.kmsManager.getPlacementCandidates();
+		if (candidates.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		this.placements.incrementAndGet();
+		if (!this.isEnabled()) {
+			return candidates.stream().min(Comparator.naturalOrder()).get().getKms();
+		}
+
+		final long now = System.currentTimeMillis();
+		this.pruneReservations(now);
+		long cost = this.expectedCost(session);
+		if (session instanceof KurentoSession) {
+			// Session being migrated: it already has an actual size
+			cost = Math.max(cost, this.actualCost((KurentoSession) session));
+		}
+		final long usableCapacity = this.getUsableCapacity();
+
+		Kms chosen = null;
+		if (cost > 0) {
+			long bestCommitted = -1;
+			for (KmsLoad candidate : candidates) {
+				long committed = this.committedStreams(candidate.getKms(), now);
+				if (committed + cost <= usableCapacity && committed > bestCommitted) {
+					bestCommitted = committed;
+					chosen = candidate.getKms();
+				}
+			}
+			if (chosen != null) {
+				this.bestFitPlacements.incrementAndGet();
+			} else {
+				this.overflowPlacements.incrementAndGet();
+				log.warn("Session {} with an expected cost of {} streams does not fit in any KMS. Placing it in the less committed one",
+						session.getSessionId(), cost);
+			}
+		}
+		if (chosen == null) {
+			Comparator<KmsLoad> byLoadAndCommitment = Comparator.<KmsLoad>naturalOrder()
+					.thenComparingLong(kmsLoad -> this.committedStreams(kmsLoad.getKms(), now));
+			chosen = candidates.stream().min(byLoadAndCommitment).get().getKms();
+		}
+		if (cost > 0) {
+			this.reservations.put(session.getSessionId(), new Reservation(cost, now));
+		}
+		log.info("Session {} placed in KMS {} (expected cost {} streams, KMS committed {} of {})",
+				session.getSessionId(), chosen.getId(), cost, this.committedStreams(chosen, now), usableCapacity);
+		return chosen;
+	}
+
+	private long getUsableCapacity() {
+		int headroom = Math.min(100, this.openviduConfig.getKmsCapacityHeadroom());
+		return (long) this.openviduConfig.getKmsCapacityStreams() * (100 - headroom) / 100;
+	}
+
+	private long expectedCost(Session session) {
+		int participants = session.getExpectedParticipants();
+		int publishers = session.getExpectedPublishers();
+		if (participants == 0) {
+			participants = publishers;
+		}
+		if (publishers == 0) {
+			// Unknown publishers: everybody publishes
+			publishers = participants;
+		}
+		return (long) publishers * participants;
+	}
+
+	private long actualCost(KurentoSession session) {
+		return (long) session.getActivePublishers() * session.getParticipants().size();
+	}
+
+	/**
+	 * @return streams used by the sessions of the KMS, counting the still valid
+	 *         part of their reservations
+	 */
+	private long committedStreams(Kms kms, long now) {
+		long ttl = this.openviduConfig.getKmsCapacityReservationTtl() * 1000L;
+		long committed = 0;
+		for (KurentoSession session : kms.getKurentoSessions()) {
+			long actual = this.actualCost(session);
+			long reserved = 0;
+			Reservation reservation = this.reservations.get(session.getSessionId());
+			if (reservation != null && ttl > 0) {
+				long age = now - reservation.time;
+				reserved = reservation.cost * Math.max(0, ttl - age) / ttl;
+			}
+			committed += Math.max(actual, reserved);
+		}
+		return committed;
+	}
+
+	private void pruneReservations(long now) {
+		long ttl = this.openviduConfig.getKmsCapacityReservationTtl() * 1000L;
+		this.reservations.values().removeIf(reservation -> now - reservation.time >= ttl);
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("enabled", this.isEnabled());
+		json.addProperty("placements", this.placements.get());
+		if (this.isEnabled()) {
+			final long now = System.currentTimeMillis();
+			json.addProperty("usableCapacity", this.getUsableCapacity());
+			json.addProperty("bestFitPlacements", this.bestFitPlacements.get());
+			json.addProperty("overflowPlacements", this.overflowPlacements.get());
+			json.addProperty("activeReservations", this.reservations.size());
+			JsonArray kmss = new JsonArray();
+			this.kmsManager.getKmss().forEach(kms -> {
+				JsonObject kmsJson = new JsonObject();
+				kmsJson.addProperty("id", kms.getId());
+				kmsJson.addProperty("committedStreams", this.committedStreams(kms, now));
+				kmss.add(kmsJson);
+			});
+			json.add("kmss", kmss);
+		}
+		return json;
+	}
+
+}
@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.recording.service.RecordingManager;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Restores the media of the sessions of a KMS after the Kurento Client
+ * reconnects to a different instance. Sessions are recovered by a bounded pool
+ * of workers instead of the Kurento Client event thread, recorded sessions
+ * first and then from the largest to the smallest
+ */
+public class SessionRecoveryManager {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionRecoveryManager.class);
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private RecordingManager recordingManager;
+
+	private final AtomicInteger workerCount = new AtomicInteger(0);
+	private final AtomicLong sequence = new AtomicLong(0);
+
+	private final AtomicInteger pendingSessions = new AtomicInteger(0);
+	private final AtomicLong recoveredSessions = new AtomicLong(0);
+	private final AtomicLong failedSessions = new AtomicLong(0);
+	private final AtomicLong totalTimeToRecover = new AtomicLong(0);
+	private final AtomicLong maxTimeToRecover = new AtomicLong(0);
+
+	private volatile RecoveryRound lastRound;
+
+	private ThreadPoolExecutor executor;
+
+	private class RecoveryRound {
+
+		final String kmsId;
+		final int sessions;
+		final long startTime;
+		final AtomicInteger remaining;
+		final AtomicInteger failed = new AtomicInteger(0);
+		volatile long endTime = 0;
+
+		RecoveryRound(String kmsId, int sessions, long startTime) {
+			this.kmsId = kmsId;
+			this.sessions = sessions;
+			this.startTime = startTime;
+			this.remaining = new AtomicInteger(sessions);
+		}
+
+		void sessionDone(boolean success) {
+			if (!success) {
+				this.failed.incrementAndGet();
+			}
+			if (this.remaining.decrementAndGet() == 0) {
+				this.endTime = System.currentTimeMillis();
+				log.info("Recovered {} sessions of KMS {} in {} ms ({} failed)", this.sessions - this.failed.get(),
+						this.kmsId, this.endTime - this.startTime, this.failed.get());
+			}
+		}
+
+		JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			json.addProperty("kmsId", this.kmsId);
+			json.addProperty("sessions", this.sessions);
+			json.addProperty("remaining", this.remaining.get());
+			json.addProperty("failed", this.failed.get());
+			json.addProperty("startTime", this.startTime);
+			if (this.endTime > 0) {
+				json.addProperty("duration", this.endTime - this.startTime);
+			}
+			return json;
+		}
+	}
+
+	private class RecoveryJob implements Runnable, Comparable<RecoveryJob> {
+
+		final KurentoSession session;
+		final RecoveryRound round;
+		final long kmsDisconnectionTime;
+		final boolean recorded;
+		final int participants;
+		final long sequence;
+
+		RecoveryJob(KurentoSession session, RecoveryRound round, long kmsDisconnectionTime) {
+			this.session = session;
+			this.round = round;
+			this.kmsDisconnectionTime = kmsDisconnectionTime;
+			this.recorded = recordingManager.sessionIsBeingRecorded(session.getSessionId());
+			this.participants = session.getParticipants().size();
+			this.sequence = SessionRecoveryManager.this.sequence.incrementAndGet();
+		}
+
+		@Override
+		public void run() {
+			boolean success = false;
+			try {
+				if (this.session.isClosed()) {
+					log.info("Session {} was closed before its media was recovered", this.session.getSessionId());
+				} else {
+					this.session.restartStatusInKurento(this.kmsDisconnectionTime);
+				}
+				success = true;
+			} catch (Exception e) {
+				log.error("Error recovering media of session {} after KMS {} restarted: {}",
+						this.session.getSessionId(), this.round.kmsId, e.getMessage());
+			} finally {
+				long timeToRecover = System.currentTimeMillis() - this.round.startTime;
+				pendingSessions.decrementAndGet();
+				if (success) {
+					recoveredSessions.incrementAndGet();
+					totalTimeToRecover.addAndGet(timeToRecover);
+					maxTimeToRecover.accumulateAndGet(timeToRecover, Math::max);
+				} else {
+					failedSessions.incrementAndGet();
+				}
+				this.round.sessionDone(success);
+			}
+		}
+
+		@Override
+		public int compareTo(RecoveryJob other) {
+			if (this.recorded != other.recorded) {
+				return this.recorded ? -1 : 1;
+			}
+			if (this.participants != other.participants) {
+				return Integer.compare(other.participants, this.participants);
+			}
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		int workers = Math.max(1, this.openviduConfig.getOpenviduSessionsRecoveryWorkers());
+		// Jobs are Comparable, so the queue hands them to workers by priority
+		this.executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "session-recovery-" + workerCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Queues the recovery of every session hosted by a KMS that has been
+	 * replaced by a new instance. Returns immediately
+	 */
+	public void recover(Kms kms, long kmsDisconnectionTime) {
+		this.recover(kms, kms.getKurentoSessions(), kmsDisconnectionTime);
+	}
+
+	/**
+	 * Queues the recovery of some sessions of a KMS whose media objects have been
+	 * lost, such as the ones pinned to a connection to the KMS that failed.
+	 * Returns immediately
+	 */
+	public void recover(Kms kms, Collection<KurentoSession> kmsSessions, long kmsDisconnectionTime) {
+		List<KurentoSession> sessions = new ArrayList<>(kmsSessions);
+		if (sessions.isEmpty()) {
+			return;
+		}
+		RecoveryRound round = new RecoveryRound(kms.getId(), sessions.size(), System.currentTimeMillis());
+		this.lastRound = round;
+		log.warn("Recovering {} sessions of KMS {} with {} workers", sessions.size(), kms.getId(),
+				this.executor.getCorePoolSize());
+		List<RecoveryJob> jobs = new ArrayList<>();
+		for (KurentoSession session : sessions) {
+			jobs.add(new RecoveryJob(session, round, kmsDisconnectionTime));
+		}
+		// Jobs handed to new core threads skip the queue, so they are submitted in
+		// priority order too
+		Collections.sort(jobs);
+		for (RecoveryJob job : jobs) {
+			this.pendingSessions.incrementAndGet();
+			this.executor.execute(job);
+		}
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("workers", this.executor.getCorePoolSize());
+		json.addProperty("activeWorkers", this.executor.getActiveCount());
+		json.addProperty("pendingSessions", this.pendingSessions.get());
+		json.addProperty("recoveredSessions", this.recoveredSessions.get());
+		json.addProperty("failedSessions", this.failedSessions.get());
+		long recovered = this.recoveredSessions.get();
+		json.addProperty("avgTimeToRecover", recovered > 0 ? this.totalTimeToRecover.get() / recovered : 0);
+		json.addProperty("maxTimeToRecover", this.maxTimeToRecover.get());
+		RecoveryRound round = this.lastRound;
+		if (round != null) {
+			json.add("lastRecovery", round.toJson());
+		}
+		return json;
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kurento.client.Continuation;
+import org.kurento.client.MediaType;
+import org.kurento.client.RTCOutboundRTPStreamStats;
+import org.kurento.client.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.core.Participant;
+import io.openvidu.server.kurento.core.KurentoParticipant;
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.kurento.core.KurentoTokenOptions;
+import io.openvidu.server.kurento.endpoint.SubscriberEndpoint;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Periodically adjusts the maximum video send bandwidth of every WebRTC
+ * subscriber endpoint. The bandwidth of a subscription is cut down when its
+ * measured packet loss or round-trip time shows congestion, increased when the
+ * loss is negligible and held otherwise. It is always kept between the
+ * configured bounds, and the upper bound is shared among all the video streams
+ * the subscriber receives if a total per subscriber is configured. It never
+ * exceeds the video send bandwidth limit of the subscriber (its token's or
+ * {@code openvidu.streams.video.max-send-bandwidth})
+ */
+public class SubscriberBandwidthController {
+
+	private static final Logger log = LoggerFactory.getLogger(SubscriberBandwidthController.class);
+
+	static final double CONGESTED_LOSS = 0.10;
+	static final double CLEAR_LOSS = 0.02;
+	// Round-trip time in milliseconds
+	static final double CONGESTED_RTT = 400;
+	static final double DECREASE_FACTOR = 0.85;
+	static final double INCREASE_FACTOR = 1.08;
+	static final int MIN_INCREASE_KBPS = 10;
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	private class SubscriberSample {
+		long packetsSent = -1;
+		long packetsLost = -1;
+	}
+
+	private final Map<String, SubscriberSample> samples = new ConcurrentHashMap<>();
+
+	private final AtomicLong decreases = new AtomicLong(0);
+	private final AtomicLong increases = new AtomicLong(0);
+
+	private ScheduledThreadPoolExecutor scheduler;
+
+	@PostConstruct
+	public void init() {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "subscriber-bandwidth");
+			t.setDaemon(true);
+			return t;
+		});
+		int interval = this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthInterval();
+		if (interval > 0) {
+			this.scheduler.scheduleWithFixedDelay(this::controlAll, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		this.scheduler.shutdownNow();
+	}
+
+	public boolean isEnabled() {
+		return this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthInterval() > 0;
+	}
+
+	private void controlAll() {
+		Set<String> endpointNames = new HashSet<>();
+		for (Kms kms : this.kmsManager.getKmss()) {
+			if (!kms.isKurentoClientConnected()) {
+				continue;
+			}
+			for (KurentoSession session : kms.getKurentoSessions()) {
+				for (Participant p : session.getParticipants()) {
+					try {
+						this.control((KurentoParticipant) p, endpointNames);
+					} catch (Exception e) {
+						log.warn("Error adjusting bandwidth of subscriber {}: {}", p.getParticipantPublicId(),
+								e.getMessage());
+					}
+				}
+			}
+		}
+		this.samples.keySet().retainAll(endpointNames);
+	}
+
+	private void control(KurentoParticipant participant, Set<String> endpointNames) {
+		int min = this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthMin();
+		int max = this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthMax();
+		int total = this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthSubscriberTotal();
+		long videoStreams = participant.getSubscribers().stream()
+				.filter(s -> s.getWebEndpoint() != null && !s.isVideoPaused()).count();
+		if (videoStreams == 0) {
+			return;
+		}
+		int ceiling = total > 0 ? (int) Math.min(max, total / videoStreams) : max;
+		ceiling = Math.max(ceiling, min);
+		int limit = this.maxSendKbps(participant);
+		if (limit > 0) {
+			ceiling = Math.min(ceiling, limit);
+		}
+		int floor = Math.min(min, ceiling);
+		for (SubscriberEndpoint subscriber : participant.getSubscribers()) {
+			if (subscriber.getWebEndpoint() == null || subscriber.isVideoPaused()) {
+				continue;
+			}
+			endpointNames.add(subscriber.getEndpointName());
+			this.control(subscriber, floor, ceiling);
+		}
+	}
+
+	private void control(SubscriberEndpoint subscriber, int min, int ceiling) {
+		final String endpointName = subscriber.getEndpointName();
+		subscriber.getWebEndpoint().getStats(MediaType.VIDEO, new Continuation<Map<String, Stats>>() {
+			@Override
+			public void onSuccess(Map<String, Stats> result) throws Exception {
+				long sent = 0;
+				long lost = 0;
+				double rttMs = 0;
+				for (Stats stats : result.values()) {
+					if (stats instanceof RTCOutboundRTPStreamStats) {
+						RTCOutboundRTPStreamStats outbound = (RTCOutboundRTPStreamStats) stats;
+						sent += outbound.getPacketsSent();
+						lost += outbound.getPacketsLost();
+						// Reported by KMS in seconds
+						rttMs = Math.max(rttMs, outbound.getRoundTripTime() * 1000);
+					}
+				}
+				SubscriberSample sample = samples.computeIfAbsent(endpointName, n -> new SubscriberSample());
+				double loss;
+				synchronized (sample) {
+					long sentDelta = sample.packetsSent >= 0 ? sent - sample.packetsSent : 0;
+					long lostDelta = sample.packetsLost >= 0 ? lost - sample.packetsLost : 0;
+					sample.packetsSent = sent;
+					sample.packetsLost = lost;
+					if (sentDelta <= 0) {
+						// First sample, or no video flowing (e.g. out of the last N)
+						return;
+					}
+					loss = Math.max(0, lostDelta) / (double) (sentDelta + Math.max(0, lostDelta));
+				}
+				int current = subscriber.getMaxSendKbps() > 0 ? subscriber.getMaxSendKbps() : ceiling;
+				int next = nextMaxSendKbps(current, loss, rttMs, min, ceiling);
+				if (next != subscriber.getMaxSendKbps()) {
+					if (next < current) {
+						decreases.incrementAndGet();
+					} else {
+						increases.incrementAndGet();
+					}
+					log.debug("Subscriber {}: max video send bandwidth {} -> {} kbps (loss {}, rtt {} ms)",
+							endpointName, current, next, loss, rttMs);
+					subscriber.updateMaxVideoSendBandwidth(next);
+				}
+			}
+
+			@Override
+			public void onError(Throwable cause) throws Exception {
+				log.debug("Error getting stats of subscriber {}: {}", endpointName, cause.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Control law: multiplicative decrease on congestion, multiplicative (at least
+	 * {@link #MIN_INCREASE_KBPS}) increase on clear network, hold otherwise. The
+	 * result is clamped to [min, ceiling]
+	 *
+	 * @param current current maximum send bandwidth in kbps
+	 * @param loss    fraction of packets lost since the previous control (0 to 1)
+	 * @param rttMs   round-trip time in milliseconds
+	 */
+	static int nextMaxSendKbps(int current, double loss, double rttMs, int min, int ceiling) {
+		double next;
+		if (loss > CONGESTED_LOSS || rttMs > CONGESTED_RTT) {
+			next = current * DECREASE_FACTOR;
+		} else if (loss < CLEAR_LOSS) {
+			next = Math.max(current * INCREASE_FACTOR, current + MIN_INCREASE_KBPS);
+		} else {
+			next = current;
+		}
+		return (int) Math.max(min, Math.min(ceiling, Math.round(next)));
+	}
+
+	private int maxSendKbps(KurentoParticipant participant) {
+		KurentoTokenOptions options = participant.getToken().getKurentoTokenOptions();
+		return options != null && options.getVideoMaxSendBandwidth() != null ? options.getVideoMaxSendBandwidth()
+				: this.openviduConfig.getVideoMaxSendBandwidth();
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("enabled", this.isEnabled());
+		json.addProperty("interval", this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthInterval());
+		json.addProperty("min", this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthMin());
+		json.addProperty("max", this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthMax());
+		json.addProperty("subscriberTotal", this.openviduConfig.getOpenviduStreamsAdaptiveBandwidthSubscriberTotal());
+		json.addProperty("controlledSubscribers", this.samples.size());
+		json.addProperty("decreases", this.decreases.get());
+		json.addProperty("increases", this.increases.get());
+		return json;
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A request to render the composite video of a finished INDIVIDUAL recording.
+ * Jobs with a higher priority are run first, and jobs with the same priority
+ * in order of arrival
+ */
+public class CompositeRenderJob implements Comparable<CompositeRenderJob> {
+
+	public enum Status {
+		queued, rendering, ready, failed
+	}
+
+	public static final String OUTPUT_FILE_SUFFIX = ".composite.mp4";
+
+	private static final AtomicLong SEQUENCE = new AtomicLong(0);
+
+	private final String recordingId;
+	private final File recordingFolder;
+	private final File syncMetadataFile;
+	private final double duration;
+	private final String resolution;
+	private final int threads;
+	private final int priority;
+	private final long sequence;
+	private final long createdAt;
+
+	private volatile Status status = Status.queued;
+	private volatile int progress = 0;
+	private volatile long startedAt = 0;
+	private volatile long endedAt = 0;
+	private volatile String error;
+
+	public CompositeRenderJob(String recordingId, File recordingFolder, File syncMetadataFile, double duration,
+			String resolution, int threads, int priority) {
+		this.recordingId = recordingId;
+		this.recordingFolder = recordingFolder;
+		this.syncMetadataFile = syncMetadataFile;
+		this.duration = duration;
+		this.resolution = resolution;
+		this.threads = threads;
+		this.priority = priority;
+		this.sequence = SEQUENCE.incrementAndGet();
+		this.createdAt = System.currentTimeMillis();
+	}
+
+	public String getRecordingId() {
+		return recordingId;
+	}
+
+	public File getRecordingFolder() {
+		return recordingFolder;
+	}
+
+	public File getSyncMetadataFile() {
+		return syncMetadataFile;
+	}
+
+	public double getDuration() {
+		return duration;
+	}
+
+	public String getResolution() {
+		return resolution;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+		if (Status.rendering.equals(status)) {
+			this.startedAt = System.currentTimeMillis();
+		} else if (Status.ready.equals(status) || Status.failed.equals(status)) {
+			this.endedAt = System.currentTimeMillis();
+		}
+	}
+
+	public int getProgress() {
+		return progress;
+	}
+
+	public void setProgress(int progress) {
+		this.progress = Math.max(0, Math.min(100, progress));
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	public boolean isFinished() {
+		return Status.ready.equals(this.status) || Status.failed.equals(this.status);
+	}
+
+	@Override
+	public int compareTo(CompositeRenderJob other) {
+		if (this.priority != other.priority) {
+			return Integer.compare(other.priority, this.priority);
+		}
+		return Long.compare(this.sequence, other.sequence);
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("recordingId", this.recordingId);
+		json.addProperty("status", this.status.name());
+		json.addProperty("progress", this.progress);
+		json.addProperty("priority", this.priority);
+		json.addProperty("resolution", this.resolution);
+		json.addProperty("createdAt", this.createdAt);
+		if (this.startedAt > 0) {
+			json.addProperty("startedAt", this.startedAt);
+		}
+		if (this.endedAt > 0) {
+			json.addProperty("endedAt", this.endedAt);
+		}
+		if (this.error != null) {
+			json.addProperty("error", this.error);
+		}
+		return json;
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording;
+
+import java.io.File;
+import java.util.function.IntConsumer;
+
+/**
+ * Renders the individual files of an INDIVIDUAL recording into one composite
+ * video. Implementations must report progress (0 to 100) through the given
+ * consumer and throw an exception on failure
+ */
+public interface CompositeTranscoder {
+
+	public void transcode(CompositeRenderJob job, File outputFile, IntConsumer progress) throws Exception;
+
+}
@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.utils.JsonUtils;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Default CompositeTranscoder. Runs ffmpeg (with a low scheduling priority and
+ * a limited number of threads) to lay out every video file of the recording
+ * in a grid and mix every audio file, each one delayed by its offset in the
+ * sync metadata file ("RECORDING_NAME.json")
+ */
+public class FfmpegCompositeTranscoder implements CompositeTranscoder {
+
+	private static final Logger log = LoggerFactory.getLogger(FfmpegCompositeTranscoder.class);
+
+	private static final List<String> MEDIA_EXTENSIONS = Arrays.asList("webm", "mkv", "mp4");
+	private static final String DEFAULT_RESOLUTION = "1280x720";
+	private static final int FRAME_RATE = 25;
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	private JsonUtils jsonUtils = new JsonUtils();
+
+	@Override
+	public void transcode(CompositeRenderJob job, File outputFile, IntConsumer progress) throws Exception {
+		List<String> command = this.buildCommand(job, outputFile);
+		log.debug("Composite render command for recording {}: {}", job.getRecordingId(), command);
+
+		File logFile = new File(job.getRecordingFolder(), ".composite.log");
+		ProcessBuilder builder = new ProcessBuilder(command).redirectError(logFile);
+		Process process = builder.start();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			// "-progress pipe:1" prints blocks of "key=value" lines
+			String line;
+			long durationMicros = (long) (job.getDuration() * 1000000);
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("out_time_ms=") && durationMicros > 0) {
+					try {
+						long outTime = Long.parseLong(line.substring("out_time_ms=".length()).trim());
+						progress.accept((int) Math.min(99, outTime * 100 / durationMicros));
+					} catch (NumberFormatException e) {
+						// "N/A" until the first frame is written
+					}
+				}
+			}
+			int exitCode = process.waitFor();
+			if (exitCode != 0) {
+				throw new IOException("ffmpeg exited with code " + exitCode + ": " + this.readLastLine(logFile));
+			}
+		} finally {
+			if (process.isAlive()) {
+				process.destroyForcibly();
+			}
+		}
+		logFile.delete();
+	}
+
+	private List<String> buildCommand(CompositeRenderJob job, File outputFile) throws Exception {
+		JsonObject syncMetadata = this.jsonUtils.fromFileToJsonObject(job.getSyncMetadataFile().getAbsolutePath());
+		JsonArray files = syncMetadata.get("files").getAsJsonArray();
+
+		long minOffset = Long.MAX_VALUE;
+		for (JsonElement element : files) {
+			minOffset = Math.min(minOffset, element.getAsJsonObject().get("startTimeOffset").getAsLong());
+		}
+
+		int threads = job.getThreads();
+		List<String> command = new ArrayList<>(Arrays.asList("nice", "-n", "10",
+				this.openviduConfig.getOpenviduRecordingCompositeRenderFfmpeg(), "-y", "-nostdin", "-nostats",
+				"-loglevel", "error", "-progress", "pipe:1"));
+
+		List<Integer> videoInputs = new ArrayList<>();
+		List<Integer> audioInputs = new ArrayList<>();
+		List<Long> delays = new ArrayList<>();
+		int input = 0;
+		for (JsonElement element : files) {
+			JsonObject file = element.getAsJsonObject();
+			File media = this.findMediaFile(job.getRecordingFolder(), file.get("streamId").getAsString());
+			if (media == null) {
+				log.warn("No media file found for stream {} of recording {}", file.get("streamId").getAsString(),
+						job.getRecordingId());
+				continue;
+			}
+			if (threads > 0) {
+				command.add("-threads");
+				command.add(Integer.toString(threads));
+			}
+			command.add("-i");
+			command.add(media.getAbsolutePath());
+			if (file.get("hasVideo").getAsBoolean()) {
+				videoInputs.add(input);
+			}
+			if (file.get("hasAudio").getAsBoolean()) {
+				audioInputs.add(input);
+			}
+			delays.add(file.get("startTimeOffset").getAsLong() - minOffset);
+			input++;
+		}
+		if (videoInputs.isEmpty() && audioInputs.isEmpty()) {
+			throw new IOException("Recording " + job.getRecordingId() + " has no media files to render");
+		}
+
+		StringBuilder filter = new StringBuilder();
+		if (!videoInputs.isEmpty()) {
+			this.appendVideoFilter(filter, videoInputs, delays, job.getResolution());
+		}
+		if (!audioInputs.isEmpty()) {
+			this.appendAudioFilter(filter, audioInputs, delays);
+		}
+		if (filter.charAt(filter.length() - 1) == ';') {
+			filter.setLength(filter.length() - 1);
+		}
+		command.add("-filter_complex");
+		command.add(filter.toString());
+		if (threads > 0) {
+			command.addAll(Arrays.asList("-filter_complex_threads", Integer.toString(threads), "-threads",
+					Integer.toString(threads)));
+		}
+		if (!videoInputs.isEmpty()) {
+			command.addAll(Arrays.asList("-map", "[vout]", "-c:v", "libx264", "-preset", "veryfast", "-crf", "23",
+					"-pix_fmt", "yuv420p"));
+		}
+		if (!audioInputs.isEmpty()) {
+			command.addAll(Arrays.asList("-map", "[aout]", "-c:a", "aac", "-b:a", "128k"));
+		}
+		if (job.getDuration() > 0) {
+			command.add("-t");
+			command.add(String.format(Locale.ROOT, "%.3f", job.getDuration()));
+		}
+		command.addAll(Arrays.asList("-movflags", "+faststart", "-f", "mp4", outputFile.getAbsolutePath()));
+		return command;
+	}
+
+	private void appendVideoFilter(StringBuilder filter, List<Integer> videoInputs, List<Long> delays,
+			String resolution) {
+		String[] size = (resolution != null ? resolution : DEFAULT_RESOLUTION).split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		int count = videoInputs.size();
+		int columns = (int) Math.ceil(Math.sqrt(count));
+		int rows = (int) Math.ceil((double) count / columns);
+		// yuv420p needs even dimensions
+		int tileWidth = (width / columns) & ~1;
+		int tileHeight = (height / rows) & ~1;
+
+		StringBuilder layout = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			int index = videoInputs.get(i);
+			filter.append(String.format(Locale.ROOT,
+					"[%d:v]fps=%d,scale=%d:%d:force_original_aspect_ratio=decrease,pad=%d:%d:(ow-iw)/2:(oh-ih)/2,setsar=1,tpad=start_duration=%.3f:color=black[v%d];",
+					index, FRAME_RATE, tileWidth, tileHeight, tileWidth, tileHeight, delays.get(index) / 1000.0, i));
+			if (i > 0) {
+				layout.append('|');
+			}
+			layout.append((i % columns) * tileWidth).append('_').append((i / columns) * tileHeight);
+		}
+		if (count == 1) {
+			filter.append("[v0]null[vout];");
+		} else {
+			for (int i = 0; i < count; i++) {
+				filter.append("[v").append(i).append(']');
+			}
+			filter.append("xstack=inputs=").append(count).append(":layout=").append(layout)
+					.append(":fill=black[vout];");
+		}
+	}
+
+	private void appendAudioFilter(StringBuilder filter, List<Integer> audioInputs, List<Long> delays) {
+		int count = audioInputs.size();
+		for (int i = 0; i < count; i++) {
+			int index = audioInputs.get(i);
+			filter.append(String.format(Locale.ROOT, "[%d:a]aresample=48000,adelay=delays=%d:all=1[a%d];", index,
+					delays.get(index), i));
+		}
+		if (count == 1) {
+			filter.append("[a0]anull[aout]");
+		} else {
+			for (int i = 0; i < count; i++) {
+				filter.append("[a").append(i).append(']');
+			}
+			filter.append("amix=inputs=").append(count).append(":duration=longest:dropout_transition=0[aout]");
+		}
+	}
+
+	private File findMediaFile(File folder, String streamId) {
+		for (String extension : MEDIA_EXTENSIONS) {
+			File file = new File(folder, streamId + "." + extension);
+			if (file.isFile()) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	private String readLastLine(File file) {
+		try {
+			List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+			return lines.isEmpty() ? "" : lines.get(lines.size() - 1);
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+}
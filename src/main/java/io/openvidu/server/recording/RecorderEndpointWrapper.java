@@ -32,13 +32,15 @@ public class RecorderEndpointWrapper {
 	private boolean hasAudio;
 	private boolean hasVideo;
 	private String typeOfVideo;
+	private String fileExtension;
 
 	private long startTime;
 	private long endTime;
 	private long size;
 
 	public RecorderEndpointWrapper(RecorderEndpoint recorder, String connectionId, String recordingId, String streamId,
-			String clientData, String serverData, boolean hasAudio, boolean hasVideo, String typeOfVideo) {
+			String clientData, String serverData, boolean hasAudio, boolean hasVideo, String typeOfVideo,
+			String fileExtension) {
 		this.recorder = recorder;
 		this.connectionId = connectionId;
 		this.recordingId = recordingId;
@@ -48,6 +50,7 @@ public class RecorderEndpointWrapper {
 		this.hasAudio = hasAudio;
 		this.hasVideo = hasVideo;
 		this.typeOfVideo = typeOfVideo;
+		this.fileExtension = fileExtension;
 	}
 
 	public RecorderEndpoint getRecorder() {
@@ -110,6 +113,10 @@ public class RecorderEndpointWrapper {
 		return typeOfVideo;
 	}
 
+	public String getFileExtension() {
+		return fileExtension;
+	}
+
 	public JsonObject toJson() {
 		JsonObject json = new JsonObject();
 		json.addProperty("connectionId", this.connectionId);
@@ -125,6 +132,7 @@ public class RecorderEndpointWrapper {
 		if (this.hasVideo) {
 			json.addProperty("typeOfVideo", this.typeOfVideo);
 		}
+		json.addProperty("fileExtension", this.fileExtension);
 		return json;
 	}
 
@@ -36,6 +36,9 @@ public class Recording {
 	private boolean hasAudio = true;
 	private boolean hasVideo = true;
 	private RecordingProperties recordingProperties;
+	private CompositeRenderJob.Status compositeStatus; // Only INDIVIDUAL recordings sent to composite rendering
+	private int compositeProgress = 0; // percentage
+	private String compositeUrl;
 
 	public Recording(String sessionId, String id, RecordingProperties recordingProperties) {
 		this.sessionId = sessionId;
@@ -81,6 +84,11 @@ public class Recording {
 			}
 		}
 		this.recordingProperties = builder.build();
+
+		if (json.has("compositeStatus")) {
+			this.compositeStatus = CompositeRenderJob.Status.valueOf(json.get("compositeStatus").getAsString());
+			this.compositeProgress = json.get("compositeProgress").getAsInt();
+		}
 	}
 
 	public io.openvidu.java.client.Recording.Status getStatus() {
@@ -183,6 +191,30 @@ public class Recording {
 		this.hasVideo = hasVideo;
 	}
 
+	public CompositeRenderJob.Status getCompositeStatus() {
+		return compositeStatus;
+	}
+
+	public void setCompositeStatus(CompositeRenderJob.Status compositeStatus) {
+		this.compositeStatus = compositeStatus;
+	}
+
+	public int getCompositeProgress() {
+		return compositeProgress;
+	}
+
+	public void setCompositeProgress(int compositeProgress) {
+		this.compositeProgress = compositeProgress;
+	}
+
+	public String getCompositeUrl() {
+		return compositeUrl;
+	}
+
+	public void setCompositeUrl(String compositeUrl) {
+		this.compositeUrl = compositeUrl;
+	}
+
 	public JsonObject toJson() {
 		JsonObject json = new JsonObject();
 		json.addProperty("id", this.id);
@@ -204,6 +236,13 @@ public class Recording {
 		json.addProperty("hasAudio", this.hasAudio);
 		json.addProperty("hasVideo", this.hasVideo);
 		json.addProperty("status", this.status.toString());
+		if (this.compositeStatus != null) {
+			json.addProperty("compositeStatus", this.compositeStatus.name());
+			json.addProperty("compositeProgress", this.compositeProgress);
+			if (this.compositeUrl != null) {
+				json.addProperty("compositeUrl", this.compositeUrl);
+			}
+		}
 		return json;
 	}
 
@@ -0,0 +1,114 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Limits the number of simultaneous recording downloads, in total and per
+ * client. A value of 0 for any of the limits means unlimited
+ */
+public class RecordingDownloadLimiter {
+
+	public enum Admission {
+		ACCEPTED, GLOBAL_LIMIT_REACHED, CLIENT_LIMIT_REACHED
+	}
+
+	private final int maxConcurrent;
+	private final int maxConcurrentPerClient;
+
+	private final AtomicInteger activeDownloads = new AtomicInteger(0);
+	private final Map<String, Integer> activeDownloadsPerClient = new ConcurrentHashMap<>();
+
+	private final AtomicLong acceptedDownloads = new AtomicLong(0);
+	private final AtomicLong rejectedByGlobalLimit = new AtomicLong(0);
+	private final AtomicLong rejectedByClientLimit = new AtomicLong(0);
+	private final AtomicLong sendfileDownloads = new AtomicLong(0);
+	private final AtomicLong bytesSent = new AtomicLong(0);
+
+	public RecordingDownloadLimiter(int maxConcurrent, int maxConcurrentPerClient) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxConcurrentPerClient = maxConcurrentPerClient;
+	}
+
+	/**
+	 * Whether any of the limits is set. Limited downloads must hold their slot
+	 * until the file is fully sent
+	 */
+	public boolean isLimited() {
+		return this.maxConcurrent > 0 || this.maxConcurrentPerClient > 0;
+	}
+
+	public Admission acquire(String clientId) {
+		int active = this.activeDownloads.incrementAndGet();
+		if (this.maxConcurrent > 0 && active > this.maxConcurrent) {
+			this.activeDownloads.decrementAndGet();
+			this.rejectedByGlobalLimit.incrementAndGet();
+			return Admission.GLOBAL_LIMIT_REACHED;
+		}
+		final boolean[] admitted = { false };
+		this.activeDownloadsPerClient.compute(clientId, (client, count) -> {
+			int current = count == null ? 0 : count;
+			if (this.maxConcurrentPerClient > 0 && current >= this.maxConcurrentPerClient) {
+				return count;
+			}
+			admitted[0] = true;
+			return current + 1;
+		});
+		if (!admitted[0]) {
+			this.activeDownloads.decrementAndGet();
+			this.rejectedByClientLimit.incrementAndGet();
+			return Admission.CLIENT_LIMIT_REACHED;
+		}
+		this.acceptedDownloads.incrementAndGet();
+		return Admission.ACCEPTED;
+	}
+
+	public void release(String clientId) {
+		this.activeDownloadsPerClient.computeIfPresent(clientId, (client, count) -> count <= 1 ? null : count - 1);
+		this.activeDownloads.decrementAndGet();
+	}
+
+	public void recordSendfile() {
+		this.sendfileDownloads.incrementAndGet();
+	}
+
+	public void recordBytesSent(long bytes) {
+		this.bytesSent.addAndGet(bytes);
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("maxConcurrent", this.maxConcurrent);
+		json.addProperty("maxConcurrentPerClient", this.maxConcurrentPerClient);
+		json.addProperty("active", this.activeDownloads.get());
+		json.addProperty("activeClients", this.activeDownloadsPerClient.size());
+		json.addProperty("accepted", this.acceptedDownloads.get());
+		json.addProperty("rejectedByGlobalLimit", this.rejectedByGlobalLimit.get());
+		json.addProperty("rejectedByClientLimit", this.rejectedByClientLimit.get());
+		json.addProperty("sendfile", this.sendfileDownloads.get());
+		json.addProperty("bytesSent", this.bytesSent.get());
+		return json;
+	}
+
+}
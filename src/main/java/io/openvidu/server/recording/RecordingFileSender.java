@@ -0,0 +1,328 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Sends one recording file honouring single byte-range requests and HTTP
+ * conditional requests. When allowed and supported by the servlet container
+ * (Tomcat NIO/APR connectors without TLS) the transfer is delegated to the
+ * kernel with sendfile, and the worker thread is released as soon as this
+ * method returns, before the file is actually sent. Otherwise the file is
+ * streamed to the servlet output stream in chunks, so it is never fully loaded
+ * in the heap. {@link #sendAsync} streams it with non-blocking IO instead, so
+ * no worker thread is held during the transfer and the caller learns when it
+ * ends
+ */
+public class RecordingFileSender {
+
+	private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+	private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+	private static final int ASYNC_BUFFER_SIZE = 64 * 1024;
+
+	private final int cacheMaxAge;
+
+	public RecordingFileSender(int cacheMaxAge) {
+		this.cacheMaxAge = cacheMaxAge;
+	}
+
+	public boolean isSendfileSupported(HttpServletRequest request) {
+		return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+	}
+
+	/**
+	 * Returns the number of bytes of the file that are sent (or handed to
+	 * sendfile) to the client
+	 *
+	 * @param allowSendfile false to always send the file before returning
+	 */
+	public long send(File file, HttpServletRequest request, HttpServletResponse response, boolean allowSendfile)
+			throws IOException {
+		long[] range = this.prepare(file, request, response);
+		if (range == null) {
+			return 0;
+		}
+		final long start = range[0];
+		final long count = range[1];
+
+		if (allowSendfile && this.isSendfileSupported(request)) {
+			request.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START_ATTR, Long.valueOf(start));
+			request.setAttribute(SENDFILE_END_ATTR, Long.valueOf(start + count));
+			return count;
+		}
+
+		long sent = 0;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			while (sent < count) {
+				long transferred = channel.transferTo(position, Math.min(count - sent, TRANSFER_CHUNK_SIZE), out);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+				sent += transferred;
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * Sends the file with non-blocking IO: the calling thread returns as soon as
+	 * the transfer is started. {@code onDone} is called exactly once with the
+	 * number of bytes sent, when the transfer ends or fails, unless this method
+	 * throws an exception
+	 */
+	public void sendAsync(File file, HttpServletRequest request, HttpServletResponse response, LongConsumer onDone)
+			throws IOException {
+		long[] range = this.prepare(file, request, response);
+		if (range == null) {
+			onDone.accept(0);
+			return;
+		}
+		final long start = range[0];
+		final long count = range[1];
+
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		final AsyncContext async;
+		try {
+			async = request.startAsync();
+		} catch (RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		async.setTimeout(0);
+		final long[] sent = { 0 };
+		final AtomicBoolean done = new AtomicBoolean(false);
+		async.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				this.finish();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				this.finish();
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				this.finish();
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+
+			private void finish() {
+				if (done.compareAndSet(false, true)) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						// Nothing to do
+					}
+					onDone.accept(sent[0]);
+				}
+			}
+		});
+		try {
+			final ServletOutputStream out = response.getOutputStream();
+			final byte[] buffer = new byte[ASYNC_BUFFER_SIZE];
+			out.setWriteListener(new WriteListener() {
+				@Override
+				public void onWritePossible() throws IOException {
+					while (out.isReady()) {
+						if (sent[0] >= count) {
+							async.complete();
+							return;
+						}
+						ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, count - sent[0]));
+						int read = channel.read(chunk, start + sent[0]);
+						if (read <= 0) {
+							async.complete();
+							return;
+						}
+						out.write(buffer, 0, read);
+						sent[0] += read;
+					}
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					async.complete();
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			async.complete();
+		}
+	}
+
+	/**
+	 * Sets the headers and status of the response
+	 *
+	 * @return {start, count} of the bytes to send, or null if there is no body
+	 */
+	private long[] prepare(File file, HttpServletRequest request, HttpServletResponse response) {
+		final long length = file.length();
+		// HTTP dates have a resolution of one second
+		final long lastModified = file.lastModified() / 1000 * 1000;
+		final String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=" + this.cacheMaxAge);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+		if (this.isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+
+		long start = 0;
+		long end = length - 1;
+		boolean partial = false;
+		String range = request.getHeader(HttpHeaders.RANGE);
+		if (range != null && this.isRangeApplicable(request, etag, lastModified)) {
+			long[] parsedRange = parseRange(range, length);
+			if (parsedRange == null) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return null;
+			}
+			if (parsedRange.length == 2) {
+				start = parsedRange[0];
+				end = parsedRange[1];
+				partial = true;
+			}
+		}
+		final long count = end - start + 1;
+
+		String contentType = request.getServletContext().getMimeType(file.getName());
+		response.setContentType(contentType != null ? contentType : "application/octet-stream");
+		response.setContentLengthLong(count);
+		if (partial) {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+		} else {
+			response.setStatus(HttpServletResponse.SC_OK);
+		}
+
+		if ("HEAD".equals(request.getMethod()) || count == 0) {
+			return null;
+		}
+		return new long[] { start, count };
+	}
+
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			return "*".equals(ifNoneMatch.trim()) || ifNoneMatch.contains(etag);
+		}
+		long ifModifiedSince = this.getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+		return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+	}
+
+	private boolean isRangeApplicable(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return etag.equals(ifRange);
+		}
+		long ifRangeDate = this.getDateHeader(request, HttpHeaders.IF_RANGE);
+		return ifRangeDate != -1 && lastModified <= ifRangeDate;
+	}
+
+	private long getDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns {start, end} for a satisfiable single range, an empty array if the
+	 * header must be ignored (unknown unit, malformed or multiple ranges) and null
+	 * if the range cannot be satisfied
+	 */
+	static long[] parseRange(String header, long length) {
+		if (!header.startsWith("bytes=") || header.contains(",")) {
+			return new long[0];
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return new long[0];
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				// Suffix range: last N bytes
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				if (!last.isEmpty() && Long.parseLong(last) < start) {
+					return new long[0];
+				}
+				end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+			}
+			if (start >= length) {
+				return null;
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Streams the files of an INDIVIDUAL recording as a ZIP archive, straight to
+ * the given output stream and without any temporary file. Media files are
+ * already compressed, so entries are DEFLATED with no compression: unlike
+ * STORED entries, their CRC-32 and sizes go in a data descriptor after the
+ * data, so every file is read only once, while it is sent
+ */
+public class RecordingZipStreamer {
+
+	public static final List<String> ZIPPED_EXTENSIONS = Arrays.asList("webm", "mkv", "mp4", "json");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Files of the recording folder that make it into the ZIP: media files and the
+	 * sync metadata json. Hidden entity and stream metadata files are skipped
+	 */
+	public List<File> getZippableFiles(File recordingFolder) {
+		List<File> zippable = new ArrayList<>();
+		File[] files = recordingFolder.listFiles();
+		if (files == null) {
+			return zippable;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isFile() && !file.getName().startsWith(".")
+					&& !file.getName().endsWith(CompositeRenderJob.OUTPUT_FILE_SUFFIX)
+					&& ZIPPED_EXTENSIONS.contains(FilenameUtils.getExtension(file.getName()))) {
+				zippable.add(file);
+			}
+		}
+		return zippable;
+	}
+
+	/**
+	 * Writes the ZIP to the output stream and returns the number of file bytes
+	 * written. The output stream is finished but not closed
+	 */
+	public long streamZip(List<File> files, OutputStream out) throws IOException {
+		// The deflater hands its output over in small chunks
+		ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		zipOut.setMethod(ZipOutputStream.DEFLATED);
+		zipOut.setLevel(Deflater.NO_COMPRESSION);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long total = 0;
+		for (File file : files) {
+			ZipEntry entry = new ZipEntry(file.getName());
+			entry.setTime(file.lastModified());
+			zipOut.putNextEntry(entry);
+			try (InputStream in = Files.newInputStream(file.toPath())) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					zipOut.write(buffer, 0, read);
+					total += read;
+				}
+			}
+			zipOut.closeEntry();
+		}
+		zipOut.finish();
+		zipOut.flush();
+		return total;
+	}
+
+}
@@ -38,7 +38,7 @@ public class RecordingsHttpHandler implements WebMvcConfigurer {
 
 		openviduConfig.setOpenViduRecordingPath(recordingsPath);
 
-		registry.addResourceHandler("/recordings/**").addResourceLocations("file:" + recordingsPath);
+		// Files under /recordings/** are served by RecordingDownloadController
 	}
 
 }
@@ -0,0 +1,236 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+import io.openvidu.client.OpenViduException;
+import io.openvidu.client.OpenViduException.Code;
+import io.openvidu.server.recording.CompositeRenderJob;
+import io.openvidu.server.recording.CompositeTranscoder;
+import io.openvidu.server.recording.Recording;
+import io.openvidu.server.utils.CustomFileManager;
+import io.openvidu.server.utils.JsonUtils;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Post-processing queue that renders finished INDIVIDUAL recordings into a
+ * single composite MP4 file ("RECORDING_NAME.composite.mp4", stored next to
+ * the individual files). Jobs are run by a bounded pool of workers in priority
+ * order, and their status and progress are exposed through the Recording
+ * entity
+ */
+public class CompositeRenderManager {
+
+	private static final Logger log = LoggerFactory.getLogger(CompositeRenderManager.class);
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private CompositeTranscoder compositeTranscoder;
+
+	private final Map<String, CompositeRenderJob> jobs = new ConcurrentHashMap<>();
+	private final CustomFileManager fileWriter = new CustomFileManager();
+	private final JsonUtils jsonUtils = new JsonUtils();
+
+	private final AtomicInteger workerCount = new AtomicInteger(0);
+	private final AtomicLong renderedJobs = new AtomicLong(0);
+	private final AtomicLong failedJobs = new AtomicLong(0);
+	private final AtomicLong rejectedJobs = new AtomicLong(0);
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	public void init() {
+		int workers = Math.max(1, this.openviduConfig.getOpenviduRecordingCompositeRenderWorkers());
+		// Jobs are Comparable, so the queue hands them to workers by priority
+		this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "composite-render-" + workerCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	@PreDestroy
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	public boolean isEnabled() {
+		return this.openviduConfig.isRecordingModuleEnabled()
+				&& this.openviduConfig.isRecordingCompositeRenderEnabled();
+	}
+
+	/**
+	 * Queues the composite render of a recording. The recording must be an
+	 * INDIVIDUAL one in "ready" status
+	 * 
+	 * @throws OpenViduException if the recording is already being rendered or the
+	 *                           queue is full
+	 */
+	public synchronized CompositeRenderJob enqueue(Recording recording, int priority, String resolution)
+			throws OpenViduException {
+		CompositeRenderJob existing = this.jobs.get(recording.getId());
+		if (existing != null && !existing.isFinished()) {
+			throw new OpenViduException(Code.RECORDING_COMPOSITE_ERROR_CODE,
+					"Recording " + recording.getId() + " is already " + existing.getStatus().name());
+		}
+		int queueSize = this.openviduConfig.getOpenviduRecordingCompositeRenderQueueSize();
+		if (queueSize > 0 && this.executor.getQueue().size() >= queueSize) {
+			this.rejectedJobs.incrementAndGet();
+			throw new OpenViduException(Code.RECORDING_COMPOSITE_ERROR_CODE,
+					"Composite render queue is full (" + queueSize + " jobs waiting)");
+		}
+
+		File folder = new File(this.openviduConfig.getOpenViduRecordingPath() + recording.getId());
+		CompositeRenderJob job = new CompositeRenderJob(recording.getId(), folder,
+				new File(folder, recording.getName() + ".json"), recording.getDuration(), resolution,
+				this.openviduConfig.getOpenviduRecordingCompositeRenderThreadsPerJob(), priority);
+		File outputFile = new File(folder, recording.getName() + CompositeRenderJob.OUTPUT_FILE_SUFFIX);
+
+		this.jobs.put(recording.getId(), job);
+		this.persistCompositeState(job);
+		this.executor.execute(new RenderTask(job, outputFile));
+		log.info("Composite render of recording {} queued with priority {} ({} jobs waiting)", recording.getId(),
+				priority, this.executor.getQueue().size());
+
+		recording.setCompositeStatus(job.getStatus());
+		recording.setCompositeProgress(job.getProgress());
+		return job;
+	}
+
+	/**
+	 * Sets the live status and progress of any composite render on the recording
+	 * read from its entity file
+	 */
+	public void updateRecording(Recording recording) {
+		CompositeRenderJob job = this.jobs.get(recording.getId());
+		if (job != null) {
+			recording.setCompositeStatus(job.getStatus());
+			recording.setCompositeProgress(job.getProgress());
+		} else if (CompositeRenderJob.Status.queued.equals(recording.getCompositeStatus())
+				|| CompositeRenderJob.Status.rendering.equals(recording.getCompositeStatus())) {
+			// Job lost in a previous execution of OpenVidu Server
+			recording.setCompositeStatus(CompositeRenderJob.Status.failed);
+		}
+		if (CompositeRenderJob.Status.ready.equals(recording.getCompositeStatus())) {
+			recording.setCompositeUrl(this.openviduConfig.getFinalUrl() + "recordings/" + recording.getId() + "/"
+					+ recording.getName() + CompositeRenderJob.OUTPUT_FILE_SUFFIX);
+		}
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("workers", this.executor.getMaximumPoolSize());
+		json.addProperty("activeJobs", this.executor.getActiveCount());
+		json.addProperty("queuedJobs", this.executor.getQueue().size());
+		json.addProperty("renderedJobs", this.renderedJobs.get());
+		json.addProperty("failedJobs", this.failedJobs.get());
+		json.addProperty("rejectedJobs", this.rejectedJobs.get());
+		return json;
+	}
+
+	private void render(CompositeRenderJob job, File outputFile) {
+		job.setStatus(CompositeRenderJob.Status.rendering);
+		this.persistCompositeState(job);
+		log.info("Rendering composite of recording {} into {}", job.getRecordingId(), outputFile.getAbsolutePath());
+
+		// Hidden partial file, so it is never served while being written
+		File partialFile = new File(outputFile.getParentFile(), "." + outputFile.getName() + ".part");
+		try {
+			this.compositeTranscoder.transcode(job, partialFile, job::setProgress);
+			Files.move(partialFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			job.setProgress(100);
+			job.setStatus(CompositeRenderJob.Status.ready);
+			this.renderedJobs.incrementAndGet();
+			log.info("Composite of recording {} rendered ({} bytes)", job.getRecordingId(), outputFile.length());
+		} catch (Exception e) {
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			job.setError(e.getMessage());
+			job.setStatus(CompositeRenderJob.Status.failed);
+			this.failedJobs.incrementAndGet();
+			partialFile.delete();
+			log.error("Composite render of recording {} failed: {}", job.getRecordingId(), e.getMessage());
+		} finally {
+			this.persistCompositeState(job);
+			this.jobs.remove(job.getRecordingId(), job);
+		}
+	}
+
+	private void persistCompositeState(CompositeRenderJob job) {
+		String entityFile = job.getRecordingFolder().getAbsolutePath() + "/" + RecordingManager.RECORDING_ENTITY_FILE
+				+ job.getRecordingId();
+		try {
+			Recording recording = new Recording(this.jsonUtils.fromFileToJsonObject(entityFile));
+			recording.setCompositeStatus(job.getStatus());
+			recording.setCompositeProgress(job.getProgress());
+			this.fileWriter.overwriteFile(entityFile, recording.toJson().toString());
+		} catch (JsonIOException | JsonSyntaxException | IOException e) {
+			log.error("Error updating composite status in recording entity file {}: {}", entityFile,
+					e.getMessage());
+		}
+	}
+
+	private class RenderTask implements Runnable, Comparable<RenderTask> {
+
+		private final CompositeRenderJob job;
+		private final File outputFile;
+
+		RenderTask(CompositeRenderJob job, File outputFile) {
+			this.job = job;
+			this.outputFile = outputFile;
+		}
+
+		@Override
+		public void run() {
+			render(this.job, this.outputFile);
+		}
+
+		@Override
+		public int compareTo(RenderTask other) {
+			return this.job.compareTo(other.job);
+		}
+	}
+
+}
@@ -37,6 +37,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.io.FileUtils;
 import org.kurento.client.ErrorEvent;
@@ -108,6 +109,12 @@ public class RecordingManager {
 	@Autowired
 	private CallDetailRecord cdr;
 
+	@Autowired
+	private CompositeRenderManager compositeRenderManager;
+
+	@Autowired
+	private RecordingOperationExecutor recordingOperationExecutor;
+
 	protected Map<String, Recording> startingRecordings = new ConcurrentHashMap<>();
 	protected Map<String, Recording> startedRecordings = new ConcurrentHashMap<>();
 	protected Map<String, Recording> sessionsRecordings = new ConcurrentHashMap<>();
@@ -115,8 +122,13 @@ public class RecordingManager {
 
 	private JsonUtils jsonUtils = new JsonUtils();
 
-	private ScheduledThreadPoolExecutor automaticRecordingStopExecutor = new ScheduledThreadPoolExecutor(
-			Runtime.getRuntime().availableProcessors());
+	// Only fires the automatic stop timers. The stops run in the
+	// RecordingOperationExecutor
+	private ScheduledThreadPoolExecutor automaticRecordingStopExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "recording-autostop-timer");
+		t.setDaemon(true);
+		return t;
+	});
 
 	static final String RECORDING_ENTITY_FILE = ".recording.";
 	public static final String IMAGE_NAME = "openvidu/openvidu-recording";
@@ -153,6 +165,13 @@ public class RecordingManager {
 		}
 	}
 
+	@PreDestroy
+	public void close() {
+		if (this.singleStreamRecordingService != null) {
+			this.singleStreamRecordingService.close();
+		}
+	}
+
 	public void initializeRecordingManager() throws OpenViduException {
 
 		RecordingManager.IMAGE_TAG = openviduConfig.getOpenViduRecordingVersion();
@@ -232,7 +251,25 @@ public class RecordingManager {
 		this.checkRecordingPaths(openviduRecordingPath, openviduRecordingCustomLayout);
 	}
 
+	/**
+	 * Starts the recording of a session in the {@link RecordingOperationExecutor}
+	 * and waits for it to be started
+	 */
 	public Recording startRecording(Session session, RecordingProperties properties) throws OpenViduException {
+		return this.recordingOperationExecutor.executeAndWait(session, session.getSessionId(), "start", false,
+				Code.RECORDING_START_ERROR_CODE, () -> this.doStartRecording(session, properties));
+	}
+
+	/**
+	 * Queues the automatic start of the recording of a session in the
+	 * {@link RecordingOperationExecutor}, without waiting for it
+	 */
+	public void startRecordingAsync(Session session, RecordingProperties properties) {
+		this.recordingOperationExecutor.execute(session.getSessionId(), "autostart",
+				() -> this.doStartRecording(session, properties));
+	}
+
+	private Recording doStartRecording(Session session, RecordingProperties properties) throws OpenViduException {
 		Recording recording = null;
 		try {
 			switch (properties.outputMode()) {
@@ -268,13 +305,37 @@ public class RecordingManager {
 		return recording;
 	}
 
+	/**
+	 * Stops the recording of a session in the {@link RecordingOperationExecutor}
+	 * and waits for it to be stopped
+	 */
 	public Recording stopRecording(Session session, String recordingId, EndReason reason) {
+		String sessionId;
+		if (session != null) {
+			sessionId = session.getSessionId();
+		} else {
+			Recording recording = this.startedRecordings.get(recordingId);
+			if (recording == null) {
+				throw new OpenViduException(Code.RECORDING_STOP_ERROR_CODE,
+						"Recording " + recordingId + " is not started");
+			}
+			sessionId = recording.getSessionId();
+		}
+		return this.recordingOperationExecutor.executeAndWait(session, sessionId, "stop", true,
+				Code.RECORDING_STOP_ERROR_CODE, () -> this.doStopRecording(session, recordingId, reason));
+	}
+
+	private Recording doStopRecording(Session session, String recordingId, EndReason reason) {
 		Recording recording;
 		if (session == null) {
 			recording = this.startedRecordings.get(recordingId);
 		} else {
 			recording = this.sessionsRecordings.get(session.getSessionId());
 		}
+		if (recording == null) {
+			// Stopped by a previous operation
+			throw new OpenViduException(Code.RECORDING_STOP_ERROR_CODE, "Recording " + recordingId + " is not started");
+		}
 
 		final long timestamp = System.currentTimeMillis();
 		this.cdr.recordRecordingStatusChanged(recording, reason, timestamp, Status.stopped);
@@ -293,6 +354,11 @@ public class RecordingManager {
 	}
 
 	public Recording forceStopRecording(Session session, EndReason reason, long kmsDisconnectionTime) {
+		return this.recordingOperationExecutor.executeAndWait(session, session.getSessionId(), "force-stop", true,
+				Code.RECORDING_STOP_ERROR_CODE, () -> this.doForceStopRecording(session, reason, kmsDisconnectionTime));
+	}
+
+	private Recording doForceStopRecording(Session session, EndReason reason, long kmsDisconnectionTime) {
 		Recording recording;
 		recording = this.sessionsRecordings.get(session.getSessionId());
 		switch (recording.getOutputMode()) {
@@ -351,7 +417,8 @@ public class RecordingManager {
 			this.singleStreamRecordingService.stopRecorderEndpointOfPublisherEndpoint(session.getSessionId(), streamId,
 					stoppedCountDown, kmsDisconnectionTime);
 			try {
-				if (!stoppedCountDown.await(5, TimeUnit.SECONDS)) {
+				if (!stoppedCountDown.await(this.openviduConfig.getOpenviduRecordingRecorderTimeout(),
+						TimeUnit.MILLISECONDS)) {
 					log.error("Error waiting for recorder endpoint of stream {} to stop in session {}", streamId,
 							session.getSessionId());
 				}
@@ -455,6 +522,9 @@ public class RecordingManager {
 					|| io.openvidu.java.client.Recording.Status.failed.equals(recording.getStatus())) {
 				recording.setUrl(getRecordingUrl(recording));
 			}
+			if (recording.getCompositeStatus() != null) {
+				this.compositeRenderManager.updateRecording(recording);
+			}
 			return recording;
 		}
 		return null;
@@ -478,49 +548,50 @@ public class RecordingManager {
 	public void initAutomaticRecordingStopThread(final Session session) {
 		final String recordingId = this.sessionsRecordings.get(session.getSessionId()).getId();
 
-		this.automaticRecordingStopThreads.computeIfAbsent(session.getSessionId(), f -> {
-
-			ScheduledFuture<?> future = this.automaticRecordingStopExecutor.schedule(() -> {
-				log.info("Stopping recording {} after {} seconds wait (no publisher published before timeout)",
-						recordingId, this.openviduConfig.getOpenviduRecordingAutostopTimeout());
-
-				if (this.automaticRecordingStopThreads.remove(session.getSessionId()) != null) {
-
-					boolean alreadyUnlocked = false;
-					try {
-						session.closingLock.writeLock().lock();
-						if (session.isClosed()) {
-							return;
-						}
-
-						if (session.getParticipants().size() == 0 || session.onlyRecorderParticipant()) {
-							// Close session if there are no participants connected (RECORDER does not
-							// count) and publishing
-							log.info("Closing session {} after automatic stop of recording {}", session.getSessionId(),
-									recordingId);
-							sessionManager.closeSessionAndEmptyCollections(session, EndReason.automaticStop, true);
-						} else {
-							// There are users connected, but no one is publishing
-							session.closingLock.writeLock().unlock(); // We don't need the lock if session's not closing
-							alreadyUnlocked = true;
-							log.info(
-									"Automatic stopping recording {}. There are users connected to session {}, but no one is publishing",
-									recordingId, session.getSessionId());
-							this.stopRecording(session, recordingId, EndReason.automaticStop);
-						}
-					} finally {
-						if (!alreadyUnlocked) {
-							session.closingLock.writeLock().unlock();
-						}
-					}
-				} else {
-					// This code shouldn't be reachable
-					log.warn("Recording {} was already automatically stopped by a previous thread", recordingId);
+		this.automaticRecordingStopThreads.computeIfAbsent(session.getSessionId(),
+				f -> this.automaticRecordingStopExecutor.schedule(
+						() -> this.recordingOperationExecutor.executeClosing(session, "autostop",
+								() -> this.automaticRecordingStop(session, recordingId)),
+						this.openviduConfig.getOpenviduRecordingAutostopTimeout(), TimeUnit.SECONDS));
+	}
+
+	private void automaticRecordingStop(Session session, String recordingId) {
+		log.info("Stopping recording {} after {} seconds wait (no publisher published before timeout)", recordingId,
+				this.openviduConfig.getOpenviduRecordingAutostopTimeout());
+
+		if (this.automaticRecordingStopThreads.remove(session.getSessionId()) != null) {
+
+			boolean alreadyUnlocked = false;
+			try {
+				session.closingLock.writeLock().lock();
+				if (session.isClosed()) {
+					return;
 				}
-			}, this.openviduConfig.getOpenviduRecordingAutostopTimeout(), TimeUnit.SECONDS);
 
-			return future;
-		});
+				if (session.getParticipants().size() == 0 || session.onlyRecorderParticipant()) {
+					// Close session if there are no participants connected (RECORDER does not
+					// count) and publishing
+					log.info("Closing session {} after automatic stop of recording {}", session.getSessionId(),
+							recordingId);
+					sessionManager.closeSessionAndEmptyCollections(session, EndReason.automaticStop, true);
+				} else {
+					// There are users connected, but no one is publishing. We don't need the lock
+					// if session's not closing (the queued autostop still holds it until it ends)
+					session.closingLock.writeLock().unlock();
+					alreadyUnlocked = true;
+					log.info("Automatic stopping recording {}. There are users connected to session {}, "
+							+ "but no one is publishing", recordingId, session.getSessionId());
+					this.stopRecording(session, recordingId, EndReason.automaticStop);
+				}
+			} finally {
+				if (!alreadyUnlocked) {
+					session.closingLock.writeLock().unlock();
+				}
+			}
+		} else {
+			// This code shouldn't be reachable
+			log.warn("Recording {} was already automatically stopped by a previous thread", recordingId);
+		}
 	}
 
 	public boolean abortAutomaticRecordingStopThread(Session session, EndReason reason) {
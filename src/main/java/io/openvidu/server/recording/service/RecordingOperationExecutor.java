@@ -0,0 +1,345 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording.service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.client.OpenViduException;
+import io.openvidu.client.OpenViduException.Code;
+import io.openvidu.server.core.Session;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Bounded pool of named workers running recording start and stop operations
+ * (manual, automatic and on automatic-stop timeout). Operations of the same
+ * session run one at a time in submission order, and sessions with pending
+ * operations take turns on the workers, so a burst of operations of some
+ * sessions does not delay the rest. Operations run directly by the waiting
+ * thread are serialized with the queued ones through a lock per session.
+ * Operations that may take the closing lock of the session (stop, force-stop
+ * and autostop) take it before the lock per session when queued, the same order
+ * as a caller that already holds the closing lock and runs one directly
+ */
+public class RecordingOperationExecutor {
+
+	private static final Logger log = LoggerFactory.getLogger(RecordingOperationExecutor.class);
+
+	private static final String WORKER_NAME_PREFIX = "recording-operation-";
+
+	// Seconds an operation may wait for its turn or for the operation of its
+	// session in progress
+	static final int OPERATION_TIMEOUT = 60;
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	private class Operation {
+		final String name;
+		final Runnable task;
+		// Closing lock of the session taken around the operation, if any
+		final Lock closingLock;
+		final long queuedAt = System.currentTimeMillis();
+
+		Operation(String name, Runnable task, Lock closingLock) {
+			this.name = name;
+			this.task = task;
+			this.closingLock = closingLock;
+		}
+	}
+
+	private class SessionLock {
+		final ReentrantLock lock = new ReentrantLock();
+		int users = 0;
+	}
+
+	// Pending operations of every session with at least one queued or running
+	private final Map<String, Queue<Operation>> sessionQueues = new HashMap<>();
+	// Lock of every session with an operation running or waiting to run
+	private final Map<String, SessionLock> sessionLocks = new HashMap<>();
+
+	private final AtomicInteger workerCount = new AtomicInteger(0);
+	private final AtomicInteger queuedOperations = new AtomicInteger(0);
+	private final AtomicInteger runningOperations = new AtomicInteger(0);
+	private final AtomicLong completedOperations = new AtomicLong(0);
+	private final AtomicLong failedOperations = new AtomicLong(0);
+	private final AtomicLong totalWaitTime = new AtomicLong(0);
+	private final AtomicLong maxWaitTime = new AtomicLong(0);
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	public void init() {
+		int workers = Math.max(1, this.openviduConfig.getOpenviduRecordingOperationWorkers());
+		this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, WORKER_NAME_PREFIX + workerCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	@PreDestroy
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Queues an operation of a session. Errors are logged
+	 */
+	public void execute(String sessionId, String operation, Runnable task) {
+		this.enqueue(sessionId, new Operation(operation, task, null));
+	}
+
+	/**
+	 * Queues an operation of a session that may close it. The write lock of the
+	 * closing lock of the session is taken before the operation runs. Errors are
+	 * logged
+	 */
+	public void executeClosing(Session session, String operation, Runnable task) {
+		this.enqueue(session.getSessionId(), new Operation(operation, task, session.closingLock.writeLock()));
+	}
+
+	private void enqueue(String sessionId, Operation op) {
+		this.queuedOperations.incrementAndGet();
+		synchronized (this.sessionQueues) {
+			Queue<Operation> queue = this.sessionQueues.get(sessionId);
+			if (queue != null) {
+				// The session already has its turn in the executor
+				queue.add(op);
+				return;
+			}
+			queue = new ArrayDeque<>();
+			queue.add(op);
+			this.sessionQueues.put(sessionId, queue);
+		}
+		this.executor.execute(() -> this.runTurn(sessionId));
+	}
+
+	/**
+	 * Queues an operation of a session and waits for its result. The operation is
+	 * run directly if the calling thread is a worker of this executor or holds the
+	 * closing lock of the session, as queued operations of the session may be
+	 * waiting for that lock. Even then it does not overlap with the operation of
+	 * the session in progress. An operation that has not started after
+	 * {@link #OPERATION_TIMEOUT} seconds is discarded. One already running is
+	 * waited for until it ends
+	 * 
+	 * @param closing whether the operation may take the closing lock of the
+	 *                session. If so, a queued operation takes its write lock first
+	 * 
+	 * @throws OpenViduException thrown by the operation, or with the given code if
+	 *                           it fails with any other exception or times out
+	 */
+	public <T> T executeAndWait(Session session, String sessionId, String operation, boolean closing,
+			Code errorCode, Callable<T> task) throws OpenViduException {
+		if (this.mustRunDirectly(session)) {
+			return this.callDirectly(sessionId, operation, task, errorCode);
+		}
+		AtomicBoolean started = new AtomicBoolean(false);
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Lock closingLock = closing && session != null ? session.closingLock.writeLock() : null;
+		this.enqueue(sessionId, new Operation(operation, () -> {
+			if (!started.compareAndSet(false, true)) {
+				log.warn("Recording operation {} of session {} discarded: its caller stopped waiting", operation,
+						sessionId);
+				return;
+			}
+			try {
+				result.complete(this.call(task, errorCode));
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+				throw t;
+			}
+		}, closingLock));
+		try {
+			try {
+				return result.get(OPERATION_TIMEOUT, TimeUnit.SECONDS);
+			} catch (TimeoutException e) {
+				if (started.compareAndSet(false, true)) {
+					throw new OpenViduException(errorCode, "Recording operation " + operation + " of session "
+							+ sessionId + " did not start in " + OPERATION_TIMEOUT + " seconds");
+				}
+				return result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenViduException(errorCode, "Interrupted while waiting for recording operation " + operation
+					+ " of session " + sessionId);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OpenViduException) {
+				throw (OpenViduException) e.getCause();
+			}
+			throw new OpenViduException(errorCode, e.getCause().getMessage());
+		}
+	}
+
+	private <T> T callDirectly(String sessionId, String operation, Callable<T> task, Code errorCode)
+			throws OpenViduException {
+		SessionLock sessionLock = this.acquireSessionLock(sessionId);
+		try {
+			if (!sessionLock.lock.tryLock(OPERATION_TIMEOUT, TimeUnit.SECONDS)) {
+				throw new OpenViduException(errorCode, "Recording operation " + operation + " of session " + sessionId
+						+ " could not start in " + OPERATION_TIMEOUT + " seconds");
+			}
+		} catch (InterruptedException e) {
+			this.releaseSessionLock(sessionId, sessionLock);
+			Thread.currentThread().interrupt();
+			throw new OpenViduException(errorCode, "Interrupted while waiting for recording operation " + operation
+					+ " of session " + sessionId);
+		} catch (OpenViduException e) {
+			this.releaseSessionLock(sessionId, sessionLock);
+			throw e;
+		}
+		try {
+			return this.call(task, errorCode);
+		} finally {
+			sessionLock.lock.unlock();
+			this.releaseSessionLock(sessionId, sessionLock);
+		}
+	}
+
+	private SessionLock acquireSessionLock(String sessionId) {
+		synchronized (this.sessionLocks) {
+			SessionLock sessionLock = this.sessionLocks.computeIfAbsent(sessionId, id -> new SessionLock());
+			sessionLock.users++;
+			return sessionLock;
+		}
+	}
+
+	private void releaseSessionLock(String sessionId, SessionLock sessionLock) {
+		synchronized (this.sessionLocks) {
+			if (--sessionLock.users == 0) {
+				this.sessionLocks.remove(sessionId);
+			}
+		}
+	}
+
+	private boolean mustRunDirectly(Session session) {
+		if (Thread.currentThread().getName().startsWith(WORKER_NAME_PREFIX)) {
+			return true;
+		}
+		if (session != null && session.closingLock instanceof ReentrantReadWriteLock) {
+			ReentrantReadWriteLock lock = (ReentrantReadWriteLock) session.closingLock;
+			return lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0;
+		}
+		return false;
+	}
+
+	private <T> T call(Callable<T> task, Code errorCode) throws OpenViduException {
+		try {
+			return task.call();
+		} catch (OpenViduException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new OpenViduException(errorCode, e.getMessage());
+		}
+	}
+
+	private void runTurn(String sessionId) {
+		Operation op;
+		synchronized (this.sessionQueues) {
+			op = this.sessionQueues.get(sessionId).peek();
+		}
+		long wait = System.currentTimeMillis() - op.queuedAt;
+		this.totalWaitTime.addAndGet(wait);
+		this.maxWaitTime.accumulateAndGet(wait, Math::max);
+		this.queuedOperations.decrementAndGet();
+		this.runningOperations.incrementAndGet();
+		if (op.closingLock != null) {
+			// Before the lock per session: a thread holding the closing lock may be
+			// waiting for the lock per session to run an operation directly
+			op.closingLock.lock();
+		}
+		SessionLock sessionLock = this.acquireSessionLock(sessionId);
+		sessionLock.lock.lock();
+		try {
+			log.debug("Running recording operation {} of session {} after {} ms queued", op.name, sessionId, wait);
+			op.task.run();
+			this.completedOperations.incrementAndGet();
+		} catch (Throwable t) {
+			this.failedOperations.incrementAndGet();
+			log.error("Recording operation {} of session {} failed: {}", op.name, sessionId, t.getMessage());
+		} finally {
+			sessionLock.lock.unlock();
+			this.releaseSessionLock(sessionId, sessionLock);
+			if (op.closingLock != null) {
+				op.closingLock.unlock();
+			}
+			this.runningOperations.decrementAndGet();
+			boolean more;
+			synchronized (this.sessionQueues) {
+				Queue<Operation> queue = this.sessionQueues.get(sessionId);
+				queue.poll();
+				more = !queue.isEmpty();
+				if (!more) {
+					this.sessionQueues.remove(sessionId);
+				}
+			}
+			if (more) {
+				// Back to the end of the line, behind the turns of other sessions
+				this.executor.execute(() -> this.runTurn(sessionId));
+			}
+		}
+	}
+
+	public int getQueueDepth() {
+		return this.queuedOperations.get();
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		long completed = this.completedOperations.get() + this.failedOperations.get();
+		json.addProperty("workers", this.executor.getMaximumPoolSize());
+		json.addProperty("queueDepth", this.getQueueDepth());
+		json.addProperty("running", this.runningOperations.get());
+		synchronized (this.sessionQueues) {
+			json.addProperty("sessions", this.sessionQueues.size());
+		}
+		json.addProperty("completed", this.completedOperations.get());
+		json.addProperty("failed", this.failedOperations.get());
+		json.addProperty("averageWaitTime", completed > 0 ? this.totalWaitTime.get() / completed : 0);
+		json.addProperty("maxWaitTime", this.maxWaitTime.get());
+		return json;
+	}
+
+}
@@ -20,21 +20,23 @@ package io.openvidu.server.recording.service;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.FilenameUtils;
 import org.kurento.client.ErrorEvent;
 import org.kurento.client.EventListener;
 import org.kurento.client.MediaPipeline;
@@ -76,9 +78,33 @@ public class SingleStreamRecordingService extends RecordingService {
 
 	private final String INDIVIDUAL_STREAM_METADATA_FILE = ".stream.";
 
+	// Starts and stops the recorders of a session concurrently
+	private final ThreadPoolExecutor recorderExecutor;
+	private final AtomicInteger recorderThreadCount = new AtomicInteger(0);
+
 	public SingleStreamRecordingService(RecordingManager recordingManager, RecordingDownloader recordingDownloader,
 			OpenviduConfig openviduConfig, CallDetailRecord cdr, QuarantineKiller quarantineKiller) {
 		super(recordingManager, recordingDownloader, openviduConfig, cdr, quarantineKiller);
+		int threads = Math.max(1, openviduConfig.getOpenviduRecordingRecorderThreads());
+		this.recorderExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "recorder-" + recorderThreadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.recorderExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Recorders being started by one startRecording call. Once it returns, late
+	 * start tasks do not create their recorder
+	 */
+	private class StartBatch {
+		boolean open = true;
+	}
+
+	public void close() {
+		this.recorderExecutor.shutdownNow();
 	}
 
 	@Override
@@ -99,8 +125,10 @@ public class SingleStreamRecordingService extends RecordingService {
 		activeRecorders.put(session.getSessionId(), new ConcurrentHashMap<String, RecorderEndpointWrapper>());
 		storedRecorders.put(session.getSessionId(), new ConcurrentHashMap<String, RecorderEndpointWrapper>());
 
-		final int activePublishers = session.getActivePublishers();
-		final CountDownLatch recordingStartedCountdown = new CountDownLatch(activePublishers);
+		final long startTime = System.currentTimeMillis();
+		final Map<String, CountDownLatch> startedLatches = new HashMap<>();
+		final Map<String, Future<?>> startTasks = new HashMap<>();
+		final StartBatch batch = new StartBatch();
 
 		for (Participant p : session.getParticipants()) {
 			if (p.isStreaming()) {
@@ -112,19 +140,37 @@ public class SingleStreamRecordingService extends RecordingService {
 					log.error(
 							"Cannot start single stream recorder for stream {} in session {}: {}. Skipping to next stream being published",
 							p.getPublisherStreamId(), session.getSessionId(), e.getMessage());
-					recordingStartedCountdown.countDown();
 					continue;
 				}
-				this.startRecorderEndpointForPublisherEndpoint(session, recordingId, profile, p,
-						recordingStartedCountdown);
+				final MediaProfileSpecType finalProfile = profile;
+				final CountDownLatch startedLatch = new CountDownLatch(1);
+				startedLatches.put(p.getPublisherStreamId(), startedLatch);
+				startTasks.put(p.getPublisherStreamId(), this.recorderExecutor.submit(() -> {
+					try {
+						this.startRecorderEndpointForPublisherEndpoint(session, recordingId, finalProfile, p,
+								startedLatch, batch);
+					} catch (Exception e) {
+						log.error("Error starting single stream recorder for stream {} in session {}: {}",
+								p.getPublisherStreamId(), session.getSessionId(), e.getMessage());
+					}
+				}));
 			}
 		}
 
 		try {
-			if (!recordingStartedCountdown.await(5, TimeUnit.SECONDS)) {
-				log.error("Error waiting for some recorder endpoint to start in session {}", session.getSessionId());
-				//throw this.failStartRecording(session, recording, "Couldn't initialize some RecorderEndpoint");
+			List<String> stragglers = this.awaitRecorders(startedLatches);
+			synchronized (batch) {
+				batch.open = false;
+			}
+			for (String streamId : stragglers) {
+				// Recorders already created are stopped along with the recording
+				startTasks.get(streamId).cancel(false);
+				log.error("Recorder endpoint of stream {} in session {} did not start in {} ms", streamId,
+						session.getSessionId(), this.openviduConfig.getOpenviduRecordingRecorderTimeout());
 			}
+			log.info("{} of {} recorder endpoints of session {} started in {} ms",
+					startedLatches.size() - stragglers.size(), startedLatches.size(), session.getSessionId(),
+					System.currentTimeMillis() - startTime);
 		} catch (InterruptedException e) {
 			recording.setStatus(io.openvidu.java.client.Recording.Status.failed);
 			log.error("Exception while waiting for state change", e);
@@ -151,17 +197,35 @@ public class SingleStreamRecordingService extends RecordingService {
 
 		final HashMap<String, RecorderEndpointWrapper> wrappers = new HashMap<>(
 				storedRecorders.get(recording.getSessionId()));
-		final CountDownLatch stoppedCountDown = new CountDownLatch(wrappers.size());
+		final long startTime = System.currentTimeMillis();
+		final Map<String, CountDownLatch> stoppedLatches = new HashMap<>();
+		final Map<String, Future<?>> stopTasks = new HashMap<>();
 
 		for (RecorderEndpointWrapper wrapper : wrappers.values()) {
-			this.stopRecorderEndpointOfPublisherEndpoint(recording.getSessionId(), wrapper.getStreamId(),
-					stoppedCountDown, kmsDisconnectionTime);
+			final CountDownLatch stoppedLatch = new CountDownLatch(1);
+			stoppedLatches.put(wrapper.getStreamId(), stoppedLatch);
+			stopTasks.put(wrapper.getStreamId(), this.recorderExecutor
+					.submit(() -> this.stopRecorder(recording.getSessionId(), wrapper.getStreamId(), stoppedLatch,
+							kmsDisconnectionTime)));
 		}
 		try {
-			if (!stoppedCountDown.await(5, TimeUnit.SECONDS)) {
+			List<String> stragglers = this.awaitRecorders(stoppedLatches);
+			if (!stragglers.isEmpty()) {
 				recording.setStatus(io.openvidu.java.client.Recording.Status.failed);
-				log.error("Error waiting for some recorder endpoint to stop in session {}", recording.getSessionId());
 			}
+			for (String streamId : stragglers) {
+				if (stopTasks.get(streamId).cancel(false)) {
+					// Still queued: stopped now, before the recorder maps of the session are
+					// cleaned
+					this.stopRecorder(recording.getSessionId(), streamId, stoppedLatches.get(streamId),
+							kmsDisconnectionTime);
+				}
+				log.error("Recorder endpoint of stream {} in session {} did not stop in {} ms", streamId,
+						recording.getSessionId(), this.openviduConfig.getOpenviduRecordingRecorderTimeout());
+			}
+			log.info("{} of {} recorder endpoints of session {} stopped in {} ms",
+					stoppedLatches.size() - stragglers.size(), stoppedLatches.size(), recording.getSessionId(),
+					System.currentTimeMillis() - startTime);
 		} catch (InterruptedException e) {
 			recording.setStatus(io.openvidu.java.client.Recording.Status.failed);
 			log.error("Exception while waiting for state change", e);
@@ -207,8 +271,52 @@ public class SingleStreamRecordingService extends RecordingService {
 		return finalRecordingArray[0];
 	}
 
+	private void stopRecorder(String sessionId, String streamId, CountDownLatch stoppedLatch,
+			long kmsDisconnectionTime) {
+		try {
+			this.stopRecorderEndpointOfPublisherEndpoint(sessionId, streamId, stoppedLatch, kmsDisconnectionTime);
+		} catch (Exception e) {
+			log.error("Error stopping single stream recorder for stream {} in session {}: {}", streamId, sessionId,
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * Waits for all the latches under a single deadline of
+	 * openvidu.recording.recorder-timeout milliseconds
+	 *
+	 * @return the stream ids whose latch did not reach zero before the deadline
+	 */
+	private List<String> awaitRecorders(Map<String, CountDownLatch> latches) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + this.openviduConfig.getOpenviduRecordingRecorderTimeout();
+		List<String> stragglers = new ArrayList<>();
+		for (Map.Entry<String, CountDownLatch> entry : latches.entrySet()) {
+			long remaining = Math.max(0, deadline - System.currentTimeMillis());
+			if (!entry.getValue().await(remaining, TimeUnit.MILLISECONDS)) {
+				stragglers.add(entry.getKey());
+			}
+		}
+		return stragglers;
+	}
+
 	public void startRecorderEndpointForPublisherEndpoint(final Session session, String recordingId,
 			MediaProfileSpecType profile, final Participant participant, CountDownLatch globalStartLatch) {
+		this.startRecorderEndpointForPublisherEndpoint(session, recordingId, profile, participant, globalStartLatch,
+				null);
+	}
+
+	private void startRecorderEndpointForPublisherEndpoint(final Session session, String recordingId,
+			MediaProfileSpecType profile, final Participant participant, CountDownLatch globalStartLatch,
+			StartBatch batch) {
+		if (batch != null) {
+			synchronized (batch) {
+				if (!batch.open) {
+					log.warn("Single stream recorder for stream {} in session {} not started: too late",
+							participant.getPublisherStreamId(), session.getSessionId());
+					return;
+				}
+			}
+		}
 		log.info("Starting single stream recorder for stream {} in session {}", participant.getPublisherStreamId(),
 				session.getSessionId());
 
@@ -231,20 +339,21 @@ public class SingleStreamRecordingService extends RecordingService {
 		KurentoParticipant kurentoParticipant = (KurentoParticipant) participant;
 		MediaPipeline pipeline = kurentoParticipant.getPublisher().getPipeline();
 
+		String fileExtension = getFileExtension(profile);
 		RecorderEndpoint recorder = new RecorderEndpoint.Builder(pipeline,
 				"file://" + this.openviduConfig.getOpenViduRecordingPath() + recordingId + "/"
-						+ participant.getPublisherStreamId() + ".webm").withMediaProfile(profile).build();
+						+ participant.getPublisherStreamId() + "." + fileExtension).withMediaProfile(profile).build();
 
 		recorder.addRecordingListener(new EventListener<RecordingEvent>() {
 			@Override
 			public void onEvent(RecordingEvent event) {
-				activeRecorders
-				.get(session
-						.getSessionId())
-				.get(participant
-						.getPublisherStreamId())
-						.setStartTime(Long.parseLong(event
-								.getTimestampMillis()));
+				Map<String, RecorderEndpointWrapper> sessionRecorders = activeRecorders.get(session.getSessionId());
+				RecorderEndpointWrapper startedWrapper = sessionRecorders != null
+						? sessionRecorders.get(participant.getPublisherStreamId())
+						: null;
+				if (startedWrapper != null) {
+					startedWrapper.setStartTime(Long.parseLong(event.getTimestampMillis()));
+				}
 				log.info("Recording started event for stream {}", participant.getPublisherStreamId());
 				globalStartLatch.countDown();
 			}
@@ -261,19 +370,38 @@ public class SingleStreamRecordingService extends RecordingService {
 				recordingId, participant.getPublisherStreamId(), participant.getClientMetadata(),
 				participant.getServerMetadata(), kurentoParticipant.getPublisher().getMediaOptions().hasAudio(),
 				kurentoParticipant.getPublisher().getMediaOptions().hasVideo(),
-				kurentoParticipant.getPublisher().getMediaOptions().getTypeOfVideo());
-
-		activeRecorders.get(session.getSessionId()).put(participant.getPublisherStreamId(), wrapper);
-		storedRecorders.get(session.getSessionId()).put(participant.getPublisherStreamId(), wrapper);
+				kurentoParticipant.getPublisher().getMediaOptions().getTypeOfVideo(), fileExtension);
+
+		if (batch != null) {
+			synchronized (batch) {
+				if (!batch.open) {
+					// The recording has been reported as started without this recorder
+					log.warn("Single stream recorder for stream {} in session {} released: started too late",
+							participant.getPublisherStreamId(), session.getSessionId());
+					recorder.release();
+					return;
+				}
+				this.registerRecorder(session.getSessionId(), wrapper);
+			}
+		} else {
+			this.registerRecorder(session.getSessionId(), wrapper);
+		}
 
 		connectAccordingToProfile(kurentoParticipant.getPublisher(), recorder, profile);
 		wrapper.getRecorder().record();
 	}
 
+	private void registerRecorder(String sessionId, RecorderEndpointWrapper wrapper) {
+		activeRecorders.get(sessionId).put(wrapper.getStreamId(), wrapper);
+		storedRecorders.get(sessionId).put(wrapper.getStreamId(), wrapper);
+	}
+
 	public void stopRecorderEndpointOfPublisherEndpoint(String sessionId, String streamId,
 			CountDownLatch globalStopLatch, Long kmsDisconnectionTime) {
 		log.info("Stopping single stream recorder for stream {} in session {}", streamId, sessionId);
-		final RecorderEndpointWrapper finalWrapper = activeRecorders.get(sessionId).remove(streamId);
+		Map<String, RecorderEndpointWrapper> sessionRecorders = activeRecorders.get(sessionId);
+		final RecorderEndpointWrapper finalWrapper = sessionRecorders != null ? sessionRecorders.remove(streamId)
+				: null;
 		if (finalWrapper != null && kmsDisconnectionTime == 0) {
 			finalWrapper.getRecorder().addStoppedListener(new EventListener<StoppedEvent>() {
 				@Override
@@ -287,14 +415,15 @@ public class SingleStreamRecordingService extends RecordingService {
 			});
 			finalWrapper.getRecorder().stop();
 		} else {
-			if (kmsDisconnectionTime != 0) {
+			if (kmsDisconnectionTime != 0 && finalWrapper != null) {
 				// Stopping recorder endpoint because of a KMS disconnection
 				finalWrapper.setEndTime(kmsDisconnectionTime);
 				generateIndividualMetadataFile(finalWrapper);
 				log.warn("Forcing individual recording stop after KMS restart for stream {} in session {}", streamId,
 						sessionId);
 			} else {
-				if (storedRecorders.get(sessionId).containsKey(streamId)) {
+				Map<String, RecorderEndpointWrapper> sessionStoredRecorders = storedRecorders.get(sessionId);
+				if (sessionStoredRecorders != null && sessionStoredRecorders.containsKey(streamId)) {
 					log.info("Stream {} recording of session {} was already stopped", streamId, sessionId);
 				} else {
 					log.error("Stream {} wasn't being recorded in session {}", streamId, sessionId);
@@ -315,18 +444,22 @@ public class SingleStreamRecordingService extends RecordingService {
 		boolean propertiesHasAudio = properties.hasAudio();
 		boolean propertiesHasVideo = properties.hasVideo();
 
+		// Record H264 publishers in a Matroska container (H264 + Opus), so KMS does
+		// not have to transcode the stream to VP8 while recording it
+		boolean isH264 = "H264".equals(kParticipant.getPublisher().getVideoCodec());
+
 		if (streamHasAudio) {
 			if (streamHasVideo) {
 				// Stream has both audio and video tracks
 
 				if (propertiesHasAudio) {
 					if (propertiesHasVideo) {
-						profile = MediaProfileSpecType.WEBM;
+						profile = isH264 ? MediaProfileSpecType.MKV : MediaProfileSpecType.WEBM;
 					} else {
 						profile = MediaProfileSpecType.WEBM_AUDIO_ONLY;
 					}
 				} else {
-					profile = MediaProfileSpecType.WEBM_VIDEO_ONLY;
+					profile = isH264 ? MediaProfileSpecType.MKV_VIDEO_ONLY : MediaProfileSpecType.WEBM_VIDEO_ONLY;
 				}
 			} else {
 				// Stream has audio track only
@@ -344,7 +477,7 @@ public class SingleStreamRecordingService extends RecordingService {
 			// Stream has video track only
 
 			if (propertiesHasVideo) {
-				profile = MediaProfileSpecType.WEBM_VIDEO_ONLY;
+				profile = isH264 ? MediaProfileSpecType.MKV_VIDEO_ONLY : MediaProfileSpecType.WEBM_VIDEO_ONLY;
 			} else {
 				// ERROR: RecordingProperties set to audio only but there's no audio track
 				throw new OpenViduException(Code.MEDIA_TYPE_STREAM_INCOMPATIBLE_WITH_RECORDING_PROPERTIES_ERROR_CODE,
@@ -362,6 +495,7 @@ public class SingleStreamRecordingService extends RecordingService {
 			MediaProfileSpecType profile) {
 		switch (profile) {
 		case WEBM:
+		case MKV:
 			publisherEndpoint.connect(recorder, MediaType.AUDIO);
 			publisherEndpoint.connect(recorder, MediaType.VIDEO);
 			break;
@@ -369,6 +503,7 @@ public class SingleStreamRecordingService extends RecordingService {
 			publisherEndpoint.connect(recorder, MediaType.AUDIO);
 			break;
 		case WEBM_VIDEO_ONLY:
+		case MKV_VIDEO_ONLY:
 			publisherEndpoint.connect(recorder, MediaType.VIDEO);
 			break;
 		default:
@@ -376,6 +511,21 @@ public class SingleStreamRecordingService extends RecordingService {
 		}
 	}
 
+	private String getFileExtension(MediaProfileSpecType profile) {
+		switch (profile) {
+		case MKV:
+		case MKV_AUDIO_ONLY:
+		case MKV_VIDEO_ONLY:
+			return "mkv";
+		case MP4:
+		case MP4_AUDIO_ONLY:
+		case MP4_VIDEO_ONLY:
+			return "mp4";
+		default:
+			return "webm";
+		}
+	}
+
 	private void generateIndividualMetadataFile(RecorderEndpointWrapper wrapper) {
 		this.commonWriteIndividualMetadataFile(wrapper, this.fileWriter::createAndWriteFile);
 	}
@@ -387,7 +537,7 @@ public class SingleStreamRecordingService extends RecordingService {
 	private void commonWriteIndividualMetadataFile(RecorderEndpointWrapper wrapper,
 			BiFunction<String, String, Boolean> writeFunction) {
 		String filesPath = this.openviduConfig.getOpenViduRecordingPath() + wrapper.getRecordingId() + "/";
-		File videoFile = new File(filesPath + wrapper.getStreamId() + ".webm");
+		File videoFile = new File(filesPath + wrapper.getStreamId() + "." + wrapper.getFileExtension());
 		wrapper.setSize(videoFile.length());
 		String metadataFilePath = filesPath + INDIVIDUAL_STREAM_METADATA_FILE + wrapper.getStreamId();
 		String metadataFileContent = wrapper.toJson().toString();
@@ -446,6 +596,7 @@ public class SingleStreamRecordingService extends RecordingService {
 				if (wr.hasVideo()) {
 					jsonFile.addProperty("typeOfVideo", wr.getTypeOfVideo());
 				}
+				jsonFile.addProperty("fileExtension", wr.getFileExtension());
 				jsonFile.addProperty("startTimeOffset", wr.getStartTime() - recording.getCreatedAt());
 				jsonFile.addProperty("endTimeOffset", wr.getEndTime() - recording.getCreatedAt());
 
@@ -455,8 +606,9 @@ public class SingleStreamRecordingService extends RecordingService {
 
 		json.add("files", jsonArrayFiles);
 		this.fileWriter.createAndWriteFile(syncFilePath, new GsonBuilder().setPrettyPrinting().create().toJson(json));
-		
-		//this.generateZipFileAndCleanFolder(folderPath, recording.getName() + ".zip");
+
+		// INDIVIDUAL recordings are no longer zipped on disk. The ZIP is streamed on the
+		// fly by RecordingDownloadController when requested
 
 		double duration = (double) (maxEndTime - minStartTime) / 1000;
 		duration = duration > 0 ? duration : 0;
@@ -466,52 +618,6 @@ public class SingleStreamRecordingService extends RecordingService {
 		return recording;
 	}
 
-	private void generateZipFileAndCleanFolder(String folder, String fileName) {
-		FileOutputStream fos = null;
-		ZipOutputStream zipOut = null;
-
-		final File[] files = new File(folder).listFiles();
-
-		try {
-			fos = new FileOutputStream(folder + fileName);
-			zipOut = new ZipOutputStream(fos);
-
-			for (int i = 0; i < files.length; i++) {
-				String fileExtension = FilenameUtils.getExtension(files[i].getName());
-
-				if (files[i].isFile() && (fileExtension.equals("json") || fileExtension.equals("webm"))) {
-
-					// Zip video files and json sync metadata file
-					FileInputStream fis = new FileInputStream(files[i]);
-					ZipEntry zipEntry = new ZipEntry(files[i].getName());
-					zipOut.putNextEntry(zipEntry);
-					byte[] bytes = new byte[1024];
-					int length;
-					while ((length = fis.read(bytes)) >= 0) {
-						zipOut.write(bytes, 0, length);
-					}
-					fis.close();
-
-				}
-				if (!files[i].getName().startsWith(RecordingManager.RECORDING_ENTITY_FILE)) {
-					// Clean inspected file if it is not
-					files[i].delete();
-				}
-			}
-		} catch (IOException e) {
-			log.error("Error generating ZIP file {}. Error: {}", folder + fileName, e.getMessage());
-		} finally {
-			try {
-				zipOut.close();
-				fos.close();
-				this.updateFilePermissions(folder);
-			} catch (IOException e) {
-				log.error("Error closing FileOutputStream or ZipOutputStream. Error: {}", e.getMessage());
-				e.printStackTrace();
-			}
-		}
-	}
-
 	private void cleanRecordingWrappers(String sessionId) {
 		this.storedRecorders.remove(sessionId);
 		this.activeRecorders.remove(sessionId);
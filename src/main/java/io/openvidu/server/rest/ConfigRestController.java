@@ -34,6 +34,19 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import io.openvidu.server.cdr.CDREventName;
+import io.openvidu.server.feed.SessionEventsFeed;
+import io.openvidu.server.kurento.core.CascadeManager;
+import io.openvidu.server.kurento.kms.KmsDrainManager;
+import io.openvidu.server.kurento.kms.EgressBudgetManager;
+import io.openvidu.server.kurento.kms.KmsHealthProbe;
+import io.openvidu.server.kurento.kms.KmsManager;
+import io.openvidu.server.kurento.kms.MediaPipelineReconciler;
+import io.openvidu.server.kurento.kms.SessionPlacementManager;
+import io.openvidu.server.kurento.kms.SubscriberBandwidthController;
+import io.openvidu.server.kurento.kms.SessionRecoveryManager;
+import io.openvidu.server.recording.RecordingDownloadLimiter;
+import io.openvidu.server.recording.service.CompositeRenderManager;
+import io.openvidu.server.recording.service.RecordingOperationExecutor;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
 /**
@@ -50,6 +63,45 @@ public class ConfigRestController {
 	@Autowired
 	private OpenviduConfig openviduConfig;
 
+	@Autowired
+	private SessionEventsFeed sessionEventsFeed;
+
+	@Autowired
+	private KmsManager kmsManager;
+
+	@Autowired
+	private RecordingDownloadLimiter recordingDownloadLimiter;
+
+	@Autowired
+	private CompositeRenderManager compositeRenderManager;
+
+	@Autowired
+	private RecordingOperationExecutor recordingOperationExecutor;
+
+	@Autowired
+	private CascadeManager cascadeManager;
+
+	@Autowired
+	private SessionRecoveryManager sessionRecoveryManager;
+
+	@Autowired
+	private MediaPipelineReconciler mediaPipelineReconciler;
+
+	@Autowired
+	private KmsHealthProbe kmsHealthProbe;
+
+	@Autowired
+	private KmsDrainManager kmsDrainManager;
+
+	@Autowired
+	private SessionPlacementManager sessionPlacementManager;
+
+	@Autowired
+	private EgressBudgetManager egressBudgetManager;
+
+	@Autowired
+	private SubscriberBandwidthController subscriberBandwidthController;
+
 	@RequestMapping(value = "/openvidu-version", method = RequestMethod.GET)
 	public String getOpenViduServerVersion() {
 
@@ -100,12 +152,36 @@ public class ConfigRestController {
 		JsonArray kmsUris = new JsonArray();
 		openviduConfig.getKmsUris().forEach(uri -> kmsUris.add(uri));
 		json.add("kmsUris", kmsUris);
+		JsonArray kmss = new JsonArray();
+		kmsManager.getKmss().forEach(kms -> kmss.add(kms.toJson()));
+		json.add("kmss", kmss);
+		json.add("sessionRecovery", sessionRecoveryManager.toJson());
+		json.add("pipelineReconciliation", mediaPipelineReconciler.toJson());
+		json.add("kmsHealth", kmsHealthProbe.toJson());
+		json.add("kmsDrain", kmsDrainManager.toJson());
+		json.add("sessionPlacement", sessionPlacementManager.toJson());
+		json.add("kmsBudget", egressBudgetManager.toJson());
+		json.add("adaptiveBandwidth", subscriberBandwidthController.toJson());
 		json.addProperty("openviduPublicurl", openviduConfig.getOpenViduPublicUrl());
 		json.addProperty("openviduCdr", openviduConfig.isCdrEnabled());
 		json.addProperty("maxRecvBandwidth", openviduConfig.getVideoMaxRecvBandwidth());
 		json.addProperty("minRecvBandwidth", openviduConfig.getVideoMinRecvBandwidth());
 		json.addProperty("maxSendBandwidth", openviduConfig.getVideoMaxSendBandwidth());
 		json.addProperty("minSendBandwidth", openviduConfig.getVideoMinSendBandwidth());
+		json.addProperty("videoCodecPolicy", openviduConfig.getOpenviduStreamsVideoCodecPolicy().name());
+		json.addProperty("lastN", openviduConfig.getOpenviduStreamsLastN());
+		json.addProperty("audioMixing", openviduConfig.getOpenviduStreamsAudioMixing().name());
+		json.addProperty("gridComposite", openviduConfig.isOpenviduStreamsGridComposite());
+		if (openviduConfig.isOpenviduStreamsGridComposite()) {
+			json.addProperty("gridCompositeMaxSendBandwidth",
+					openviduConfig.getOpenviduStreamsGridCompositeMaxSendBandwidth());
+			json.addProperty("gridCompositeMinSendBandwidth",
+					openviduConfig.getOpenviduStreamsGridCompositeMinSendBandwidth());
+		}
+		json.addProperty("cascade", cascadeManager.isEnabled());
+		if (cascadeManager.isEnabled()) {
+			json.add("cascadeStatus", cascadeManager.toJson());
+		}
 		json.addProperty("openviduRecording", openviduConfig.isRecordingModuleEnabled());
 		if (openviduConfig.isRecordingModuleEnabled()) {
 			json.addProperty("openviduRecordingVersion", openviduConfig.getOpenViduRecordingVersion());
@@ -114,11 +190,21 @@ public class ConfigRestController {
 			json.addProperty("openviduRecordingNotification", openviduConfig.getOpenViduRecordingNotification().name());
 			json.addProperty("openviduRecordingCustomLayout", openviduConfig.getOpenviduRecordingCustomLayout());
 			json.addProperty("openviduRecordingAutostopTimeout", openviduConfig.getOpenviduRecordingAutostopTimeout());
+			json.add("openviduRecordingDownloads", recordingDownloadLimiter.toJson());
+			json.add("openviduRecordingOperations", recordingOperationExecutor.toJson());
+			json.addProperty("openviduRecordingCompositeRender", openviduConfig.isRecordingCompositeRenderEnabled());
+			if (openviduConfig.isRecordingCompositeRenderEnabled()) {
+				json.add("openviduRecordingCompositeRenderStatus", compositeRenderManager.toJson());
+			}
 			if (openviduConfig.getOpenViduRecordingComposedUrl() != null
 					&& !openviduConfig.getOpenViduRecordingComposedUrl().isEmpty()) {
 				json.addProperty("openviduRecordingComposedUrl", openviduConfig.getOpenViduRecordingComposedUrl());
 			}
 		}
+		json.addProperty("openviduFeed", openviduConfig.isFeedEnabled());
+		if (openviduConfig.isFeedEnabled()) {
+			json.add("openviduFeedStatus", sessionEventsFeed.toJson());
+		}
 		json.addProperty("openviduWebhook", openviduConfig.isWebhookEnabled());
 		if (openviduConfig.isWebhookEnabled()) {
 			json.addProperty("openviduWebhookEndpoint", openviduConfig.getOpenViduWebhookEndpoint());
@@ -0,0 +1,232 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.rest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.openvidu.java.client.Recording.OutputMode;
+import io.openvidu.java.client.Recording.Status;
+import io.openvidu.server.recording.Recording;
+import io.openvidu.server.recording.RecordingDownloadLimiter;
+import io.openvidu.server.recording.RecordingDownloadLimiter.Admission;
+import io.openvidu.server.recording.RecordingFileSender;
+import io.openvidu.server.recording.RecordingZipStreamer;
+import io.openvidu.server.recording.service.RecordingManager;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Download of recording files. Every file of a recording folder is served by
+ * {@link RecordingFileSender} (Range and caching headers) and the ZIP of an
+ * INDIVIDUAL recording (the url returned for it by the REST API) is generated
+ * on the fly. All downloads are subject to the limits of
+ * {@link RecordingDownloadLimiter}. Limited downloads are sent with
+ * non-blocking IO, so they hold their slot (but no worker thread) until the
+ * file is sent. Sendfile is only used when no limit is set, as the container
+ * completes it after the request without telling when. The ZIP is generated by
+ * the request thread and holds a worker during the whole download
+ */
+@RestController
+@CrossOrigin
+@RequestMapping("/recordings")
+public class RecordingDownloadController {
+
+	private static final Logger log = LoggerFactory.getLogger(RecordingDownloadController.class);
+
+	private static final String RETRY_AFTER_SECONDS = "5";
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private RecordingManager recordingManager;
+
+	@Autowired
+	private RecordingDownloadLimiter downloadLimiter;
+
+	private RecordingZipStreamer zipStreamer = new RecordingZipStreamer();
+
+	private RecordingFileSender fileSender;
+
+	private final AtomicBoolean untrustedProxyHeaderWarned = new AtomicBoolean(false);
+
+	@PostConstruct
+	public void init() {
+		this.fileSender = new RecordingFileSender(this.openviduConfig.getOpenviduRecordingDownloadCacheMaxAge());
+	}
+
+	@RequestMapping(value = "/{recordingId}/{fileName:.+}", method = { RequestMethod.GET, RequestMethod.HEAD })
+	public void downloadRecordingFile(@PathVariable("recordingId") String recordingId,
+			@PathVariable("fileName") String fileName, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+
+		log.info("REST API: {} /recordings/{}/{}", request.getMethod(), recordingId, fileName);
+
+		if (!this.openviduConfig.isRecordingModuleEnabled()) {
+			// OpenVidu Server configuration property "openvidu.recording" is set to false
+			response.sendError(HttpStatus.NOT_IMPLEMENTED.value());
+			return;
+		}
+
+		File recordingFolder = this.getRecordingFolder(recordingId);
+		if (recordingFolder == null || fileName.startsWith(".")) {
+			// Hidden metadata files are never served
+			response.sendError(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+		File file = new File(recordingFolder, fileName);
+		boolean isZip = !file.isFile() && fileName.endsWith(".zip");
+		if (!file.isFile() && !isZip) {
+			response.sendError(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+
+		String clientId = this.getClientId(request);
+		Admission admission = this.downloadLimiter.acquire(clientId);
+		if (Admission.GLOBAL_LIMIT_REACHED.equals(admission)) {
+			log.warn("Rejecting download of {}/{}: maximum number of concurrent downloads reached", recordingId,
+					fileName);
+			response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+			response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+			return;
+		}
+		if (Admission.CLIENT_LIMIT_REACHED.equals(admission)) {
+			log.warn("Rejecting download of {}/{}: client {} reached its maximum number of concurrent downloads",
+					recordingId, fileName, clientId);
+			response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+			response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+			return;
+		}
+
+		boolean releaseNow = true;
+		try {
+			if (isZip) {
+				this.streamIndividualRecordingZip(recordingId, recordingFolder, fileName, request, response);
+			} else if (this.downloadLimiter.isLimited()) {
+				// The slot is released by the sender once the transfer ends
+				this.fileSender.sendAsync(file, request, response, bytes -> {
+					this.downloadLimiter.recordBytesSent(bytes);
+					this.downloadLimiter.release(clientId);
+				});
+				releaseNow = false;
+			} else {
+				long bytes = this.fileSender.send(file, request, response, true);
+				this.downloadLimiter.recordBytesSent(bytes);
+				if (bytes > 0 && this.fileSender.isSendfileSupported(request)) {
+					this.downloadLimiter.recordSendfile();
+				}
+			}
+		} catch (IOException e) {
+			// Most likely the client aborted the download
+			log.warn("Download of {}/{} by client {} interrupted: {}", recordingId, fileName, clientId,
+					e.getMessage());
+		} finally {
+			if (releaseNow) {
+				this.downloadLimiter.release(clientId);
+			}
+		}
+	}
+
+	private void streamIndividualRecordingZip(String recordingId, File recordingFolder, String fileName,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		Recording recording = this.recordingManager.getRecording(recordingId);
+		if (recording == null || !OutputMode.INDIVIDUAL.equals(recording.getOutputMode())
+				|| !fileName.equals(recording.getName() + ".zip")) {
+			response.sendError(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+		if (!Status.ready.equals(recording.getStatus()) && !Status.failed.equals(recording.getStatus())) {
+			// Recording is still in progress or being downloaded from a remote host
+			response.sendError(HttpStatus.CONFLICT.value());
+			return;
+		}
+
+		List<File> files = this.zipStreamer.getZippableFiles(recordingFolder);
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType("application/zip");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+		if ("HEAD".equals(request.getMethod())) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		OutputStream out = response.getOutputStream();
+		long bytes = this.zipStreamer.streamZip(files, out);
+		out.flush();
+		this.downloadLimiter.recordBytesSent(bytes);
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		log.info("Streamed ZIP of recording {} ({} files, {} bytes) in {} ms ({} KB/s)", recordingId, files.size(),
+				bytes, elapsed, bytes / elapsed);
+	}
+
+	/**
+	 * Returns the folder of the recording, or null if the id does not point to a
+	 * folder directly inside the recording path
+	 */
+	private File getRecordingFolder(String recordingId) throws IOException {
+		File recordingsPath = new File(this.openviduConfig.getOpenViduRecordingPath()).getCanonicalFile();
+		File folder = new File(recordingsPath, recordingId).getCanonicalFile();
+		if (!folder.isDirectory() || !recordingsPath.equals(folder.getParentFile())) {
+			return null;
+		}
+		return folder;
+	}
+
+	/**
+	 * The remote address of the connection. The x-real-ip header is only honoured
+	 * if openvidu.recording.download.trust-proxy-headers is enabled, as any
+	 * client could otherwise set it to get around its limit. Behind a reverse
+	 * proxy without it every client shares the address (and the limit) of the
+	 * proxy, which is warned about once
+	 */
+	private String getClientId(HttpServletRequest request) {
+		String realIp = request.getHeader("x-real-ip");
+		if (realIp != null && !realIp.isEmpty()) {
+			if (this.openviduConfig.isOpenviduRecordingDownloadTrustProxyHeaders()) {
+				return realIp;
+			}
+			if (this.untrustedProxyHeaderWarned.compareAndSet(false, true)) {
+				log.warn("Recording downloads are behind a reverse proxy but openvidu.recording.download."
+						+ "trust-proxy-headers is false: all clients share the per-client download limit of {}",
+						request.getRemoteAddr());
+			}
+		}
+		return request.getRemoteAddr();
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.rest;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.feed.SessionEventsFeed;
+import io.openvidu.server.feed.SessionEventsFeed.FeedEvent;
+import io.openvidu.server.feed.SessionEventsFeedSubscription;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Server-Sent Events endpoint streaming the {@link SessionEventsFeed}. Clients
+ * may resume with the standard 'Last-Event-ID' header ("epoch:seq") or with the
+ * 'since' query parameter (a sequence number of the current epoch). Every
+ * subscriber holds a dispatcher thread, so at most
+ * 'openvidu.feed.max-subscribers' are served at the same time
+ */
+@RestController
+@CrossOrigin
+@RequestMapping("/api")
+public class SessionEventsRestController {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionEventsRestController.class);
+
+	private static final long KEEPALIVE_SECONDS = 15;
+
+	@Autowired
+	private OpenviduConfig openviduConfig;
+
+	@Autowired
+	private SessionEventsFeed sessionEventsFeed;
+
+	private final AtomicInteger dispatcherCount = new AtomicInteger(0);
+	private ThreadPoolExecutor dispatchers;
+
+	@PostConstruct
+	public void init() {
+		int maxSubscribers = this.openviduConfig.getOpenviduFeedMaxSubscribers();
+		// No queue: a subscriber beyond the limit is rejected instead of waiting
+		this.dispatchers = new ThreadPoolExecutor(0, maxSubscribers > 0 ? maxSubscribers : Integer.MAX_VALUE, 60L,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "session-events-feed-" + dispatcherCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	@RequestMapping(value = "/events", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<?> streamSessionEvents(
+			@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+			@RequestParam(value = "since", required = false) Long since) {
+
+		log.info("REST API: GET /api/events (Last-Event-ID: {}, since: {})", lastEventId, since);
+
+		if (!this.openviduConfig.isFeedEnabled()) {
+			// OpenVidu Server configuration property "openvidu.feed" is set to false
+			return new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		}
+
+		String lastEpoch = null;
+		Long lastSeq = since;
+		if (lastEventId != null && !lastEventId.isEmpty()) {
+			String eventId = lastEventId.trim();
+			int separator = eventId.lastIndexOf(SessionEventsFeed.EVENT_ID_SEPARATOR);
+			// An id without epoch was sent by a previous version of the server
+			lastEpoch = separator >= 0 ? eventId.substring(0, separator) : "";
+			try {
+				lastSeq = Long.parseLong(eventId.substring(separator + 1));
+			} catch (NumberFormatException e) {
+				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+			}
+		}
+
+		final SseEmitter emitter = new SseEmitter(0L);
+		final SessionEventsFeedSubscription subscription = this.sessionEventsFeed
+				.subscribe(RandomStringUtils.randomAlphanumeric(8), lastEpoch, lastSeq);
+
+		try {
+			this.dispatchers.execute(() -> dispatch(emitter, subscription));
+		} catch (RejectedExecutionException e) {
+			log.warn("Rejecting session events feed subscription: maximum number of subscribers ({}) reached",
+					this.dispatchers.getMaximumPoolSize());
+			close(subscription);
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		emitter.onCompletion(() -> close(subscription));
+		emitter.onTimeout(() -> close(subscription));
+		emitter.onError(e -> close(subscription));
+		return new ResponseEntity<>(emitter, HttpStatus.OK);
+	}
+
+	private void dispatch(SseEmitter emitter, SessionEventsFeedSubscription subscription) {
+		long lastSentSeq = subscription.getInitialSequence();
+		try {
+			if (subscription.isResetRequired()) {
+				emitter.send(SseEmitter.event().id(this.sessionEventsFeed.eventId(lastSentSeq))
+						.name(SessionEventsFeed.RESET_EVENT)
+						.data(this.position(lastSentSeq), MediaType.APPLICATION_JSON));
+			}
+			while (!subscription.isClosed()) {
+				FeedEvent event = subscription.poll(KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+				if (event != null) {
+					emitter.send(SseEmitter.event().id(this.sessionEventsFeed.eventId(event.seq)).name(event.name)
+							.data(event.data, MediaType.APPLICATION_JSON));
+					lastSentSeq = event.seq;
+				} else if (subscription.isOverflowed()) {
+					// Every queued event has been sent. Tell the client where to resume from
+					emitter.send(SseEmitter.event().id(this.sessionEventsFeed.eventId(lastSentSeq))
+							.name(SessionEventsFeed.OVERFLOW_EVENT)
+							.data(this.position(lastSentSeq), MediaType.APPLICATION_JSON));
+					break;
+				} else {
+					emitter.send(SseEmitter.event().comment("keepalive"));
+				}
+			}
+			emitter.complete();
+		} catch (IOException | IllegalStateException e) {
+			log.info("Session events feed subscription {} disconnected: {}", subscription.getId(), e.getMessage());
+			emitter.completeWithError(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			emitter.complete();
+		} finally {
+			close(subscription);
+		}
+	}
+
+	private String position(long seq) {
+		JsonObject json = new JsonObject();
+		json.addProperty("epoch", this.sessionEventsFeed.getEpoch());
+		json.addProperty("seq", seq);
+		return json.toString();
+	}
+
+	private void close(SessionEventsFeedSubscription subscription) {
+		subscription.close();
+		this.sessionEventsFeed.unsubscribe(subscription);
+	}
+
+	@PreDestroy
+	public void close() {
+		this.dispatchers.shutdownNow();
+	}
+
+}
@@ -60,9 +60,15 @@ import io.openvidu.server.core.IdentifierPrefixes;
 import io.openvidu.server.core.Participant;
 import io.openvidu.server.core.Session;
 import io.openvidu.server.core.SessionManager;
+import io.openvidu.server.core.AudioMixingMode;
+import io.openvidu.server.core.VideoCodecPolicy;
 import io.openvidu.server.kurento.core.KurentoMediaOptions;
 import io.openvidu.server.kurento.core.KurentoTokenOptions;
+import io.openvidu.server.kurento.kms.KmsDrainManager;
+import io.openvidu.server.kurento.kms.KmsManager;
+import io.openvidu.server.recording.CompositeRenderJob;
 import io.openvidu.server.recording.Recording;
+import io.openvidu.server.recording.service.CompositeRenderManager;
 import io.openvidu.server.recording.service.RecordingManager;
 import net.imicloud.VmeetingServer.OpenviduConfig;
 
@@ -77,15 +83,28 @@ public class SessionRestController {
 
 	private static final Logger log = LoggerFactory.getLogger(SessionRestController.class);
 
+	// Upper bound of the size hints of a new session, way above what a single
+	// session can reach, so a bogus hint cannot take over the capacity of a KMS
+	private static final int MAX_EXPECTED_PARTICIPANTS = 10000;
+
 	@Autowired
 	private SessionManager sessionManager;
 
 	@Autowired
 	private RecordingManager recordingManager;
 
+	@Autowired
+	private CompositeRenderManager compositeRenderManager;
+
 	@Autowired
 	private OpenviduConfig openviduConfig;
 
+	@Autowired
+	private KmsManager kmsManager;
+
+	@Autowired
+	private KmsDrainManager kmsDrainManager;
+
 	@RequestMapping(value = "/sessions", method = RequestMethod.POST)
 	public ResponseEntity<?> getSessionId(@RequestBody(required = false) Map<?, ?> params) {
 
@@ -94,6 +113,12 @@ public class SessionRestController {
 		SessionProperties.Builder builder = new SessionProperties.Builder();
 		String customSessionId = null;
 		String role = "";
+		VideoCodecPolicy videoCodecPolicy = null;
+		Integer lastN = null;
+		AudioMixingMode audioMixingMode = null;
+		Boolean gridComposite = null;
+		Integer expectedParticipants = null;
+		Integer expectedPublishers = null;
 		
 		if (params != null) {
 
@@ -102,6 +127,8 @@ public class SessionRestController {
 			String defaultOutputModeString;
 			String defaultRecordingLayoutString;
 			String defaultCustomLayout;
+			String videoCodecPolicyString;
+			String audioMixingModeString;
 			
 			try {
 				mediaModeString = (String) params.get("mediaMode");
@@ -111,6 +138,12 @@ public class SessionRestController {
 				defaultCustomLayout = (String) params.get("defaultCustomLayout");
 				customSessionId = (String) params.get("customSessionId");
 				role = (String) params.get("role");
+				videoCodecPolicyString = (String) params.get("videoCodecPolicy");
+				lastN = (Integer) params.get("lastN");
+				audioMixingModeString = (String) params.get("audioMixingMode");
+				gridComposite = (Boolean) params.get("gridComposite");
+				expectedParticipants = (Integer) params.get("expectedParticipants");
+				expectedPublishers = (Integer) params.get("expectedPublishers");
 				
 			} catch (ClassCastException e) {
 				return this.generateErrorResponse("Type error in some parameter", "/api/sessions",
@@ -160,11 +193,41 @@ public class SessionRestController {
 					builder = builder.customSessionId(customSessionId);
 				}
 				builder = builder.defaultCustomLayout((defaultCustomLayout != null) ? defaultCustomLayout : "");
+				if (videoCodecPolicyString != null) {
+					videoCodecPolicy = VideoCodecPolicy.valueOf(videoCodecPolicyString);
+				}
+				if (audioMixingModeString != null) {
+					audioMixingMode = AudioMixingMode.valueOf(audioMixingModeString);
+				}
+				if (lastN != null && lastN < 0) {
+					return this.generateErrorResponse("Parameter \"lastN\" must be 0 or greater", "/api/sessions",
+							HttpStatus.BAD_REQUEST);
+				}
+				if ((expectedParticipants != null && expectedParticipants < 0)
+						|| (expectedPublishers != null && expectedPublishers < 0)) {
+					return this.generateErrorResponse(
+							"Parameters \"expectedParticipants\" and \"expectedPublishers\" must be 0 or greater",
+							"/api/sessions", HttpStatus.BAD_REQUEST);
+				}
+				if ((expectedParticipants != null && expectedParticipants > MAX_EXPECTED_PARTICIPANTS)
+						|| (expectedPublishers != null && expectedPublishers > MAX_EXPECTED_PARTICIPANTS)) {
+					return this.generateErrorResponse("Parameters \"expectedParticipants\" and \"expectedPublishers\" "
+							+ "cannot be greater than " + MAX_EXPECTED_PARTICIPANTS, "/api/sessions",
+							HttpStatus.BAD_REQUEST);
+				}
+				if (expectedParticipants != null && expectedPublishers != null
+						&& expectedPublishers > expectedParticipants) {
+					return this.generateErrorResponse(
+							"Parameter \"expectedPublishers\" cannot be greater than \"expectedParticipants\"",
+							"/api/sessions", HttpStatus.BAD_REQUEST);
+				}
 
 			} catch (IllegalArgumentException e) {
 				return this.generateErrorResponse("RecordingMode " + params.get("recordingMode") + " | "
 						+ "Default OutputMode " + params.get("defaultOutputMode") + " | " + "Default RecordingLayout "
 						+ params.get("defaultRecordingLayout") + " | " + "MediaMode " + params.get("mediaMode")
+						+ " | " + "VideoCodecPolicy " + params.get("videoCodecPolicy") + " | " + "AudioMixingMode "
+						+ params.get("audioMixingMode")
 						+ ". Some parameter is not defined", "/api/sessions", HttpStatus.BAD_REQUEST);
 			}
 		}
@@ -191,6 +254,24 @@ public class SessionRestController {
 		}
 
 		Session sessionNotActive = sessionManager.storeSessionNotActive(sessionId, sessionProperties);
+		if (videoCodecPolicy != null) {
+			sessionNotActive.setVideoCodecPolicy(videoCodecPolicy);
+		}
+		if (lastN != null) {
+			sessionNotActive.setLastN(lastN);
+		}
+		if (audioMixingMode != null) {
+			sessionNotActive.setAudioMixingMode(audioMixingMode);
+		}
+		if (gridComposite != null) {
+			sessionNotActive.setGridComposite(gridComposite);
+		}
+		if (expectedParticipants != null) {
+			sessionNotActive.setExpectedParticipants(expectedParticipants);
+		}
+		if (expectedPublishers != null) {
+			sessionNotActive.setExpectedPublishers(expectedPublishers);
+		}
 		log.info("New session {} initialized {}", sessionId, this.sessionManager.getSessionsWithNotActive().stream()
 				.map(Session::getSessionId).collect(Collectors.toList()).toString());
 		JsonObject responseJson = new JsonObject();
@@ -646,6 +727,60 @@ public class SessionRestController {
 		return new ResponseEntity<>(this.recordingManager.deleteRecordingFromHost(recordingId, false));
 	}
 
+	@RequestMapping(value = "/recordings/{recordingId}/composite", method = RequestMethod.POST)
+	public ResponseEntity<?> renderCompositeRecording(@PathVariable("recordingId") String recordingId,
+			@RequestBody(required = false) Map<?, ?> params) {
+
+		log.info("REST API: POST /api/recordings/{}/composite {}", recordingId,
+				params != null ? params.toString() : "");
+
+		if (!this.compositeRenderManager.isEnabled()) {
+			// "openvidu.recording" or "openvidu.recording.composite-render" are false
+			return new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		}
+
+		int priority = 0;
+		String resolution = null;
+		if (params != null) {
+			try {
+				if (params.get("priority") != null) {
+					priority = ((Number) params.get("priority")).intValue();
+				}
+				resolution = (String) params.get("resolution");
+			} catch (ClassCastException e) {
+				return this.generateErrorResponse("Type error in some parameter",
+						"/api/recordings/" + recordingId + "/composite", HttpStatus.BAD_REQUEST);
+			}
+			if (resolution != null && !sessionManager.formatChecker.isAcceptableRecordingResolution(resolution)) {
+				return this.generateErrorResponse(
+						"Wrong \"resolution\" parameter. Acceptable values from 100 to 1999 for both width and height",
+						"/api/recordings/" + recordingId + "/composite", HttpStatus.UNPROCESSABLE_ENTITY);
+			}
+		}
+
+		Recording recording = this.recordingManager.getRecording(recordingId);
+		if (recording == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		if (!io.openvidu.java.client.Recording.OutputMode.INDIVIDUAL.equals(recording.getOutputMode())
+				|| !io.openvidu.java.client.Recording.Status.ready.equals(recording.getStatus())) {
+			// Only finished INDIVIDUAL recordings can be rendered
+			return new ResponseEntity<>(HttpStatus.CONFLICT);
+		}
+		if (CompositeRenderJob.Status.queued.equals(recording.getCompositeStatus())
+				|| CompositeRenderJob.Status.rendering.equals(recording.getCompositeStatus())) {
+			return new ResponseEntity<>(HttpStatus.CONFLICT);
+		}
+
+		try {
+			this.compositeRenderManager.enqueue(recording, priority, resolution);
+		} catch (OpenViduException e) {
+			return this.generateErrorResponse(e.getMessage(), "/api/recordings/" + recordingId + "/composite",
+					HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return new ResponseEntity<>(recording.toJson().toString(), getResponseHeaders(), HttpStatus.ACCEPTED);
+	}
+
 	@RequestMapping(value = "/signal", method = RequestMethod.POST)
 	public ResponseEntity<?> signal(@RequestBody Map<?, ?> params) {
 
@@ -789,6 +924,36 @@ public class SessionRestController {
 		}
 	}
 
+	@RequestMapping(value = "/media-nodes/{mediaNodeId}/drain", method = RequestMethod.POST)
+	public ResponseEntity<?> drainMediaNode(@PathVariable("mediaNodeId") String mediaNodeId,
+			@RequestParam(value = "migrate", defaultValue = "false", required = false) boolean migrate) {
+
+		log.info("REST API: POST /api/media-nodes/{}/drain?migrate={}", mediaNodeId, migrate);
+
+		if (this.kmsManager.getKms(mediaNodeId) == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		try {
+			JsonObject drain = this.kmsDrainManager.drain(mediaNodeId, migrate);
+			return new ResponseEntity<>(drain.toString(), getResponseHeaders(), HttpStatus.OK);
+		} catch (OpenViduException e) {
+			return this.generateErrorResponse(e.getMessage(), "/api/media-nodes/" + mediaNodeId + "/drain",
+					HttpStatus.CONFLICT);
+		}
+	}
+
+	@RequestMapping(value = "/media-nodes/{mediaNodeId}/drain", method = RequestMethod.DELETE)
+	public ResponseEntity<?> undrainMediaNode(@PathVariable("mediaNodeId") String mediaNodeId) {
+
+		log.info("REST API: DELETE /api/media-nodes/{}/drain", mediaNodeId);
+
+		if (this.kmsDrainManager.undrain(mediaNodeId)) {
+			return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+		} else {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+	}
+
 	private ResponseEntity<String> generateErrorResponse(String errorMessage, String path, HttpStatus status) {
 		JsonObject responseJson = new JsonObject();
 		responseJson.addProperty("timestamp", System.currentTimeMillis());
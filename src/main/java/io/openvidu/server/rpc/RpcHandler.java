@@ -20,9 +20,16 @@ package io.openvidu.server.rpc;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.http.HttpSession;
 
@@ -37,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -49,6 +57,7 @@ import io.openvidu.server.core.EndReason;
 import io.openvidu.server.core.IdentifierPrefixes;
 import io.openvidu.server.core.MediaOptions;
 import io.openvidu.server.core.Participant;
+import io.openvidu.server.core.SessionEventsHandler;
 import io.openvidu.server.core.SessionManager;
 import io.openvidu.server.core.Token;
 import io.openvidu.server.utils.GeoLocation;
@@ -59,6 +68,10 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 
 	private static final Logger log = LoggerFactory.getLogger(RpcHandler.class);
 
+	// Seconds a batch subscription waits for all of its streams. Streams not
+	// subscribed by then are answered with an error
+	private static final long SUBSCRIBE_MANY_TIMEOUT = 60;
+
 	@Autowired
 	OpenviduConfig openviduConfig;
 
@@ -71,6 +84,9 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 	@Autowired
 	RpcNotificationService notificationService;
 
+	@Autowired
+	SessionEventsHandler sessionEventsHandler;
+
 	private ConcurrentMap<String, Boolean> webSocketEOFTransportError = new ConcurrentHashMap<>();
 
 	@Override
@@ -129,6 +145,9 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 		case ProtocolElements.RECEIVEVIDEO_METHOD:
 			receiveVideoFrom(rpcConnection, request);
 			break;
+		case ProtocolElements.RECEIVEVIDEOFROMMANY_METHOD:
+			receiveVideoFromMany(rpcConnection, request);
+			break;
 		case ProtocolElements.UNSUBSCRIBEFROMVIDEO_METHOD:
 			unsubscribeFromVideo(rpcConnection, request);
 			break;
@@ -141,6 +160,27 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 		case ProtocolElements.STREAMPROPERTYCHANGED_METHOD:
 			streamPropertyChanged(rpcConnection, request);
 			break;
+		case ProtocolElements.STREAMACTIVITY_METHOD:
+			streamActivity(rpcConnection, request);
+			break;
+		case ProtocolElements.RECEIVEMIXEDAUDIO_METHOD:
+			receiveMixedAudio(rpcConnection, request);
+			break;
+		case ProtocolElements.UNSUBSCRIBEFROMMIXEDAUDIO_METHOD:
+			unsubscribeFromMixedAudio(rpcConnection, request);
+			break;
+		case ProtocolElements.RECEIVEGRIDCOMPOSITE_METHOD:
+			receiveGridComposite(rpcConnection, request);
+			break;
+		case ProtocolElements.UNSUBSCRIBEFROMGRIDCOMPOSITE_METHOD:
+			unsubscribeFromGridComposite(rpcConnection, request);
+			break;
+		case ProtocolElements.PAUSEVIDEO_METHOD:
+			pauseVideo(rpcConnection, request);
+			break;
+		case ProtocolElements.RESUMEVIDEO_METHOD:
+			resumeVideo(rpcConnection, request);
+			break;
 		case ProtocolElements.FORCEDISCONNECT_METHOD:
 			forceDisconnect(rpcConnection, request);
 			break;
@@ -336,25 +376,102 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 			return;
 		}
 
-		String senderPublicId = getStringParam(request, ProtocolElements.RECEIVEVIDEO_SENDER_PARAM);
-
-		// Parse sender public id from stream id
-		if (senderPublicId.startsWith(IdentifierPrefixes.STREAM_ID + "IPC_")
-				&& senderPublicId.contains(IdentifierPrefixes.IPCAM_ID)) {
-			// If IPCAM
-			senderPublicId = senderPublicId.substring(senderPublicId.indexOf("_" + IdentifierPrefixes.IPCAM_ID) + 1,
-					senderPublicId.length());
-		} else {
-			// Not IPCAM
-			senderPublicId = senderPublicId.substring(
-					senderPublicId.lastIndexOf(IdentifierPrefixes.PARTICIPANT_PUBLIC_ID), senderPublicId.length());
-		}
+		String senderPublicId = getSenderPublicId(
+				getStringParam(request, ProtocolElements.RECEIVEVIDEO_SENDER_PARAM));
 
 		String sdpOffer = getStringParam(request, ProtocolElements.RECEIVEVIDEO_SDPOFFER_PARAM);
 
 		sessionManager.subscribe(participant, senderPublicId, sdpOffer, request.getId());
 	}
 
+	private void receiveVideoFromMany(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "subscribe");
+		} catch (OpenViduException e) {
+			return;
+		}
+
+		Map<String, String> streamIds = new LinkedHashMap<>(); // sender public id -> requested stream id
+		Map<String, String> sdpOffers = new LinkedHashMap<>();
+		try {
+			JsonElement subscriptions = getParam(request, ProtocolElements.RECEIVEVIDEOFROMMANY_SUBSCRIPTIONS_PARAM);
+			if (!subscriptions.isJsonArray()) {
+				throw new IllegalArgumentException("'" + ProtocolElements.RECEIVEVIDEOFROMMANY_SUBSCRIPTIONS_PARAM
+						+ "' must be an array");
+			}
+			for (JsonElement element : subscriptions.getAsJsonArray()) {
+				if (!element.isJsonObject()) {
+					throw new IllegalArgumentException("Every subscription must be an object");
+				}
+				JsonObject subscription = element.getAsJsonObject();
+				String streamId = getSubscriptionString(subscription, ProtocolElements.RECEIVEVIDEO_SENDER_PARAM);
+				String sdpOffer = getSubscriptionString(subscription, ProtocolElements.RECEIVEVIDEO_SDPOFFER_PARAM);
+				String senderPublicId = getSenderPublicId(streamId);
+				streamIds.put(senderPublicId, streamId);
+				sdpOffers.put(senderPublicId, sdpOffer);
+			}
+		} catch (RuntimeException e) {
+			log.error("Error: participant {} sent a malformed subscription batch: {}",
+					participant.getParticipantPublicId(), e.getMessage());
+			this.notificationService.sendErrorResponse(participant.getParticipantPrivateId(), request.getId(), null,
+					new OpenViduException(Code.TRANSPORT_REQUEST_ERROR_CODE,
+							"Malformed subscription batch: " + e.getMessage()));
+			return;
+		}
+
+		Map<String, CompletableFuture<String>> sdpAnswers = sessionManager.subscribeToMany(participant, sdpOffers);
+
+		// Every subscription shares the same deadline
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(SUBSCRIBE_MANY_TIMEOUT);
+		boolean subscribed = false;
+		JsonArray answers = new JsonArray();
+		for (Entry<String, CompletableFuture<String>> entry : sdpAnswers.entrySet()) {
+			JsonObject answer = new JsonObject();
+			answer.addProperty(ProtocolElements.RECEIVEVIDEO_SENDER_PARAM, streamIds.get(entry.getKey()));
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				answer.addProperty(ProtocolElements.RECEIVEVIDEO_SDPANSWER_PARAM,
+						entry.getValue().get(remaining, TimeUnit.MILLISECONDS));
+				subscribed = true;
+			} catch (InterruptedException | ExecutionException | TimeoutException e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				OpenViduException error;
+				if (e instanceof TimeoutException) {
+					log.warn("PARTICIPANT {}: subscription to {} not completed in {} seconds",
+							participant.getParticipantPublicId(), entry.getKey(), SUBSCRIBE_MANY_TIMEOUT);
+					// The subscription is not started, or undone if it completes later
+					entry.getValue().cancel(false);
+					error = new OpenViduException(Code.MEDIA_ENDPOINT_ERROR_CODE,
+							"Timeout reached when subscribing to " + streamIds.get(entry.getKey()));
+				} else {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					error = cause instanceof OpenViduException ? (OpenViduException) cause
+							: new OpenViduException(Code.MEDIA_SDP_ERROR_CODE, cause.getMessage());
+				}
+				JsonObject errorJson = new JsonObject();
+				errorJson.addProperty("code", error.getCodeValue());
+				errorJson.addProperty("message", error.getMessage());
+				answer.add(ProtocolElements.RECEIVEVIDEOFROMMANY_ERROR_PARAM, errorJson);
+			}
+			answers.add(answer);
+		}
+		JsonObject result = new JsonObject();
+		result.add(ProtocolElements.RECEIVEVIDEOFROMMANY_ANSWERS_PARAM, answers);
+		this.sessionEventsHandler.onSubscribeToMany(participant,
+				sessionManager.getSession(rpcConnection.getSessionId()), result, subscribed, request.getId());
+	}
+
+	private static String getSubscriptionString(JsonObject subscription, String key) {
+		JsonElement value = subscription.get(key);
+		if (value == null || !value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString()) {
+			throw new IllegalArgumentException("Subscription element '" + key + "' is missing or is not a string");
+		}
+		return value.getAsString();
+	}
+
 	private void unsubscribeFromVideo(RpcConnection rpcConnection, Request<JsonObject> request) {
 		Participant participant;
 		try {
@@ -367,6 +484,72 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 		sessionManager.unsubscribe(participant, senderName, request.getId());
 	}
 
+	private void receiveMixedAudio(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "receiveMixedAudio");
+		} catch (OpenViduException e) {
+			return;
+		}
+		String sdpOffer = getStringParam(request, ProtocolElements.RECEIVEMIXEDAUDIO_SDPOFFER_PARAM);
+		try {
+			String sdpAnswer = sessionManager.receiveMixedAudio(participant, sdpOffer);
+			JsonObject result = new JsonObject();
+			result.addProperty(ProtocolElements.RECEIVEMIXEDAUDIO_SDPANSWER_PARAM, sdpAnswer);
+			result.addProperty(ProtocolElements.RECEIVEMIXEDAUDIO_ENDPOINTNAME_PARAM,
+					ProtocolElements.MIXEDAUDIO_ENDPOINT_NAME);
+			this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(), result);
+		} catch (OpenViduException e) {
+			this.notificationService.sendErrorResponse(participant.getParticipantPrivateId(), request.getId(),
+					new JsonObject(), e);
+		}
+	}
+
+	private void unsubscribeFromMixedAudio(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "unsubscribeFromMixedAudio");
+		} catch (OpenViduException e) {
+			return;
+		}
+		sessionManager.unsubscribeFromMixedAudio(participant);
+		this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(),
+				new JsonObject());
+	}
+
+	private void receiveGridComposite(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "receiveGridComposite");
+		} catch (OpenViduException e) {
+			return;
+		}
+		String sdpOffer = getStringParam(request, ProtocolElements.RECEIVEGRIDCOMPOSITE_SDPOFFER_PARAM);
+		try {
+			String sdpAnswer = sessionManager.receiveGridComposite(participant, sdpOffer);
+			JsonObject result = new JsonObject();
+			result.addProperty(ProtocolElements.RECEIVEGRIDCOMPOSITE_SDPANSWER_PARAM, sdpAnswer);
+			result.addProperty(ProtocolElements.RECEIVEGRIDCOMPOSITE_ENDPOINTNAME_PARAM,
+					ProtocolElements.GRIDCOMPOSITE_ENDPOINT_NAME);
+			this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(), result);
+		} catch (OpenViduException e) {
+			this.notificationService.sendErrorResponse(participant.getParticipantPrivateId(), request.getId(),
+					new JsonObject(), e);
+		}
+	}
+
+	private void unsubscribeFromGridComposite(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "unsubscribeFromGridComposite");
+		} catch (OpenViduException e) {
+			return;
+		}
+		sessionManager.unsubscribeFromGridComposite(participant);
+		this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(),
+				new JsonObject());
+	}
+
 	private void onIceCandidate(RpcConnection rpcConnection, Request<JsonObject> request) {
 		Participant participant;
 		try {
@@ -422,6 +605,56 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 		sessionManager.streamPropertyChanged(participant, request.getId(), streamId, property, newValue, reason);
 	}
 
+	private void streamActivity(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "streamActivity");
+		} catch (OpenViduException e) {
+			return;
+		}
+
+		// Sent by publishers when they start speaking. Used by last-N video forwarding
+		sessionManager.streamActivity(participant, request.getId());
+		this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(),
+				new JsonObject());
+	}
+
+	private void pauseVideo(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "pauseVideo");
+		} catch (OpenViduException e) {
+			return;
+		}
+		String senderPublicId = getSenderPublicId(getStringParam(request, ProtocolElements.PAUSEVIDEO_SENDER_PARAM));
+		try {
+			sessionManager.setSubscriberVideoPaused(participant, senderPublicId, true);
+			this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(),
+					new JsonObject());
+		} catch (OpenViduException e) {
+			this.notificationService.sendErrorResponse(participant.getParticipantPrivateId(), request.getId(),
+					new JsonObject(), e);
+		}
+	}
+
+	private void resumeVideo(RpcConnection rpcConnection, Request<JsonObject> request) {
+		Participant participant;
+		try {
+			participant = sanityCheckOfSession(rpcConnection, "resumeVideo");
+		} catch (OpenViduException e) {
+			return;
+		}
+		String senderPublicId = getSenderPublicId(getStringParam(request, ProtocolElements.RESUMEVIDEO_SENDER_PARAM));
+		try {
+			sessionManager.setSubscriberVideoPaused(participant, senderPublicId, false);
+			this.notificationService.sendResponse(participant.getParticipantPrivateId(), request.getId(),
+					new JsonObject());
+		} catch (OpenViduException e) {
+			this.notificationService.sendErrorResponse(participant.getParticipantPrivateId(), request.getId(),
+					new JsonObject(), e);
+		}
+	}
+
 	private void forceDisconnect(RpcConnection rpcConnection, Request<JsonObject> request) {
 		Participant participant;
 		try {
@@ -791,4 +1024,17 @@ public class RpcHandler extends DefaultJsonRpcHandler<JsonObject> {
 				.equals(this.sessionManager.getParticipantPrivateIdFromStreamId(sessionId, streamId));
 	}
 
+	private String getSenderPublicId(String streamId) {
+		// Parse sender public id from stream id
+		if (streamId.startsWith(IdentifierPrefixes.STREAM_ID + "IPC_")
+				&& streamId.contains(IdentifierPrefixes.IPCAM_ID)) {
+			// If IPCAM
+			return streamId.substring(streamId.indexOf("_" + IdentifierPrefixes.IPCAM_ID) + 1, streamId.length());
+		} else {
+			// Not IPCAM
+			return streamId.substring(streamId.lastIndexOf(IdentifierPrefixes.PARTICIPANT_PUBLIC_ID),
+					streamId.length());
+		}
+	}
+
 }
@@ -0,0 +1,144 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SdpUtils {
+
+	/**
+	 * Returns the name of the codec negotiated for the first media section of the
+	 * given type ("audio" or "video") of an SDP answer (the first payload type of
+	 * its "m=" line), in upper case. Returns null if the section is missing or
+	 * rejected
+	 */
+	public static String getNegotiatedCodec(String sdp, String mediaType) {
+		if (sdp == null) {
+			return null;
+		}
+		String payloadType = null;
+		boolean inSection = false;
+		for (String line : sdp.split("\r?\n")) {
+			if (line.startsWith("m=")) {
+				if (inSection) {
+					// rtpmap of the payload type not found in its section
+					return null;
+				}
+				String[] fields = line.substring(2).trim().split(" ");
+				if (fields.length >= 4 && fields[0].equals(mediaType)) {
+					if ("0".equals(fields[1])) {
+						return null;
+					}
+					payloadType = fields[3];
+					inSection = true;
+				}
+			} else if (inSection && line.startsWith("a=rtpmap:" + payloadType + " ")) {
+				String encoding = line.substring(("a=rtpmap:" + payloadType + " ").length()).trim();
+				int slash = encoding.indexOf('/');
+				return (slash > 0 ? encoding.substring(0, slash) : encoding).toUpperCase();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes from every video section of an SDP offer all payload types that are
+	 * not the given codec (keeping the RTX payload types associated to it). The
+	 * SDP is returned untouched if a video section does not offer the codec at
+	 * all, because it would be left without any codec
+	 */
+	public static String forceVideoCodec(String sdp, String codec) {
+		if (sdp == null || codec == null) {
+			return sdp;
+		}
+		String lineSeparator = sdp.contains("\r\n") ? "\r\n" : "\n";
+		String[] lines = sdp.split("\r?\n");
+		List<String> result = new ArrayList<>(lines.length);
+
+		int i = 0;
+		while (i < lines.length) {
+			if (!lines[i].startsWith("m=video ")) {
+				result.add(lines[i]);
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while (end < lines.length && !lines[end].startsWith("m=")) {
+				end++;
+			}
+
+			Set<String> kept = new HashSet<>();
+			for (int j = i + 1; j < end; j++) {
+				if (lines[j].startsWith("a=rtpmap:")) {
+					String[] fields = lines[j].substring("a=rtpmap:".length()).split(" ", 2);
+					if (fields.length == 2 && fields[1].toUpperCase().startsWith(codec.toUpperCase() + "/")) {
+						kept.add(fields[0]);
+					}
+				}
+			}
+			if (kept.isEmpty()) {
+				return sdp;
+			}
+			for (int j = i + 1; j < end; j++) {
+				// a=fmtp:RTX_PT apt=CODEC_PT
+				if (lines[j].startsWith("a=fmtp:")) {
+					String[] fields = lines[j].substring("a=fmtp:".length()).split(" ", 2);
+					if (fields.length == 2 && fields[1].startsWith("apt=")
+							&& kept.contains(fields[1].substring("apt=".length()).trim())) {
+						kept.add(fields[0]);
+					}
+				}
+			}
+
+			String[] mLine = lines[i].split(" ");
+			StringBuilder newMLine = new StringBuilder(mLine[0]).append(' ').append(mLine[1]).append(' ')
+					.append(mLine[2]);
+			for (int k = 3; k < mLine.length; k++) {
+				if (kept.contains(mLine[k])) {
+					newMLine.append(' ').append(mLine[k]);
+				}
+			}
+			result.add(newMLine.toString());
+			for (int j = i + 1; j < end; j++) {
+				String payloadType = getAttributePayloadType(lines[j]);
+				if (payloadType == null || kept.contains(payloadType)) {
+					result.add(lines[j]);
+				}
+			}
+			i = end;
+		}
+		return String.join(lineSeparator, result) + lineSeparator;
+	}
+
+	private static String getAttributePayloadType(String line) {
+		for (String attribute : new String[] { "a=rtpmap:", "a=fmtp:", "a=rtcp-fb:" }) {
+			if (line.startsWith(attribute)) {
+				int space = line.indexOf(' ');
+				String payloadType = space > 0 ? line.substring(attribute.length(), space)
+						: line.substring(attribute.length());
+				// "a=rtcp-fb:* ..." applies to every payload type
+				return "*".equals(payloadType) ? null : payloadType;
+			}
+		}
+		return null;
+	}
+
+}
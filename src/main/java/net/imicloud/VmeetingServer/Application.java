@@ -54,16 +54,31 @@ import io.openvidu.server.core.TokenGenerator;
 import io.openvidu.server.core.TokenGeneratorDefault;
 import io.openvidu.server.coturn.CoturnCredentialsService;
 import io.openvidu.server.coturn.CoturnCredentialsServiceFactory;
+import io.openvidu.server.feed.SessionEventsFeed;
+import io.openvidu.server.kurento.core.CascadeManager;
 import io.openvidu.server.kurento.core.KurentoParticipantEndpointConfig;
 import io.openvidu.server.kurento.core.KurentoSessionEventsHandler;
 import io.openvidu.server.kurento.core.KurentoSessionManager;
 import io.openvidu.server.kurento.kms.DummyLoadManager;
+import io.openvidu.server.kurento.kms.EgressBudgetManager;
 import io.openvidu.server.kurento.kms.FixedOneKmsManager;
+import io.openvidu.server.kurento.kms.KmsDrainManager;
+import io.openvidu.server.kurento.kms.KmsHealthProbe;
 import io.openvidu.server.kurento.kms.KmsManager;
 import io.openvidu.server.kurento.kms.LoadManager;
+import io.openvidu.server.kurento.kms.MediaPipelineReconciler;
+import io.openvidu.server.kurento.kms.MultipleKmsManager;
+import io.openvidu.server.kurento.kms.SessionPlacementManager;
+import io.openvidu.server.kurento.kms.SessionRecoveryManager;
+import io.openvidu.server.kurento.kms.SubscriberBandwidthController;
+import io.openvidu.server.recording.CompositeTranscoder;
 import io.openvidu.server.recording.DummyRecordingDownloader;
+import io.openvidu.server.recording.FfmpegCompositeTranscoder;
+import io.openvidu.server.recording.RecordingDownloadLimiter;
 import io.openvidu.server.recording.RecordingDownloader;
+import io.openvidu.server.recording.service.CompositeRenderManager;
 import io.openvidu.server.recording.service.RecordingManager;
+import io.openvidu.server.recording.service.RecordingOperationExecutor;
 import io.openvidu.server.rpc.RpcHandler;
 import io.openvidu.server.rpc.RpcNotificationService;
 import io.openvidu.server.utils.CommandExecutor;
@@ -103,6 +118,12 @@ public class Application implements JsonRpcConfigurer {
 		if (openviduConfig.getKmsUris().isEmpty()) {
 			throw new IllegalArgumentException("'kms.uris' should contain at least one KMS url");
 		}
+		if (openviduConfig.getKmsUris().size() > 1) {
+			// Health and capacity placement, drain and cascading need every KMS connected
+			log.info("OpenVidu Server using {} KMS{}: {}", openviduConfig.getKmsUris().size(),
+					openviduConfig.isCascadeEnabled() ? " for cascading" : "", openviduConfig.getKmsUris());
+			return new MultipleKmsManager();
+		}
 		String firstKmsWsUri = openviduConfig.getKmsUris().get(0);
 		log.info("OpenVidu Server using one KMS: {}", firstKmsWsUri);
 		//这里只使用了单一Kms服务
@@ -112,7 +133,7 @@ public class Application implements JsonRpcConfigurer {
 	@Bean
 	@ConditionalOnMissingBean
 	@DependsOn("openviduConfig")
-	public CallDetailRecord cdr(OpenviduConfig openviduConfig) {
+	public CallDetailRecord cdr(OpenviduConfig openviduConfig, SessionEventsFeed sessionEventsFeed) {
 		List<CDRLogger> loggers = new ArrayList<>();
 		if (openviduConfig.isCdrEnabled()) {
 			log.info("OpenVidu CDR service is enabled");
@@ -126,9 +147,23 @@ public class Application implements JsonRpcConfigurer {
 		} else {
 			log.info("OpenVidu Webhook service is disabled (may be enabled with 'openvidu.webhook=true')");
 		}
+		if (openviduConfig.isFeedEnabled()) {
+			log.info("OpenVidu session events feed is enabled");
+			loggers.add(sessionEventsFeed);
+		} else {
+			log.info("OpenVidu session events feed is disabled (may be enabled with 'openvidu.feed=true')");
+		}
 		return new CallDetailRecord(loggers);
 	}
 
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public SessionEventsFeed sessionEventsFeed(OpenviduConfig openviduConfig) {
+		return new SessionEventsFeed(openviduConfig.getOpenviduFeedBufferSize(),
+				openviduConfig.getOpenviduFeedSubscriberQueueSize());
+	}
+
 	@Bean
 	@ConditionalOnMissingBean
 	@DependsOn("openviduConfig")
@@ -136,6 +171,13 @@ public class Application implements JsonRpcConfigurer {
 		return new CoturnCredentialsServiceFactory().getCoturnCredentialsService(openviduConfig.getSpringProfile());
 	}
 
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public CascadeManager cascadeManager() {
+		return new CascadeManager();
+	}
+
 	@Bean
 	@ConditionalOnMissingBean
 	@DependsOn("openviduConfig")
@@ -171,6 +213,77 @@ public class Application implements JsonRpcConfigurer {
 		return new RecordingManager();
 	}
 
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public CompositeRenderManager compositeRenderManager() {
+		return new CompositeRenderManager();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public RecordingOperationExecutor recordingOperationExecutor() {
+		return new RecordingOperationExecutor();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public SessionRecoveryManager sessionRecoveryManager() {
+		return new SessionRecoveryManager();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public MediaPipelineReconciler mediaPipelineReconciler() {
+		return new MediaPipelineReconciler();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public KmsHealthProbe kmsHealthProbe() {
+		return new KmsHealthProbe();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public KmsDrainManager kmsDrainManager() {
+		return new KmsDrainManager();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public SessionPlacementManager sessionPlacementManager() {
+		return new SessionPlacementManager();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public EgressBudgetManager egressBudgetManager() {
+		return new EgressBudgetManager();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public SubscriberBandwidthController subscriberBandwidthController() {
+		return new SubscriberBandwidthController();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@DependsOn("openviduConfig")
+	public RecordingDownloadLimiter recordingDownloadLimiter(OpenviduConfig openviduConfig) {
+		return new RecordingDownloadLimiter(openviduConfig.getOpenviduRecordingDownloadMaxConcurrent(),
+				openviduConfig.getOpenviduRecordingDownloadMaxConcurrentPerClient());
+	}
+
 	@Bean
 	@ConditionalOnMissingBean
 	public LoadManager loadManager() {
@@ -195,6 +308,12 @@ public class Application implements JsonRpcConfigurer {
 		return new DummyRecordingDownloader();
 	}
 
+	@Bean
+	@ConditionalOnMissingBean
+	public CompositeTranscoder compositeTranscoder() {
+		return new FfmpegCompositeTranscoder();
+	}
+
 	@Bean
 	@ConditionalOnMissingBean
 	public GeoLocationByIp geoLocationByIp() {
@@ -20,6 +20,7 @@ package net.imicloud.VmeetingServer;
 import java.io.File;
 import java.io.IOException;
 import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -66,6 +67,10 @@ import org.springframework.stereotype.Component;
 import io.openvidu.java.client.OpenViduRole;
 //import io.openvidu.server.OpenViduServer;
 import io.openvidu.server.cdr.CDREventName;
+import io.openvidu.server.core.AudioMixingMode;
+import io.openvidu.server.core.VideoCodecPolicy;
+import io.openvidu.server.kurento.endpoint.KmsEventType;
+import io.openvidu.server.kurento.kms.BudgetExceededAction;
 import io.openvidu.server.recording.RecordingNotification;
 
 @Component
@@ -76,18 +81,41 @@ public class OpenviduConfig {
 	public static final Set<String> OPENVIDU_STRING_PROPERTIES = new HashSet<>(Arrays.asList("openvidu.secret",
 			"openvidu.publicurl", "openvidu.recording.path", "openvidu.recording.notification",
 			"openvidu.recording.custom-layout", "openvidu.recording.composed-url", "openvidu.recording.version",
+			"openvidu.recording.composite-render.ffmpeg", "openvidu.streams.video-codec-policy",
+			"openvidu.streams.audio-mixing", "kms.budget.action", "kms.reconcile-owner",
 			"openvidu.webhook.endpoint", "openvidu.cdr.path", "coturn.ip", "coturn.redis.ip"));
 
 	public static final Set<String> OPENVIDU_INTEGER_PROPERTIES = new HashSet<>(
-			Arrays.asList("openvidu.recording.autostop-timeout", "openvidu.streams.video.max-recv-bandwidth",
+			Arrays.asList("openvidu.recording.autostop-timeout", "openvidu.recording.download.max-concurrent",
+					"openvidu.recording.download.max-concurrent-per-client", "openvidu.recording.download.cache-max-age",
+					"openvidu.recording.composite-render.workers", "openvidu.recording.composite-render.queue-size",
+					"openvidu.recording.composite-render.threads-per-job", "openvidu.recording.operation-workers",
+					"openvidu.recording.recorder-threads", "openvidu.recording.recorder-timeout",
+					"openvidu.streams.video.max-recv-bandwidth",
 					"openvidu.streams.video.min-recv-bandwidth", "openvidu.streams.video.max-send-bandwidth",
-					"openvidu.streams.video.min-send-bandwidth"));
+					"openvidu.streams.video.min-send-bandwidth", "openvidu.streams.last-n",
+					"openvidu.streams.grid-composite.max-send-bandwidth",
+					"openvidu.streams.grid-composite.min-send-bandwidth", "openvidu.streams.batch-subscribe-threads",
+					"openvidu.streams.keyframe-window", "openvidu.streams.adaptive-bandwidth.interval",
+					"openvidu.streams.adaptive-bandwidth.min", "openvidu.streams.adaptive-bandwidth.max",
+					"openvidu.streams.adaptive-bandwidth.subscriber-total", "openvidu.sessions.recovery-workers", "kms.reconcile-interval",
+					"kms.connections", "kms.health.probe-interval", "kms.health.max-rtt",
+					"kms.health.probes-to-degrade", "kms.health.probes-to-reinstate", "kms.drain.batch-size",
+					"kms.drain.batch-interval", "kms.drain.release-delay", "kms.capacity.streams",
+					"kms.capacity.headroom", "kms.capacity.reservation-ttl", "kms.budget.egress-kbps",
+					"kms.budget.ingress-kbps", "kms.budget.sample-interval",
+					"openvidu.cascade.viewers-per-kms",
+					"openvidu.cascade.max-edges", "openvidu.feed.buffer-size",
+					"openvidu.feed.subscriber-queue-size", "openvidu.feed.max-subscribers"));
 
 	public static final Set<String> OPENVIDU_BOOLEAN_PROPERTIES = new HashSet<>(Arrays.asList("openvidu.cdr",
-			"openvidu.recording", "openvidu.recording.public-access", "openvidu.webhook"));
+			"openvidu.recording", "openvidu.recording.public-access", "openvidu.recording.download.trust-proxy-headers",
+			"openvidu.recording.composite-render", "openvidu.webhook",
+			"openvidu.streams.grid-composite", "openvidu.cascade", "openvidu.feed", "kms.reconcile-dry-run"));
 
 	public static final Set<String> OPENVIDU_ARRAY_PROPERTIES = new HashSet<>(
-			Arrays.asList("kms.uris", "openvidu.webhook.headers", "openvidu.webhook.events"));
+			Arrays.asList("kms.uris", "kms.events.publisher", "kms.events.subscriber", "openvidu.webhook.headers",
+					"openvidu.webhook.events"));
 
 	public static final Set<String> OPENVIDU_PROPERTIES = Stream.of(OPENVIDU_STRING_PROPERTIES,
 			OPENVIDU_INTEGER_PROPERTIES, OPENVIDU_BOOLEAN_PROPERTIES, OPENVIDU_ARRAY_PROPERTIES)
@@ -109,6 +137,66 @@ public class OpenviduConfig {
 	@Value("${kms.uris}")
 	protected String kmsUris;
 
+	@Value("${kms.events.publisher}")
+	protected String kmsEventsPublisher;
+
+	@Value("${kms.events.subscriber}")
+	protected String kmsEventsSubscriber;
+
+	@Value("${kms.connections}")
+	protected int kmsConnections;
+
+	@Value("${kms.health.probe-interval}")
+	protected int kmsHealthProbeInterval;
+
+	@Value("${kms.health.max-rtt}")
+	protected int kmsHealthMaxRtt;
+
+	@Value("${kms.health.probes-to-degrade}")
+	protected int kmsHealthProbesToDegrade;
+
+	@Value("${kms.health.probes-to-reinstate}")
+	protected int kmsHealthProbesToReinstate;
+
+	@Value("${kms.drain.batch-size}")
+	protected int kmsDrainBatchSize;
+
+	@Value("${kms.drain.batch-interval}")
+	protected int kmsDrainBatchInterval;
+
+	@Value("${kms.drain.release-delay}")
+	protected int kmsDrainReleaseDelay;
+
+	@Value("${kms.capacity.streams}")
+	protected int kmsCapacityStreams;
+
+	@Value("${kms.capacity.headroom}")
+	protected int kmsCapacityHeadroom;
+
+	@Value("${kms.capacity.reservation-ttl}")
+	protected int kmsCapacityReservationTtl;
+
+	@Value("${kms.budget.egress-kbps}")
+	protected int kmsBudgetEgressKbps;
+
+	@Value("${kms.budget.ingress-kbps}")
+	protected int kmsBudgetIngressKbps;
+
+	@Value("${kms.budget.action}")
+	protected BudgetExceededAction kmsBudgetAction;
+
+	@Value("${kms.budget.sample-interval}")
+	protected int kmsBudgetSampleInterval;
+
+	@Value("${kms.reconcile-interval}")
+	protected int kmsReconcileInterval;
+
+	@Value("${kms.reconcile-dry-run}")
+	protected boolean kmsReconcileDryRun;
+
+	@Value("${kms.reconcile-owner}")
+	protected String kmsReconcileOwner;
+
 	@Value("${openvidu.publicurl}")
 	protected String openviduPublicUrl; // local, docker, [FINAL_URL]
 
@@ -145,6 +233,42 @@ public class OpenviduConfig {
 	@Value("${openvidu.recording.autostop-timeout}")
 	protected int openviduRecordingAutostopTimeout;
 
+	@Value("${openvidu.recording.download.max-concurrent}")
+	protected int openviduRecordingDownloadMaxConcurrent;
+
+	@Value("${openvidu.recording.download.max-concurrent-per-client}")
+	protected int openviduRecordingDownloadMaxConcurrentPerClient;
+
+	@Value("${openvidu.recording.download.cache-max-age}")
+	protected int openviduRecordingDownloadCacheMaxAge;
+
+	@Value("${openvidu.recording.download.trust-proxy-headers}")
+	protected boolean openviduRecordingDownloadTrustProxyHeaders;
+
+	@Value("${openvidu.recording.composite-render}")
+	protected boolean openviduRecordingCompositeRender;
+
+	@Value("${openvidu.recording.operation-workers}")
+	protected int openviduRecordingOperationWorkers;
+
+	@Value("${openvidu.recording.recorder-threads}")
+	protected int openviduRecordingRecorderThreads;
+
+	@Value("${openvidu.recording.recorder-timeout}")
+	protected int openviduRecordingRecorderTimeout;
+
+	@Value("${openvidu.recording.composite-render.workers}")
+	protected int openviduRecordingCompositeRenderWorkers;
+
+	@Value("${openvidu.recording.composite-render.queue-size}")
+	protected int openviduRecordingCompositeRenderQueueSize;
+
+	@Value("${openvidu.recording.composite-render.threads-per-job}")
+	protected int openviduRecordingCompositeRenderThreadsPerJob;
+
+	@Value("${openvidu.recording.composite-render.ffmpeg}")
+	protected String openviduRecordingCompositeRenderFfmpeg;
+
 	@Value("${openvidu.recording.composed-url}")
 	protected String openviduRecordingComposedUrl;
 
@@ -160,6 +284,18 @@ public class OpenviduConfig {
 	@Value("${openvidu.webhook.events}")
 	protected String openviduWebhookEvents;
 
+	@Value("${openvidu.feed}")
+	protected boolean openviduFeed;
+
+	@Value("${openvidu.feed.buffer-size}")
+	protected int openviduFeedBufferSize;
+
+	@Value("${openvidu.feed.subscriber-queue-size}")
+	protected int openviduFeedSubscriberQueueSize;
+
+	@Value("${openvidu.feed.max-subscribers}")
+	protected int openviduFeedMaxSubscribers;
+
 	@Value("${openvidu.streams.video.max-recv-bandwidth}")
 	protected int openviduStreamsVideoMaxRecvBandwidth;
 
@@ -172,6 +308,54 @@ public class OpenviduConfig {
 	@Value("${openvidu.streams.video.min-send-bandwidth}")
 	protected int openviduStreamsVideoMinSendBandwidth;
 
+	@Value("${openvidu.streams.last-n}")
+	protected int openviduStreamsLastN;
+
+	@Value("${openvidu.streams.video-codec-policy}")
+	protected VideoCodecPolicy openviduStreamsVideoCodecPolicy;
+
+	@Value("${openvidu.streams.audio-mixing}")
+	protected AudioMixingMode openviduStreamsAudioMixing;
+
+	@Value("${openvidu.streams.grid-composite}")
+	protected boolean openviduStreamsGridComposite;
+
+	@Value("${openvidu.streams.grid-composite.max-send-bandwidth}")
+	protected int openviduStreamsGridCompositeMaxSendBandwidth;
+
+	@Value("${openvidu.streams.grid-composite.min-send-bandwidth}")
+	protected int openviduStreamsGridCompositeMinSendBandwidth;
+
+	@Value("${openvidu.streams.batch-subscribe-threads}")
+	protected int openviduStreamsBatchSubscribeThreads;
+
+	@Value("${openvidu.streams.keyframe-window}")
+	protected int openviduStreamsKeyframeWindow;
+
+	@Value("${openvidu.streams.adaptive-bandwidth.interval}")
+	protected int openviduStreamsAdaptiveBandwidthInterval;
+
+	@Value("${openvidu.streams.adaptive-bandwidth.min}")
+	protected int openviduStreamsAdaptiveBandwidthMin;
+
+	@Value("${openvidu.streams.adaptive-bandwidth.max}")
+	protected int openviduStreamsAdaptiveBandwidthMax;
+
+	@Value("${openvidu.streams.adaptive-bandwidth.subscriber-total}")
+	protected int openviduStreamsAdaptiveBandwidthSubscriberTotal;
+
+	@Value("${openvidu.sessions.recovery-workers}")
+	protected int openviduSessionsRecoveryWorkers;
+
+	@Value("${openvidu.cascade}")
+	protected boolean openviduCascade;
+
+	@Value("${openvidu.cascade.viewers-per-kms}")
+	protected int openviduCascadeViewersPerKms;
+
+	@Value("${openvidu.cascade.max-edges}")
+	protected int openviduCascadeMaxEdges;
+
 	@Value("${coturn.redis.ip}")
 	protected String coturnRedisIp;
 
@@ -195,6 +379,8 @@ public class OpenviduConfig {
 	public static List<String> kmsUrisList = new ArrayList<>();
 	public static List<Header> webhookHeadersList = new ArrayList<>();
 	public static List<CDREventName> webhookEventsList = new ArrayList<>();
+	public static List<KmsEventType> kmsEventsPublisherList = new ArrayList<>();
+	public static List<KmsEventType> kmsEventsSubscriberList = new ArrayList<>();
 	
 	public static String publicurlType;
 	public static String wsUrl;
@@ -207,6 +393,100 @@ public class OpenviduConfig {
 		return kmsUrisList;
 	}
 
+	public int getKmsConnections() {
+		return this.kmsConnections;
+	}
+
+	public int getKmsHealthProbeInterval() {
+		return this.kmsHealthProbeInterval;
+	}
+
+	public int getKmsHealthMaxRtt() {
+		return this.kmsHealthMaxRtt;
+	}
+
+	public int getKmsHealthProbesToDegrade() {
+		return this.kmsHealthProbesToDegrade;
+	}
+
+	public int getKmsHealthProbesToReinstate() {
+		return this.kmsHealthProbesToReinstate;
+	}
+
+	public int getKmsDrainBatchSize() {
+		return this.kmsDrainBatchSize;
+	}
+
+	public int getKmsDrainBatchInterval() {
+		return this.kmsDrainBatchInterval;
+	}
+
+	public int getKmsDrainReleaseDelay() {
+		return this.kmsDrainReleaseDelay;
+	}
+
+	public int getKmsCapacityStreams() {
+		return this.kmsCapacityStreams;
+	}
+
+	public int getKmsCapacityHeadroom() {
+		return this.kmsCapacityHeadroom;
+	}
+
+	public int getKmsCapacityReservationTtl() {
+		return this.kmsCapacityReservationTtl;
+	}
+
+	public int getKmsBudgetEgressKbps() {
+		return this.kmsBudgetEgressKbps;
+	}
+
+	public int getKmsBudgetIngressKbps() {
+		return this.kmsBudgetIngressKbps;
+	}
+
+	public BudgetExceededAction getKmsBudgetAction() {
+		return this.kmsBudgetAction;
+	}
+
+	public int getKmsBudgetSampleInterval() {
+		return this.kmsBudgetSampleInterval;
+	}
+
+	public int getKmsReconcileInterval() {
+		return this.kmsReconcileInterval;
+	}
+
+	public boolean isKmsReconcileDryRun() {
+		return this.kmsReconcileDryRun;
+	}
+
+	/**
+	 * @return the owner name of the KMS pipelines created by this server. Defaults
+	 *         to the host name and port of the server
+	 */
+	public String getKmsReconcileOwner() {
+		if (this.kmsReconcileOwner != null && !this.kmsReconcileOwner.isEmpty()) {
+			return this.kmsReconcileOwner;
+		}
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			host = "localhost";
+		}
+		this.kmsReconcileOwner = host + ":" + this.serverPort;
+		return this.kmsReconcileOwner;
+	}
+
+	public List<KmsEventType> getKmsEventsPublisher() {
+		return kmsEventsPublisherList;
+	}
+
+	public List<KmsEventType> getKmsEventsSubscriber() {
+		return kmsEventsSubscriberList;
+	}
+
 	public String getOpenViduPublicUrl() {
 		return this.openviduPublicUrl;
 	}
@@ -275,6 +555,54 @@ public class OpenviduConfig {
 		return this.openviduRecordingAutostopTimeout;
 	}
 
+	public int getOpenviduRecordingDownloadMaxConcurrent() {
+		return this.openviduRecordingDownloadMaxConcurrent;
+	}
+
+	public int getOpenviduRecordingDownloadMaxConcurrentPerClient() {
+		return this.openviduRecordingDownloadMaxConcurrentPerClient;
+	}
+
+	public int getOpenviduRecordingDownloadCacheMaxAge() {
+		return this.openviduRecordingDownloadCacheMaxAge;
+	}
+
+	public boolean isOpenviduRecordingDownloadTrustProxyHeaders() {
+		return this.openviduRecordingDownloadTrustProxyHeaders;
+	}
+
+	public boolean isRecordingCompositeRenderEnabled() {
+		return this.openviduRecordingCompositeRender;
+	}
+
+	public int getOpenviduRecordingOperationWorkers() {
+		return this.openviduRecordingOperationWorkers;
+	}
+
+	public int getOpenviduRecordingRecorderThreads() {
+		return this.openviduRecordingRecorderThreads;
+	}
+
+	public int getOpenviduRecordingRecorderTimeout() {
+		return this.openviduRecordingRecorderTimeout;
+	}
+
+	public int getOpenviduRecordingCompositeRenderWorkers() {
+		return this.openviduRecordingCompositeRenderWorkers;
+	}
+
+	public int getOpenviduRecordingCompositeRenderQueueSize() {
+		return this.openviduRecordingCompositeRenderQueueSize;
+	}
+
+	public int getOpenviduRecordingCompositeRenderThreadsPerJob() {
+		return this.openviduRecordingCompositeRenderThreadsPerJob;
+	}
+
+	public String getOpenviduRecordingCompositeRenderFfmpeg() {
+		return this.openviduRecordingCompositeRenderFfmpeg;
+	}
+
 	public String getSpringProfile() {
 		return springProfile;
 	}
@@ -295,6 +623,70 @@ public class OpenviduConfig {
 		return this.openviduStreamsVideoMinSendBandwidth;
 	}
 
+	public int getOpenviduStreamsLastN() {
+		return this.openviduStreamsLastN;
+	}
+
+	public VideoCodecPolicy getOpenviduStreamsVideoCodecPolicy() {
+		return this.openviduStreamsVideoCodecPolicy;
+	}
+
+	public AudioMixingMode getOpenviduStreamsAudioMixing() {
+		return this.openviduStreamsAudioMixing;
+	}
+
+	public boolean isOpenviduStreamsGridComposite() {
+		return this.openviduStreamsGridComposite;
+	}
+
+	public int getOpenviduStreamsGridCompositeMaxSendBandwidth() {
+		return this.openviduStreamsGridCompositeMaxSendBandwidth;
+	}
+
+	public int getOpenviduStreamsGridCompositeMinSendBandwidth() {
+		return this.openviduStreamsGridCompositeMinSendBandwidth;
+	}
+
+	public int getOpenviduStreamsBatchSubscribeThreads() {
+		return this.openviduStreamsBatchSubscribeThreads;
+	}
+
+	public int getOpenviduSessionsRecoveryWorkers() {
+		return this.openviduSessionsRecoveryWorkers;
+	}
+
+	public int getOpenviduStreamsKeyframeWindow() {
+		return this.openviduStreamsKeyframeWindow;
+	}
+
+	public int getOpenviduStreamsAdaptiveBandwidthInterval() {
+		return this.openviduStreamsAdaptiveBandwidthInterval;
+	}
+
+	public int getOpenviduStreamsAdaptiveBandwidthMin() {
+		return this.openviduStreamsAdaptiveBandwidthMin;
+	}
+
+	public int getOpenviduStreamsAdaptiveBandwidthMax() {
+		return this.openviduStreamsAdaptiveBandwidthMax;
+	}
+
+	public int getOpenviduStreamsAdaptiveBandwidthSubscriberTotal() {
+		return this.openviduStreamsAdaptiveBandwidthSubscriberTotal;
+	}
+
+	public boolean isCascadeEnabled() {
+		return this.openviduCascade;
+	}
+
+	public int getOpenviduCascadeViewersPerKms() {
+		return this.openviduCascadeViewersPerKms;
+	}
+
+	public int getOpenviduCascadeMaxEdges() {
+		return this.openviduCascadeMaxEdges;
+	}
+
 	public String getCoturnIp() {
 		return this.coturnIp;
 	}
@@ -332,6 +724,22 @@ public class OpenviduConfig {
 		return webhookEventsList;
 	}
 	
+	public boolean isFeedEnabled() {
+		return this.openviduFeed;
+	}
+
+	public int getOpenviduFeedBufferSize() {
+		return this.openviduFeedBufferSize;
+	}
+
+	public int getOpenviduFeedSubscriberQueueSize() {
+		return this.openviduFeedSubscriberQueueSize;
+	}
+
+	public int getOpenviduFeedMaxSubscribers() {
+		return this.openviduFeedMaxSubscribers;
+	}
+
 	public boolean isProduct() {
 		return isProduct;
 	}
@@ -469,6 +877,42 @@ public class OpenviduConfig {
 			case "openvidu.recording.autostop-timeout":
 				checkIntegerNonNegative(parameters, parameter, admitStringified);
 				break;
+			case "openvidu.recording.download.max-concurrent":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.download.max-concurrent-per-client":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.download.cache-max-age":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.download.trust-proxy-headers":
+				checkBoolean(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.composite-render":
+				checkBoolean(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.operation-workers":
+			case "openvidu.recording.recorder-threads":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.recorder-timeout":
+				if (checkIntegerNonNegative(parameters, parameter, admitStringified) == 0) {
+					throw new Exception("Property 'openvidu.recording.recorder-timeout' must be greater than 0");
+				}
+				break;
+			case "openvidu.recording.composite-render.workers":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.composite-render.queue-size":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.composite-render.threads-per-job":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.recording.composite-render.ffmpeg":
+				checkString(parameters, parameter);
+				break;
 			case "openvidu.recording.notification":
 				String recordingNotif = checkString(parameters, parameter);
 				try {
@@ -484,6 +928,18 @@ public class OpenviduConfig {
 			case "openvidu.webhook.endpoint":
 				webhookEndpoint = checkString(parameters, parameter);
 				break;
+			case "openvidu.feed":
+				checkBoolean(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.feed.buffer-size":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.feed.subscriber-queue-size":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.feed.max-subscribers":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
 			case "openvidu.streams.video.max-recv-bandwidth":
 				checkIntegerNonNegative(parameters, parameter, admitStringified);
 				break;
@@ -496,6 +952,105 @@ public class OpenviduConfig {
 			case "openvidu.streams.video.min-send-bandwidth":
 				checkIntegerNonNegative(parameters, parameter, admitStringified);
 				break;
+			case "openvidu.streams.last-n":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.video-codec-policy":
+				String videoCodecPolicy = checkString(parameters, parameter);
+				try {
+					VideoCodecPolicy.valueOf(videoCodecPolicy);
+				} catch (IllegalArgumentException e) {
+					throw new Exception("Property 'openvidu.streams.video-codec-policy' has not a valid value ('"
+							+ videoCodecPolicy + "'). Must be one of " + Arrays.asList(VideoCodecPolicy.values()));
+				}
+				break;
+			case "openvidu.streams.grid-composite":
+				checkBoolean(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.grid-composite.max-send-bandwidth":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.grid-composite.min-send-bandwidth":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.batch-subscribe-threads":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.keyframe-window":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.adaptive-bandwidth.interval":
+			case "openvidu.streams.adaptive-bandwidth.min":
+			case "openvidu.streams.adaptive-bandwidth.max":
+			case "openvidu.streams.adaptive-bandwidth.subscriber-total":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.sessions.recovery-workers":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.cascade":
+				checkBoolean(parameters, parameter, admitStringified);
+				break;
+			case "kms.connections":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "kms.health.probe-interval":
+			case "kms.health.max-rtt":
+			case "kms.health.probes-to-degrade":
+			case "kms.health.probes-to-reinstate":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "kms.drain.batch-size":
+			case "kms.drain.batch-interval":
+			case "kms.drain.release-delay":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "kms.capacity.streams":
+			case "kms.capacity.headroom":
+			case "kms.capacity.reservation-ttl":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "kms.budget.egress-kbps":
+			case "kms.budget.ingress-kbps":
+			case "kms.budget.sample-interval":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "kms.budget.action":
+				String budgetAction = checkString(parameters, parameter);
+				try {
+					BudgetExceededAction.valueOf(budgetAction);
+				} catch (IllegalArgumentException e) {
+					throw new Exception("Property 'kms.budget.action' has not a valid value ('" + budgetAction
+							+ "'). Must be one of " + Arrays.asList(BudgetExceededAction.values()));
+				}
+				break;
+			case "kms.reconcile-interval":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "kms.reconcile-dry-run":
+				checkBoolean(parameters, parameter, admitStringified);
+				break;
+			case "kms.reconcile-owner":
+				String reconcileOwner = checkString(parameters, parameter);
+				if (reconcileOwner != null && reconcileOwner.contains("/")) {
+					throw new Exception("Property 'kms.reconcile-owner' cannot contain '/'");
+				}
+				break;
+			case "openvidu.cascade.viewers-per-kms":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.cascade.max-edges":
+				checkIntegerNonNegative(parameters, parameter, admitStringified);
+				break;
+			case "openvidu.streams.audio-mixing":
+				String audioMixing = checkString(parameters, parameter);
+				try {
+					AudioMixingMode.valueOf(audioMixing);
+				} catch (IllegalArgumentException e) {
+					throw new Exception("Property 'openvidu.streams.audio-mixing' has not a valid value ('"
+							+ audioMixing + "'). Must be one of " + Arrays.asList(AudioMixingMode.values()));
+				}
+				break;
 			case "kms.uris":
 				String kmsUris;
 				try {
@@ -584,6 +1139,34 @@ public class OpenviduConfig {
 				}
 				stringifiedProperties.setProperty(parameter, webhookEvents);
 				break;
+			case "kms.events.publisher":
+			case "kms.events.subscriber":
+				String kmsEvents;
+				try {
+					// First check if castable to a List
+					List<String> list = checkStringArray(parameters, parameter, admitStringified);
+					String elementString;
+					for (Object element : list) {
+						try {
+							// Check every object is a String value
+							elementString = (String) element;
+						} catch (ClassCastException e) {
+							throw new Exception("Property '" + parameter + "' is an array, but contains a value ("
+									+ element + ") that is not a string: " + e.getMessage());
+						}
+					}
+					kmsEvents = listToQuotedStringifiedArray(list);
+				} catch (Exception e) {
+					// If it is not a list, try casting to String
+					kmsEvents = checkString(parameters, parameter);
+				}
+				try {
+					checkKmsEvents(kmsEvents);
+				} catch (Exception e) {
+					throw new Exception("Property '" + parameter + "' contains a value not valid: " + e.getMessage());
+				}
+				stringifiedProperties.setProperty(parameter, kmsEvents);
+				break;
 			case "openvidu.recording.path":
 				checkStringValidPathFormat(parameters, parameter);
 				break;
@@ -626,6 +1209,20 @@ public class OpenviduConfig {
 					"Property 'openvidu.webhook' set to true requires 'openvidu.webhook.endpoint' to be defined");
 		}
 
+		if (this.getOpenviduStreamsAdaptiveBandwidthMin() > this.getOpenviduStreamsAdaptiveBandwidthMax()) {
+			throw new Exception("Property 'openvidu.streams.adaptive-bandwidth.min' ("
+					+ this.getOpenviduStreamsAdaptiveBandwidthMin()
+					+ ") cannot be greater than 'openvidu.streams.adaptive-bandwidth.max' ("
+					+ this.getOpenviduStreamsAdaptiveBandwidthMax() + ")");
+		}
+
+		if ((this.getKmsBudgetEgressKbps() > 0 || this.getKmsBudgetIngressKbps() > 0)
+				&& this.getKmsBudgetSampleInterval() <= 0) {
+			// Without sampling the reserved bandwidth would never be given back
+			throw new Exception("Property 'kms.budget.sample-interval' must be greater than 0 when "
+					+ "'kms.budget.egress-kbps' or 'kms.budget.ingress-kbps' is set");
+		}
+
 		return stringifiedProperties;
 	}
 
@@ -807,6 +1404,22 @@ public class OpenviduConfig {
 		return eventList;
 	}
 
+	private List<KmsEventType> checkKmsEvents(String events) throws Exception {
+		JsonElement elem = JsonParser.parseString(events);
+		JsonArray eventsJsonArray = elem.getAsJsonArray();
+		List<KmsEventType> eventList = new ArrayList<>();
+
+		for (JsonElement jsonElement : eventsJsonArray) {
+			String eventString = jsonElement.getAsString();
+			try {
+				eventList.add(KmsEventType.valueOf(eventString));
+			} catch (IllegalArgumentException e) {
+				throw new Exception("KMS event '" + eventString + "' does not exist");
+			}
+		}
+		return eventList;
+	}
+
 	public void checkFinalWebHookConfiguration() throws Exception {
 		if (this.isWebhookEnabled()) {
 			if (this.openviduWebhookEndpoint != null) {
@@ -840,6 +1453,10 @@ public class OpenviduConfig {
 			if (OPENVIDU_PROPERTIES.contains("kms.uris")) {
 				kmsUrisList = this.kmsUrisStringToList(this.kmsUris);
 			}
+			kmsEventsPublisherList = this.checkKmsEvents(this.kmsEventsPublisher);
+			kmsEventsSubscriberList = this.checkKmsEvents(this.kmsEventsSubscriber);
+			log.info("KMS events subscribed for publishers: {}", kmsEventsPublisherList);
+			log.info("KMS events subscribed for subscribers: {}", kmsEventsSubscriberList);
 			this.checkFinalWebHookConfiguration();
 		} catch (Exception e) {
 			log.error("Unexpected exception when setting final value of configuration parameters: {}", e.getMessage());
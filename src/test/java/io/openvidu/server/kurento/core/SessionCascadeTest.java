@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.kurento.client.MediaPipeline;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.core.AudioMixingMode;
+import io.openvidu.server.core.Session;
+import io.openvidu.server.kurento.kms.Kms;
+import io.openvidu.server.kurento.kms.KmsProperties;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Places viewers in a cascade whose edge pipelines are created by a fake KMS
+ * that takes some time to answer
+ */
+public class SessionCascadeTest {
+
+	private static final int VIEWERS_PER_KMS = 2;
+
+	private static class FakeConfig extends OpenviduConfig {
+		@Override
+		public AudioMixingMode getOpenviduStreamsAudioMixing() {
+			return AudioMixingMode.NONE;
+		}
+	}
+
+	private static class FakeCascadeManager extends CascadeManager {
+		final List<Kms> kmss = new ArrayList<>();
+
+		@Override
+		public int getViewersPerKms() {
+			return VIEWERS_PER_KMS;
+		}
+
+		@Override
+		public int getMaxEdges() {
+			return 10;
+		}
+
+		@Override
+		public Kms selectEdgeKms(String originKmsId, Set<String> usedKmsIds) {
+			return this.kmss.stream().filter(kms -> !usedKmsIds.contains(kms.getId())).findFirst().orElse(null);
+		}
+	}
+
+	private static class FakeCascade extends SessionCascade {
+		final AtomicInteger pipelinesCreated = new AtomicInteger(0);
+		final boolean fail;
+
+		FakeCascade(KurentoSession session, CascadeManager cascadeManager, boolean fail) {
+			super(session, cascadeManager);
+			this.fail = fail;
+		}
+
+		@Override
+		MediaPipeline createEdgePipeline(Kms kms) {
+			this.pipelinesCreated.incrementAndGet();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (this.fail) {
+				throw new IllegalStateException("KMS " + kms.getId() + " is not reachable");
+			}
+			return fakePipeline(kms.getId() + "/pipeline");
+		}
+	}
+
+	private static MediaPipeline fakePipeline(String id) {
+		return (MediaPipeline) Proxy.newProxyInstance(MediaPipeline.class.getClassLoader(),
+				new Class<?>[] { MediaPipeline.class }, (proxy, method, args) -> {
+					return "getId".equals(method.getName()) ? id : null;
+				});
+	}
+
+	private static Kms fakeKms(String id) {
+		return new Kms(new KmsProperties(id, "ws://" + id + ":8888/kurento"), null);
+	}
+
+	private static FakeCascade newCascade(int edgeKmss, boolean fail) {
+		FakeConfig config = new FakeConfig();
+		Session session = new Session("session", null, config, null);
+		MediaPipeline originPipeline = fakePipeline("origin/pipeline");
+		KurentoSession kSession = new KurentoSession(session, fakeKms("origin"), null, null) {
+			@Override
+			public MediaPipeline getPipeline() {
+				return originPipeline;
+			}
+		};
+		FakeCascadeManager cascadeManager = new FakeCascadeManager();
+		for (int i = 0; i < edgeKmss; i++) {
+			cascadeManager.kmss.add(fakeKms("edge" + i));
+		}
+		return new FakeCascade(kSession, cascadeManager, fail);
+	}
+
+	private static void placeConcurrently(SessionCascade cascade, int firstViewer, int viewers)
+			throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = firstViewer; i < firstViewer + viewers; i++) {
+			String publicId = "viewer" + i;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				cascade.placeViewer(publicId);
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	@Test
+	public void viewersWaitForPendingEdge() throws InterruptedException {
+		FakeCascade cascade = newCascade(5, false);
+		placeConcurrently(cascade, 0, VIEWERS_PER_KMS);
+		assertEquals(0, cascade.pipelinesCreated.get());
+
+		// Two edges are enough for the next four viewers, however fast they arrive
+		placeConcurrently(cascade, VIEWERS_PER_KMS, 2 * VIEWERS_PER_KMS);
+		assertEquals(2, cascade.pipelinesCreated.get());
+
+		JsonObject json = cascade.toJson();
+		assertEquals(VIEWERS_PER_KMS, json.get("originParticipants").getAsLong());
+		assertEquals(2, json.get("edges").getAsJsonArray().size());
+		for (JsonElement edge : json.get("edges").getAsJsonArray()) {
+			assertEquals(VIEWERS_PER_KMS, edge.getAsJsonObject().get("participants").getAsLong());
+		}
+		assertEquals(0, json.get("relayLinks").getAsLong());
+	}
+
+	@Test
+	public void viewersFallBackToOriginIfEdgeFails() throws InterruptedException {
+		FakeCascade cascade = newCascade(1, true);
+		placeConcurrently(cascade, 0, 3 * VIEWERS_PER_KMS);
+
+		// The only edge KMS was tried once, and every viewer ended in the origin
+		assertEquals(1, cascade.pipelinesCreated.get());
+		JsonObject json = cascade.toJson();
+		assertEquals(3 * VIEWERS_PER_KMS, json.get("originParticipants").getAsLong());
+		assertEquals(0, json.get("edges").getAsJsonArray().size());
+	}
+
+	@Test
+	public void placementIsKept() {
+		FakeCascade cascade = newCascade(1, false);
+		for (int i = 0; i < VIEWERS_PER_KMS + 1; i++) {
+			cascade.placeViewer("viewer" + i);
+		}
+		MediaPipeline edgePipeline = cascade.placeViewer("viewer" + VIEWERS_PER_KMS);
+		assertEquals(1, cascade.pipelinesCreated.get());
+		assertEquals(1, cascade.getEdgePipelines().size());
+		assertEquals(edgePipeline.getId(), cascade.getEdgePipelines().get(0).getId());
+
+		cascade.removeViewer("viewer" + VIEWERS_PER_KMS);
+		assertEquals(0, cascade.getEdgePipelines().size());
+	}
+
+}
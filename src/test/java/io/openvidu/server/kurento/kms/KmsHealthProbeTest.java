@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.junit.Test;
+import org.kurento.client.Continuation;
+
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Drives the health probe of a fake KMS whose answers follow a script of
+ * round-trip times
+ */
+public class KmsHealthProbeTest {
+
+	private static final long NO_ANSWER = -1;
+	private static final long FAILURE = -2;
+
+	private static class FakeConfig extends OpenviduConfig {
+		@Override
+		public int getKmsHealthMaxRtt() {
+			return 100;
+		}
+
+		@Override
+		public int getKmsHealthProbesToDegrade() {
+			return 3;
+		}
+
+		@Override
+		public int getKmsHealthProbesToReinstate() {
+			return 2;
+		}
+	}
+
+	private static class ScriptedProbe extends KmsHealthProbe {
+		final Deque<Long> script = new ArrayDeque<>();
+
+		ScriptedProbe(Long... rtts) throws Exception {
+			this.script.addAll(Arrays.asList(rtts));
+			Field config = KmsHealthProbe.class.getDeclaredField("openviduConfig");
+			config.setAccessible(true);
+			config.set(this, new FakeConfig());
+		}
+
+		@Override
+		void sendProbe(Kms kms, Continuation<Long> continuation) {
+			long rtt = this.script.removeFirst();
+			if (rtt == NO_ANSWER) {
+				return;
+			}
+			try {
+				Thread.sleep(rtt == FAILURE ? 0 : rtt);
+				if (rtt == FAILURE) {
+					continuation.onError(new IllegalStateException("KMS error"));
+				} else {
+					continuation.onSuccess(0L);
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static Kms connectedKms() {
+		Kms kms = new Kms(new KmsProperties("kms", "ws://kms:8888/kurento"), null);
+		kms.setKurentoClientConnected(true);
+		return kms;
+	}
+
+	@Test
+	public void degradesAfterConsecutiveSlowProbes() throws Exception {
+		ScriptedProbe probe = new ScriptedProbe(150L, 150L, 0L, 150L, 150L, 150L);
+		Kms kms = connectedKms();
+		for (int i = 0; i < 5; i++) {
+			probe.probe(kms);
+			// A healthy probe resets the count of slow ones
+			assertFalse(kms.isDegraded());
+		}
+		probe.probe(kms);
+		assertTrue(kms.isDegraded());
+	}
+
+	@Test
+	public void reinstatesAfterConsecutiveHealthyProbes() throws Exception {
+		ScriptedProbe probe = new ScriptedProbe(FAILURE, FAILURE, FAILURE, 0L, 150L, 0L, 0L);
+		Kms kms = connectedKms();
+		for (int i = 0; i < 3; i++) {
+			probe.probe(kms);
+		}
+		assertTrue(kms.isDegraded());
+		for (int i = 0; i < 3; i++) {
+			probe.probe(kms);
+			assertTrue(kms.isDegraded());
+		}
+		probe.probe(kms);
+		assertFalse(kms.isDegraded());
+	}
+
+	@Test
+	public void countsUnansweredProbeOnce() throws Exception {
+		ScriptedProbe probe = new ScriptedProbe(NO_ANSWER, NO_ANSWER, NO_ANSWER);
+		Kms kms = connectedKms();
+		// Every unanswered probe is counted as failed by the next round, which does
+		// not send a new probe
+		for (int i = 0; i < 5; i++) {
+			probe.probe(kms);
+			assertFalse(kms.isDegraded());
+		}
+		probe.probe(kms);
+		assertTrue(kms.isDegraded());
+		assertEquals(0, probe.script.size());
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+import io.openvidu.server.core.AudioMixingMode;
+import io.openvidu.server.core.Participant;
+import io.openvidu.server.core.Session;
+import io.openvidu.server.kurento.core.KurentoSession;
+import io.openvidu.server.recording.service.RecordingManager;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Simulates the restart of a KMS hosting sessions of different sizes, some of
+ * them recorded, and checks the order in which they are recovered
+ */
+public class SessionRecoveryManagerTest {
+
+	private static final int WORKERS = 2;
+
+	private static class FakeConfig extends OpenviduConfig {
+		@Override
+		public AudioMixingMode getOpenviduStreamsAudioMixing() {
+			return AudioMixingMode.NONE;
+		}
+
+		@Override
+		public int getOpenviduSessionsRecoveryWorkers() {
+			return WORKERS;
+		}
+	}
+
+	private static class FakeRecordingManager extends RecordingManager {
+		final Set<String> recorded;
+
+		FakeRecordingManager(String... recorded) {
+			this.recorded = new HashSet<>(Arrays.asList(recorded));
+		}
+
+		@Override
+		public boolean sessionIsBeingRecorded(String sessionId) {
+			return this.recorded.contains(sessionId);
+		}
+	}
+
+	private static class FakeSession extends KurentoSession {
+		final int participants;
+		final List<String> recoveryOrder;
+
+		FakeSession(String sessionId, int participants, Kms kms, List<String> recoveryOrder) {
+			super(new Session(sessionId, null, new FakeConfig(), null), kms, null, null);
+			this.participants = participants;
+			this.recoveryOrder = recoveryOrder;
+		}
+
+		@Override
+		public Set<Participant> getParticipants() {
+			return new AbstractSet<Participant>() {
+				@Override
+				public Iterator<Participant> iterator() {
+					return Collections.emptyIterator();
+				}
+
+				@Override
+				public int size() {
+					return participants;
+				}
+			};
+		}
+
+		@Override
+		public void restartStatusInKurento(long kmsDisconnectionTime) {
+			this.recoveryOrder.add(this.getSessionId());
+			try {
+				// Recreating the media of a session takes a while
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void inject(Object target, String fieldName, Object value) throws Exception {
+		Field field = target.getClass().getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private static SessionRecoveryManager newManager(RecordingManager recordingManager) throws Exception {
+		SessionRecoveryManager manager = new SessionRecoveryManager();
+		inject(manager, "openviduConfig", new FakeConfig());
+		inject(manager, "recordingManager", recordingManager);
+		manager.init();
+		return manager;
+	}
+
+	private static void awaitRecovery(SessionRecoveryManager manager) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (manager.toJson().get("pendingSessions").getAsInt() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void recoversRecordedAndLargestSessionsFirst() throws Exception {
+		SessionRecoveryManager manager = newManager(new FakeRecordingManager("recorded-small", "recorded-large"));
+		Kms kms = new Kms(new KmsProperties("kms", "ws://kms:8888/kurento"), null);
+		List<String> recoveryOrder = Collections.synchronizedList(new ArrayList<>());
+		kms.addKurentoSession(new FakeSession("a-small", 2, kms, recoveryOrder));
+		kms.addKurentoSession(new FakeSession("b-medium", 10, kms, recoveryOrder));
+		kms.addKurentoSession(new FakeSession("c-tiny", 1, kms, recoveryOrder));
+		kms.addKurentoSession(new FakeSession("d-large", 50, kms, recoveryOrder));
+		kms.addKurentoSession(new FakeSession("recorded-small", 3, kms, recoveryOrder));
+		kms.addKurentoSession(new FakeSession("recorded-large", 30, kms, recoveryOrder));
+
+		manager.recover(kms, System.currentTimeMillis());
+		awaitRecovery(manager);
+
+		// The first sessions go straight to new workers and the rest wait in the
+		// queue. Every worker takes the next one at the same time
+		List<String> expected = Arrays.asList("recorded-large", "recorded-small", "d-large", "b-medium", "a-small",
+				"c-tiny");
+		assertEquals(expected.size(), recoveryOrder.size());
+		for (int i = 0; i < expected.size(); i += WORKERS) {
+			assertEquals(new HashSet<>(expected.subList(i, i + WORKERS)),
+					new HashSet<>(recoveryOrder.subList(i, i + WORKERS)));
+		}
+
+		JsonObject json = manager.toJson();
+		assertEquals(6, json.get("recoveredSessions").getAsLong());
+		assertEquals(0, json.get("failedSessions").getAsLong());
+		assertEquals(0, json.get("lastRecovery").getAsJsonObject().get("remaining").getAsLong());
+		manager.close();
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.kurento.kms;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SubscriberBandwidthControllerTest {
+
+	@Test
+	public void decreasesOnLoss() {
+		assertEquals(850, SubscriberBandwidthController.nextMaxSendKbps(1000, 0.2, 50, 100, 1000));
+	}
+
+	@Test
+	public void decreasesOnRoundTripTime() {
+		assertEquals(850, SubscriberBandwidthController.nextMaxSendKbps(1000, 0, 500, 100, 1000));
+	}
+
+	@Test
+	public void holdsOnModerateLoss() {
+		assertEquals(500, SubscriberBandwidthController.nextMaxSendKbps(500, 0.05, 50, 100, 1000));
+	}
+
+	@Test
+	public void increasesOnClearNetwork() {
+		assertEquals(540, SubscriberBandwidthController.nextMaxSendKbps(500, 0, 50, 100, 1000));
+	}
+
+	@Test
+	public void increasesAtLeastTheMinimumStep() {
+		assertEquals(110, SubscriberBandwidthController.nextMaxSendKbps(100, 0, 50, 100, 1000));
+	}
+
+	@Test
+	public void clampsToBounds() {
+		assertEquals(1000, SubscriberBandwidthController.nextMaxSendKbps(980, 0, 50, 100, 1000));
+		assertEquals(100, SubscriberBandwidthController.nextMaxSendKbps(110, 0.5, 50, 100, 1000));
+		assertEquals(300, SubscriberBandwidthController.nextMaxSendKbps(850, 0, 50, 100, 300));
+	}
+
+}
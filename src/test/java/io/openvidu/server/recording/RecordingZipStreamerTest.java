@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.openvidu.server.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+/**
+ * Streams the ZIP of a recording folder and reads it back, both as a stream
+ * and through its central directory
+ */
+public class RecordingZipStreamerTest {
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void zipHoldsEveryZippableFile() throws Exception {
+		File folder = Files.createTempDirectory("recording").toFile();
+		byte[] camera = randomBytes(300 * 1024 + 7);
+		byte[] screen = randomBytes(1);
+		byte[] metadata = "{\"files\":[]}".getBytes("UTF-8");
+		Files.write(new File(folder, "str_CAM_1.webm").toPath(), camera);
+		Files.write(new File(folder, "str_SCR_2.webm").toPath(), screen);
+		Files.write(new File(folder, "recording.json").toPath(), metadata);
+		Files.write(new File(folder, "empty.webm").toPath(), new byte[0]);
+		Files.write(new File(folder, ".recording.entity").toPath(), new byte[] { 1 });
+		Files.write(new File(folder, "notes.txt").toPath(), new byte[] { 1 });
+
+		RecordingZipStreamer streamer = new RecordingZipStreamer();
+		List<File> files = streamer.getZippableFiles(folder);
+		assertEquals(4, files.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = streamer.streamZip(files, out);
+		assertEquals(camera.length + screen.length + metadata.length, written);
+		// Media is not compressed again
+		assertTrue(out.size() > written);
+		assertTrue(out.size() < written + 8 * 1024);
+
+		List<String> names = Arrays.asList("empty.webm", "recording.json", "str_CAM_1.webm", "str_SCR_2.webm");
+		List<byte[]> contents = Arrays.asList(new byte[0], metadata, camera, screen);
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			for (int i = 0; i < names.size(); i++) {
+				ZipEntry entry = zip.getNextEntry();
+				assertEquals(names.get(i), entry.getName());
+				assertTrue(Arrays.equals(contents.get(i), readAll(zip)));
+			}
+			assertNull(zip.getNextEntry());
+		}
+
+		File zipFile = new File(folder, "recording.zip");
+		Files.write(zipFile.toPath(), out.toByteArray());
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			assertEquals(names.size(), zip.size());
+			for (int i = 0; i < names.size(); i++) {
+				ZipEntry entry = zip.getEntry(names.get(i));
+				assertEquals(contents.get(i).length, entry.getSize());
+				assertTrue(Arrays.equals(contents.get(i), readAll(zip.getInputStream(entry))));
+			}
+		}
+	}
+
+}
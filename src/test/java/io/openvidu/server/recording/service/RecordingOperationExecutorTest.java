@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.openvidu.server.recording.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.openvidu.client.OpenViduException.Code;
+import io.openvidu.server.core.Session;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Runs recording operations of a session queued and directly, with the closing
+ * lock of the session held as the session close does
+ */
+public class RecordingOperationExecutorTest {
+
+	private static class FakeConfig extends OpenviduConfig {
+		@Override
+		public int getOpenviduRecordingOperationWorkers() {
+			return 2;
+		}
+	}
+
+	private static RecordingOperationExecutor executor() throws Exception {
+		RecordingOperationExecutor executor = new RecordingOperationExecutor();
+		Field field = RecordingOperationExecutor.class.getDeclaredField("openviduConfig");
+		field.setAccessible(true);
+		field.set(executor, new FakeConfig());
+		executor.init();
+		return executor;
+	}
+
+	private static void awaitStarted(RecordingOperationExecutor executor) throws InterruptedException {
+		while (executor.getQueueDepth() > 0) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+	}
+
+	@Test
+	public void directOperationDoesNotWaitForQueuedClosingOperation() throws Exception {
+		RecordingOperationExecutor executor = executor();
+		Session session = new Session("session", null, new FakeConfig(), null);
+		CountDownLatch autostopDone = new CountDownLatch(1);
+
+		// The session is closing: a queued autostop must not hold the session back
+		session.closingLock.writeLock().lock();
+		long elapsed;
+		try {
+			executor.executeClosing(session, "autostop", () -> {
+				session.closingLock.writeLock().lock();
+				session.closingLock.writeLock().unlock();
+				autostopDone.countDown();
+			});
+			awaitStarted(executor);
+
+			long start = System.currentTimeMillis();
+			String result = executor.executeAndWait(session, session.getSessionId(), "force-stop", true,
+					Code.RECORDING_STOP_ERROR_CODE, () -> "stopped");
+			elapsed = System.currentTimeMillis() - start;
+			assertEquals("stopped", result);
+		} finally {
+			session.closingLock.writeLock().unlock();
+		}
+		assertTrue(elapsed < 1000);
+		assertTrue(autostopDone.await(5, TimeUnit.SECONDS));
+		executor.close();
+	}
+
+	@Test
+	public void queuedOperationsRunInOrder() throws Exception {
+		RecordingOperationExecutor executor = executor();
+		Session session = new Session("session", null, new FakeConfig(), null);
+		List<String> runs = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(3);
+
+		executor.execute(session.getSessionId(), "autostart", () -> {
+			runs.add("autostart");
+			done.countDown();
+		});
+		executor.executeClosing(session, "autostop", () -> {
+			runs.add("autostop");
+			done.countDown();
+		});
+		executor.execute(session.getSessionId(), "autostart", () -> {
+			runs.add("autostart");
+			done.countDown();
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(3, runs.size());
+		assertEquals("autostart", runs.get(0));
+		assertEquals("autostop", runs.get(1));
+		assertEquals("autostart", runs.get(2));
+		executor.close();
+	}
+
+}
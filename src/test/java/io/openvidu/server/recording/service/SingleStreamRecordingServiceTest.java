@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.openvidu.server.recording.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.kurento.client.EventListener;
+import org.kurento.client.RecorderEndpoint;
+import org.kurento.client.StoppedEvent;
+
+import io.openvidu.java.client.RecordingProperties;
+import io.openvidu.server.recording.RecorderEndpointWrapper;
+import io.openvidu.server.recording.Recording;
+import io.openvidu.server.recording.RecordingDownloader;
+import net.imicloud.VmeetingServer.OpenviduConfig;
+
+/**
+ * Stops the recorders of sessions with a growing number of publishers against
+ * a fake KMS that answers every stop after a fixed latency, and measures the
+ * total stop time
+ */
+public class SingleStreamRecordingServiceTest {
+
+	private static final long KMS_LATENCY = 100;
+	private static final int RECORDER_TIMEOUT = 2000;
+
+	private static final ScheduledThreadPoolExecutor fakeKms = new ScheduledThreadPoolExecutor(4, r -> {
+		Thread t = new Thread(r, "fake-kms");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static class FakeConfig extends OpenviduConfig {
+		final String recordingPath;
+
+		FakeConfig(String recordingPath) {
+			this.recordingPath = recordingPath;
+		}
+
+		@Override
+		public String getOpenViduRecordingPath() {
+			return this.recordingPath;
+		}
+
+		@Override
+		public int getOpenviduRecordingRecorderThreads() {
+			return 4;
+		}
+
+		@Override
+		public int getOpenviduRecordingRecorderTimeout() {
+			return RECORDER_TIMEOUT;
+		}
+	}
+
+	/**
+	 * A recorder whose stopped event arrives after the latency of the fake KMS, or
+	 * never if it is not answering
+	 */
+	@SuppressWarnings("unchecked")
+	private static RecorderEndpoint fakeRecorder(String id, boolean answering) {
+		EventListener<StoppedEvent>[] stoppedListener = new EventListener[1];
+		RecorderEndpoint[] recorder = new RecorderEndpoint[1];
+		recorder[0] = (RecorderEndpoint) Proxy.newProxyInstance(RecorderEndpoint.class.getClassLoader(),
+				new Class<?>[] { RecorderEndpoint.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getId":
+						return id;
+					case "addStoppedListener":
+						stoppedListener[0] = (EventListener<StoppedEvent>) args[0];
+						return null;
+					case "stop":
+						if (answering) {
+							fakeKms.schedule(() -> stoppedListener[0].onEvent(new StoppedEvent(recorder[0], "0",
+									Long.toString(System.currentTimeMillis()), null, "Stopped")), KMS_LATENCY,
+									TimeUnit.MILLISECONDS);
+						}
+						return null;
+					default:
+						return null;
+					}
+				});
+		return recorder[0];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void register(SingleStreamRecordingService service, String sessionId,
+			RecorderEndpointWrapper... wrappers) throws Exception {
+		for (String fieldName : new String[] { "activeRecorders", "storedRecorders" }) {
+			Field field = SingleStreamRecordingService.class.getDeclaredField(fieldName);
+			field.setAccessible(true);
+			Map<String, RecorderEndpointWrapper> recorders = new ConcurrentHashMap<>();
+			for (RecorderEndpointWrapper wrapper : wrappers) {
+				recorders.put(wrapper.getStreamId(), wrapper);
+			}
+			((Map<String, Map<String, RecorderEndpointWrapper>>) field.get(service)).put(sessionId, recorders);
+		}
+	}
+
+	private static long stop(int publishers, int unanswered, Recording[] result) throws Exception {
+		File recordingPath = Files.createTempDirectory("recordings").toFile();
+		String sessionId = "session" + publishers;
+		String recordingId = sessionId + "~1";
+		new File(recordingPath, recordingId).mkdirs();
+		// Files stay in the fake KMS: nothing to download
+		RecordingDownloader downloader = new RecordingDownloader() {
+			@Override
+			public void downloadRecording(Recording recording, Collection<String> streamIds, Runnable callback) {
+			}
+
+			@Override
+			public void cancelDownload(String recordingId) {
+			}
+		};
+		SingleStreamRecordingService service = new SingleStreamRecordingService(new RecordingManager(), downloader,
+				new FakeConfig(recordingPath.getAbsolutePath() + "/"), null, null);
+
+		RecorderEndpointWrapper[] wrappers = new RecorderEndpointWrapper[publishers];
+		for (int i = 0; i < publishers; i++) {
+			String streamId = "str_CAM_" + i;
+			wrappers[i] = new RecorderEndpointWrapper(fakeRecorder(streamId, i >= unanswered), "con_" + i,
+					recordingId, streamId, "", "", true, true, "CAMERA", "webm");
+		}
+		register(service, sessionId, wrappers);
+		Recording recording = new Recording(sessionId, recordingId, new RecordingProperties.Builder().build());
+
+		long start = System.currentTimeMillis();
+		result[0] = service.stopRecording(null, recording, null, 0);
+		long elapsed = System.currentTimeMillis() - start;
+		service.close();
+		return elapsed;
+	}
+
+	@Test
+	public void stopTimeDoesNotGrowWithPublishers() throws Exception {
+		Recording[] result = new Recording[1];
+		stop(1, 0, result);
+		for (int publishers : new int[] { 1, 8, 32 }) {
+			long elapsed = stop(publishers, 0, result);
+			// One after the other they would take publishers * KMS_LATENCY
+			assertTrue(elapsed < 5 * KMS_LATENCY);
+			assertEquals(io.openvidu.java.client.Recording.Status.started, result[0].getStatus());
+		}
+	}
+
+	@Test
+	public void stragglersShareOneDeadline() throws Exception {
+		Recording[] result = new Recording[1];
+		long elapsed = stop(16, 3, result);
+		// Three recorders never answer: the stop waits for them once, not three times
+		assertTrue(elapsed >= RECORDER_TIMEOUT);
+		assertTrue(elapsed < 2 * RECORDER_TIMEOUT);
+		assertEquals(io.openvidu.java.client.Recording.Status.failed, result[0].getStatus());
+	}
+
+}
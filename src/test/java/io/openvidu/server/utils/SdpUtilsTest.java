@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2017-2020 OpenVidu (https://openvidu.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.openvidu.server.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Forces video codecs on browser-like SDP offers and reads the codecs
+ * negotiated in SDP answers
+ */
+public class SdpUtilsTest {
+
+	private static final String AUDIO_SECTION = String.join("\r\n", "m=audio 9 UDP/TLS/RTP/SAVPF 111 0",
+			"c=IN IP4 0.0.0.0", "a=mid:0", "a=rtpmap:111 opus/48000/2", "a=fmtp:111 minptime=10;useinbandfec=1",
+			"a=rtcp-fb:111 transport-cc", "a=rtpmap:0 PCMU/8000") + "\r\n";
+
+	private static String videoSection(String mid) {
+		return String.join("\r\n", "m=video 9 UDP/TLS/RTP/SAVPF 96 97 102 103", "c=IN IP4 0.0.0.0", "a=mid:" + mid,
+				"a=rtcp-fb:* nack", "a=rtpmap:96 VP8/90000", "a=rtcp-fb:96 goog-remb", "a=rtcp-fb:96 nack pli",
+				"a=rtpmap:97 rtx/90000", "a=fmtp:97 apt=96", "a=rtpmap:102 H264/90000", "a=rtcp-fb:102 goog-remb",
+				"a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f",
+				"a=rtpmap:103 rtx/90000", "a=fmtp:103 apt=102") + "\r\n";
+	}
+
+	private static String offer(String... videoMids) {
+		StringBuilder sdp = new StringBuilder("v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n");
+		sdp.append(AUDIO_SECTION);
+		for (String mid : videoMids) {
+			sdp.append(videoSection(mid));
+		}
+		return sdp.toString();
+	}
+
+	@Test
+	public void forceH264KeepsItsRtx() {
+		String sdp = SdpUtils.forceVideoCodec(offer("1"), "H264");
+		assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 102 103\r\n"));
+		assertTrue(sdp.contains("a=rtpmap:102 H264/90000\r\n"));
+		assertTrue(sdp.contains("a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f"));
+		assertTrue(sdp.contains("a=rtcp-fb:102 goog-remb\r\n"));
+		assertTrue(sdp.contains("a=fmtp:103 apt=102\r\n"));
+		assertTrue(sdp.contains("a=rtcp-fb:* nack\r\n"));
+		assertFalse(sdp.contains("VP8"));
+		assertFalse(sdp.contains("a=rtcp-fb:96"));
+		assertFalse(sdp.contains("a=fmtp:97"));
+		// The audio section is not touched
+		assertTrue(sdp.contains(AUDIO_SECTION));
+		assertEquals("H264", SdpUtils.getNegotiatedCodec(sdp, "video"));
+	}
+
+	@Test
+	public void forceVp8KeepsItsRtx() {
+		String sdp = SdpUtils.forceVideoCodec(offer("1"), "vp8");
+		assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 96 97\r\n"));
+		assertTrue(sdp.contains("a=rtpmap:96 VP8/90000\r\n"));
+		assertTrue(sdp.contains("a=rtcp-fb:96 nack pli\r\n"));
+		assertTrue(sdp.contains("a=fmtp:97 apt=96\r\n"));
+		assertFalse(sdp.contains("H264"));
+		assertFalse(sdp.contains("a=rtpmap:103"));
+		assertTrue(sdp.contains(AUDIO_SECTION));
+		assertEquals("VP8", SdpUtils.getNegotiatedCodec(sdp, "video"));
+	}
+
+	@Test
+	public void offerWithoutTheCodecIsUntouched() {
+		String offer = offer("1");
+		assertSame(offer, SdpUtils.forceVideoCodec(offer, "VP9"));
+		// Neither is an offer without video
+		String audioOnly = "v=0\r\n" + AUDIO_SECTION;
+		assertEquals(audioOnly, SdpUtils.forceVideoCodec(audioOnly, "H264"));
+		assertNull(SdpUtils.forceVideoCodec(null, "H264"));
+	}
+
+	@Test
+	public void everyVideoSectionIsFiltered() {
+		String sdp = SdpUtils.forceVideoCodec(offer("1", "2"), "H264");
+		assertEquals(2, sdp.split("m=video 9 UDP/TLS/RTP/SAVPF 102 103\r\n", -1).length - 1);
+		assertTrue(sdp.contains("a=mid:2\r\n"));
+		assertFalse(sdp.contains("VP8"));
+
+		// One section without the codec: it would be left empty
+		String offer = offer("1") + videoSection("2").replace("H264", "H265");
+		assertSame(offer, SdpUtils.forceVideoCodec(offer, "H264"));
+	}
+
+	@Test
+	public void lineSeparatorIsKept() {
+		String offer = offer("1").replace("\r\n", "\n");
+		String sdp = SdpUtils.forceVideoCodec(offer, "H264");
+		assertFalse(sdp.contains("\r"));
+		assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 102 103\n"));
+	}
+
+	@Test
+	public void negotiatedCodecIsTheFirstPayloadTypeOfTheSection() {
+		String answer = offer("1", "2").replace("SAVPF 96 97 102 103", "SAVPF 102 103 96 97");
+		assertEquals("H264", SdpUtils.getNegotiatedCodec(answer, "video"));
+		assertEquals("OPUS", SdpUtils.getNegotiatedCodec(answer, "audio"));
+		assertNull(SdpUtils.getNegotiatedCodec(answer, "application"));
+		assertNull(SdpUtils.getNegotiatedCodec(null, "video"));
+
+		// Only the first video section counts
+		String mixed = offer("1") + videoSection("2").replace("SAVPF 96 97 102 103", "SAVPF 102 103");
+		assertEquals("VP8", SdpUtils.getNegotiatedCodec(mixed, "video"));
+	}
+
+	@Test
+	public void rejectedOrIncompleteSectionHasNoCodec() {
+		String rejected = offer("1").replace("m=video 9 ", "m=video 0 ");
+		assertNull(SdpUtils.getNegotiatedCodec(rejected, "video"));
+		assertEquals("OPUS", SdpUtils.getNegotiatedCodec(rejected, "audio"));
+
+		// rtpmap of the first payload type missing from its section
+		String incomplete = offer("1", "2").replace("a=rtpmap:96 VP8/90000\r\n", "");
+		assertNull(SdpUtils.getNegotiatedCodec(incomplete, "video"));
+	}
+
+}